@@ -21,6 +21,8 @@ import android.os.Bundle;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
+import de.hu_berlin.informatik.spws2014.mapever.entzerrung.PerspectiveWarp;
+
 public class Settings extends PreferenceActivity {
 	
 	public static final String key_quickHelp = "pref_quick_help";
@@ -28,6 +30,8 @@ public class Settings extends PreferenceActivity {
 	public static final String key_livMultitouch = "pref_liv_multitouch";
 	public static final String key_leastsquares = "pref_leastsquares";
 	public static final String key_debugMode = "pref_debugmode";
+	public static final String key_interpolation = "pref_interpolation";
+	public static final String key_opencvRectifier = "pref_opencv_rectifier";
 	
 	// Ignore deprecation warnings (there are no API 10 compatible alternatives)
 	@SuppressWarnings("deprecation")
@@ -76,6 +80,32 @@ public class Settings extends PreferenceActivity {
 		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(key_leastsquares, false);
 	}
 	
+	/**
+	 * Returns the interpolation mode for deskewing (one of PerspectiveWarp.INTERPOLATION_*).
+	 * 
+	 * @param context Just use 'this'
+	 */
+	public static int getPreference_interpolation(Context context) {
+		String value = PreferenceManager.getDefaultSharedPreferences(context).getString(key_interpolation,
+				String.valueOf(PerspectiveWarp.INTERPOLATION_NEAREST));
+		
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException e) {
+			return PerspectiveWarp.INTERPOLATION_NEAREST;
+		}
+	}
+	
+	/**
+	 * Returns true if images should be deskewed with OpenCV instead of the Java implementation (see OpenCVRectifier).
+	 * 
+	 * @param context Just use 'this'
+	 */
+	public static boolean getPreference_opencvRectifier(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(key_opencvRectifier, false);
+	}
+	
 	/**
 	 * Returns true if debug mode should be activated.
 	 * 
@@ -64,6 +64,8 @@ import de.hu_berlin.informatik.spws2014.ImagePositionLocator.TrackDB;
 import de.hu_berlin.informatik.spws2014.ImagePositionLocator.TrackDBEntry;
 import de.hu_berlin.informatik.spws2014.mapever.camera.CornerDetectionCamera;
 import de.hu_berlin.informatik.spws2014.mapever.entzerrung.Entzerren;
+import de.hu_berlin.informatik.spws2014.mapever.largeimageview.TileCacheManager;
+import de.hu_berlin.informatik.spws2014.mapever.largeimageview.TilePyramid;
 import de.hu_berlin.informatik.spws2014.mapever.navigation.Navigation;
 
 public class Start extends BaseActivity {
@@ -658,6 +660,8 @@ public class Start extends BaseActivity {
 		String basefile = MapEverApp.getAbsoluteFilePath(Long.toString(map.getIdentifier())); 
 		new File(basefile).delete();
 		new File(basefile + MapEverApp.THUMB_EXT).delete();
+		TilePyramid.delete(basefile);
+		TileCacheManager.evict(basefile);
 	}
 	
 	public void renameMap(TrackDBEntry map, String newName) {
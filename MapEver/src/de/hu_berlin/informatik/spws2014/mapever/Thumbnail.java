@@ -22,6 +22,8 @@ import android.media.ThumbnailUtils;
 
 import java.io.FileOutputStream;
 
+import de.hu_berlin.informatik.spws2014.mapever.largeimageview.SampleSizeCalculator;
+
 public class Thumbnail
 {
 	private Thumbnail(){}
@@ -66,18 +68,9 @@ public class Thumbnail
 		options.inJustDecodeBounds = true;
 		BitmapFactory.decodeFile(filename, options);
 		
-		int current_width=options.outWidth, current_height=options.outHeight;
-		int current_sample_size=1;
-		
-		//increase sample size until it produces an image that is too small
-		while(current_width>=thumb_width && current_height>=thumb_height)
-		{
-			current_width/=2;
-			current_height/=2;
-			current_sample_size*=2;
-		}
-		
-		return current_sample_size/2; //last size producing a image >= the desired
+		return SampleSizeCalculator.calculateThumbnailSampleSize(
+			options.outWidth,options.outHeight,thumb_width,thumb_height
+		);
 	}
 	
 	private static String get_thumbnail_filename(String original_filename)
@@ -78,51 +78,8 @@ public class CornerDetector
 	 **/
 	private static Point find_intercept_point(double[] l0, double[] l1)
 	{
-		double denominator = (l0[0] - l0[2]) * (l1[1] - l1[3]) - (l0[1] - l0[3]) * (l1[0] - l1[2]);
-		if (denominator == 0)
-			return new Point(-1, -1);
-		
-		double l0_factor = l0[0] * l0[3] - l0[1] * l0[2];
-		double l1_factor = l1[0] * l1[3] - l1[1] * l1[2];
-		double x = (l0_factor * (l1[0] - l1[2]) - l1_factor * (l0[0] - l0[2])) / denominator;
-		double y = (l0_factor * (l1[1] - l1[3]) - l1_factor * (l0[1] - l0[3])) / denominator; // ugly as hell ;_;
-		
-		return new Point(x, y);
-	}
-	
-	/**
-	 * Calculates the slope of a given line.
-	 * 
-	 * @param line The line, that is two points on it, saved like this: {x0,y0,x1,y1}
-	 * @return The lines slope
-	 **/
-	private static double get_slope(double[] line)
-	{
-		if (Math.abs(line[2] - line[0]) < 0.0000001)
-			return Double.MAX_VALUE;
-		
-		return (line[3] - line[1]) / (line[2] - line[0]);
-	}
-	
-	/**
-	 * Due to lots of false positives close to the images border, this defines what is
-	 * "too close", so that find_lines can reasonably discard those
-	 * 
-	 * @param line The line to be tested
-	 * @param dimensions The images size
-	 * @return true if the line is deemed "too close" to the images border, false otherwise
-	 **/
-	private static boolean too_close(double[] line, Size dimensions)
-	{
-		return line[0] <= dimensions.width * TOO_CLOSE_FRACTION ||
-				line[1] <= dimensions.height * TOO_CLOSE_FRACTION ||
-				line[2] <= dimensions.width * TOO_CLOSE_FRACTION ||
-				line[3] <= dimensions.height * TOO_CLOSE_FRACTION ||
-				
-				line[0] >= dimensions.width * (1.0 - TOO_CLOSE_FRACTION) ||
-				line[1] >= dimensions.height * (1.0 - TOO_CLOSE_FRACTION) ||
-				line[2] >= dimensions.width * (1.0 - TOO_CLOSE_FRACTION) ||
-				line[3] >= dimensions.height * (1.0 - TOO_CLOSE_FRACTION);
+		double point[] = CornerGeometry.find_intercept_point(l0, l1);
+		return new Point(point[0], point[1]);
 	}
 	
 	/**
@@ -137,52 +94,13 @@ public class CornerDetector
 	 **/
 	private static double[][] filter_lines(Mat lines, Size image_dimensions)
 	{
-		double[][] ret_lines = new double[4][4];
-		double min_x = Double.MAX_VALUE, max_x = Double.MIN_VALUE, min_y = Double.MAX_VALUE, max_y = Double.MIN_VALUE;
-		
+		double[][] line_array = new double[lines.cols()][];
 		for (int l = 0; l < lines.cols(); ++l)
-		{
-			double current_line[] = lines.get(0, l);
-			if (too_close(current_line, image_dimensions))
-				continue;
-			
-			double slope = get_slope(current_line);
-			if (Math.abs(slope) <= MAX_SLOPE)
-			{
-				double cl_min_y = Math.min(current_line[1], current_line[3]);
-				double cl_max_y = Math.max(current_line[1], current_line[3]);
-				if (cl_min_y < min_y)
-				{
-					ret_lines[0] = current_line;
-					min_y = cl_min_y;
-				}
-				if (cl_max_y > max_y)
-				{
-					ret_lines[1] = current_line;
-					max_y = cl_max_y;
-				}
-			}
-			else if (Math.abs(1.0 / slope) <= MAX_SLOPE)
-			{
-				double cl_min_x = Math.min(current_line[0], current_line[2]);
-				double cl_max_x = Math.max(current_line[0], current_line[2]);
-				if (cl_min_x < min_x)
-				{
-					ret_lines[2] = current_line;
-					min_x = cl_min_x;
-				}
-				if (cl_max_x > max_x)
-				{
-					ret_lines[3] = current_line;
-					max_x = cl_max_x;
-				}
-			}
-			
-		}
-		return ret_lines;
+			line_array[l] = lines.get(0, l);
+		
+		return CornerGeometry.filter_lines(line_array, image_dimensions.width, image_dimensions.height);
 	}
 	
-	private static final double MAX_SLOPE = 0.3;
 	private static final double THRESHOLD0 = 60,
 			THRESHOLD1 = 200;
 	private static final int APERTURE_SIZE = 3;
@@ -192,6 +110,4 @@ public class CornerDetector
 	private static final int HOUGH_THRESHOLD = 60,
 			MIN_LINE_LENGTH_FRACTION = 4,
 			MAX_LINE_GAP = 10;
-	
-	private static double TOO_CLOSE_FRACTION = 0.0001;
 }
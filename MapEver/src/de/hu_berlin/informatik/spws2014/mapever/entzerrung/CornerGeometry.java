@@ -0,0 +1,190 @@
+/* Copyright (C) 2014,2015 Philipp Lenk, Jan Müller
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.entzerrung;
+
+/**
+ * Geometry helpers of JumbledImage and CornerDetector (corner sorting, line filtering, intersections).
+ * Plain Java without Android or OpenCV types, so that it can be benchmarked on a normal JVM (see MapEverBenchmarks).
+ */
+public final class CornerGeometry
+{
+	private CornerGeometry() {
+	}
+	
+	/**
+	 * Sorts the four corners clockwise (in place).
+	 *
+	 * @param unsorted The four corners as a one dimensional array: {x0,y0,x1,y1,x2,y2,x3,y3}
+	 **/
+	public static void sort_corners(float unsorted[])
+	{
+		assert (unsorted.length == 8);
+		
+		float center_x = (unsorted[0] + unsorted[2] + unsorted[4] + unsorted[6]) / 4;
+		float center_y = (unsorted[1] + unsorted[3] + unsorted[5] + unsorted[7]) / 4;
+		
+		// clockwise bubble sort, yeahy ;-)
+		boolean swapped;
+		do
+		{
+			swapped = false;
+			for (int i = 0; i < 3; ++i)
+			{
+				if (!is_clockwise_turn(unsorted[2 * i], unsorted[2 * i + 1], unsorted[2 * i + 2], unsorted[2 * i + 3],
+						center_x, center_y))
+				{
+					float tmp = unsorted[2 * i];
+					unsorted[2 * i] = unsorted[2 * i + 2];
+					unsorted[2 * i + 2] = tmp;
+					
+					tmp = unsorted[2 * i + 1];
+					unsorted[2 * i + 1] = unsorted[2 * i + 3];
+					unsorted[2 * i + 3] = tmp;
+					
+					swapped = true;
+				}
+			}
+		} while (swapped);
+	}
+	
+	private static boolean is_clockwise_turn(float first_x, float first_y, float second_x, float second_y,
+			float center_x, float center_y)
+	{
+		return (first_x - center_x) * (second_y - center_y) - (second_x - center_x) * (first_y - center_y) > 0;
+	}
+	
+	/**
+	 * Finds the intersection point of 2 given lines. Uses a very ugly formula stolen from Wikipedia, feel free to
+	 * improve the code below ;-)
+	 * Doesnt do proper error handling and returns {-1,-1} with parallel lines.
+	 *
+	 * @param l0 The first line, that is two points on it, saved like this: {x0,y0,x1,y1}
+	 * @param l1 The second line, that is two points on it, saved like this: {x0,y0,x1,y1}
+	 * @return The intersection point between those lines: {x,y}
+	 **/
+	public static double[] find_intercept_point(double[] l0, double[] l1)
+	{
+		double denominator = (l0[0] - l0[2]) * (l1[1] - l1[3]) - (l0[1] - l0[3]) * (l1[0] - l1[2]);
+		if (denominator == 0)
+			return new double[] { -1, -1 };
+		
+		double l0_factor = l0[0] * l0[3] - l0[1] * l0[2];
+		double l1_factor = l1[0] * l1[3] - l1[1] * l1[2];
+		double x = (l0_factor * (l1[0] - l1[2]) - l1_factor * (l0[0] - l0[2])) / denominator;
+		double y = (l0_factor * (l1[1] - l1[3]) - l1_factor * (l0[1] - l0[3])) / denominator; // ugly as hell ;_;
+		
+		return new double[] { x, y };
+	}
+	
+	/**
+	 * Calculates the slope of a given line.
+	 *
+	 * @param line The line, that is two points on it, saved like this: {x0,y0,x1,y1}
+	 * @return The lines slope
+	 **/
+	private static double get_slope(double[] line)
+	{
+		if (Math.abs(line[2] - line[0]) < 0.0000001)
+			return Double.MAX_VALUE;
+		
+		return (line[3] - line[1]) / (line[2] - line[0]);
+	}
+	
+	/**
+	 * Due to lots of false positives close to the images border, this defines what is
+	 * "too close", so that find_lines can reasonably discard those
+	 *
+	 * @param line The line to be tested
+	 * @param width The images width
+	 * @param height The images height
+	 * @return true if the line is deemed "too close" to the images border, false otherwise
+	 **/
+	private static boolean too_close(double[] line, double width, double height)
+	{
+		return line[0] <= width * TOO_CLOSE_FRACTION ||
+				line[1] <= height * TOO_CLOSE_FRACTION ||
+				line[2] <= width * TOO_CLOSE_FRACTION ||
+				line[3] <= height * TOO_CLOSE_FRACTION ||
+				
+				line[0] >= width * (1.0 - TOO_CLOSE_FRACTION) ||
+				line[1] >= height * (1.0 - TOO_CLOSE_FRACTION) ||
+				line[2] >= width * (1.0 - TOO_CLOSE_FRACTION) ||
+				line[3] >= height * (1.0 - TOO_CLOSE_FRACTION);
+	}
+	
+	/**
+	 * Finds the lines closest to the images border within a reasonable range
+	 * of slopes.
+	 *
+	 * Turns out this is sufficient to give acceptable results.
+	 *
+	 * @param lines The lines within the original image, one {x0,y0,x1,y1} per line
+	 * @param width The original image width
+	 * @param height The original image height
+	 * @return 4 lines in the by now well known format of 4 doubles per line: {x0,y0,x1,y1}{x0,y0,x1,y1}...
+	 **/
+	public static double[][] filter_lines(double[][] lines, double width, double height)
+	{
+		double[][] ret_lines = new double[4][4];
+		double min_x = Double.MAX_VALUE, max_x = Double.MIN_VALUE, min_y = Double.MAX_VALUE, max_y = Double.MIN_VALUE;
+		
+		for (int l = 0; l < lines.length; ++l)
+		{
+			double current_line[] = lines[l];
+			if (too_close(current_line, width, height))
+				continue;
+			
+			double slope = get_slope(current_line);
+			if (Math.abs(slope) <= MAX_SLOPE)
+			{
+				double cl_min_y = Math.min(current_line[1], current_line[3]);
+				double cl_max_y = Math.max(current_line[1], current_line[3]);
+				if (cl_min_y < min_y)
+				{
+					ret_lines[0] = current_line;
+					min_y = cl_min_y;
+				}
+				if (cl_max_y > max_y)
+				{
+					ret_lines[1] = current_line;
+					max_y = cl_max_y;
+				}
+			}
+			else if (Math.abs(1.0 / slope) <= MAX_SLOPE)
+			{
+				double cl_min_x = Math.min(current_line[0], current_line[2]);
+				double cl_max_x = Math.max(current_line[0], current_line[2]);
+				if (cl_min_x < min_x)
+				{
+					ret_lines[2] = current_line;
+					min_x = cl_min_x;
+				}
+				if (cl_max_x > max_x)
+				{
+					ret_lines[3] = current_line;
+					max_x = cl_max_x;
+				}
+			}
+			
+		}
+		return ret_lines;
+	}
+	
+	private static final double MAX_SLOPE = 0.3;
+	
+	private static final double TOO_CLOSE_FRACTION = 0.0001;
+}
@@ -21,6 +21,7 @@ import android.graphics.Point;
 import android.graphics.PointF;
 import android.util.Log;
 
+import de.hu_berlin.informatik.spws2014.mapever.BuildConfig;
 import de.hu_berlin.informatik.spws2014.mapever.R;
 import de.hu_berlin.informatik.spws2014.mapever.Settings;
 import de.hu_berlin.informatik.spws2014.mapever.largeimageview.LargeImageView;
@@ -44,6 +45,9 @@ public class CornerIcon extends OverlayIcon {
 	private float dragOriginOffsetX = 0;
 	private float dragOriginOffsetY = 0;
 	
+	// Wiederverwendeter Punkt für die Umrechnung der Touch-Position (bei jedem onDragMove)
+	private final PointF touchImagePos = new PointF();
+	
 	
 	// ////////////////////////////////////////////////////////////////////////
 	// //////////// CONSTRUCTORS
@@ -99,7 +103,8 @@ public class CornerIcon extends OverlayIcon {
 	// ////////////////////////////////////////////////////////////////////////
 	
 	/**
-	 * Gibt Bildkoordinaten des Eckpunktes als Point zurück.
+	 * Gibt Bildkoordinaten des Eckpunktes als Point zurück. (Das Objekt wird bei Positionsänderungen überschrieben,
+	 * zum Aufbewahren also kopieren.)
 	 */
 	public Point getPosition() {
 		return cornerPosition;
@@ -108,10 +113,24 @@ public class CornerIcon extends OverlayIcon {
 	/**
 	 * Setze Bildkoordinaten des Eckpunktes.
 	 * 
-	 * @param position neue Position
+	 * @param position neue Position (wird kopiert)
 	 */
 	public void setPosition(Point position) {
-		cornerPosition = position;
+		setPosition(position.x, position.y);
+	}
+	
+	/**
+	 * Setze Bildkoordinaten des Eckpunktes.
+	 * 
+	 * @param x,y neue Position
+	 */
+	public void setPosition(int x, int y) {
+		if (cornerPosition == null) {
+			cornerPosition = new Point(x, y);
+		}
+		else {
+			cornerPosition.set(x, y);
+		}
 		
 		// Koordinaten auf Bildgröße beschränken
 		if (cornerPosition.x < 0)
@@ -134,7 +153,7 @@ public class CornerIcon extends OverlayIcon {
 	 * @param position neue Position als OpenCV-Point (double-basiert)
 	 */
 	public void setPosition(org.opencv.core.Point position) {
-		setPosition(new Point((int) position.x, (int) position.y));
+		setPosition((int) position.x, (int) position.y);
 	}
 	
 	
@@ -156,16 +175,19 @@ public class CornerIcon extends OverlayIcon {
 		}
 		
 		// Bildschirmkoordinaten in Bildkoordinaten umwandeln
-		PointF imagePos = getParentLIV().screenToImagePosition(screenX, screenY);
+		if (!getParentLIV().screenToImagePosition(screenX, screenY, touchImagePos)) {
+			return false;
+		}
 		
 		// Merke den Angriffspunkt des Drags als Offset (wenn man den Eckpunkt nicht mittig sondern an der Seite
 		// anfässt, dann zieht man den Eckpunkt auch an der Seite, statt dass er automatisch auf die Fingerposition
 		// zentriert wird).
-		dragOriginOffsetX = imagePos.x - getImagePositionX();
-		dragOriginOffsetY = imagePos.y - getImagePositionY();
+		dragOriginOffsetX = touchImagePos.x - getImagePositionX();
+		dragOriginOffsetY = touchImagePos.y - getImagePositionY();
 		
-		// Alte Position des Eckpunkts merken, um sie im Falle eines Drag-Abbruchs zurückzusetzen
-		cornerPosition_preDrag = cornerPosition;
+		// Alte Position des Eckpunkts merken, um sie im Falle eines Drag-Abbruchs zurückzusetzen (als Kopie, da
+		// cornerPosition bei jedem onDragMove überschrieben wird)
+		cornerPosition_preDrag = new Point(cornerPosition);
 		
 		// Starte Drag-Vorgang (merke Pointer-ID, um onDragMove's zu erhalten)
 		startDrag(pointerID);
@@ -176,15 +198,20 @@ public class CornerIcon extends OverlayIcon {
 	
 	@Override
 	public boolean onDragMove(float screenX, float screenY) {
-		Log.d("CornerIcon/onDragMove", "[" + cornerPosition + "] dragging (pointer " + getDragPointerID() + ") on screen pos " + screenX + "/" + screenY);
+		if (BuildConfig.DEBUG) {
+			Log.d("CornerIcon/onDragMove", "[" + cornerPosition + "] dragging (pointer " + getDragPointerID()
+					+ ") on screen pos " + screenX + "/" + screenY);
+		}
 		
 		// Bildschirmkoordinaten in Bildkoordinaten umwandeln
-		PointF imagePos = getParentLIV().screenToImagePosition(screenX, screenY);
+		if (!getParentLIV().screenToImagePosition(screenX, screenY, touchImagePos)) {
+			return true;
+		}
 		
 		// Neue Position des Eckpunktes setzen
-		setPosition(new Point(
-				(int) (imagePos.x - dragOriginOffsetX),
-				(int) (imagePos.y - dragOriginOffsetY)));
+		setPosition(
+				(int) (touchImagePos.x - dragOriginOffsetX),
+				(int) (touchImagePos.y - dragOriginOffsetY));
 		
 		// Eckpunkte sortieren lassen
 		((EntzerrungsView) getParentLIV()).sortCorners();
@@ -30,6 +30,7 @@ import android.view.Surface;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
@@ -41,6 +42,7 @@ import de.hu_berlin.informatik.spws2014.mapever.BaseActivity;
 import de.hu_berlin.informatik.spws2014.mapever.FileUtils;
 import de.hu_berlin.informatik.spws2014.mapever.MapEverApp;
 import de.hu_berlin.informatik.spws2014.mapever.R;
+import de.hu_berlin.informatik.spws2014.mapever.Settings;
 import de.hu_berlin.informatik.spws2014.mapever.navigation.Navigation;
 
 public class Entzerren extends BaseActivity {
@@ -53,6 +55,12 @@ public class Entzerren extends BaseActivity {
 	private static final String INPUTFILENAME = MapEverApp.TEMP_IMAGE_FILENAME;
 	private static final String INPUTFILENAMEBAK = INPUTFILENAME + "_bak";
 	
+	// JPEG-Qualität des entzerrten Bildes
+	private static final int JPEG_QUALITY = 100;
+	
+	// Anteil des Heaps, den die stückweise Entzerrung (StreamingRectifier) höchstens benutzen soll
+	private static final int STREAMING_HEAP_FRACTION = 8;
+	
 	// View references
 	private EntzerrungsView entzerrungsView;
 	private FrameLayout layoutFrame;
@@ -61,6 +69,7 @@ public class Entzerren extends BaseActivity {
 	private boolean entzerrt = false; // ist mindestens einmal entzerrt worden?
 	private boolean tutorial = false; // Quickhelp aktiv?
 	private boolean loading_active = false; // Entzerrungsvorgang aktiv?
+	private EntzerrenTask entzerrenTask = null; // laufender Entzerrungsvorgang (zum Abbrechen)
 	
 	
 	@Override
@@ -166,8 +175,13 @@ public class Entzerren extends BaseActivity {
 	
 	@Override
 	public void onBackPressed() {
-		if (loading_active)
+		// Laufende Entzerrung abbrechen
+		if (loading_active) {
+			if (entzerrenTask != null) {
+				entzerrenTask.cancel(true);
+			}
 			return;
+		}
 		
 		if (entzerrt) {
 			// ersetze das Bild mit dem Backup
@@ -220,7 +234,8 @@ public class Entzerren extends BaseActivity {
 			startLoadingScreen();
 			
 			// Entzerrung in AsyncTask starten
-			new EntzerrenTask().execute();
+			entzerrenTask = new EntzerrenTask();
+			entzerrenTask.execute();
 		}
 		else {
 			// temp_bak löschen
@@ -252,6 +267,19 @@ public class Entzerren extends BaseActivity {
 		}
 	}
 	
+	/**
+	 * Zeigt den Fortschritt der Entzerrung im Ladebildschirm an.
+	 * 
+	 * @param percent Fortschritt in Prozent
+	 */
+	public void setLoadingProgress(int percent) {
+		TextView loadingText = (TextView) layoutFrame.findViewById(R.id.deskewing_loading_text);
+		
+		if (loadingText != null) {
+			loadingText.setText(getString(R.string.deskewing_loading_progress, percent));
+		}
+	}
+	
 	public boolean isLoadingActive() {
 		return loading_active;
 	}
@@ -362,7 +390,7 @@ public class Entzerren extends BaseActivity {
 			FileOutputStream outStream = new FileOutputStream(outFile);
 			
 			// Bitmap komprimiert in Outputstream schreiben
-			bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outStream);
+			bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outStream);
 			
 			outStream.close();
 		}
@@ -387,16 +415,47 @@ public class Entzerren extends BaseActivity {
 	}
 	
 	
-	private class EntzerrenTask extends AsyncTask<Void, Void, String> {
+	private class EntzerrenTask extends AsyncTask<Void, Integer, String> {
 		Bitmap entzerrtesBitmap = null;
 		
+		// Wurde das entzerrte Bild bereits gespeichert (INPUTFILENAME überschrieben)? Dann ist die Entzerrung fertig,
+		// auch wenn sie danach noch abgebrochen wurde (siehe onCancelled()).
+		private volatile boolean imageWritten = false;
+		
+		// Fortschritt der Entzerrung (wird pro fertigem Streifen des Bildes gemeldet)
+		private final ParallelWarp.ProgressListener progressListener = new ParallelWarp.ProgressListener() {
+			@Override
+			public void on_band_finished(int finished_bands, int band_count) {
+				publishProgress(100 * finished_bands / band_count);
+			}
+		};
+		
 		@Override
 		protected String doInBackground(Void... params) {
 			String result = null;
 			
+			// Interpolation beim Entzerren (Einstellung, siehe PerspectiveWarp)
+			int interpolation = Settings.getPreference_interpolation(Entzerren.this);
+			boolean useOpenCV = Settings.getPreference_opencvRectifier(Entzerren.this);
+			
 			try {
-				// TODO nach Möglichkeit ohne große Bitmaps (also streambasierte LargeImage-Version für JumbledImage)
-				// .... (auch saveBitmap ersetzen)
+				// Passt das Bild in voller Auflösung nicht in den Heap, wird es stückweise entzerrt und direkt
+				// gespeichert, statt die SampleSize zu erhöhen.
+				if (!fitsIntoHeap()) {
+					try {
+						String filename = MapEverApp.getAbsoluteFilePath(Entzerren.INPUTFILENAME);
+						long memoryBudget = Runtime.getRuntime().maxMemory() / STREAMING_HEAP_FRACTION;
+						
+						StreamingRectifier.rectify(filename, entzerrungsView.getPointOffsets(1), filename, JPEG_QUALITY,
+								interpolation, memoryBudget, progressListener);
+						imageWritten = true;
+						return null;
+					}
+					catch (IOException e) {
+						// z.B. Format, das BitmapRegionDecoder nicht unterstützt: wie bisher mit Bitmaps versuchen
+						Log.w("EntzerrenTask/doInBackground", "Streaming deskew failed, using bitmaps: " + e);
+					}
+				}
 				
 				int sampleSize = 1;
 				
@@ -404,6 +463,10 @@ public class Entzerren extends BaseActivity {
 				// TODO bessere Methode um initiale SampleSize zu bestimmen, um Zeit zu sparen?
 				// .... (eig. hinfällig mit optimiertem Algorithmus)
 				while (sampleSize <= 32) {
+					if (isCancelled()) {
+						return null;
+					}
+					
 					try {
 						// Punktkoordinaten als float[8] abrufen
 						float coordinates[] = entzerrungsView.getPointOffsets(sampleSize);
@@ -417,7 +480,8 @@ public class Entzerren extends BaseActivity {
 						}
 						
 						// Bitmap entzerren
-						entzerrtesBitmap = JumbledImage.transform(sampledBitmap, coordinates);
+						entzerrtesBitmap = JumbledImage.transform(sampledBitmap, coordinates, interpolation, useOpenCV,
+								progressListener);
 						break;
 					}
 					catch (OutOfMemoryError e) {
@@ -434,19 +498,23 @@ public class Entzerren extends BaseActivity {
 				if (entzerrtesBitmap == null) {
 					Log.e("EntzerrenTask/doInBackground", "Couldn't decode stream after " + sampleSize + " tries!");
 				}
-				else {
-					// entzerrtes Bild abspeichern
-					saveBitmap(entzerrtesBitmap, Entzerren.INPUTFILENAME);
+				else if (!isCancelled()) {
+					// entzerrtes Bild abspeichern (nicht mehr, falls inzwischen abgebrochen wurde: das Original bleibt)
+					imageWritten = saveBitmap(entzerrtesBitmap, Entzerren.INPUTFILENAME);
 				}
 			}
+			catch (InterruptedException e) {
+				// Abgebrochen (cancel()), onPostExecute() wird dann nicht aufgerufen
+				Log.d("EntzerrenTask/doInBackground", "Deskewing cancelled");
+			}
 			catch (OutOfMemoryError e) {
 				result = getResources().getString(R.string.error_outofmemory);
 				e.printStackTrace();
 			}
-			catch (ArrayIndexOutOfBoundsException e) {
-				result = getResources().getString(R.string.deskewing_error_invalidcorners);
-			}
 			catch (IllegalArgumentException e) {
+				// Eckpunkte ergeben kein gültiges Viereck (siehe PerspectiveWarp.get_destination_size() und
+				// rect_to_quad(); Pixel außerhalb des Bildes werden dagegen einfach auf den Rand beschränkt)
+				Log.w("EntzerrenTask/doInBackground", "Invalid corners: " + e.getMessage());
 				result = getResources().getString(R.string.deskewing_error_invalidcorners);
 			}
 			catch (NullPointerException e) {
@@ -460,8 +528,49 @@ public class Entzerren extends BaseActivity {
 			return result;
 		}
 		
+		/**
+		 * Prüft, ob JumbledImage.transform() das Bild in voller Auflösung im noch freien Heap entzerren kann.
+		 */
+		private boolean fitsIntoHeap() {
+			Runtime runtime = Runtime.getRuntime();
+			long availableMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+			
+			long neededMemory = StreamingRectifier.get_in_memory_bytes(entzerrungsView.getImageWidth(),
+					entzerrungsView.getImageHeight(), entzerrungsView.getPointOffsets(1));
+			
+			Log.d("EntzerrenTask/fitsIntoHeap", "Needed: " + neededMemory / 1024 / 1024 + " MB, available: "
+					+ availableMemory / 1024 / 1024 + " MB");
+			
+			return neededMemory < availableMemory;
+		}
+		
+		@Override
+		protected void onProgressUpdate(Integer... progress) {
+			setLoadingProgress(progress[0]);
+		}
+		
+		@Override
+		protected void onCancelled() {
+			// Abbruch erst während oder nach dem Speichern: INPUTFILENAME enthält schon das entzerrte Bild, also wie
+			// eine erfolgreiche Entzerrung behandeln (sonst würde es als Original gelten und mit zurück nicht durch das
+			// Backup ersetzt)
+			if (imageWritten) {
+				onPostExecute(null);
+				return;
+			}
+			
+			entzerrenTask = null;
+			
+			endLoadingScreen();
+			unlockScreenOrientation();
+			
+			entzerrungsView.update();
+		}
+		
 		@Override
 		protected void onPostExecute(String result) {
+			entzerrenTask = null;
+			
 			// execution of result of long time consuming operation
 			if (result != null) {
 				showErrorMessage(result);
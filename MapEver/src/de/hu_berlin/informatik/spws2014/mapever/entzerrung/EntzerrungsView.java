@@ -27,7 +27,6 @@ import android.graphics.Paint;
 import android.graphics.Paint.Style;
 import android.graphics.Path;
 import android.graphics.Point;
-import android.graphics.PointF;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.util.AttributeSet;
@@ -91,6 +90,9 @@ public class EntzerrungsView extends LargeImageView {
 	private Paint white = new Paint();
 	private Path wallpath = new Path();
 	
+	// Wiederverwendetes Array für die Bildschirmpositionen der Ecken (onDraw soll keine Objekte erzeugen)
+	private float[] cornerScreenPoints = new float[2 * CORNERS_COUNT];
+	
 	
 	
 	// ////////////////////////////////////////////////////////////////////////
@@ -129,6 +131,9 @@ public class EntzerrungsView extends LargeImageView {
 		// Set transparency of LIV image
 		setForegroundAlpha(PICTURE_TRANSPARENT);
 		
+		// Verbindungslinien zwischen den Ecken hängen von allen Ecken ab, daher immer die ganze View neu zeichnen
+		setPartialInvalidationEnabled(false);
+		
 		// Paint for background: white square to highlight selected part of the map
 		white.setColor(Color.WHITE);
 		white.setStyle(Style.FILL);
@@ -148,10 +153,10 @@ public class EntzerrungsView extends LargeImageView {
 		// Speichere: "sollen die Ecken angezeigt (= das Bild entzerrt) werden?"
 		bundle.putBoolean(SAVEDSHOWCORNERS, show_corners);
 		
-		// Speichere Positionen der 4 Eckpunkte
+		// Speichere Positionen der 4 Eckpunkte (als Kopie, da die Eckpunkte ihre Points beim Verschieben überschreiben)
 		Point[] cornerPoints = new Point[CORNERS_COUNT];
 		for (int i = 0; i < CORNERS_COUNT; i++) {
-			cornerPoints[i] = corners[i].getPosition();
+			cornerPoints[i] = new Point(corners[i].getPosition());
 		}
 		
 		bundle.putSerializable(SAVEDCORNERS, cornerPoints);
@@ -310,29 +315,24 @@ public class EntzerrungsView extends LargeImageView {
 			
 			// Bildschirmkoordinaten der Punkte ermitteln
 			// (Ecken sind bereits sortiert)
-			PointF[] canvasPoints = new PointF[CORNERS_COUNT];
-			
-			boolean somethingIsNull = false;
-			
-			for (int i = 0; i <= 3; i++) {
-				canvasPoints[i] = corners[i].getScreenPosition();
-				
-				// Sollte eigentlich nie passieren...?
-				if (canvasPoints[i] == null) {
-					somethingIsNull = true;
-					Log.w("EntzerrungsView/onDraw", "the " + i + "-th corner screen positions is null!");
-					break;
-				}
+			for (int i = 0; i < CORNERS_COUNT; i++) {
+				cornerScreenPoints[2 * i] = corners[i].getPosition().x;
+				cornerScreenPoints[2 * i + 1] = corners[i].getPosition().y;
 			}
 			
-			if (!somethingIsNull) {
-				wallpath.moveTo(canvasPoints[0].x, canvasPoints[0].y);
-				wallpath.lineTo(canvasPoints[1].x, canvasPoints[1].y);
-				wallpath.lineTo(canvasPoints[2].x, canvasPoints[2].y);
-				wallpath.lineTo(canvasPoints[3].x, canvasPoints[3].y);
+			// Sollte eigentlich nie fehlschlagen...?
+			if (imageToScreenPoints(cornerScreenPoints)) {
+				
+				wallpath.moveTo(cornerScreenPoints[0], cornerScreenPoints[1]);
+				wallpath.lineTo(cornerScreenPoints[2], cornerScreenPoints[3]);
+				wallpath.lineTo(cornerScreenPoints[4], cornerScreenPoints[5]);
+				wallpath.lineTo(cornerScreenPoints[6], cornerScreenPoints[7]);
 				
 				canvas.drawPath(wallpath, white);
 			}
+			else {
+				Log.w("EntzerrungsView/onDraw", "corner screen positions can't be calculated!");
+			}
 		}
 		
 		// Bild per LargeImageView anzeigen
@@ -522,18 +522,21 @@ public class EntzerrungsView extends LargeImageView {
 	}
 	
 	
+	// Vergleicht Ecken nach y-Koordinate (für sortCorners(), das bei jedem onDragMove aufgerufen wird)
+	private static final Comparator<CornerIcon> CORNER_Y_COMPARATOR = new Comparator<CornerIcon>() {
+		@Override
+		public int compare(CornerIcon lhs, CornerIcon rhs) {
+			// return <0 for lhs<rhs, =0 for lhs=rhs, >0 for lhs>rhs
+			return lhs.getPosition().y - rhs.getPosition().y;
+		}
+	};
+	
 	/**
 	 * Eckpunkte sortieren, um "sinnvolles" Rechteck anzuzeigen. (Wird von CornerIcon.onDragMove() aufgerufen.)
 	 */
 	public void sortCorners() {
 		// Sortiere Ecken erstmal nach y-Koordinate, d.h. Ecke 1 und 2 sind die beiden mit höchsten y-Koordinaten
-		Arrays.sort(corners, new Comparator<CornerIcon>() {
-			@Override
-			public int compare(CornerIcon lhs, CornerIcon rhs) {
-				// return <0 for lhs<rhs, =0 for lhs=rhs, >0 for lhs>rhs
-				return lhs.getPosition().y - rhs.getPosition().y;
-			}
-		});
+		Arrays.sort(corners, CORNER_Y_COMPARATOR);
 		
 		// -- Ecke 1 (links oben): die linkeste Ecke der zwei obersten Ecken
 		// -- Ecke 2 (rechts oben): die andere Ecke der zwei obersten Ecken
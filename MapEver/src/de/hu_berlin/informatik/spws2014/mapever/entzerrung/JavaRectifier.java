@@ -0,0 +1,45 @@
+/* Copyright (C) 2014,2015 Philipp Lenk, Jan Müller
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.entzerrung;
+
+import android.graphics.Bitmap;
+
+/**
+ * Rectifier in plain Java: PerspectiveWarp on the pixels of the Bitmap, on all cores (see ParallelWarp).
+ * Needs the heap memory for the source and the corrected image twice (as Bitmap and as int[]).
+ */
+public class JavaRectifier implements Rectifier
+{
+	@Override
+	public Bitmap rectify(Bitmap jumbled, float corners[], int dest_width, int dest_height, int interpolation,
+			ParallelWarp.ProgressListener listener) throws InterruptedException
+	{
+		// get the image pixels as an array for faster processing
+		int src_pixels[] = new int[jumbled.getWidth() * jumbled.getHeight()];
+		int src_width = jumbled.getWidth();
+		int src_height = jumbled.getHeight();
+		jumbled.getPixels(src_pixels, 0, jumbled.getWidth(), 0, 0, jumbled.getWidth(), jumbled.getHeight());
+		Bitmap.Config conf = jumbled.getConfig();
+		jumbled = null;
+		
+		int pixels[] = ParallelWarp.warp(src_pixels, src_width, src_height, corners, dest_width, dest_height,
+				interpolation, listener);
+		
+		src_pixels = null;
+		return Bitmap.createBitmap(pixels, dest_width, dest_height, conf);
+	}
+}
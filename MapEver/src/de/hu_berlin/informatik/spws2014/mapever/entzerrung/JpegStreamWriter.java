@@ -0,0 +1,544 @@
+/* Copyright (C) 2014,2015 Philipp Lenk, Jan Müller
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.entzerrung;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Baseline JPEG encoder that takes the image row by row, so that the whole image never has to be in memory
+ * (Bitmap.compress() needs a complete Bitmap). Only one row of MCUs (16 rows) is buffered.
+ * Writes YCbCr with 2x2 subsampled chroma (4:2:0, like Bitmap.compress()), the example quantization tables of the
+ * JPEG standard scaled like libjpeg does for the quality and the standard Huffman tables.
+ * Plain Java without Android types, like PerspectiveWarp.
+ */
+public final class JpegStreamWriter
+{
+	// rows (and columns) of an MCU: 2x2 luminance blocks and one block of each chroma component
+	private static final int MCU_SIZE = 16;
+	
+	// natural (row major) index of the coefficients in zigzag order
+	private static final int ZIGZAG[] = {
+			0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+			12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+			35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+			58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+	};
+	
+	// example tables from Annex K.1 of the standard, natural order, quality 50
+	private static final int LUMINANCE_QUANTIZATION[] = {
+			16, 11, 10, 16, 24, 40, 51, 61,
+			12, 12, 14, 19, 26, 58, 60, 55,
+			14, 13, 16, 24, 40, 57, 69, 56,
+			14, 17, 22, 29, 51, 87, 80, 62,
+			18, 22, 37, 56, 68, 109, 103, 77,
+			24, 35, 55, 64, 81, 104, 113, 92,
+			49, 64, 78, 87, 103, 121, 120, 101,
+			72, 92, 95, 98, 112, 100, 103, 99
+	};
+	private static final int CHROMINANCE_QUANTIZATION[] = {
+			17, 18, 24, 47, 99, 99, 99, 99,
+			18, 21, 26, 66, 99, 99, 99, 99,
+			24, 26, 56, 99, 99, 99, 99, 99,
+			47, 66, 99, 99, 99, 99, 99, 99,
+			99, 99, 99, 99, 99, 99, 99, 99,
+			99, 99, 99, 99, 99, 99, 99, 99,
+			99, 99, 99, 99, 99, 99, 99, 99,
+			99, 99, 99, 99, 99, 99, 99, 99
+	};
+	
+	// standard Huffman tables from Annex K.3: number of codes of length 1 to 16, symbols ordered by code
+	private static final int DC_LUMINANCE_BITS[] = { 0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0 };
+	private static final int DC_LUMINANCE_VALUES[] = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+	private static final int DC_CHROMINANCE_BITS[] = { 0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0 };
+	private static final int DC_CHROMINANCE_VALUES[] = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+	private static final int AC_LUMINANCE_BITS[] = { 0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d };
+	private static final int AC_LUMINANCE_VALUES[] = {
+			0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+			0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+			0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+			0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+			0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+			0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+			0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+			0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+			0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+			0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+			0xf9, 0xfa
+	};
+	private static final int AC_CHROMINANCE_BITS[] = { 0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77 };
+	private static final int AC_CHROMINANCE_VALUES[] = {
+			0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+			0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+			0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+			0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+			0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+			0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+			0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+			0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+			0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+			0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+			0xf9, 0xfa
+	};
+	
+	// code and code length for every symbol of the tables above
+	private static final int DC_LUMINANCE_CODES[] = new int[256], DC_LUMINANCE_SIZES[] = new int[256];
+	private static final int DC_CHROMINANCE_CODES[] = new int[256], DC_CHROMINANCE_SIZES[] = new int[256];
+	private static final int AC_LUMINANCE_CODES[] = new int[256], AC_LUMINANCE_SIZES[] = new int[256];
+	private static final int AC_CHROMINANCE_CODES[] = new int[256], AC_CHROMINANCE_SIZES[] = new int[256];
+	
+	static
+	{
+		build_huffman_codes(DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES, DC_LUMINANCE_CODES, DC_LUMINANCE_SIZES);
+		build_huffman_codes(DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES, DC_CHROMINANCE_CODES, DC_CHROMINANCE_SIZES);
+		build_huffman_codes(AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES, AC_LUMINANCE_CODES, AC_LUMINANCE_SIZES);
+		build_huffman_codes(AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES, AC_CHROMINANCE_CODES, AC_CHROMINANCE_SIZES);
+	}
+	
+	// the output of fdct() is scaled by 8 * AAN_SCALE[row] * AAN_SCALE[column], see libjpeg's jfdctflt.c
+	private static final double AAN_SCALE[] = {
+			1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+	};
+	
+	private final OutputStream out;
+	private final int width, height;
+	
+	// quantization tables (natural order) and the factors applied to the fdct() output
+	private final int luminance_table[] = new int[64], chrominance_table[] = new int[64];
+	private final float luminance_divisors[] = new float[64], chrominance_divisors[] = new float[64];
+	
+	// the current row of MCUs as ARGB pixels, right border padded to a multiple of MCU_SIZE
+	private final int padded_width;
+	private final int rows[];
+	private int buffered_rows = 0;
+	private int written_rows = 0;
+	
+	private final float block[] = new float[64];
+	private final int coefficients[] = new int[64];
+	private int previous_dc_y = 0, previous_dc_cb = 0, previous_dc_cr = 0;
+	
+	private final byte buffer[] = new byte[4096];
+	private int buffer_length = 0;
+	private int bit_buffer = 0, bit_count = 0;
+	
+	/**
+	 * Writes the headers of the image to the given stream; the pixels follow with write_rows().
+	 *
+	 * @param out Receives the JPEG file, not closed by finish()
+	 * @param width,height Size of the image (1 to 65535)
+	 * @param quality 1 to 100, like for Bitmap.compress()
+	 **/
+	public JpegStreamWriter(OutputStream out, int width, int height, int quality) throws IOException
+	{
+		if (width < 1 || width > 0xffff || height < 1 || height > 0xffff)
+			throw new IllegalArgumentException("Invalid JPEG size: " + width + "x" + height);
+		
+		this.out = out;
+		this.width = width;
+		this.height = height;
+		
+		padded_width = (width + MCU_SIZE - 1) / MCU_SIZE * MCU_SIZE;
+		rows = new int[padded_width * MCU_SIZE];
+		
+		init_tables(Math.max(1, Math.min(100, quality)));
+		write_headers();
+	}
+	
+	/**
+	 * Appends rows to the image.
+	 *
+	 * @param pixels The rows as ARGB pixels (alpha is ignored)
+	 * @param offset Index of the first pixel of the first row
+	 * @param stride Distance between the first pixels of two rows
+	 * @param row_count Number of rows
+	 **/
+	public void write_rows(int pixels[], int offset, int stride, int row_count) throws IOException
+	{
+		if (written_rows + buffered_rows + row_count > height)
+			throw new IllegalArgumentException("More rows than the height of the image");
+		
+		for (int i = 0; i < row_count; ++i)
+		{
+			int row = buffered_rows * padded_width;
+			System.arraycopy(pixels, offset + i * stride, rows, row, width);
+			
+			// repeat the last column up to the MCU border
+			for (int x = width; x < padded_width; ++x)
+				rows[row + x] = rows[row + width - 1];
+			
+			if (++buffered_rows == MCU_SIZE)
+				encode_buffered_rows();
+		}
+	}
+	
+	/**
+	 * Writes the rest of the image and the end marker. Does not close the stream.
+	 **/
+	public void finish() throws IOException
+	{
+		if (written_rows + buffered_rows != height)
+			throw new IllegalStateException("Only " + (written_rows + buffered_rows) + " of " + height + " rows");
+		
+		if (buffered_rows > 0)
+		{
+			// repeat the last row down to the MCU border
+			for (int y = buffered_rows; y < MCU_SIZE; ++y)
+				System.arraycopy(rows, (buffered_rows - 1) * padded_width, rows, y * padded_width, padded_width);
+			
+			encode_buffered_rows();
+		}
+		
+		// fill the last byte with 1 bits
+		if (bit_count > 0)
+			write_bits(0x7f, 8 - bit_count);
+		
+		write_marker(0xd9); // EOI
+		flush_buffer();
+		out.flush();
+	}
+	
+	private void init_tables(int quality)
+	{
+		// same scaling as libjpeg's jpeg_quality_scaling()
+		int scale = quality < 50 ? 5000 / quality : 200 - 2 * quality;
+		
+		for (int i = 0; i < 64; ++i)
+		{
+			luminance_table[i] = Math.max(1, Math.min(255, (LUMINANCE_QUANTIZATION[i] * scale + 50) / 100));
+			chrominance_table[i] = Math.max(1, Math.min(255, (CHROMINANCE_QUANTIZATION[i] * scale + 50) / 100));
+			
+			double aan = 8 * AAN_SCALE[i / 8] * AAN_SCALE[i % 8];
+			luminance_divisors[i] = (float) (1 / (luminance_table[i] * aan));
+			chrominance_divisors[i] = (float) (1 / (chrominance_table[i] * aan));
+		}
+	}
+	
+	private void write_headers() throws IOException
+	{
+		write_marker(0xd8); // SOI
+		
+		// JFIF APP0, version 1.1, no density, no thumbnail
+		write_marker(0xe0);
+		write_short(16);
+		write_byte('J');
+		write_byte('F');
+		write_byte('I');
+		write_byte('F');
+		write_byte(0);
+		write_byte(1);
+		write_byte(1);
+		write_byte(0);
+		write_short(1);
+		write_short(1);
+		write_byte(0);
+		write_byte(0);
+		
+		// quantization tables 0 and 1, 8 bit, zigzag order
+		write_marker(0xdb);
+		write_short(2 + 2 * 65);
+		write_byte(0);
+		for (int k = 0; k < 64; ++k)
+			write_byte(luminance_table[ZIGZAG[k]]);
+		write_byte(1);
+		for (int k = 0; k < 64; ++k)
+			write_byte(chrominance_table[ZIGZAG[k]]);
+		
+		// SOF0: 8 bit, Y with 2x2 sampling and table 0, Cb and Cr with 1x1 and table 1
+		write_marker(0xc0);
+		write_short(8 + 3 * 3);
+		write_byte(8);
+		write_short(height);
+		write_short(width);
+		write_byte(3);
+		write_byte(1);
+		write_byte(0x22);
+		write_byte(0);
+		write_byte(2);
+		write_byte(0x11);
+		write_byte(1);
+		write_byte(3);
+		write_byte(0x11);
+		write_byte(1);
+		
+		write_marker(0xc4);
+		write_short(2 + 4 * 17 + DC_LUMINANCE_VALUES.length + AC_LUMINANCE_VALUES.length
+				+ DC_CHROMINANCE_VALUES.length + AC_CHROMINANCE_VALUES.length);
+		write_huffman_table(0x00, DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES);
+		write_huffman_table(0x10, AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+		write_huffman_table(0x01, DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES);
+		write_huffman_table(0x11, AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+		
+		// SOS: all three components, Huffman tables 0 for Y and 1 for Cb and Cr, whole spectrum
+		write_marker(0xda);
+		write_short(6 + 2 * 3);
+		write_byte(3);
+		write_byte(1);
+		write_byte(0x00);
+		write_byte(2);
+		write_byte(0x11);
+		write_byte(3);
+		write_byte(0x11);
+		write_byte(0);
+		write_byte(63);
+		write_byte(0);
+	}
+	
+	private void write_huffman_table(int class_and_id, int bits[], int values[]) throws IOException
+	{
+		write_byte(class_and_id);
+		for (int i = 0; i < 16; ++i)
+			write_byte(bits[i]);
+		for (int i = 0; i < values.length; ++i)
+			write_byte(values[i]);
+	}
+	
+	private void encode_buffered_rows() throws IOException
+	{
+		for (int mcu_x = 0; mcu_x < padded_width; mcu_x += MCU_SIZE)
+		{
+			// four luminance blocks
+			for (int block_y = 0; block_y < MCU_SIZE; block_y += 8)
+			{
+				for (int block_x = mcu_x; block_x < mcu_x + MCU_SIZE; block_x += 8)
+				{
+					for (int i = 0; i < 64; ++i)
+					{
+						int pixel = rows[(block_y + i / 8) * padded_width + block_x + i % 8];
+						block[i] = 0.299f * ((pixel >> 16) & 0xff) + 0.587f * ((pixel >> 8) & 0xff)
+								+ 0.114f * (pixel & 0xff) - 128;
+					}
+					
+					previous_dc_y = encode_block(luminance_divisors, DC_LUMINANCE_CODES, DC_LUMINANCE_SIZES,
+							AC_LUMINANCE_CODES, AC_LUMINANCE_SIZES, previous_dc_y);
+				}
+			}
+			
+			// chroma of the mean of 2x2 pixels (the conversion is linear, so this is the mean of the chroma)
+			for (int component = 0; component < 2; ++component)
+			{
+				for (int i = 0; i < 64; ++i)
+				{
+					int index = 2 * (i / 8) * padded_width + mcu_x + 2 * (i % 8);
+					int r = 0, g = 0, b = 0;
+					
+					for (int j = 0; j < 4; ++j)
+					{
+						int pixel = rows[index + (j / 2) * padded_width + j % 2];
+						r += (pixel >> 16) & 0xff;
+						g += (pixel >> 8) & 0xff;
+						b += pixel & 0xff;
+					}
+					
+					if (component == 0)
+						block[i] = (-0.168736f * r - 0.331264f * g + 0.5f * b) / 4;
+					else
+						block[i] = (0.5f * r - 0.418688f * g - 0.081312f * b) / 4;
+				}
+				
+				if (component == 0)
+					previous_dc_cb = encode_block(chrominance_divisors, DC_CHROMINANCE_CODES, DC_CHROMINANCE_SIZES,
+							AC_CHROMINANCE_CODES, AC_CHROMINANCE_SIZES, previous_dc_cb);
+				else
+					previous_dc_cr = encode_block(chrominance_divisors, DC_CHROMINANCE_CODES, DC_CHROMINANCE_SIZES,
+							AC_CHROMINANCE_CODES, AC_CHROMINANCE_SIZES, previous_dc_cr);
+			}
+		}
+		
+		written_rows += buffered_rows;
+		buffered_rows = 0;
+	}
+	
+	/**
+	 * Transforms, quantizes and writes the 8x8 samples in block.
+	 *
+	 * @return The quantized DC coefficient, the prediction for the next block of the component
+	 **/
+	private int encode_block(float divisors[], int dc_codes[], int dc_sizes[], int ac_codes[], int ac_sizes[],
+			int previous_dc) throws IOException
+	{
+		fdct(block);
+		
+		for (int k = 0; k < 64; ++k)
+			coefficients[k] = Math.round(block[ZIGZAG[k]] * divisors[ZIGZAG[k]]);
+		
+		int difference = coefficients[0] - previous_dc;
+		int size = bit_size(difference);
+		write_bits(dc_codes[size], dc_sizes[size]);
+		write_bits(difference < 0 ? difference - 1 : difference, size);
+		
+		int zero_run = 0;
+		
+		for (int k = 1; k < 64; ++k)
+		{
+			int coefficient = coefficients[k];
+			
+			if (coefficient == 0)
+			{
+				++zero_run;
+				continue;
+			}
+			
+			// ZRL: 16 zeros
+			for (; zero_run > 15; zero_run -= 16)
+				write_bits(ac_codes[0xf0], ac_sizes[0xf0]);
+			
+			size = bit_size(coefficient);
+			int symbol = (zero_run << 4) | size;
+			write_bits(ac_codes[symbol], ac_sizes[symbol]);
+			write_bits(coefficient < 0 ? coefficient - 1 : coefficient, size);
+			
+			zero_run = 0;
+		}
+		
+		// EOB: only zeros up to the end
+		if (zero_run > 0)
+			write_bits(ac_codes[0x00], ac_sizes[0x00]);
+		
+		return coefficients[0];
+	}
+	
+	/**
+	 * Forward DCT of 8x8 samples in place (Arai, Agui, Nakajima), same as libjpeg's jfdctflt.c.
+	 **/
+	private static void fdct(float data[])
+	{
+		// rows with step 1, then columns with step 8
+		for (int pass = 0; pass < 2; ++pass)
+		{
+			int step = pass == 0 ? 1 : 8;
+			int next = pass == 0 ? 8 : 1;
+			
+			for (int i = 0, start = 0; i < 8; ++i, start += next)
+			{
+				int p0 = start, p1 = p0 + step, p2 = p1 + step, p3 = p2 + step;
+				int p4 = p3 + step, p5 = p4 + step, p6 = p5 + step, p7 = p6 + step;
+				
+				float tmp0 = data[p0] + data[p7];
+				float tmp7 = data[p0] - data[p7];
+				float tmp1 = data[p1] + data[p6];
+				float tmp6 = data[p1] - data[p6];
+				float tmp2 = data[p2] + data[p5];
+				float tmp5 = data[p2] - data[p5];
+				float tmp3 = data[p3] + data[p4];
+				float tmp4 = data[p3] - data[p4];
+				
+				// even part
+				float tmp10 = tmp0 + tmp3;
+				float tmp13 = tmp0 - tmp3;
+				float tmp11 = tmp1 + tmp2;
+				float tmp12 = tmp1 - tmp2;
+				
+				data[p0] = tmp10 + tmp11;
+				data[p4] = tmp10 - tmp11;
+				
+				float z1 = (tmp12 + tmp13) * 0.707106781f;
+				data[p2] = tmp13 + z1;
+				data[p6] = tmp13 - z1;
+				
+				// odd part
+				tmp10 = tmp4 + tmp5;
+				tmp11 = tmp5 + tmp6;
+				tmp12 = tmp6 + tmp7;
+				
+				float z5 = (tmp10 - tmp12) * 0.382683433f;
+				float z2 = 0.541196100f * tmp10 + z5;
+				float z4 = 1.306562965f * tmp12 + z5;
+				float z3 = tmp11 * 0.707106781f;
+				
+				float z11 = tmp7 + z3;
+				float z13 = tmp7 - z3;
+				
+				data[p5] = z13 + z2;
+				data[p3] = z13 - z2;
+				data[p1] = z11 + z4;
+				data[p7] = z11 - z4;
+			}
+		}
+	}
+	
+	/**
+	 * Number of bits of the magnitude of value (the category of the JPEG standard).
+	 **/
+	private static int bit_size(int value)
+	{
+		return 32 - Integer.numberOfLeadingZeros(value < 0 ? -value : value);
+	}
+	
+	private static void build_huffman_codes(int bits[], int values[], int codes[], int sizes[])
+	{
+		int code = 0;
+		int k = 0;
+		
+		for (int length = 1; length <= 16; ++length)
+		{
+			for (int i = 0; i < bits[length - 1]; ++i, ++k, ++code)
+			{
+				codes[values[k]] = code;
+				sizes[values[k]] = length;
+			}
+			
+			code <<= 1;
+		}
+	}
+	
+	/**
+	 * Appends the lowest count bits of bits to the entropy coded data.
+	 **/
+	private void write_bits(int bits, int count) throws IOException
+	{
+		// only the lowest bit_count + count (at most 7 + 16) bits of bit_buffer are used
+		bit_buffer = (bit_buffer << count) | (bits & ((1 << count) - 1));
+		bit_count += count;
+		
+		while (bit_count >= 8)
+		{
+			bit_count -= 8;
+			int value = (bit_buffer >> bit_count) & 0xff;
+			write_byte(value);
+			
+			// byte stuffing, so that the data can't be mistaken for a marker
+			if (value == 0xff)
+				write_byte(0);
+		}
+	}
+	
+	private void write_marker(int marker) throws IOException
+	{
+		write_byte(0xff);
+		write_byte(marker);
+	}
+	
+	private void write_short(int value) throws IOException
+	{
+		write_byte(value >> 8);
+		write_byte(value);
+	}
+	
+	private void write_byte(int value) throws IOException
+	{
+		if (buffer_length == buffer.length)
+			flush_buffer();
+		
+		buffer[buffer_length++] = (byte) value;
+	}
+	
+	private void flush_buffer() throws IOException
+	{
+		out.write(buffer, 0, buffer_length);
+		buffer_length = 0;
+	}
+}
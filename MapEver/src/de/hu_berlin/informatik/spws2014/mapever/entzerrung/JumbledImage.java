@@ -16,12 +16,19 @@
 
 package de.hu_berlin.informatik.spws2014.mapever.entzerrung;
 
+import org.opencv.core.CvException;
+
 import android.graphics.Bitmap;
-import android.graphics.Matrix;
 import android.util.Log;
 
 public class JumbledImage
 {
+	private static final Rectifier OPENCV_RECTIFIER = new OpenCVRectifier();
+	private static final Rectifier JAVA_RECTIFIER = new JavaRectifier();
+	
+	// false after the OpenCV rectifier failed to load its native library
+	private static volatile boolean opencv_available = true;
+	
 	private JumbledImage() {
 	}
 
@@ -41,10 +48,16 @@ public class JumbledImage
 	 * @param jumbled A Bitmap containing the jumbled fragment. Beware, this will be destroyed!
 	 * @param corners The four corners as a one dimensional array with coordinates in the following order:
 	 *            {x0,y0,x1,y1,x2,y2,x3,y3}
+	 * @param interpolation PerspectiveWarp.INTERPOLATION_NEAREST, _BILINEAR or _BICUBIC
+	 * @param use_opencv Use the OpenCVRectifier instead of the JavaRectifier (falls back to the latter if OpenCV
+	 *            fails; see Settings.getPreference_opencvRectifier())
+	 * @param listener Receives the progress of the correction (see Rectifier), may be null
 	 * @return A Bitmap containing the corrected segment
+	 * @throws InterruptedException If the calling thread was interrupted, e.g. because the user cancelled
 	 **/
 	
-	public static Bitmap transform(Bitmap jumbled, float corners[])
+	public static Bitmap transform(Bitmap jumbled, float corners[], int interpolation, boolean use_opencv,
+			ParallelWarp.ProgressListener listener) throws InterruptedException
 	{
 		Log.d("BITMAP", "" + jumbled.getWidth() + " " + jumbled.getHeight());
 		
@@ -56,100 +69,32 @@ public class JumbledImage
 		Log.d("FLOAT", "post sort: " + corners[0] + " " + corners[1] + " " + corners[2] + " " + corners[3] + " " + corners[4] + " " + corners[5] + " " + corners[6] + " " + corners[7]);
 		
 		
-		//The final image size is average(width) X average(height) of the original image
-		int dest_width =  (int)(
-				Math.sqrt((corners[0]-corners[2])*(corners[0]-corners[2]) + (corners[1]-corners[3])*(corners[1]-corners[3]))+ //top length
-				Math.sqrt((corners[6]-corners[4])*(corners[6]-corners[4]) + (corners[7]-corners[5])*(corners[7]-corners[5])) //bottom length
-			)/2;
-		int dest_height = (int)(
-				Math.sqrt((corners[0]-corners[6])*(corners[0]-corners[6]) + (corners[1]-corners[7])*(corners[1]-corners[7]))+ //left length
-				Math.sqrt((corners[2]-corners[4])*(corners[2]-corners[4]) + (corners[3]-corners[5])*(corners[3]-corners[5])) //right length
-			)/2;
+		int dest_size[] = PerspectiveWarp.get_destination_size(corners);
 		
-		float mapped_corners[] =
+		if (use_opencv && opencv_available)
 		{
-				0, 0,
-				dest_width, 0,
-				dest_width, dest_height,
-				0, dest_height
-		};
-		
-		Matrix m = new Matrix();
-		m.setPolyToPoly(mapped_corners, 0, corners, 0, 4);
-		
-		// get the image pixels as an array for faster processing
-		int src_pixels[] = new int[jumbled.getWidth() * jumbled.getHeight()];
-		int src_width = jumbled.getWidth();
-		jumbled.getPixels(src_pixels, 0, jumbled.getWidth(), 0, 0, jumbled.getWidth(), jumbled.getHeight());
-		Bitmap.Config conf = jumbled.getConfig();
-		jumbled = null;
-		
-		int pixels[] = new int[dest_width * dest_height];
-		float point[] = new float[2];
-		
-		for (int y = 0; y < dest_height; ++y)
-		{
-			for (int x = 0; x < dest_width; ++x)
+			try
 			{
-				point[0] = x;
-				point[1] = y;
-				m.mapPoints(point);
-				pixels[y * dest_width + x] = computeColor(src_pixels, src_width, point);
+				return OPENCV_RECTIFIER.rectify(jumbled, corners, dest_size[0], dest_size[1], interpolation, listener);
 			}
-		}
-		
-		src_pixels = null;
-		return Bitmap.createBitmap(pixels, dest_width, dest_height, conf);
-		
-		// return null;
-	}
-	
-	private static int computeColor(int src[], int stride, float pos[])
-	{
-		// trivial, not-interpolated one:
-		return src[(int) pos[0] + stride * (int) pos[1]];
-	}
-	
-	public static void sort_corners(float unsorted[])
-	{
-		assert (unsorted.length == 8);
-		
-		float center[] = new float[2];
-		center[0] = (unsorted[0] + unsorted[2] + unsorted[4] + unsorted[6]) / 4;
-		center[1] = (unsorted[1] + unsorted[3] + unsorted[5] + unsorted[7]) / 4;
-		
-		// clockwise bubble sort, yeahy ;-)
-		boolean swapped;
-		do
-		{
-			swapped = false;
-			for (int i = 0; i < 3; ++i)
+			catch (UnsatisfiedLinkError e)
+			{
+				// OpenCV couldn't be loaded (see Start), don't try again
+				Log.w("JumbledImage/transform", "OpenCV not available, using the Java rectifier");
+				opencv_available = false;
+			}
+			catch (CvException e)
 			{
-				if (!is_clockwise_turn(
-						new float[] { unsorted[2 * i], unsorted[2 * i + 1] },
-						new float[] { unsorted[2 * i + 2], unsorted[2 * i + 3] },
-					center))
-				{
-					float tmp = unsorted[2 * i];
-					unsorted[2 * i] = unsorted[2 * i + 2];
-					unsorted[2 * i + 2] = tmp;
-					
-					tmp = unsorted[2 * i + 1];
-					unsorted[2 * i + 1] = unsorted[2 * i + 3];
-					unsorted[2 * i + 3] = tmp;
-					
-					swapped = true;
-				}
+				Log.w("JumbledImage/transform", "OpenCV rectifier failed, using the Java rectifier: " + e);
 			}
-		} while (swapped);
+		}
 		
+		return JAVA_RECTIFIER.rectify(jumbled, corners, dest_size[0], dest_size[1], interpolation, listener);
 	}
 	
-	private static boolean is_clockwise_turn(float first[], float second[], float center[])
+	public static void sort_corners(float unsorted[])
 	{
-		assert ((first.length == second.length) && (second.length == center.length) && (center.length == 2));
-		
-		return (first[0] - center[0]) * (second[1] - center[1]) - (second[0] - center[0]) * (first[1] - center[1]) > 0;
+		CornerGeometry.sort_corners(unsorted);
 	}
 	
 }
@@ -0,0 +1,146 @@
+/* Copyright (C) 2014,2015 Philipp Lenk, Jan Müller
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.entzerrung;
+
+import org.opencv.android.Utils;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import android.graphics.Bitmap;
+
+/**
+ * Rectifier using OpenCV's native warpPerspective(). The pixels stay in Mats (native memory) from bitmapToMat() to
+ * matToBitmap(), only the corrected Bitmap is allocated on the heap. Only used if enabled in the settings (see
+ * Settings.getPreference_opencvRectifier()), JavaRectifier is the default:
+ * - INTER_CUBIC uses a = -0.75 instead of the Catmull-Rom kernel (a = -0.5) of PerspectiveWarp, so bicubic results
+ *   are slightly sharper and differ from the Java rectifier.
+ * - The Mats (about 4 bytes per pixel of the source and of the corrected image) live outside the Java heap and are
+ *   not covered by Entzerren's heap check.
+ * The destination is warped in bands of rows like ParallelWarp, to report progress and to stop when the thread is
+ * interrupted. Throws UnsatisfiedLinkError if OpenCV couldn't be loaded (see JumbledImage.transform() for the
+ * fallback).
+ */
+public class OpenCVRectifier implements Rectifier
+{
+	// rows per call of warpPerspective() (between two progress reports and interrupt checks)
+	private static final int BAND_HEIGHT = 256;
+	
+	@Override
+	public Bitmap rectify(Bitmap jumbled, float corners[], int dest_width, int dest_height, int interpolation,
+			ParallelWarp.ProgressListener listener) throws InterruptedException
+	{
+		// Same geometry as PerspectiveWarp: the corners of the destination rectangle are mapped onto the quad.
+		// OpenCV places pixel centers at integer coordinates, so both are shifted by half a pixel, and with
+		// WARP_INVERSE_MAP the matrix is used as it is (destination to source) instead of being inverted.
+		MatOfPoint2f rect_points = new MatOfPoint2f(new Point(-0.5, -0.5), new Point(dest_width - 0.5, -0.5),
+				new Point(dest_width - 0.5, dest_height - 0.5), new Point(-0.5, dest_height - 0.5));
+		MatOfPoint2f quad_points = new MatOfPoint2f(new Point(corners[0] - 0.5, corners[1] - 0.5),
+				new Point(corners[2] - 0.5, corners[3] - 0.5), new Point(corners[4] - 0.5, corners[5] - 0.5),
+				new Point(corners[6] - 0.5, corners[7] - 0.5));
+		
+		Mat src = new Mat();
+		Mat dest = null;
+		Mat transform = null;
+		Mat band_transform = new Mat(3, 3, CvType.CV_64F);
+		
+		try
+		{
+			Utils.bitmapToMat(jumbled, src);
+			dest = new Mat(dest_height, dest_width, src.type());
+			
+			transform = Imgproc.getPerspectiveTransform(rect_points, quad_points);
+			double m[] = new double[9];
+			transform.get(0, 0, m);
+			
+			int flags = get_interpolation_flag(interpolation) | Imgproc.WARP_INVERSE_MAP;
+			int band_count = (dest_height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+			
+			for (int band = 0; band < band_count; ++band)
+			{
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				
+				int first_row = band * BAND_HEIGHT;
+				int end_row = Math.min(dest_height, first_row + BAND_HEIGHT);
+				
+				// row 0 of the band is row first_row of the destination: m * translation(0, first_row)
+				band_transform.put(0, 0, m[0], m[1], m[2] + m[1] * first_row, m[3], m[4], m[5] + m[4] * first_row,
+						m[6], m[7], m[8] + m[7] * first_row);
+				
+				// (the submat has the size and type of the output, so warpPerspective() writes into dest)
+				Mat dest_band = dest.submat(first_row, end_row, 0, dest_width);
+				
+				try
+				{
+					// border pixels are repeated, like the clamping of PerspectiveWarp
+					Imgproc.warpPerspective(src, dest_band, band_transform, new Size(dest_width, end_row - first_row),
+							flags, Imgproc.BORDER_REPLICATE, new Scalar(0));
+				}
+				finally
+				{
+					dest_band.release();
+				}
+				
+				if (listener != null)
+					listener.on_band_finished(band + 1, band_count);
+			}
+			
+			// not needed anymore, make room for the result
+			src.release();
+			
+			Bitmap result = Bitmap.createBitmap(dest_width, dest_height, Bitmap.Config.ARGB_8888);
+			Utils.matToBitmap(dest, result);
+			
+			// only now, the Java rectifier needs the source if OpenCV failed
+			jumbled.recycle();
+			
+			return result;
+		}
+		finally
+		{
+			rect_points.release();
+			quad_points.release();
+			src.release();
+			band_transform.release();
+			
+			if (dest != null)
+				dest.release();
+			
+			if (transform != null)
+				transform.release();
+		}
+	}
+	
+	private static int get_interpolation_flag(int interpolation)
+	{
+		switch (interpolation)
+		{
+			case PerspectiveWarp.INTERPOLATION_BILINEAR:
+				return Imgproc.INTER_LINEAR;
+			case PerspectiveWarp.INTERPOLATION_BICUBIC:
+				// a = -0.75 (PerspectiveWarp: Catmull-Rom, a = -0.5), see above
+				return Imgproc.INTER_CUBIC;
+			default:
+				return Imgproc.INTER_NEAREST;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/* Copyright (C) 2014,2015 Philipp Lenk, Jan Müller
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.entzerrung;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded version of PerspectiveWarp.warp(): the destination image is split into horizontal bands, which are
+ * computed in parallel on a pool with one thread per core. The calling thread waits for the bands, reports the
+ * progress after every finished one and can be interrupted to cancel the rest (e.g. by AsyncTask.cancel(true)).
+ * (ForkJoinPool would be the obvious choice, but is only available from API 21 on.)
+ */
+public final class ParallelWarp
+{
+	/**
+	 * Receives the progress of warp().
+	 */
+	public interface ProgressListener
+	{
+		/**
+		 * Called in the thread that called warp(), after each finished band.
+		 *
+		 * @param finished_bands Number of bands finished so far (1 to band_count)
+		 * @param band_count Number of bands in total
+		 */
+		public void on_band_finished(int finished_bands, int band_count);
+	}
+	
+	// Height of a band in rows. Much smaller than image / cores, so that all threads stay busy until the end (the
+	// bands at the borders of the quadrilateral are cheaper to compute) and the progress is fine grained.
+	private static final int BAND_HEIGHT = 64;
+	
+	// Idle threads of the pool are stopped after this time
+	private static final long WORKER_KEEPALIVE_SECONDS = 10;
+	
+	// Pool shared by all calls (created on first use)
+	private static ThreadPoolExecutor executor = null;
+	
+	private ParallelWarp() {
+	}
+	
+	/**
+	 * Creates the corrected version of the segment within the given corners, like PerspectiveWarp.warp(), using
+	 * all cores.
+	 *
+	 * @param interpolation See PerspectiveWarp.warp()
+	 * @param listener Receives the progress, may be null
+	 * @return The corrected image as ARGB pixels, row by row
+	 * @throws InterruptedException If the calling thread was interrupted (bands not yet started are cancelled)
+	 **/
+	public static int[] warp(final int src_pixels[], final int src_width, final int src_height, float corners[],
+			final int dest_width, int dest_height, final int interpolation, ProgressListener listener)
+			throws InterruptedException
+	{
+		final double m[] = PerspectiveWarp.rect_to_quad(corners, dest_width, dest_height);
+		final int pixels[] = new int[dest_width * dest_height];
+		
+		int band_count = (dest_height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+		
+		ExecutorCompletionService<Void> completion = new ExecutorCompletionService<Void>(get_executor());
+		ArrayList<Future<Void>> bands = new ArrayList<Future<Void>>(band_count);
+		
+		for (int band = 0; band < band_count; ++band)
+		{
+			final int first_row = band * BAND_HEIGHT;
+			final int end_row = Math.min(dest_height, first_row + BAND_HEIGHT);
+			
+			bands.add(completion.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					PerspectiveWarp.warp_rows(src_pixels, src_width, src_height, m, pixels, dest_width, first_row,
+							end_row, interpolation);
+					return null;
+				}
+			}));
+		}
+		
+		try
+		{
+			for (int finished = 1; finished <= band_count; ++finished)
+			{
+				completion.take().get();
+				
+				if (listener != null)
+					listener.on_band_finished(finished, band_count);
+			}
+		}
+		catch (ExecutionException e)
+		{
+			// rethrow what happened in the band (e.g. OutOfMemoryError, so that the caller can retry smaller)
+			Throwable cause = e.getCause();
+			
+			if (cause instanceof Error)
+				throw (Error) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException(cause);
+		}
+		finally
+		{
+			// does nothing if all bands are finished, otherwise skips the waiting ones
+			for (Future<Void> band : bands)
+				band.cancel(false);
+		}
+		
+		return pixels;
+	}
+	
+	/**
+	 * Number of threads used by warp() (one per core).
+	 */
+	public static int get_thread_count()
+	{
+		return Math.max(1, Runtime.getRuntime().availableProcessors());
+	}
+	
+	private static synchronized ThreadPoolExecutor get_executor()
+	{
+		if (executor == null)
+		{
+			int thread_count = get_thread_count();
+			
+			executor = new ThreadPoolExecutor(thread_count, thread_count, WORKER_KEEPALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new WarpThreadFactory());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		
+		return executor;
+	}
+	
+	private static class WarpThreadFactory implements ThreadFactory
+	{
+		private int thread_number = 0;
+		
+		@Override
+		public synchronized Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "WarpWorker-" + thread_number++);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	}
+}
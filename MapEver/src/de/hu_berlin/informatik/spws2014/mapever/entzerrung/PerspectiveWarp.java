@@ -0,0 +1,499 @@
+/* Copyright (C) 2014,2015 Philipp Lenk, Jan Müller
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.entzerrung;
+
+/**
+ * Pixel part of JumbledImage.transform(): maps the destination rectangle onto the (sorted) corner quadrilateral of
+ * the source image and samples every destination pixel from there.
+ * Works on plain int[] ARGB pixel arrays without Android types, so that it can be benchmarked on a normal JVM
+ * (see MapEverBenchmarks).
+ */
+public final class PerspectiveWarp
+{
+	/** Interpolation modes of warp() (also the values of the preference, see Settings) **/
+	public static final int INTERPOLATION_NEAREST = 0;
+	public static final int INTERPOLATION_BILINEAR = 1;
+	public static final int INTERPOLATION_BICUBIC = 2;
+	
+	// Sub-pixel precision of the interpolating modes
+	private static final int SUBPIXEL_BITS = 8;
+	private static final int SUBPIXEL_SCALE = 1 << SUBPIXEL_BITS;
+	private static final int SUBPIXEL_MASK = SUBPIXEL_SCALE - 1;
+	
+	// See to_fixed_point()
+	private static final int FIXED_POINT_OFFSET = 1 << 20;
+	
+	// Catmull-Rom weights of the four pixels for every sub-pixel position, fixed point with sum 1 << CUBIC_WEIGHT_BITS
+	private static final int CUBIC_WEIGHT_BITS = 8;
+	private static final int CUBIC_WEIGHTS[] = compute_cubic_weights();
+	
+	private PerspectiveWarp() {
+	}
+	
+	/**
+	 * The final image size is average(width) X average(height) of the quadrilateral.
+	 *
+	 * @param corners The four corners, sorted clockwise starting top left: {x0,y0,x1,y1,x2,y2,x3,y3}
+	 * @return {dest_width, dest_height}
+	 * @throws IllegalArgumentException If the corners enclose no area (the image would be empty)
+	 **/
+	public static int[] get_destination_size(float corners[])
+	{
+		int dest_width = (int) (
+				Math.sqrt((corners[0]-corners[2])*(corners[0]-corners[2]) + (corners[1]-corners[3])*(corners[1]-corners[3]))+ //top length
+				Math.sqrt((corners[6]-corners[4])*(corners[6]-corners[4]) + (corners[7]-corners[5])*(corners[7]-corners[5])) //bottom length
+			)/2;
+		int dest_height = (int) (
+				Math.sqrt((corners[0]-corners[6])*(corners[0]-corners[6]) + (corners[1]-corners[7])*(corners[1]-corners[7]))+ //left length
+				Math.sqrt((corners[2]-corners[4])*(corners[2]-corners[4]) + (corners[3]-corners[5])*(corners[3]-corners[5])) //right length
+			)/2;
+		
+		if (dest_width < 1 || dest_height < 1)
+		{
+			throw new IllegalArgumentException("Invalid corners, destination size " + dest_width + "x" + dest_height);
+		}
+		
+		return new int[] { dest_width, dest_height };
+	}
+	
+	/**
+	 * Computes the projective transformation (homography) that maps the destination rectangle
+	 * {0,0,width,0,width,height,0,height} onto the given corners, like Matrix.setPolyToPoly() with 4 points.
+	 * Uses the closed form solution for the unit square (Heckbert, "Fundamentals of Texture Mapping", 1989).
+	 *
+	 * @param corners The four corners, sorted clockwise starting top left: {x0,y0,x1,y1,x2,y2,x3,y3}
+	 * @param width,height Size of the destination rectangle
+	 * @return The 3x3 matrix in row major order
+	 * @throws IllegalArgumentException If three of the corners lie on a line (there is no such transformation)
+	 **/
+	public static double[] rect_to_quad(float corners[], int width, int height)
+	{
+		double x0 = corners[0], y0 = corners[1];
+		double x1 = corners[2], y1 = corners[3];
+		double x2 = corners[4], y2 = corners[5];
+		double x3 = corners[6], y3 = corners[7];
+		
+		double dx3 = x0 - x1 + x2 - x3;
+		double dy3 = y0 - y1 + y2 - y3;
+		
+		double g = 0, h = 0;
+		
+		// not a parallelogram, so we need the perspective part
+		if (dx3 != 0 || dy3 != 0)
+		{
+			double dx1 = x1 - x2, dx2 = x3 - x2;
+			double dy1 = y1 - y2, dy2 = y3 - y2;
+			double det = dx1 * dy2 - dx2 * dy1;
+			
+			if (det == 0)
+			{
+				throw new IllegalArgumentException("Invalid corners, no homography for a degenerate quadrilateral");
+			}
+			
+			g = (dx3 * dy2 - dx2 * dy3) / det;
+			h = (dx1 * dy3 - dx3 * dy1) / det;
+		}
+		
+		// unit square to quad, scaled by 1/width and 1/height in front
+		return new double[] {
+				(x1 - x0 + g * x1) / width, (x3 - x0 + h * x3) / height, x0,
+				(y1 - y0 + g * y1) / width, (y3 - y0 + h * y3) / height, y0,
+				g / width, h / height, 1
+		};
+	}
+	
+	/**
+	 * Maps a point with the given homography.
+	 *
+	 * @param m The 3x3 matrix in row major order
+	 * @param x,y The point
+	 * @param out Receives the mapped point: {x,y}
+	 **/
+	public static void map_point(double m[], double x, double y, float out[])
+	{
+		double w = m[6] * x + m[7] * y + m[8];
+		out[0] = (float) ((m[0] * x + m[1] * y + m[2]) / w);
+		out[1] = (float) ((m[3] * x + m[4] * y + m[5]) / w);
+	}
+	
+	/**
+	 * Creates the corrected version of the segment within the given corners (nearest neighbour, see the other
+	 * warp()).
+	 **/
+	public static int[] warp(int src_pixels[], int src_width, int src_height, float corners[], int dest_width,
+			int dest_height)
+	{
+		return warp(src_pixels, src_width, src_height, corners, dest_width, dest_height, INTERPOLATION_NEAREST);
+	}
+	
+	/**
+	 * Creates the corrected version of the segment within the given corners.
+	 * The homography is evaluated incrementally along every scanline: within a row, the numerators and the
+	 * denominator of the mapping are linear in x, so they are advanced by a constant step per pixel (forward
+	 * differencing) instead of doing the full 3x3 multiply for every pixel. Every row starts from the exact values,
+	 * so rounding errors do not accumulate over the image.
+	 *
+	 * @param src_pixels The source image as ARGB pixels, row by row
+	 * @param src_width,src_height Size of the source image
+	 * @param corners The four corners, sorted clockwise starting top left: {x0,y0,x1,y1,x2,y2,x3,y3}
+	 * @param dest_width,dest_height Size of the corrected image (see get_destination_size())
+	 * @param interpolation INTERPOLATION_NEAREST, INTERPOLATION_BILINEAR or INTERPOLATION_BICUBIC
+	 * @return The corrected image as ARGB pixels, row by row
+	 **/
+	public static int[] warp(int src_pixels[], int src_width, int src_height, float corners[], int dest_width,
+			int dest_height, int interpolation)
+	{
+		double m[] = rect_to_quad(corners, dest_width, dest_height);
+		
+		int pixels[] = new int[dest_width * dest_height];
+		warp_rows(src_pixels, src_width, src_height, m, pixels, dest_width, 0, dest_height, interpolation);
+		
+		return pixels;
+	}
+	
+	/**
+	 * Computes the rows first_row (inclusive) to end_row (exclusive) of the corrected image, see warp().
+	 * Rows are independent of each other, so several threads may work on different rows of the same image
+	 * (see ParallelWarp).
+	 *
+	 * @param m The homography from rect_to_quad()
+	 * @param pixels Receives the corrected image as ARGB pixels, row by row
+	 **/
+	static void warp_rows(int src_pixels[], int src_width, int src_height, double m[], int pixels[], int dest_width,
+			int first_row, int end_row, int interpolation)
+	{
+		warp_block(src_pixels, 0, 0, src_width, src_height, m, pixels, first_row * dest_width, dest_width, 0,
+				dest_width, first_row, end_row, interpolation);
+	}
+	
+	/**
+	 * Computes the columns first_col to end_col (exclusive) of the rows first_row to end_row (exclusive) of the
+	 * corrected image, see warp(), from a region of the source image (see StreamingRectifier).
+	 * Source positions are clamped to the region, so it has to contain everything the block maps to (clamped to the
+	 * source image, plus the pixels around it the interpolation reads) to get the same result as from the whole
+	 * image. (If a row is split into several blocks, the interpolating modes may differ by a few color steps, as the
+	 * incremental values of each block start anew.)
+	 *
+	 * @param src_pixels The source region as ARGB pixels, row by row
+	 * @param src_left,src_top Position of the region in the source image
+	 * @param src_width,src_height Size of the region
+	 * @param m The homography from rect_to_quad()
+	 * @param pixels Receives the block as ARGB pixels
+	 * @param dest_offset Index of the pixel (first_col, first_row) in pixels
+	 * @param dest_stride Distance between two rows in pixels
+	 **/
+	static void warp_block(int src_pixels[], int src_left, int src_top, int src_width, int src_height, double m[],
+			int pixels[], int dest_offset, int dest_stride, int first_col, int end_col, int first_row, int end_row,
+			int interpolation)
+	{
+		// the nearest neighbour mode truncates the position of the corner of a pixel (see compute_color()), the
+		// interpolating modes interpolate at the position of its center
+		double center = interpolation == INTERPOLATION_NEAREST ? 0 : 0.5;
+		
+		for (int y = first_row; y < end_row; ++y)
+		{
+			// values at x = first_col, same evaluation order as in map_point()
+			double first_x = first_col + center, row_y = y + center;
+			double x_num = m[0] * first_x + m[1] * row_y + m[2];
+			double y_num = m[3] * first_x + m[4] * row_y + m[5];
+			double w = m[6] * first_x + m[7] * row_y + m[8];
+			int row = dest_offset + (y - first_row) * dest_stride - first_col;
+			
+			// the source position of a pixel is (x_num / w, y_num / w), the numbers are advanced by m[0], m[3] and
+			// m[6] per pixel (the mode is checked per row, so that the loops over the pixels stay simple)
+			switch (interpolation)
+			{
+				case INTERPOLATION_BILINEAR:
+					warp_row_bilinear(src_pixels, src_left, src_top, src_width, src_height, m, x_num, y_num, w,
+							pixels, row, first_col, end_col);
+					break;
+				case INTERPOLATION_BICUBIC:
+					warp_row_bicubic(src_pixels, src_left, src_top, src_width, src_height, m, x_num, y_num, w,
+							pixels, row, first_col, end_col);
+					break;
+				default:
+					warp_row_nearest(src_pixels, src_left, src_top, src_width, src_height, m, x_num, y_num, w,
+							pixels, row, first_col, end_col);
+			}
+		}
+	}
+	
+	private static void warp_row_nearest(int src_pixels[], int src_left, int src_top, int src_width,
+			int src_height, double m[], double x_num, double y_num, double w, int pixels[], int row, int first_col,
+			int end_col)
+	{
+		for (int x = first_col; x < end_col; ++x)
+		{
+			// trivial, not-interpolated one (see compute_color())
+			int src_x = (int) (float) (x_num / w) - src_left;
+			int src_y = (int) (float) (y_num / w) - src_top;
+			src_x = src_x < 0 ? 0 : (src_x >= src_width ? src_width - 1 : src_x);
+			src_y = src_y < 0 ? 0 : (src_y >= src_height ? src_height - 1 : src_y);
+			pixels[row + x] = src_pixels[src_x + src_width * src_y];
+			
+			x_num += m[0];
+			y_num += m[3];
+			w += m[6];
+		}
+	}
+	
+	/**
+	 * Bilinear interpolation between the 2x2 pixels around the source position, with 8 bit fixed point weights.
+	 * Two channels are interpolated at once in the 16 bit halves of an int (see lerp()).
+	 **/
+	private static void warp_row_bilinear(int src_pixels[], int src_left, int src_top, int src_width,
+			int src_height, double m[], double x_num, double y_num, double w, int pixels[], int row, int first_col,
+			int end_col)
+	{
+		for (int x = first_col; x < end_col; ++x)
+		{
+			double inverse_w = 1 / w;
+			int fixed_x = to_fixed_point(x_num * inverse_w) - (src_left << SUBPIXEL_BITS);
+			int fixed_y = to_fixed_point(y_num * inverse_w) - (src_top << SUBPIXEL_BITS);
+			
+			int src_x = fixed_x >> SUBPIXEL_BITS;
+			int src_y = fixed_y >> SUBPIXEL_BITS;
+			int top_left, top_right, bottom_left, bottom_right;
+			
+			if (src_x >= 0 && src_y >= 0 && src_x < src_width - 1 && src_y < src_height - 1)
+			{
+				int index = src_x + src_width * src_y;
+				top_left = src_pixels[index];
+				top_right = src_pixels[index + 1];
+				bottom_left = src_pixels[index + src_width];
+				bottom_right = src_pixels[index + src_width + 1];
+			}
+			else
+			{
+				// at the border of the image
+				int x0 = clamp(src_x, src_width);
+				int x1 = clamp(src_x + 1, src_width);
+				int row0 = clamp(src_y, src_height) * src_width;
+				int row1 = clamp(src_y + 1, src_height) * src_width;
+				top_left = src_pixels[row0 + x0];
+				top_right = src_pixels[row0 + x1];
+				bottom_left = src_pixels[row1 + x0];
+				bottom_right = src_pixels[row1 + x1];
+			}
+			
+			int fraction_x = fixed_x & SUBPIXEL_MASK;
+			int top = lerp(top_left, top_right, fraction_x);
+			int bottom = lerp(bottom_left, bottom_right, fraction_x);
+			pixels[row + x] = lerp(top, bottom, fixed_y & SUBPIXEL_MASK);
+			
+			x_num += m[0];
+			y_num += m[3];
+			w += m[6];
+		}
+	}
+	
+	/**
+	 * Bicubic (Catmull-Rom) interpolation of the 4x4 pixels around the source position, with the weights of the
+	 * 256 sub-pixel positions taken from CUBIC_WEIGHTS.
+	 **/
+	private static void warp_row_bicubic(int src_pixels[], int src_left, int src_top, int src_width,
+			int src_height, double m[], double x_num, double y_num, double w, int pixels[], int row, int first_col,
+			int end_col)
+	{
+		for (int x = first_col; x < end_col; ++x)
+		{
+			double inverse_w = 1 / w;
+			int fixed_x = to_fixed_point(x_num * inverse_w) - (src_left << SUBPIXEL_BITS);
+			int fixed_y = to_fixed_point(y_num * inverse_w) - (src_top << SUBPIXEL_BITS);
+			
+			int src_x = fixed_x >> SUBPIXEL_BITS;
+			int src_y = fixed_y >> SUBPIXEL_BITS;
+			int x0, x1, x2, x3;
+			int row0, row1, row2, row3;
+			
+			if (src_x >= 1 && src_y >= 1 && src_x < src_width - 2 && src_y < src_height - 2)
+			{
+				x0 = src_x - 1;
+				x1 = src_x;
+				x2 = src_x + 1;
+				x3 = src_x + 2;
+				row0 = (src_y - 1) * src_width;
+				row1 = row0 + src_width;
+				row2 = row1 + src_width;
+				row3 = row2 + src_width;
+			}
+			else
+			{
+				// at the border of the image
+				x0 = clamp(src_x - 1, src_width);
+				x1 = clamp(src_x, src_width);
+				x2 = clamp(src_x + 1, src_width);
+				x3 = clamp(src_x + 2, src_width);
+				row0 = clamp(src_y - 1, src_height) * src_width;
+				row1 = clamp(src_y, src_height) * src_width;
+				row2 = clamp(src_y + 1, src_height) * src_width;
+				row3 = clamp(src_y + 2, src_height) * src_width;
+			}
+			
+			int weights_x = (fixed_x & SUBPIXEL_MASK) * 4;
+			int wx0 = CUBIC_WEIGHTS[weights_x];
+			int wx1 = CUBIC_WEIGHTS[weights_x + 1];
+			int wx2 = CUBIC_WEIGHTS[weights_x + 2];
+			int wx3 = CUBIC_WEIGHTS[weights_x + 3];
+			
+			int weights_y = (fixed_y & SUBPIXEL_MASK) * 4;
+			int wy0 = CUBIC_WEIGHTS[weights_y];
+			int wy1 = CUBIC_WEIGHTS[weights_y + 1];
+			int wy2 = CUBIC_WEIGHTS[weights_y + 2];
+			int wy3 = CUBIC_WEIGHTS[weights_y + 3];
+			
+			// filter the four rows horizontally, then sum them up with the vertical weights
+			int p0 = src_pixels[row0 + x0], p1 = src_pixels[row0 + x1];
+			int p2 = src_pixels[row0 + x2], p3 = src_pixels[row0 + x3];
+			int alpha = filter_channel(p0, p1, p2, p3, 24, wx0, wx1, wx2, wx3) * wy0;
+			int red = filter_channel(p0, p1, p2, p3, 16, wx0, wx1, wx2, wx3) * wy0;
+			int green = filter_channel(p0, p1, p2, p3, 8, wx0, wx1, wx2, wx3) * wy0;
+			int blue = filter_channel(p0, p1, p2, p3, 0, wx0, wx1, wx2, wx3) * wy0;
+			
+			p0 = src_pixels[row1 + x0];
+			p1 = src_pixels[row1 + x1];
+			p2 = src_pixels[row1 + x2];
+			p3 = src_pixels[row1 + x3];
+			alpha += filter_channel(p0, p1, p2, p3, 24, wx0, wx1, wx2, wx3) * wy1;
+			red += filter_channel(p0, p1, p2, p3, 16, wx0, wx1, wx2, wx3) * wy1;
+			green += filter_channel(p0, p1, p2, p3, 8, wx0, wx1, wx2, wx3) * wy1;
+			blue += filter_channel(p0, p1, p2, p3, 0, wx0, wx1, wx2, wx3) * wy1;
+			
+			p0 = src_pixels[row2 + x0];
+			p1 = src_pixels[row2 + x1];
+			p2 = src_pixels[row2 + x2];
+			p3 = src_pixels[row2 + x3];
+			alpha += filter_channel(p0, p1, p2, p3, 24, wx0, wx1, wx2, wx3) * wy2;
+			red += filter_channel(p0, p1, p2, p3, 16, wx0, wx1, wx2, wx3) * wy2;
+			green += filter_channel(p0, p1, p2, p3, 8, wx0, wx1, wx2, wx3) * wy2;
+			blue += filter_channel(p0, p1, p2, p3, 0, wx0, wx1, wx2, wx3) * wy2;
+			
+			p0 = src_pixels[row3 + x0];
+			p1 = src_pixels[row3 + x1];
+			p2 = src_pixels[row3 + x2];
+			p3 = src_pixels[row3 + x3];
+			alpha += filter_channel(p0, p1, p2, p3, 24, wx0, wx1, wx2, wx3) * wy3;
+			red += filter_channel(p0, p1, p2, p3, 16, wx0, wx1, wx2, wx3) * wy3;
+			green += filter_channel(p0, p1, p2, p3, 8, wx0, wx1, wx2, wx3) * wy3;
+			blue += filter_channel(p0, p1, p2, p3, 0, wx0, wx1, wx2, wx3) * wy3;
+			
+			pixels[row + x] = (to_channel(alpha) << 24) | (to_channel(red) << 16) | (to_channel(green) << 8)
+					| to_channel(blue);
+			
+			x_num += m[0];
+			y_num += m[3];
+			w += m[6];
+		}
+	}
+	
+	/**
+	 * Source position in 8 bit fixed point, relative to the pixel centers (so that the integer part is the pixel
+	 * left of / above the position). The offset keeps the cast from rounding towards zero for positions slightly
+	 * outside the image; positions further outside end up clamped anyway.
+	 **/
+	private static int to_fixed_point(double position)
+	{
+		return (int) ((position - 0.5) * SUBPIXEL_SCALE + FIXED_POINT_OFFSET) - FIXED_POINT_OFFSET;
+	}
+	
+	private static int clamp(int value, int size)
+	{
+		return value < 0 ? 0 : (value >= size ? size - 1 : value);
+	}
+	
+	/**
+	 * Interpolates all four channels of a and b with 8 bit weight t (0 to 256): red and blue in the two 16 bit
+	 * halves of one int, alpha and green in another one. Each product fits into its half, as 255 * 256 < 2^16.
+	 **/
+	private static int lerp(int a, int b, int t)
+	{
+		int s = SUBPIXEL_SCALE - t;
+		int red_blue = (((a & 0xff00ff) * s + (b & 0xff00ff) * t) >>> SUBPIXEL_BITS) & 0xff00ff;
+		int alpha_green = (((a >>> 8) & 0xff00ff) * s + ((b >>> 8) & 0xff00ff) * t) & 0xff00ff00;
+		return alpha_green | red_blue;
+	}
+	
+	private static int filter_channel(int p0, int p1, int p2, int p3, int shift, int w0, int w1, int w2, int w3)
+	{
+		return ((p0 >>> shift) & 0xff) * w0 + ((p1 >>> shift) & 0xff) * w1 + ((p2 >>> shift) & 0xff) * w2
+				+ ((p3 >>> shift) & 0xff) * w3;
+	}
+	
+	/**
+	 * Rounds a channel value weighted twice with CUBIC_WEIGHTS back to 0 to 255 (Catmull-Rom overshoots at edges).
+	 **/
+	private static int to_channel(int value)
+	{
+		value = (value + (1 << (2 * CUBIC_WEIGHT_BITS - 1))) >> (2 * CUBIC_WEIGHT_BITS);
+		return value < 0 ? 0 : (value > 255 ? 255 : value);
+	}
+	
+	private static int[] compute_cubic_weights()
+	{
+		int weights[] = new int[SUBPIXEL_SCALE * 4];
+		int one = 1 << CUBIC_WEIGHT_BITS;
+		
+		for (int i = 0; i < SUBPIXEL_SCALE; ++i)
+		{
+			double t = (double) i / SUBPIXEL_SCALE;
+			double t2 = t * t, t3 = t2 * t;
+			
+			int w0 = (int) Math.round(one * (-t3 + 2 * t2 - t) / 2);
+			int w2 = (int) Math.round(one * (-3 * t3 + 4 * t2 + t) / 2);
+			int w3 = (int) Math.round(one * (t3 - t2) / 2);
+			
+			weights[4 * i] = w0;
+			weights[4 * i + 1] = one - w0 - w2 - w3; // (3t^3 - 5t^2 + 2) / 2, rounded so that the sum is exact
+			weights[4 * i + 2] = w2;
+			weights[4 * i + 3] = w3;
+		}
+		
+		return weights;
+	}
+	
+	/**
+	 * Like warp(), but maps every destination pixel separately with map_point(). Slower, only kept as reference for
+	 * the results and speed of warp() (see MapEverBenchmarks).
+	 **/
+	public static int[] warp_per_pixel(int src_pixels[], int src_width, int src_height, float corners[],
+			int dest_width, int dest_height)
+	{
+		double m[] = rect_to_quad(corners, dest_width, dest_height);
+		
+		int pixels[] = new int[dest_width * dest_height];
+		float point[] = new float[2];
+		
+		for (int y = 0; y < dest_height; ++y)
+		{
+			for (int x = 0; x < dest_width; ++x)
+			{
+				map_point(m, x, y, point);
+				pixels[y * dest_width + x] = compute_color(src_pixels, src_width, src_height, point);
+			}
+		}
+		
+		return pixels;
+	}
+	
+	private static int compute_color(int src[], int width, int height, float pos[])
+	{
+		// trivial, not-interpolated one (clamped, rounding errors at the border may leave the image):
+		int x = Math.min(Math.max((int) pos[0], 0), width - 1);
+		int y = Math.min(Math.max((int) pos[1], 0), height - 1);
+		return src[x + width * y];
+	}
+}
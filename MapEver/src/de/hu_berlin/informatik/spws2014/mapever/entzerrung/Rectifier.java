@@ -0,0 +1,40 @@
+/* Copyright (C) 2014,2015 Philipp Lenk, Jan Müller
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.entzerrung;
+
+import android.graphics.Bitmap;
+
+/**
+ * An engine that creates the corrected version of a segment of an image (see JumbledImage.transform(), which picks
+ * the engine: JavaRectifier by default, OpenCVRectifier if enabled in the settings and OpenCV is available).
+ */
+public interface Rectifier
+{
+	/**
+	 * Creates the corrected version of the segment within the given corners.
+	 * 
+	 * @param jumbled A Bitmap containing the jumbled fragment. May be recycled, but only if the correction succeeded.
+	 * @param corners The four corners, sorted clockwise starting top left: {x0,y0,x1,y1,x2,y2,x3,y3}
+	 * @param dest_width,dest_height Size of the corrected image (see PerspectiveWarp.get_destination_size())
+	 * @param interpolation PerspectiveWarp.INTERPOLATION_NEAREST, _BILINEAR or _BICUBIC
+	 * @param listener Receives the progress, may be null
+	 * @return A Bitmap containing the corrected segment
+	 * @throws InterruptedException If the calling thread was interrupted, e.g. because the user cancelled
+	 **/
+	public Bitmap rectify(Bitmap jumbled, float corners[], int dest_width, int dest_height, int interpolation,
+			ParallelWarp.ProgressListener listener) throws InterruptedException;
+}
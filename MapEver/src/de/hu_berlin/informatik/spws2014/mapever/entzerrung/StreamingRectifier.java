@@ -0,0 +1,276 @@
+/* Copyright (C) 2014,2015 Philipp Lenk, Jan Müller
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.entzerrung;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.util.Log;
+
+/**
+ * Version of JumbledImage.transform() for images that don't fit into the heap: neither the source nor the corrected
+ * image is ever held completely in memory.
+ * The corrected image is computed in bands of rows. For every band (or smaller blocks of it, if the band covers too
+ * much of the source image) only the bounding box of the source pixels it maps to is decoded with a
+ * BitmapRegionDecoder, and finished bands are encoded right away with a JpegStreamWriter. So the memory needed is
+ * bounded by the given budget instead of growing with the image size.
+ */
+public final class StreamingRectifier
+{
+	// Height of a band in rows (a multiple of the 16 rows JpegStreamWriter encodes at once)
+	private static final int BAND_HEIGHT = 64;
+	
+	// Extra pixels around the bounding box of a block: the bicubic interpolation reads up to 2 pixels beyond the
+	// source position, plus one against rounding errors at the border
+	private static final int REGION_MARGIN = 3;
+	
+	// A decoded region is held twice: as ARGB_8888 Bitmap and as int[] for PerspectiveWarp
+	private static final int BYTES_PER_REGION_PIXEL = 8;
+	
+	// Lower bound for the memory of a decoded region, even if the band alone uses up the budget
+	private static final long MIN_REGION_BYTES = 1024 * 1024;
+	
+	private final BitmapRegionDecoder decoder;
+	private final BitmapFactory.Options options = new BitmapFactory.Options();
+	private final int src_width, src_height;
+	
+	private final double m[];
+	private final int dest_width, dest_height;
+	
+	private final int interpolation;
+	private final long max_region_bytes;
+	
+	// Pixels of the last decoded region (reused if large enough)
+	private int region_pixels[] = new int[0];
+	
+	private final Rect region = new Rect();
+	private final float point[] = new float[2];
+	
+	private StreamingRectifier(BitmapRegionDecoder decoder, float corners[], int dest_width, int dest_height,
+			int interpolation, long memory_budget)
+	{
+		this.decoder = decoder;
+		src_width = decoder.getWidth();
+		src_height = decoder.getHeight();
+		
+		this.dest_width = dest_width;
+		this.dest_height = dest_height;
+		m = PerspectiveWarp.rect_to_quad(corners, dest_width, dest_height);
+		this.interpolation = interpolation;
+		
+		// the band buffer and the row buffer of the JpegStreamWriter are needed anyway
+		long fixed_bytes = 4L * dest_width * (BAND_HEIGHT + 16);
+		max_region_bytes = Math.max(MIN_REGION_BYTES, memory_budget - fixed_bytes);
+		
+		options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+	}
+	
+	/**
+	 * Creates the corrected version of the segment within the given corners of an image file, like
+	 * JumbledImage.transform(), and saves it as JPEG. The source file may be the destination file as well, the result
+	 * is written to a temporary file first.
+	 *
+	 * @param src_filename The jumbled image (a format BitmapRegionDecoder supports: JPEG or PNG)
+	 * @param corners The four corners in pixels of the source image: {x0,y0,x1,y1,x2,y2,x3,y3} (will be sorted)
+	 * @param dest_filename Receives the corrected image
+	 * @param quality JPEG quality (1 to 100)
+	 * @param interpolation See PerspectiveWarp.warp()
+	 * @param memory_budget Approximate memory in bytes to use for decoded source regions and buffers
+	 * @param listener Receives the progress after every band, may be null
+	 * @throws IOException If the source can't be decoded or the destination can't be written
+	 * @throws InterruptedException If the calling thread was interrupted, e.g. because the user cancelled
+	 **/
+	public static void rectify(String src_filename, float corners[], String dest_filename, int quality,
+			int interpolation, long memory_budget, ParallelWarp.ProgressListener listener) throws IOException,
+			InterruptedException
+	{
+		CornerGeometry.sort_corners(corners);
+		int dest_size[] = PerspectiveWarp.get_destination_size(corners);
+		
+		BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(src_filename, false);
+		
+		File dest_file = new File(dest_filename);
+		File temp_file = new File(dest_filename + ".part");
+		boolean written = false;
+		
+		Log.d("StreamingRectifier/rectify", "Rectifying " + decoder.getWidth() + "x" + decoder.getHeight() + " to "
+				+ dest_size[0] + "x" + dest_size[1] + " with a budget of " + memory_budget / 1024 + " KB");
+		
+		try
+		{
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(temp_file));
+			
+			try
+			{
+				StreamingRectifier rectifier = new StreamingRectifier(decoder, corners, dest_size[0], dest_size[1],
+						interpolation, memory_budget);
+				rectifier.write(new JpegStreamWriter(out, dest_size[0], dest_size[1], quality), listener);
+			}
+			finally
+			{
+				out.close();
+			}
+			
+			// Cancelled while finishing the file: keep the original (the caller treats a normal return as written)
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			
+			if (!temp_file.renameTo(dest_file))
+				throw new IOException("Couldn't rename " + temp_file + " to " + dest_file);
+			
+			written = true;
+		}
+		finally
+		{
+			decoder.recycle();
+			
+			if (!written)
+				temp_file.delete();
+		}
+	}
+	
+	/**
+	 * Heap memory in bytes that JumbledImage.transform() needs for an image of the given size (source and corrected
+	 * image, each as Bitmap and as int[]), to decide whether rectify() is necessary.
+	 *
+	 * @param corners The four corners in pixels of the source image (not modified)
+	 **/
+	public static long get_in_memory_bytes(int src_width, int src_height, float corners[])
+	{
+		float sorted[] = corners.clone();
+		CornerGeometry.sort_corners(sorted);
+		int dest_size[] = PerspectiveWarp.get_destination_size(sorted);
+		
+		return 8L * src_width * src_height + 8L * dest_size[0] * dest_size[1];
+	}
+	
+	private void write(JpegStreamWriter writer, ParallelWarp.ProgressListener listener) throws IOException,
+			InterruptedException
+	{
+		int band[] = new int[dest_width * Math.min(BAND_HEIGHT, dest_height)];
+		int band_count = (dest_height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+		
+		for (int band_index = 0; band_index < band_count; ++band_index)
+		{
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			
+			int first_row = band_index * BAND_HEIGHT;
+			int end_row = Math.min(dest_height, first_row + BAND_HEIGHT);
+			
+			warp_block(band, first_row, 0, dest_width, first_row, end_row);
+			writer.write_rows(band, 0, dest_width, end_row - first_row);
+			
+			if (listener != null)
+				listener.on_band_finished(band_index + 1, band_count);
+		}
+		
+		writer.finish();
+	}
+	
+	/**
+	 * Computes a block of the band from its source region. If that region is too large for the budget (e.g. a band
+	 * of a strongly rotated image covers a big diagonal strip), the block is split in half along its longer side.
+	 **/
+	private void warp_block(int band[], int band_top, int first_col, int end_col, int first_row, int end_row)
+			throws IOException
+	{
+		compute_source_region(first_col, end_col, first_row, end_row);
+		
+		long region_bytes = (long) region.width() * region.height() * BYTES_PER_REGION_PIXEL;
+		
+		if (region_bytes > max_region_bytes && (end_col - first_col > 1 || end_row - first_row > 1))
+		{
+			if (end_col - first_col >= end_row - first_row)
+			{
+				int middle = (first_col + end_col) / 2;
+				warp_block(band, band_top, first_col, middle, first_row, end_row);
+				warp_block(band, band_top, middle, end_col, first_row, end_row);
+			}
+			else
+			{
+				int middle = (first_row + end_row) / 2;
+				warp_block(band, band_top, first_col, end_col, first_row, middle);
+				warp_block(band, band_top, first_col, end_col, middle, end_row);
+			}
+			return;
+		}
+		
+		Bitmap region_bitmap = decoder.decodeRegion(region, options);
+		
+		if (region_bitmap == null)
+			throw new IOException("Couldn't decode region " + region);
+		
+		int region_width = region_bitmap.getWidth();
+		int region_height = region_bitmap.getHeight();
+		
+		if (region_pixels.length < region_width * region_height)
+		{
+			region_pixels = null;
+			region_pixels = new int[region_width * region_height];
+		}
+		
+		region_bitmap.getPixels(region_pixels, 0, region_width, 0, 0, region_width, region_height);
+		region_bitmap.recycle();
+		
+		PerspectiveWarp.warp_block(region_pixels, region.left, region.top, region_width, region_height, m, band,
+				(first_row - band_top) * dest_width + first_col, dest_width, first_col, end_col, first_row, end_row,
+				interpolation);
+	}
+	
+	/**
+	 * Sets region to the bounding box (clamped to the source image) of the source pixels the given block of the
+	 * corrected image maps to. The corners of the quadrilateral are sorted, so the homography keeps straight lines
+	 * and the inside of the block: the mapped corners of the block are enough.
+	 **/
+	private void compute_source_region(int first_col, int end_col, int first_row, int end_row)
+	{
+		float min_x = Float.MAX_VALUE, min_y = Float.MAX_VALUE;
+		float max_x = -Float.MAX_VALUE, max_y = -Float.MAX_VALUE;
+		
+		for (int corner = 0; corner < 4; ++corner)
+		{
+			PerspectiveWarp.map_point(m, corner == 1 || corner == 2 ? end_col : first_col,
+					corner >= 2 ? end_row : first_row, point);
+			
+			min_x = Math.min(min_x, point[0]);
+			min_y = Math.min(min_y, point[1]);
+			max_x = Math.max(max_x, point[0]);
+			max_y = Math.max(max_y, point[1]);
+		}
+		
+		region.left = (int) clamp(Math.floor(min_x) - REGION_MARGIN, 0, src_width - 1);
+		region.top = (int) clamp(Math.floor(min_y) - REGION_MARGIN, 0, src_height - 1);
+		region.right = (int) clamp(Math.ceil(max_x) + 1 + REGION_MARGIN, region.left + 1, src_width);
+		region.bottom = (int) clamp(Math.ceil(max_y) + 1 + REGION_MARGIN, region.top + 1, src_height);
+	}
+	
+	/**
+	 * Clamps in double, so that corners far outside (or NaN, for degenerate corners) can't overflow an int.
+	 **/
+	private static double clamp(double value, double min, double max)
+	{
+		return !(value >= min) ? min : (value > max ? max : value);
+	}
+}
@@ -0,0 +1,195 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+/**
+ * Optionales Zeichnen der Tiles über einen Texturatlas: Die sichtbaren Tiles werden einmalig in eine gemeinsame
+ * Bitmap kopiert und von dort gezeichnet. Bei Hardwarebeschleunigung wird der Atlas nur einmal als Textur
+ * hochgeladen (statt jedes Tile einzeln), und da alle Tiles dieselbe Bitmap und denselben Paint benutzen, kann der
+ * Renderer die Zeichenbefehle eines Frames zu einem einzigen zusammenfassen. Pan und Zoom bleiben eine einzige
+ * Transformation des Canvas (siehe LargeImageView.onDraw_cachedImage()).
+ *
+ * Da jede Änderung der Atlas-Bitmap einen Upload der ganzen Textur auslöst, werden neue Tiles nur alle
+ * {@link #ATLAS_UPLOAD_INTERVAL} ms aufgenommen (gesammelt in einem Frame). Das lohnt sich vor allem, wenn die
+ * sichtbaren Tiles länger gleich bleiben, z.B. beim Nachführen der GPS-Position, während nur die Icons wandern.
+ *
+ * Die Slotverwaltung liegt in {@link TileAtlas} (ohne Android-Abhängigkeiten). Liegt ein Tile (noch) nicht im
+ * Atlas, gibt {@link #drawTile(Canvas, Bitmap, long, float, float, Paint)} false zurück und der Aufrufer zeichnet es
+ * wie bisher direkt.
+ */
+public class AtlasTileRenderer {
+	
+	// ////// CONSTANTS
+	
+	// Maximale Breite/Höhe des Atlas (maximale Texturgröße älterer GPUs)
+	private static final int MAX_ATLAS_SIZE = 2048;
+	
+	// Mindestabstand in ms zwischen zwei Änderungen (und damit Texturuploads) des Atlas
+	private static final long ATLAS_UPLOAD_INTERVAL = 1000;
+	
+	// Pixelformat des Atlas (wie die Tiles der TilePyramid; Karten sind undurchsichtig)
+	private static final Bitmap.Config ATLAS_CONFIG = Bitmap.Config.RGB_565;
+	
+	
+	// ////// MEMBERS
+	
+	// Slotverwaltung und Pixel des Atlas (Bitmap wird erst beim ersten Zeichnen angelegt)
+	private final TileAtlas atlas;
+	private Bitmap atlasBitmap = null;
+	private Canvas atlasCanvas = null;
+	
+	// Konnte der Atlas nicht angelegt werden (OutOfMemoryError)? Dann nur noch direkt zeichnen.
+	private boolean atlasFailed = false;
+	
+	// Wiederverwendete Rechtecke, damit beim Zeichnen keine Objekte erzeugt werden
+	private final Rect srcRect = new Rect();
+	private final RectF dstRect = new RectF();
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CONSTRUCTORS AND INITIALIZATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @param slotCount Gewünschte Anzahl Tiles im Atlas (z.B. Tiles pro Frame), wird ggf. auf die maximale
+	 *            Atlasgröße beschränkt.
+	 * @param tileSize Breite und Höhe eines Tiles
+	 */
+	public AtlasTileRenderer(int slotCount, int tileSize) {
+		int maxSlotsPerAxis = Math.max(1, MAX_ATLAS_SIZE / tileSize);
+		int columns = Math.min(maxSlotsPerAxis, (int) Math.ceil(Math.sqrt(Math.max(1, slotCount))));
+		int rows = Math.min(maxSlotsPerAxis, (Math.max(1, slotCount) + columns - 1) / columns);
+		
+		atlas = new TileAtlas(columns, rows, tileSize, ATLAS_UPLOAD_INTERVAL);
+	}
+	
+	/**
+	 * Legt die Atlas-Bitmap an, falls noch nicht geschehen.
+	 *
+	 * @return false, falls nicht genug Speicher vorhanden ist.
+	 */
+	private boolean ensureAtlasBitmap() {
+		if (atlasBitmap != null) {
+			return true;
+		}
+		
+		if (atlasFailed) {
+			return false;
+		}
+		
+		try {
+			atlasBitmap = Bitmap.createBitmap(atlas.getWidth(), atlas.getHeight(), ATLAS_CONFIG);
+			atlasCanvas = new Canvas(atlasBitmap);
+			atlas.clear();
+			return true;
+		}
+		catch (OutOfMemoryError e) {
+			Log.w("AtlasTileRenderer/ensureAtlasBitmap", "Not enough memory for tile atlas " + atlas
+					+ ", drawing tiles directly");
+			atlasFailed = true;
+			return false;
+		}
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// DRAWING
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Muss zu Beginn jedes Frames aufgerufen werden.
+	 *
+	 * @param time Zeitpunkt des Frames (SystemClock.uptimeMillis())
+	 */
+	public void beginFrame(long time) {
+		atlas.beginFrame(time);
+	}
+	
+	/**
+	 * Zeichnet ein Tile aus dem Atlas an x,y (im aktuellen Koordinatensystem des Canvas). Liegt es noch nicht im
+	 * Atlas, wird es zuerst hineinkopiert, falls der Atlas in diesem Frame geändert werden darf.
+	 *
+	 * @param tile Bitmap des Tiles (wird nur gelesen, falls das Tile noch nicht im Atlas liegt)
+	 * @param key TileKey des Tiles
+	 * @return false, falls das Tile nicht über den Atlas gezeichnet werden konnte (dann selbst zeichnen).
+	 */
+	public boolean drawTile(Canvas canvas, Bitmap tile, long key, float x, float y, Paint paint) {
+		if (!ensureAtlasBitmap()) {
+			return false;
+		}
+		
+		int slot = atlas.findSlot(key);
+		
+		if (slot == -1) {
+			slot = atlas.allocateSlot(key, tile.getWidth(), tile.getHeight());
+			
+			if (slot == -1) {
+				// Atlas ist in diesem Frame voll oder darf noch nicht wieder geändert werden
+				return false;
+			}
+			
+			atlasCanvas.drawBitmap(tile, atlas.getSlotLeft(slot), atlas.getSlotTop(slot), null);
+		}
+		
+		int left = atlas.getSlotLeft(slot);
+		int top = atlas.getSlotTop(slot);
+		int width = atlas.getSlotWidth(slot);
+		int height = atlas.getSlotHeight(slot);
+		
+		srcRect.set(left, top, left + width, top + height);
+		dstRect.set(x, y, x + width, y + height);
+		canvas.drawBitmap(atlasBitmap, srcRect, dstRect, paint);
+		return true;
+	}
+	
+	/**
+	 * Vergisst alle Tiles im Atlas (z.B. wenn ein anderes Bild angezeigt wird).
+	 */
+	public void clear() {
+		atlas.clear();
+	}
+	
+	/**
+	 * Gibt die Atlas-Bitmap frei (sie wird beim nächsten Zeichnen neu angelegt).
+	 */
+	public void release() {
+		Log.d("AtlasTileRenderer/release", "Releasing " + atlas);
+		
+		if (atlasBitmap != null) {
+			atlasBitmap.recycle();
+			atlasBitmap = null;
+			atlasCanvas = null;
+		}
+		
+		atlas.clear();
+	}
+	
+	/**
+	 * Anzahl der Slots im Atlas.
+	 */
+	public int getSlotCount() {
+		return atlas.getSlotCount();
+	}
+	
+}
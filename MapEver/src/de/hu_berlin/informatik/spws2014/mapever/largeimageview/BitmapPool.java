@@ -0,0 +1,205 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Pool nicht mehr benutzter (aus dem Tile-Cache verdrängter) Bitmaps, damit neue Tiles in deren Speicher dekodiert
+ * werden können (BitmapFactory.Options.inBitmap), statt jedes Mal neuen Speicher zu belegen und die alten Bitmaps
+ * dem Garbage Collector zu überlassen.
+ *
+ * Die Bitmaps werden nach Breite, Höhe und Pixelformat in Buckets einsortiert, da das Wiederverwenden vor API 19 nur
+ * bei exakt gleicher Größe funktioniert. Alle Methoden sind threadsicher.
+ */
+public class BitmapPool {
+	
+	// ////// MEMBERS
+	
+	// Buckets mit freien Bitmaps, siehe getBucketKey()
+	private final HashMap<Long, ArrayList<Bitmap>> buckets = new HashMap<Long, ArrayList<Bitmap>>();
+	
+	// Maximale und aktuelle Größe des Pools in Bytes
+	private final long maxBytes;
+	private long currentBytes = 0;
+	
+	// Statistik
+	private int requestCount = 0;
+	private int hitCount = 0;
+	private int putCount = 0;
+	private int dropCount = 0;
+	private long bytesRecycled = 0;
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CONSTRUCTORS AND INITIALIZATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @param maxBytes Maximale Summe der Bitmapgrößen im Pool (weitere Bitmaps werden verworfen).
+	 */
+	public BitmapPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+	
+	private static Long getBucketKey(int width, int height, Bitmap.Config config) {
+		int configIndex = config == null ? 0 : config.ordinal() + 1;
+		return Long.valueOf(((long) width << 32) | ((long) height << 8) | configIndex);
+	}
+	
+	private static int getByteCount(Bitmap bitmap) {
+		// (getByteCount() (API 12) == getRowBytes() * getHeight())
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// POOL OPERATIONS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Entnimmt eine freie Bitmap mit genau dieser Größe und diesem Pixelformat aus dem Pool.
+	 *
+	 * @return Die Bitmap (Inhalt undefiniert) oder null, falls keine passende vorhanden ist.
+	 */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		requestCount++;
+		
+		ArrayList<Bitmap> bucket = buckets.get(getBucketKey(width, height, config));
+		
+		while (bucket != null && !bucket.isEmpty()) {
+			Bitmap bitmap = bucket.remove(bucket.size() - 1);
+			int byteCount = getByteCount(bitmap);
+			currentBytes -= byteCount;
+			
+			// (Sollte nicht passieren, aber falls jemand eine Bitmap im Pool recyclet hat, diese überspringen)
+			if (!bitmap.isRecycled()) {
+				hitCount++;
+				bytesRecycled += byteCount;
+				return bitmap;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Legt eine nicht mehr benutzte Bitmap in den Pool. Nicht veränderbare oder recyclete Bitmaps werden ignoriert,
+	 * ebenso Bitmaps, die nicht mehr in den Pool passen.
+	 *
+	 * Die Bitmap darf danach nicht mehr verwendet werden, da ihr Inhalt jederzeit überschrieben werden kann.
+	 *
+	 * @return true, falls die Bitmap aufgenommen wurde.
+	 */
+	public synchronized boolean put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+			return false;
+		}
+		
+		int byteCount = getByteCount(bitmap);
+		
+		if (currentBytes + byteCount > maxBytes) {
+			dropCount++;
+			return false;
+		}
+		
+		Long key = getBucketKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+		ArrayList<Bitmap> bucket = buckets.get(key);
+		
+		if (bucket == null) {
+			bucket = new ArrayList<Bitmap>();
+			buckets.put(key, bucket);
+		}
+		
+		bucket.add(bitmap);
+		currentBytes += byteCount;
+		putCount++;
+		return true;
+	}
+	
+	/**
+	 * Leert den Pool (die Bitmaps werden dem Garbage Collector überlassen).
+	 */
+	public synchronized void clear() {
+		buckets.clear();
+		currentBytes = 0;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// METRICS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Anteil der Anfragen, die aus dem Pool bedient werden konnten (0 bis 1).
+	 */
+	public synchronized float getHitRate() {
+		return requestCount == 0 ? 0f : (float) hitCount / requestCount;
+	}
+	
+	/**
+	 * Summe der Bytes aller Bitmaps, die aus dem Pool wiederverwendet wurden (also nicht neu alloziert werden
+	 * mussten).
+	 */
+	public synchronized long getBytesRecycled() {
+		return bytesRecycled;
+	}
+	
+	public synchronized int getRequestCount() {
+		return requestCount;
+	}
+	
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+	
+	public synchronized int getPutCount() {
+		return putCount;
+	}
+	
+	/**
+	 * Anzahl der Bitmaps, die verworfen wurden, weil der Pool voll war.
+	 */
+	public synchronized int getDropCount() {
+		return dropCount;
+	}
+	
+	/**
+	 * Maximale Größe des Pools in Bytes.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	/**
+	 * Aktuelle Größe des Pools in Bytes.
+	 */
+	public synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return String.format("BitmapPool[%d/%d KB,requests=%d,hitRate=%d%%,recycled=%d KB,dropped=%d]",
+				currentBytes / 1024, maxBytes / 1024, requestCount, (int) (100 * getHitRate()), bytesRecycled / 1024,
+				dropCount);
+	}
+	
+}
@@ -17,24 +17,39 @@
 package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
 import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Rect;
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.os.AsyncTask;
-import android.support.v4.util.LruCache;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 
+import de.hu_berlin.informatik.spws2014.mapever.BuildConfig;
+
 // Der LruCache-bezogene Code wurde in Anlehnung an folgendes Tutorial erstellt:
 // http://developer.android.com/training/displaying-bitmaps/cache-bitmap.html
+// (Statt LruCache<String, Bitmap> wird ein LongLruCache mit TileKeys verwendet, damit Cache-Zugriffe im
+// Zeichnen-Code keine Objekte erzeugen.)
 
-public class CachedImage extends LruCache<String, Bitmap> {
+public class CachedImage extends LongLruCache<Bitmap> {
 	
 	interface CacheMissResolvedCallback {
+		/** Die ganze Ansicht muss aktualisiert werden (z.B. weil das Übersichtsbild erzeugt wurde). */
 		public void onCacheMissResolved();
+		
+		/** Das Tile mit dem gegebenen {@link TileKey} wurde generiert und gecachet. */
+		public void onTileResolved(long tileKey);
 	}
 	
 	// ////// CONSTANTS
@@ -42,17 +57,146 @@ public class CachedImage extends LruCache<String, Bitmap> {
 	// Tilegröße (Breite und Höhe, sollte Zweierpotenz sein)
 	public static final int TILESIZE = 512;
 	
+	// Größe eines vollständigen ARGB_8888-Tiles in KB
+	private static final int TILE_KB = TILESIZE * TILESIZE * 4 / 1024;
+	
+	// Minimale Cachegröße in KB (vier vollständige Tiles), solange der sichtbare Ausschnitt noch nicht bekannt ist.
+	// Danach richtet sich das Minimum nach den sichtbaren Tiles, siehe updateMinCacheSize().
+	private static final int MIN_CACHE_SIZE = 4 * TILE_KB;
+	
+	// Schrittweite in KB, um die der Cache bei ausreichend freiem Heap wieder wächst (ein vollständiges Tile)
+	private static final int CACHE_GROW_STEP = TILE_KB;
+	
+	// Anteile des maximalen Heaps: Ist weniger als 1/LOW_HEAP_FRACTION frei, wird der Cache verkleinert, ist mehr
+	// als 1/HIGH_HEAP_FRACTION frei, darf er wieder bis zur Zielgröße wachsen.
+	private static final int LOW_HEAP_FRACTION = 8;
+	private static final int HIGH_HEAP_FRACTION = 3;
+	
+	// Anteil der Cachegröße, den der Pool wiederverwendbarer Bitmaps maximal belegen darf (1/n)
+	private static final int BITMAP_POOL_FRACTION = 8;
+	
+	// Maximale Breite bzw. Höhe des Übersichtsbildes
+	private static final int OVERVIEW_MAX_SIZE = 1024;
+	
+	// Maximale Anzahl generierter Tiles, die einzeln gemeldet werden (sonst wird die ganze Ansicht aktualisiert)
+	private static final int MAX_RESOLVED_TILE_KEYS = 32;
+	
 	
 	// ////// BITMAP, TILE AND CACHE STUFF
 	
-	// BitmapRegionDecoder (liest Bildausschnitte aus InputStreams)
-	private BitmapRegionDecoder regionDecoder = null;
+	// Dateiname des Bildes (nur falls aus Datei geladen, sonst null). Nur dann können weitere BitmapRegionDecoder
+	// erzeugt werden.
+	private String imageFilename = null;
+	
+	// Bildgröße (wird vom ersten BitmapRegionDecoder ermittelt)
+	private int imageWidth;
+	private int imageHeight;
+	
+	// Pool freier BitmapRegionDecoder (lesen Bildausschnitte aus InputStreams bzw. Dateien). Ein Decoder kann
+	// nur von einem Thread gleichzeitig benutzt werden, daher bekommt jeder Worker seinen eigenen, sofern das Bild
+	// aus einer Datei geladen wurde. Bei Streams gibt es nur einen Decoder, auf den die Worker nacheinander zugreifen.
+	private final ArrayList<BitmapRegionDecoder> idleDecoders = new ArrayList<BitmapRegionDecoder>();
+	
+	// Anzahl bisher erzeugter Decoder und Maximalanzahl
+	private int decoderCount = 0;
+	private int maxDecoderCount;
+	
+	// Cachegröße in KB, die ohne Speicherknappheit angestrebt wird (siehe calculateCacheSize()). Die tatsächliche
+	// Größe (maxSize()) wird bei Speicherknappheit verringert und wächst danach schrittweise wieder.
+	private final int targetCacheSize;
+	
+	// Untergrenze für die Cachegröße in KB bei Speicherknappheit: genug für die Tiles des aktuellen Ausschnitts (siehe
+	// updateMinCacheSize()), sonst verdrängen sich die sichtbaren Tiles gegenseitig und werden ständig neu dekodiert.
+	private volatile int minCacheSize = MIN_CACHE_SIZE;
 	
-	// Liste für Keys der Tiles, die aktuell von TileWorkerTasks generiert werden
-	private ArrayList<String> workingTileTasks = new ArrayList<String>();
+	// Pool verdrängter Tiles, deren Speicher beim Dekodieren neuer Tiles wiederverwendet wird
+	private final BitmapPool bitmapPool;
 	
-	// Callback, wenn nach einem Cache-Miss das gesuchte Tile erzeugt und gecachet wurde.
-	private CacheMissResolvedCallback cacheMissResolvedCallback;
+	// Verdrängte Tiles, die noch nicht in den Bitmap-Pool dürfen, weil sie eventuell noch gezeichnet werden (siehe
+	// beginFrame()): die seit dem letzten Frame verdrängten und die davor verdrängten, sowie deren Größe in Bytes.
+	// Nur mit Lock auf evictedTilesLock benutzen.
+	private final Object evictedTilesLock = new Object();
+	private ArrayList<Bitmap> evictedTiles = new ArrayList<Bitmap>();
+	private ArrayList<Bitmap> quarantinedTiles = new ArrayList<Bitmap>();
+	private long evictedTileBytes = 0;
+	
+	// Anzahl der bisherigen Frames (siehe beginFrame()), laufende Zeichenvorgänge außerhalb des UI-Threads (siehe
+	// beginDraw()) und der Frame, in dem der älteste davon begonnen hat. Nur mit Lock auf evictedTilesLock benutzen.
+	private long frameNumber = 0;
+	private int activeDrawCount = 0;
+	private long activeDrawsStartFrame = 0;
+	
+	// Vorberechnete Tiles der groben Zoomstufen auf der Festplatte (nur falls aus Datei geladen und bereits
+	// erzeugt, sonst null). Wird im Hintergrund geöffnet (ohne BitmapRegionDecoder ggf. erst erzeugt) und dann
+	// gesetzt, bis dahin werden die Tiles aus dem Original dekodiert.
+	private volatile TilePyramid tilePyramid;
+	
+	// Wurde das Erzeugen der Pyramide bereits angestoßen? (Nur im UI-Thread benutzen.)
+	private boolean pyramidBuildRequested = false;
+	
+	// Gibt es einen BitmapRegionDecoder für das Bild? Falls nicht (z.B. GIF, WebP), kommen alle Tiles aus der
+	// Tile-Pyramide, die dann alle Zoomstufen enthält (feinere werden aus der feinsten hochskaliert).
+	private final boolean regionDecoderAvailable;
+	
+	// Stark verkleinertes Bild des gesamten Bildes (wird im Hintergrund erzeugt, bis dahin null) und dessen
+	// Samplesize. Liegt immer im Speicher (nicht im LRU-Cache) und dient als Vorschau für fehlende Tiles. (volatile,
+	// da auch der TileRenderThread sie liest; die Samplesize wird vorher gesetzt.)
+	private volatile Bitmap overviewBitmap = null;
+	private int overviewSampleSize = 0;
+	private OverviewTask overviewTask;
+	
+	// Wurde release() aufgerufen?
+	private volatile boolean isReleased = false;
+	
+	// Scheduler, der die Tiles parallel in Worker-Threads generiert
+	private final TileScheduler<Bitmap> tileScheduler;
+	
+	// Handler für den UI-Thread, um dort den Callback auszuführen
+	private final Handler uiHandler = new Handler(Looper.getMainLooper());
+	
+	// Callback, wenn nach einem Cache-Miss das gesuchte Tile erzeugt und gecachet wurde. (Kann beim
+	// Wiederverwenden durch den TileCacheManager ausgetauscht werden.)
+	private volatile CacheMissResolvedCallback cacheMissResolvedCallback;
+	
+	// Keys der seit dem letzten Callback generierten Tiles (nur mit Lock auf resolvedTileKeys benutzen), ob es mehr
+	// als MAX_RESOLVED_TILE_KEYS waren, und eine Kopie für den UI-Thread
+	private final long[] resolvedTileKeys = new long[MAX_RESOLVED_TILE_KEYS];
+	private int resolvedTileCount = 0;
+	private boolean resolvedTilesOverflow = false;
+	private final long[] resolvedTileKeysUi = new long[MAX_RESOLVED_TILE_KEYS];
+	
+	// Runnable, das den Callback im UI-Thread aufruft
+	private final Runnable cacheMissResolvedRunnable = new Runnable() {
+		@Override
+		public void run() {
+			int count;
+			boolean overflow;
+			
+			synchronized (resolvedTileKeys) {
+				count = resolvedTileCount;
+				overflow = resolvedTilesOverflow;
+				System.arraycopy(resolvedTileKeys, 0, resolvedTileKeysUi, 0, count);
+				resolvedTileCount = 0;
+				resolvedTilesOverflow = false;
+			}
+			
+			// Callback aufrufen, das in der LargeImageView dann die betroffenen Bereiche invalidiert.
+			CacheMissResolvedCallback callback = cacheMissResolvedCallback;
+			
+			if (callback == null || isReleased) {
+				return;
+			}
+			
+			if (overflow) {
+				callback.onCacheMissResolved();
+				return;
+			}
+			
+			for (int i = 0; i < count; i++) {
+				callback.onTileResolved(resolvedTileKeysUi[i]);
+			}
+		}
+	};
 	
 	
 	// ////////////////////////////////////////////////////////////////////////
@@ -68,19 +212,233 @@ public class CachedImage extends LruCache<String, Bitmap> {
 	 *             weder JPEG noch PNG ist, oder bei einem anderen IO-Fehler)
 	 */
 	public CachedImage(InputStream inputStream, CachedImage.CacheMissResolvedCallback cacheCallback) throws IOException {
-		// Tilecache erzeugen durch Aufruf des LruCache<String, Bitmap>-Konstruktors
+		// Aus einem Stream kann nur ein Decoder erzeugt werden, die Worker müssen sich diesen teilen.
+		this(null, BitmapRegionDecoder.newInstance(inputStream, true), 1, cacheCallback);
+	}
+	
+	/**
+	 * Initialisiert und erzeugt einen Tile-Cache als LRU-Cache. Da das Bild aus einer Datei gelesen wird, kann jeder
+	 * Worker-Thread einen eigenen BitmapRegionDecoder verwenden, sodass mehrere Tiles parallel generiert werden.
+	 * 
+	 * Unterstützt der BitmapRegionDecoder das Format nicht (andere als JPEG und PNG), werden alle Tiles aus einer
+	 * Tile-Pyramide gelesen, die dafür ggf. erst im Hintergrund erzeugt wird (siehe {@link TilePyramid}).
+	 * 
+	 * @param filename Pfad zur Bilddatei
+	 * @param cacheCallback Callback, wenn ein Tile nach einem Cache-Miss generiert und im Cache gespeichert wurde.
+	 * @throws IOException Wird geworfen, wenn das Bild nicht gelesen werden kann (z.B. unbekanntes Format oder
+	 *             anderer IO-Fehler)
+	 */
+	public CachedImage(String filename, CachedImage.CacheMissResolvedCallback cacheCallback) throws IOException {
+		this(filename, newDecoderOrNull(filename), TileScheduler.getDefaultWorkerCount(), cacheCallback);
+	}
+	
+	/**
+	 * Erzeugt einen BitmapRegionDecoder für die Bilddatei, oder gibt null zurück, falls das Format nicht unterstützt
+	 * wird.
+	 */
+	private static BitmapRegionDecoder newDecoderOrNull(String filename) {
+		try {
+			return BitmapRegionDecoder.newInstance(filename, true);
+		}
+		catch (IOException e) {
+			Log.w("CachedImage/newDecoderOrNull", "Can't instantiate BitmapRegionDecoder, using tile pyramid only: "
+					+ e.toString());
+			return null;
+		}
+	}
+	
+	private CachedImage(String filename, BitmapRegionDecoder firstDecoder, int decoderLimit,
+			CachedImage.CacheMissResolvedCallback cacheCallback) throws IOException {
+		// Tilecache erzeugen durch Aufruf des LongLruCache<Bitmap>-Konstruktors
 		super(calculateCacheSize());
 		
+		// BitmapRegionDecoder.newInstance() wirft bei nicht unterstütztem Format (andere als JPEG und PNG)
+		// eine IOException. Aus einer Datei kann das Bild dann noch über die Tile-Pyramide geladen werden.
+		if (firstDecoder == null && filename == null) {
+			throw new IOException("BitmapRegionDecoder could not create instance for unknown reasons");
+		}
+		
+		regionDecoderAvailable = firstDecoder != null;
+		
 		// Callback setzen
 		cacheMissResolvedCallback = cacheCallback;
 		
-		// BitmapRegionDecoder instanziieren. Wirft bei nicht unterstütztem Format (andere als JPEG und PNG)
-		// eine IOException.
-		regionDecoder = BitmapRegionDecoder.newInstance(inputStream, true);
+		targetCacheSize = maxSize();
 		
-		if (regionDecoder == null) {
-			throw new IOException("BitmapRegionDecoder could not create instance for unknown reasons");
+		// Bitmap-Pool erzeugen (ein Achtel der Cachegröße, diese ist in KB angegeben)
+		bitmapPool = new BitmapPool(maxSize() * 1024L / BITMAP_POOL_FRACTION);
+		
+		imageFilename = filename;
+		
+		if (regionDecoderAvailable) {
+			imageWidth = firstDecoder.getWidth();
+			imageHeight = firstDecoder.getHeight();
+			
+			// Ersten Decoder in den Pool legen, weitere werden bei Bedarf erzeugt.
+			idleDecoders.add(firstDecoder);
+			decoderCount = 1;
+			maxDecoderCount = decoderLimit;
+		}
+		else {
+			// Nur die Bildgröße ermitteln, ohne das Bild zu dekodieren
+			Options opts = new Options();
+			opts.inJustDecodeBounds = true;
+			BitmapFactory.decodeFile(filename, opts);
+			
+			if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+				throw new IOException("Could not decode image bounds of " + filename);
+			}
+			
+			imageWidth = opts.outWidth;
+			imageHeight = opts.outHeight;
+			maxDecoderCount = 0;
+		}
+		
+		// Scheduler erzeugen, der generierte Tiles in den Cache legt.
+		tileScheduler = new TileScheduler<Bitmap>(TILESIZE,
+				new TileScheduler.TileDecoder<Bitmap>() {
+					@Override
+					public Bitmap decodeTile(int x, int y, int sampleSize) {
+						return generateTileBitmap(x, y, sampleSize);
+					}
+				},
+				new TileScheduler.TileListener<Bitmap>() {
+					@Override
+					public void onTileDecoded(int x, int y, int sampleSize, Bitmap tile) {
+						onTileGenerated(x, y, sampleSize, tile);
+					}
+				});
+		
+		// Tile-Pyramide im Hintergrund öffnen, falls vorhanden (wird nach dem Import einer Karte erzeugt)
+		if (filename != null) {
+			TilePyramid.openInBackground(filename, new TilePyramid.OpenCallback() {
+				@Override
+				public void onOpened(TilePyramid pyramid) {
+					onTilePyramidOpened(pyramid);
+				}
+			});
+		}
+		
+		// Übersichtsbild im Hintergrund erzeugen. Ohne BitmapRegionDecoder wird es direkt aus der Datei dekodiert,
+		// falls die Pyramide noch nicht geöffnet ist, damit bis dahin (und während sie erzeugt wird) schon das ganze
+		// Bild in grober Auflösung zu sehen ist.
+		overviewTask = new OverviewTask();
+		overviewTask.execute();
+	}
+	
+	/**
+	 * Wird (im UI-Thread) aufgerufen, nachdem die Tile-Pyramide im Hintergrund geöffnet wurde. Ab jetzt werden die
+	 * groben Zoomstufen aus ihr gelesen. Ohne BitmapRegionDecoder wird sie erzeugt, falls sie noch nicht existiert
+	 * (z.B. bei Karten aus älteren Versionen). Bis sie fertig ist, wird das Übersichtsbild angezeigt.
+	 *
+	 * @param pyramid Die Pyramide oder null, falls keine existiert
+	 */
+	private void onTilePyramidOpened(TilePyramid pyramid) {
+		if (isReleased) {
+			return;
+		}
+		
+		if (pyramid == null) {
+			if (!regionDecoderAvailable && !pyramidBuildRequested) {
+				pyramidBuildRequested = true;
+				TilePyramid.buildInBackground(imageFilename, new Runnable() {
+					@Override
+					public void run() {
+						onTilePyramidBuilt();
+					}
+				});
+			}
+			else if (!regionDecoderAvailable) {
+				Log.e("CachedImage/onTilePyramidOpened", "No tile pyramid for '" + imageFilename
+						+ "', can't show image!");
+			}
+			return;
+		}
+		
+		tilePyramid = pyramid;
+		
+		// Konnte das Übersichtsbild nicht aus der Datei dekodiert werden, es aus der Pyramide zusammensetzen.
+		// (Läuft der OverviewTask noch, setzt er es selbst aus der Pyramide zusammen, falls das Dekodieren scheitert.)
+		if (!regionDecoderAvailable && overviewBitmap == null && overviewTask == null) {
+			overviewTask = new OverviewTask();
+			overviewTask.execute();
+		}
+		
+		CacheMissResolvedCallback callback = cacheMissResolvedCallback;
+		
+		if (callback != null) {
+			callback.onCacheMissResolved();
+		}
+	}
+	
+	/**
+	 * Wird (im UI-Thread) aufgerufen, nachdem die Tile-Pyramide für ein Bild ohne BitmapRegionDecoder erzeugt wurde,
+	 * und öffnet sie.
+	 */
+	private void onTilePyramidBuilt() {
+		if (isReleased) {
+			return;
 		}
+		
+		TilePyramid.openInBackground(imageFilename, new TilePyramid.OpenCallback() {
+			@Override
+			public void onOpened(TilePyramid pyramid) {
+				onTilePyramidOpened(pyramid);
+			}
+		});
+	}
+	
+	/**
+	 * Setzt den Callback, der aufgerufen wird, wenn ein Tile nach einem Cache-Miss generiert wurde (null für
+	 * keinen).
+	 */
+	public void setCacheMissResolvedCallback(CacheMissResolvedCallback cacheCallback) {
+		cacheMissResolvedCallback = cacheCallback;
+	}
+	
+	/**
+	 * Gibt true zurück, falls {@link #release()} bereits aufgerufen wurde.
+	 */
+	public boolean isReleased() {
+		return isReleased;
+	}
+	
+	/**
+	 * Gibt die Ressourcen des Bildes frei (beendet die Worker und die BitmapRegionDecoder). Danach werden keine
+	 * neuen Tiles mehr generiert.
+	 */
+	public void release() {
+		isReleased = true;
+		tileScheduler.shutdown();
+		
+		if (overviewTask != null) {
+			overviewTask.cancel(false);
+			overviewTask = null;
+		}
+		overviewBitmap = null;
+		
+		Log.d("CachedImage/release", "Cache: " + toString() + ", " + bitmapPool.toString());
+		bitmapPool.clear();
+		clearEvictedTiles();
+		
+		// Freie Decoder sofort recyclen, Decoder in Benutzung werden bei der Rückgabe recyclet.
+		synchronized (idleDecoders) {
+			for (BitmapRegionDecoder decoder : idleDecoders) {
+				decoder.recycle();
+			}
+			idleDecoders.clear();
+		}
+	}
+	
+	/**
+	 * Gibt alle Tiles samt Bitmap-Pool frei, behält aber Decoder, Übersichtsbild und Tile-Pyramide. Für ein Bild, das
+	 * gerade nicht angezeigt wird, aber schnell wieder geöffnet werden soll (siehe TileCacheManager).
+	 */
+	public void releaseTiles() {
+		Log.d("CachedImage/releaseTiles", "Cache: " + toString() + ", " + bitmapPool.toString());
+		evictAll();
+		bitmapPool.clear();
+		clearEvictedTiles();
 	}
 	
 	// ////// LRUCACHE METHODS OVERRIDES
@@ -90,11 +448,107 @@ public class CachedImage extends LruCache<String, Bitmap> {
 	 * Bitmapdaten statt an der Anzahl der Einträge gemessen.
 	 */
 	@Override
-	protected int sizeOf(String key, Bitmap bitmap) {
+	protected int sizeOf(long key, Bitmap bitmap) {
 		// (getByteCount() (API 12) == getRowBytes() * getHeight())
 		return (bitmap.getRowBytes() * bitmap.getHeight()) / 1024;
 	}
 	
+	/**
+	 * Verdrängte oder ersetzte Tiles kommen in den Bitmap-Pool, damit neue Tiles in ihren Speicher dekodiert werden
+	 * können. (Verdrängt werden die am längsten nicht mehr gezeichneten Tiles.) Das geschieht aber erst nach dem
+	 * nächsten vollständigen Frame, siehe {@link #beginFrame()}.
+	 */
+	@Override
+	protected void entryRemoved(boolean evicted, long key, Bitmap oldValue, Bitmap newValue) {
+		if (evicted) {
+			RenderMetrics.TILE_EVICTIONS.increment();
+		}
+		
+		if (oldValue != newValue && !isReleased && oldValue.isMutable()) {
+			int byteCount = oldValue.getRowBytes() * oldValue.getHeight();
+			
+			synchronized (evictedTilesLock) {
+				// Werden lange keine Frames gezeichnet, wird nicht mehr zurückgehalten, als in den Pool passt (der Rest
+				// wird dem Garbage Collector überlassen).
+				if (evictedTileBytes + byteCount <= bitmapPool.getMaxBytes()) {
+					evictedTiles.add(oldValue);
+					evictedTileBytes += byteCount;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Muss im UI-Thread zu Beginn jedes Frames aufgerufen werden, der Tiles dieses Bildes zeichnet.
+	 * 
+	 * Ein verdrängtes Tile kann noch gezeichnet werden, nachdem es den Cache verlassen hat: Die Display-List des
+	 * letzten Frames verweist darauf (bei Hardwarebeschleunigung), und innerhalb eines Frames kann es schon geholt
+	 * worden sein, bevor ein Worker es verdrängt (z.B. als Vorschau oder Überblendung, diese Tiles sind oft lange
+	 * nicht benutzt worden). Käme es sofort in den Bitmap-Pool, könnte ein Worker währenddessen ein anderes Tile
+	 * hineindekodieren. Deshalb kommen verdrängte Tiles erst in den Pool, nachdem ein ganzer Frame ohne sie
+	 * gezeichnet wurde.
+	 * 
+	 * Zeichnet ein anderer Thread gerade Tiles (siehe {@link #beginDraw()}) und hat damit vor dem letzten Frame
+	 * begonnen, bleiben alle verdrängten Tiles zurückgehalten, bis er fertig ist.
+	 */
+	public void beginFrame() {
+		synchronized (evictedTilesLock) {
+			// Die zurückgehaltenen Tiles wurden vor dem letzten Frame verdrängt, könnten also noch gezeichnet werden
+			if (activeDrawCount > 0 && activeDrawsStartFrame < frameNumber) {
+				return;
+			}
+			
+			frameNumber++;
+			
+			for (int i = 0; i < quarantinedTiles.size(); i++) {
+				Bitmap bitmap = quarantinedTiles.get(i);
+				evictedTileBytes -= bitmap.getRowBytes() * bitmap.getHeight();
+				bitmapPool.put(bitmap);
+			}
+			quarantinedTiles.clear();
+			
+			// Die bis jetzt verdrängten Tiles werden in diesem Frame nicht mehr geholt, aber vielleicht noch vom
+			// vorherigen referenziert
+			ArrayList<Bitmap> swap = quarantinedTiles;
+			quarantinedTiles = evictedTiles;
+			evictedTiles = swap;
+		}
+	}
+	
+	/**
+	 * Muss aufgerufen werden, bevor ein anderer Thread als der UI-Thread Tiles dieses Bildes holt und zeichnet (z.B.
+	 * der {@link TileRenderThread}), und danach {@link #endDraw()}. Solange kommen die Tiles, die er geholt haben
+	 * könnte, auch nach einem Frame nicht in den Bitmap-Pool (siehe {@link #beginFrame()}).
+	 */
+	public void beginDraw() {
+		synchronized (evictedTilesLock) {
+			if (activeDrawCount == 0) {
+				activeDrawsStartFrame = frameNumber;
+			}
+			activeDrawCount++;
+		}
+	}
+	
+	/**
+	 * Beendet einen mit {@link #beginDraw()} begonnenen Zeichenvorgang.
+	 */
+	public void endDraw() {
+		synchronized (evictedTilesLock) {
+			activeDrawCount--;
+		}
+	}
+	
+	/**
+	 * Verwirft die noch nicht in den Pool gelegten verdrängten Tiles (Garbage Collector).
+	 */
+	private void clearEvictedTiles() {
+		synchronized (evictedTilesLock) {
+			evictedTiles.clear();
+			quarantinedTiles.clear();
+			evictedTileBytes = 0;
+		}
+	}
+	
 	/**
 	 * Berechnet die optimale Cachegröße.
 	 */
@@ -107,12 +561,10 @@ public class CachedImage extends LruCache<String, Bitmap> {
 				+ Runtime.getRuntime().totalMemory() / 1024 / 1024 + " MB, free: "
 				+ Runtime.getRuntime().freeMemory() / 1024 / 1024 + " MB");
 		
-		// Use 1/8th of the available memory for this memory cache.
-		// TODO Gute Wahl? Nein lieber abhängig von max-total(+free) machen, oder? (Und dann vielleicht ruhig
-		// .... größer.) (Außerdem: Gerätabhängig? Hm :/) (Problem, wenn Cache nicht ausreicht und noch benötigte
-		// .... Tiles sofort rausgeworfen werden... Hmmmmm.)
-		// (mal 1/4 nehmen und gucken, wies damit so läuft)
-		final int cacheSize = maxMemory / 4;
+		// Use 1/4th of the available memory for this memory cache.
+		// (Das ist nur die Zielgröße: Bei Speicherknappheit wird der Cache zur Laufzeit verkleinert, siehe
+		// onTrimMemory() und adaptCacheSizeToHeap().)
+		final int cacheSize = Math.max(MIN_CACHE_SIZE, maxMemory / 4);
 		
 		Log.d("CachedImage/calculateCacheSize", "Max memory: " + maxMemory / 1024 + " MB, thus creating a cache of size "
 				+ cacheSize / 1024 + " MB");
@@ -125,18 +577,99 @@ public class CachedImage extends LruCache<String, Bitmap> {
 	// //////////// IMAGE PROPERTIES
 	// ////////////////////////////////////////////////////////////////////////
 	
+	/**
+	 * Gibt den Pool wiederverwendbarer Bitmaps zurück (z.B. für dessen Statistik).
+	 */
+	public BitmapPool getBitmapPool() {
+		return bitmapPool;
+	}
+	
 	/**
 	 * Gibt die Breite des Bildes zurück. (Tatsächliche Bildgröße, auch wenn nur kleinere Teile geladen sind.)
 	 */
 	public int getWidth() {
-		return regionDecoder.getWidth();
+		return imageWidth;
 	}
 	
 	/**
 	 * Gibt die Höhe des Bildes zurück. (Tatsächliche Bildgröße, auch wenn nur kleinere Teile geladen sind.)
 	 */
 	public int getHeight() {
-		return regionDecoder.getHeight();
+		return imageHeight;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// DECODER POOL
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Holt einen freien BitmapRegionDecoder aus dem Pool. Falls keiner frei ist, wird ein neuer erzeugt (sofern das
+	 * Bild aus einer Datei stammt und das Limit noch nicht erreicht ist) oder gewartet, bis einer zurückgegeben wird.
+	 * 
+	 * @return Decoder oder null, falls das Bild freigegeben wurde oder kein Decoder erzeugt werden konnte.
+	 */
+	private BitmapRegionDecoder acquireDecoder() {
+		// (Sonst würde ewig auf einen Decoder gewartet.)
+		if (!regionDecoderAvailable) {
+			return null;
+		}
+		
+		synchronized (idleDecoders) {
+			while (idleDecoders.isEmpty()) {
+				if (isReleased) {
+					return null;
+				}
+				
+				if (decoderCount < maxDecoderCount && imageFilename != null) {
+					// Platz für einen neuen Decoder reservieren. Erzeugt wird er außerhalb des synchronized-Blocks,
+					// damit andere Worker in der Zeit ihre Decoder zurückgeben können.
+					decoderCount++;
+					break;
+				}
+				
+				try {
+					idleDecoders.wait();
+				}
+				catch (InterruptedException e) {
+					return null;
+				}
+			}
+			
+			if (!idleDecoders.isEmpty()) {
+				return idleDecoders.remove(idleDecoders.size() - 1);
+			}
+		}
+		
+		// Neuen Decoder für diesen Worker erzeugen
+		try {
+			return BitmapRegionDecoder.newInstance(imageFilename, true);
+		}
+		catch (IOException e) {
+			// Dann eben keine weiteren Decoder, die Worker teilen sich die vorhandenen.
+			Log.w("CachedImage/acquireDecoder", "Couldn't create additional decoder: " + e.toString());
+			
+			synchronized (idleDecoders) {
+				decoderCount--;
+				maxDecoderCount = decoderCount;
+			}
+			return acquireDecoder();
+		}
+	}
+	
+	/**
+	 * Gibt einen mit acquireDecoder() geholten Decoder zurück in den Pool.
+	 */
+	private void releaseDecoder(BitmapRegionDecoder decoder) {
+		synchronized (idleDecoders) {
+			if (isReleased) {
+				decoder.recycle();
+				return;
+			}
+			
+			idleDecoders.add(decoder);
+			idleDecoders.notify();
+		}
 	}
 	
 	
@@ -145,15 +678,15 @@ public class CachedImage extends LruCache<String, Bitmap> {
 	// ////////////////////////////////////////////////////////////////////////
 	
 	/**
-	 * Generiert aus x, y, scale den Cachekey (x_y_sampleSize).
+	 * Generiert aus x, y, scale den Cachekey (siehe {@link TileKey}).
 	 * 
 	 * @param x Linke Eckkoordinate.
 	 * @param y Obere Eckkoordinate.
 	 * @param sampleSize Samplesize (n ist 1/n mal so groß wie das Original)
-	 * @return String x+"_"+y+"_"+sampleSize
+	 * @return In einen long gepackte Koordinaten und Samplesize
 	 */
-	private static String getCacheKey(int x, int y, int sampleSize) {
-		return x + "_" + y + "_" + sampleSize;
+	private static long getCacheKey(int x, int y, int sampleSize) {
+		return TileKey.pack(x, y, sampleSize);
 	}
 	
 	/**
@@ -168,6 +701,20 @@ public class CachedImage extends LruCache<String, Bitmap> {
 		return get(getCacheKey(x, y, samplingSize));
 	}
 	
+	/**
+	 * Liefert das Tile ab x, y mit gegebener Samplesize, falls es im Cache vorhanden ist, ansonsten null. Im
+	 * Gegensatz zu {@link #getTileBitmap(int, int, int)} wird bei einem Cache-Miss nichts generiert und das Tile
+	 * nicht als benutzt markiert (z.B. für Vorschauen aus anderen Zoomstufen).
+	 * 
+	 * @param x Linke Eckkoordinate.
+	 * @param y Obere Eckkoordinate.
+	 * @param sampleSize Samplesize (n ist 1/n mal so groß wie das Original)
+	 * @return Tile-Bitmap oder null
+	 */
+	public Bitmap peekTileBitmap(int x, int y, int sampleSize) {
+		return peek(getCacheKey(x, y, sampleSize));
+	}
+	
 	/**
 	 * Speichert gegebenen Tile im Cache.
 	 * 
@@ -183,9 +730,11 @@ public class CachedImage extends LruCache<String, Bitmap> {
 		}
 		
 		// Key erzeugen
-		String key = getCacheKey(x, y, sampleSize);
+		long key = getCacheKey(x, y, sampleSize);
 		
-		Log.d("CachedImage/putTileInCache", "Putting tile " + key + " into cache.");
+		if (BuildConfig.DEBUG) {
+			Log.d("CachedImage/putTileInCache", "Putting tile " + TileKey.toString(key) + " into cache.");
+		}
 		
 		// Tile im Cache speichern
 		put(key, tile);
@@ -193,7 +742,8 @@ public class CachedImage extends LruCache<String, Bitmap> {
 	
 	/**
 	 * Generiert Bildausschnitt ab Koordinaten (left, top) mit sampleSize gibt ihn als Bitmap zurück.
-	 * Sollte nicht direkt aufgerufen werden, sondern asynchron über einen TileWorkerTask.
+	 * Sollte nicht direkt aufgerufen werden, sondern asynchron über den TileScheduler (wird in Worker-Threads
+	 * parallel aufgerufen).
 	 * 
 	 * @param left Linke Eckkoordinate.
 	 * @param top Obere Eckkoordinate.
@@ -202,19 +752,19 @@ public class CachedImage extends LruCache<String, Bitmap> {
 	 */
 	private Bitmap generateTileBitmap(int left, int top, int sampleSize) {
 		// Key erzeugen
-		String key = getCacheKey(left, top, sampleSize);
+		long key = getCacheKey(left, top, sampleSize);
 		
 		// Kein neues Tile generieren, falls es bereits vorhanden ist.
-		if (get(key) != null) {
+		if (containsKey(key)) {
 			return null;
 		}
 		
-		Log.d("CachedImage/generateTileBitmap", "Generating tile " + key + " ...");
-		Log.d("CachedImage/generateTileBitmap", "Memory max: " + Runtime.getRuntime().maxMemory() / 1024 / 1024 + " MB, total: "
-				+ Runtime.getRuntime().totalMemory() / 1024 / 1024 + " MB, free: "
-				+ Runtime.getRuntime().freeMemory() / 1024 / 1024 + " MB");
-		
-		// TODO OutOfMemory-Exceptions auffangen, Cachegröße verkleinern? Oder so?
+		if (BuildConfig.DEBUG) {
+			Log.d("CachedImage/generateTileBitmap", "Generating tile " + TileKey.toString(key) + " ...");
+			Log.d("CachedImage/generateTileBitmap", "Memory max: " + Runtime.getRuntime().maxMemory() / 1024 / 1024
+					+ " MB, total: " + Runtime.getRuntime().totalMemory() / 1024 / 1024 + " MB, free: "
+					+ Runtime.getRuntime().freeMemory() / 1024 / 1024 + " MB");
+		}
 		
 		// Wenn Tile komplett außerhalb des Bildbereichs liegt, gibt es kein Tile.
 		// (< 0 statt < -TILESIZE reicht aus, da left,top % TILESIZE = 0 angenommen wird.)
@@ -222,6 +772,62 @@ public class CachedImage extends LruCache<String, Bitmap> {
 			return null;
 		}
 		
+		// Bei OutOfMemory den Cache halbieren (und den Bitmap-Pool leeren) und es noch einmal versuchen.
+		try {
+			return loadTileBitmapTimed(left, top, sampleSize);
+		}
+		catch (OutOfMemoryError e) {
+			Log.w("CachedImage/generateTileBitmap", "Out of memory while generating tile " + TileKey.toString(key)
+					+ ", shrinking cache and retrying");
+			shrinkCache(maxSize() / 2);
+		}
+		
+		try {
+			return loadTileBitmapTimed(left, top, sampleSize);
+		}
+		catch (OutOfMemoryError e) {
+			// Tile wird beim nächsten Zeichnen erneut angefordert.
+			Log.e("CachedImage/generateTileBitmap", "Out of memory again while generating tile "
+					+ TileKey.toString(key) + ", giving up for now");
+			return null;
+		}
+	}
+	
+	/**
+	 * Lädt das Tile wie {@link #loadTileBitmap(int, int, int)} und erfasst die Dauer in den RenderMetrics.
+	 */
+	private Bitmap loadTileBitmapTimed(int left, int top, int sampleSize) {
+		long startTime = System.nanoTime();
+		Bitmap tile = loadTileBitmap(left, top, sampleSize);
+		RenderMetrics.getDecodeTime(sampleSize).recordNanos(System.nanoTime() - startTime);
+		return tile;
+	}
+	
+	/**
+	 * Lädt das Tile ab (left, top) aus der Tile-Pyramide oder dekodiert es aus dem Bild (siehe
+	 * {@link #generateTileBitmap(int, int, int)}).
+	 */
+	private Bitmap loadTileBitmap(int left, int top, int sampleSize) {
+		// Grobe Zoomstufen wenn möglich aus der Tile-Pyramide lesen, statt fast das ganze Bild zu dekodieren.
+		TilePyramid pyramid = tilePyramid;
+		
+		if (pyramid != null && pyramid.hasLevel(sampleSize)) {
+			Bitmap tile = pyramid.readTile(left, top, sampleSize, bitmapPool);
+			
+			if (tile != null) {
+				return tile;
+			}
+		}
+		
+		// Ohne BitmapRegionDecoder gibt es nur die Pyramide (feinere Zoomstufen als ihre feinste werden hochskaliert).
+		if (!regionDecoderAvailable) {
+			if (pyramid == null || sampleSize >= pyramid.getFinestSampleSize()) {
+				return null;
+			}
+			
+			return loadUpscaledPyramidTile(pyramid, left, top, sampleSize);
+		}
+		
 		// Berechne Maße/Eckpunkte des Tiles (gesampelte Tiles sollen dennoch TILESIZE groß sein, aber der gewünschte
 		// Bildausschnitt wird dadurch natürlich größer, daher *sampleSize)
 		// min(), um Tile am Rand abschneiden, wenn Bildrest nicht groß genug.
@@ -232,51 +838,138 @@ public class CachedImage extends LruCache<String, Bitmap> {
 		Options opts = new Options();
 		opts.inSampleSize = sampleSize;
 		
-		// Tile generieren und zurückgeben
-		return regionDecoder.decodeRegion(new Rect(left, top, right, bottom), opts);
+		// Vollständige Tiles haben immer die Größe TILESIZE*TILESIZE, hier kann eine alte Bitmap wiederverwendet
+		// werden. (Bei Randtiles ist die genaue Größe nach dem Sampling nicht bekannt.)
+		if (right - left == sampleSize * TILESIZE && bottom - top == sampleSize * TILESIZE) {
+			setReusableBitmap(opts);
+		}
+		
+		// Freien Decoder holen (blockiert ggf., bis ein anderer Worker fertig ist)
+		BitmapRegionDecoder decoder = acquireDecoder();
+		
+		if (decoder == null) {
+			return null;
+		}
+		
+		Rect region = new Rect(left, top, right, bottom);
+		
+		try {
+			// Tile generieren und zurückgeben
+			return decoder.decodeRegion(region, opts);
+		}
+		catch (IllegalArgumentException e) {
+			// Die Bitmap aus dem Pool konnte nicht wiederverwendet werden, dann ohne versuchen.
+			if (opts.inBitmap == null) {
+				throw e;
+			}
+			
+			Log.w("CachedImage/generateTileBitmap", "Could not reuse bitmap: " + e.getMessage());
+			opts.inBitmap = null;
+			return decoder.decodeRegion(region, opts);
+		}
+		finally {
+			releaseDecoder(decoder);
+		}
 	}
 	
 	/**
-	 * Asynchroner Task, der ein Tile generiert und es anschließend im Cache speichert.
+	 * Erzeugt das Tile ab (left, top) für eine Samplesize, die feiner als das feinste Level der Pyramide ist, indem
+	 * der passende Ausschnitt eines Pyramiden-Tiles hochskaliert wird (für Bilder ohne BitmapRegionDecoder, die zu
+	 * groß waren, um sie in voller Auflösung zu dekodieren).
 	 */
-	class TileWorkerTask extends AsyncTask<Void, Void, Bitmap> {
-		private int x, y, sampleSize;
+	private Bitmap loadUpscaledPyramidTile(TilePyramid pyramid, int left, int top, int sampleSize) {
+		int finestSampleSize = pyramid.getFinestSampleSize();
+		Bitmap source = pyramid.readTile(left, top, finestSampleSize, bitmapPool);
 		
-		public TileWorkerTask(int x, int y, int sampleSize) {
-			this.x = x;
-			this.y = y;
-			this.sampleSize = sampleSize;
+		if (source == null) {
+			return null;
 		}
 		
-		@Override
-		protected Bitmap doInBackground(Void... params) {
-			// Tile generieren
-			return generateTileBitmap(x, y, sampleSize);
-		}
+		// Ausschnitt im Pyramiden-Tile (dessen Ursprung ist (left, top) abgerundet auf dessen Tilegröße)
+		int sourceExtent = TILESIZE * finestSampleSize;
+		int srcLeft = (left % sourceExtent) / finestSampleSize;
+		int srcTop = (top % sourceExtent) / finestSampleSize;
+		int srcSize = TILESIZE * sampleSize / finestSampleSize;
+		Rect src = new Rect(srcLeft, srcTop, Math.min(source.getWidth(), srcLeft + srcSize),
+				Math.min(source.getHeight(), srcTop + srcSize));
 		
-		@Override
-		protected void onPostExecute(Bitmap result) {
-			if (result == null) {
-				Log.e("TileWorkerTask/onPostExecute", "Generated tile, but it's == null! What?");
-				return;
+		// Größe des Tiles wie beim Dekodieren mit inSampleSize (am Rand kleiner)
+		int width = Math.min(TILESIZE, (getWidth() - left + sampleSize - 1) / sampleSize);
+		int height = Math.min(TILESIZE, (getHeight() - top + sampleSize - 1) / sampleSize);
+		
+		try {
+			if (src.isEmpty()) {
+				return null;
 			}
 			
-			// Tile in Cache speichern falls ungleich null
-			putTileInCache(x, y, sampleSize, result);
+			Bitmap tile = bitmapPool.get(width, height, Bitmap.Config.RGB_565);
 			
-			// bei Fertigstellung wird der Eintrag in workingTileTasks entfernt
-			workingTileTasks.remove(getCacheKey(x, y, sampleSize));
+			if (tile == null) {
+				tile = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+			}
+			
+			Canvas canvas = new Canvas(tile);
+			canvas.drawBitmap(source, src, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
 			
-			// Callback aufrufen, das in der LargeImageView dann this.invalidated.
-			if (cacheMissResolvedCallback != null) {
-				cacheMissResolvedCallback.onCacheMissResolved();
+			return tile;
+		}
+		finally {
+			if (!bitmapPool.put(source)) {
+				source.recycle();
+			}
+		}
+	}
+	
+	/**
+	 * Setzt in opts eine Bitmap aus dem Pool, in die das Tile dekodiert wird (BitmapRegionDecoder unterstützt das
+	 * erst ab API 16). Außerdem werden neue Tiles veränderbar dekodiert, damit sie später in den Pool können.
+	 */
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void setReusableBitmap(Options opts) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+			return;
+		}
+		
+		opts.inMutable = true;
+		opts.inBitmap = bitmapPool.get(TILESIZE, TILESIZE, Bitmap.Config.ARGB_8888);
+	}
+	
+	/**
+	 * Wird (im Worker-Thread) aufgerufen, nachdem der TileScheduler ein Tile generiert hat. Speichert das Tile im
+	 * Cache (LruCache ist threadsicher) und ruft dann im UI-Thread den CacheMissResolvedCallback auf.
+	 */
+	private void onTileGenerated(int x, int y, int sampleSize, Bitmap tile) {
+		if (tile == null) {
+			// (passiert auch, wenn das Tile schon im Cache war oder außerhalb des Bildes liegt)
+			if (BuildConfig.DEBUG) {
+				Log.d("CachedImage/onTileGenerated", "Generated tile " + TileKey.toString(getCacheKey(x, y, sampleSize))
+						+ " is null.");
+			}
+			return;
+		}
+		
+		// Cachegröße an den freien Heap anpassen, dann Tile in Cache speichern
+		adaptCacheSizeToHeap();
+		putTileInCache(x, y, sampleSize, tile);
+		
+		// Tile für den Callback vormerken
+		synchronized (resolvedTileKeys) {
+			if (resolvedTileCount < MAX_RESOLVED_TILE_KEYS) {
+				resolvedTileKeys[resolvedTileCount++] = getCacheKey(x, y, sampleSize);
+			}
+			else {
+				resolvedTilesOverflow = true;
 			}
 		}
+		
+		// Callback im UI-Thread aufrufen. Kommen mehrere Tiles kurz hintereinander an, reicht ein Aufruf.
+		uiHandler.removeCallbacks(cacheMissResolvedRunnable);
+		uiHandler.post(cacheMissResolvedRunnable);
 	}
 	
 	/**
 	 * Gibt den Ausschnitt des Bildes zurück, der bei x,y beginnt und TILESIZE breit und hoch ist, bzw. am Rand kleiner.
-	 * Tiles werden mit LRU gecachet (nach x, y, scale).
+	 * Tiles werden mit LRU gecachet (nach x, y, scale). Ist das Tile im Cache, werden keine Objekte erzeugt.
 	 * 
 	 * @param x Linke Eckkoordinate.
 	 * @param y Obere Eckkoordinate.
@@ -287,41 +980,342 @@ public class CachedImage extends LruCache<String, Bitmap> {
 		// Tile aus Cache laden, falls vorhanden, sonst null.
 		Bitmap tile = getCachedTileBitmap(x, y, sampleSize);
 		
-		// Tile in asynchronen Task generieren, falls es nicht im Cache gefunden wurde.
+		// Tile asynchron generieren lassen, falls es nicht im Cache gefunden wurde.
 		if (tile == null) {
-			// Key erzeugen
-			String key = getCacheKey(x, y, sampleSize);
+			RenderMetrics.TILE_CACHE_MISSES.increment();
+			
+			// Der TileScheduler ignoriert die Anfrage, falls das Tile bereits generiert wird. Es werden so viele Tiles
+			// parallel generiert, wie es Worker gibt, die übrigen warten in der Warteschlange.
+			if (tileScheduler.requestTile(x, y, sampleSize) && BuildConfig.DEBUG) {
+				Log.d("CachedImage/getTileBitmap", "Tile " + TileKey.toString(getCacheKey(x, y, sampleSize))
+						+ " not found in cache -> generating (async)...");
+			}
+			
+			// null zurückgeben um zu signalisieren, dass NOCH kein Bild vorhanden ist.
+			// Nach dem Laden wird der CacheMissResolvedCallback aufgerufen, der ein invalidate() veranlasst.
+			return null;
+		}
+		
+		RenderMetrics.TILE_CACHE_HITS.increment();
+		return tile;
+	}
+	
+	/**
+	 * Lässt ein Tile, das voraussichtlich bald sichtbar wird, spekulativ im Hintergrund generieren, falls es noch
+	 * nicht im Cache liegt. Sichtbare Tiles (getTileBitmap()) haben immer Vorrang, siehe
+	 * {@link TileScheduler#requestPrefetch(int, int, int)}.
+	 *
+	 * @return true, falls das Tile neu angefordert wurde.
+	 */
+	public boolean prefetchTile(int x, int y, int sampleSize) {
+		if (x < 0 || y < 0 || x >= imageWidth || y >= imageHeight) {
+			return false;
+		}
+		
+		if (containsKey(getCacheKey(x, y, sampleSize))) {
+			return false;
+		}
+		
+		if (!tileScheduler.requestPrefetch(x, y, sampleSize)) {
+			return false;
+		}
+		
+		RenderMetrics.TILE_PREFETCHES.increment();
+		return true;
+	}
+	
+	/**
+	 * Gibt false zurück, solange keine Prefetch-Anfragen angenommen werden (weil noch sichtbare Tiles generiert
+	 * werden). Die View kann sich dann das Vorhersagen sparen.
+	 */
+	public boolean canPrefetch() {
+		return !isReleased && tileScheduler.canPrefetch();
+	}
+	
+	/**
+	 * Gibt den Zustand von Cache, Bitmap-Pool und TileScheduler als Text zurück (für den Debug-Modus).
+	 */
+	public String getDebugInfo() {
+		return toString() + ", " + bitmapPool.toString() + ", pending tiles: " + tileScheduler.getPendingCount();
+	}
+	
+	/**
+	 * Teilt dem TileScheduler den aktuell sichtbaren Bildausschnitt mit (in Koordinaten des Originalbildes). Wartende
+	 * Tiles werden nach ihrer Entfernung zur Mitte des Ausschnitts generiert, nicht mehr sichtbare werden verworfen.
+	 * Tiles im Umkreis von einer Tilebreite um den Ausschnitt bleiben erhalten, damit beim Verschieben keine gerade
+	 * angeforderten Randtiles verloren gehen.
+	 * 
+	 * @param sampleSize aktuelle Samplesize (wartende Tiles anderer Samplesizes werden verworfen)
+	 */
+	public void setViewport(int left, int top, int right, int bottom, int sampleSize) {
+		int margin = TILESIZE * sampleSize;
+		tileScheduler.setViewport(left - margin, top - margin, right + margin, bottom + margin, sampleSize);
+		
+		updateMinCacheSize(right - left, bottom - top, sampleSize);
+	}
+	
+	/**
+	 * Berechnet die minimale Cachegröße aus der Anzahl der Tiles, die ein Ausschnitt dieser Größe braucht: eine Spalte
+	 * und Zeile mehr für angeschnittene Tiles und ein Viertel mehr für die Vorschau-Tiles der nächstgröberen
+	 * Samplesize (höchstens aber die Zielgröße). Ist der Cache gerade kleiner, wird er entsprechend vergrößert.
+	 */
+	private void updateMinCacheSize(int viewportWidth, int viewportHeight, int sampleSize) {
+		int tileExtent = TILESIZE * sampleSize;
+		int tilesX = Math.min(viewportWidth / tileExtent + 2, (imageWidth - 1) / tileExtent + 1);
+		int tilesY = Math.min(viewportHeight / tileExtent + 2, (imageHeight - 1) / tileExtent + 1);
+		int tileCount = Math.max(1, tilesX * tilesY * 5 / 4);
+		int newMinCacheSize = Math.max(MIN_CACHE_SIZE, Math.min(targetCacheSize, tileCount * TILE_KB));
+		
+		if (newMinCacheSize == minCacheSize) {
+			return;
+		}
+		
+		minCacheSize = newMinCacheSize;
+		
+		if (maxSize() < newMinCacheSize) {
+			resize(newMinCacheSize);
+		}
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// ÜBERSICHTSBILD
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Gibt das Übersichtsbild (das gesamte Bild stark verkleinert, siehe {@link #getOverviewSampleSize()}) zurück,
+	 * oder null, falls es (noch) nicht erzeugt wurde.
+	 */
+	public Bitmap getOverviewBitmap() {
+		return overviewBitmap;
+	}
+	
+	/**
+	 * Samplesize des Übersichtsbildes.
+	 */
+	public int getOverviewSampleSize() {
+		return overviewSampleSize;
+	}
+	
+	/**
+	 * Berechnet die kleinste Samplesize (Zweierpotenz), bei der das Übersichtsbild nicht größer als
+	 * OVERVIEW_MAX_SIZE ist.
+	 */
+	private int calculateOverviewSampleSize() {
+		// Ohne BitmapRegionDecoder wird das Übersichtsbild aus den Tiles der Pyramide zusammengesetzt.
+		TilePyramid pyramid = tilePyramid;
+		int sampleSize = !regionDecoderAvailable && pyramid != null ? pyramid.getFinestSampleSize() : 1;
+		
+		while (Math.max(imageWidth, imageHeight) / sampleSize > OVERVIEW_MAX_SIZE) {
+			sampleSize *= 2;
+		}
+		
+		return sampleSize;
+	}
+	
+	/**
+	 * Erzeugt das Übersichtsbild in einem Hintergrundthread und aktualisiert danach die Ansicht.
+	 */
+	private class OverviewTask extends AsyncTask<Void, Void, Bitmap> {
+		private final int sampleSize = calculateOverviewSampleSize();
+		
+		@Override
+		protected Bitmap doInBackground(Void... params) {
+			if (isReleased) {
+				return null;
+			}
 			
-			// Prüfe zunächst, ob dieser Tile bereits einen laufenden TileWorkerTask hat
-			if (workingTileTasks.contains(key)) {
-				Log.d("CachedImage/getTileBitmap", "Tile " + key + " is already being generated...");
+			if (!regionDecoderAvailable) {
+				Bitmap overview = tilePyramid != null ? null : decodeFromFile();
 				
-				// Ja, also kein Bild zurückgeben
+				// Pyramide wurde evtl. währenddessen geöffnet
+				return overview != null ? overview : composeFromPyramid();
+			}
+			
+			Options opts = new Options();
+			opts.inSampleSize = sampleSize;
+			opts.inPreferredConfig = Bitmap.Config.RGB_565;
+			
+			BitmapRegionDecoder decoder = acquireDecoder();
+			
+			if (decoder == null) {
+				return null;
+			}
+			
+			try {
+				return decoder.decodeRegion(new Rect(0, 0, imageWidth, imageHeight), opts);
+			}
+			catch (OutOfMemoryError e) {
+				// Ohne Übersichtsbild bleiben fehlende Tiles eben leer.
+				Log.w("CachedImage/OverviewTask", "Out of memory while generating overview with sample size "
+						+ sampleSize);
 				return null;
 			}
-			else if (!workingTileTasks.isEmpty()) {
-				// Wir generieren immer nur ein Tile zur selben Zeit (siehe #234)
-				Log.d("CachedImage/getTileBitmap", "Tile " + key + " not found in cache, but we're already generating a tile... Wait...");
+			finally {
+				releaseDecoder(decoder);
+			}
+		}
+		
+		/**
+		 * Dekodiert das Übersichtsbild direkt aus der Datei (für Bilder ohne BitmapRegionDecoder, solange die Pyramide
+		 * noch nicht geöffnet ist).
+		 */
+		private Bitmap decodeFromFile() {
+			Options opts = new Options();
+			opts.inSampleSize = sampleSize;
+			opts.inPreferredConfig = Bitmap.Config.RGB_565;
+			
+			try {
+				return BitmapFactory.decodeFile(imageFilename, opts);
+			}
+			catch (OutOfMemoryError e) {
+				Log.w("CachedImage/OverviewTask", "Out of memory while decoding overview with sample size "
+						+ sampleSize);
 				return null;
 			}
-			else {
-				Log.d("CachedImage/getTileBitmap", "Tile " + key + " not found in cache -> generating (async)...");
-				
-				// Starte Task
-				TileWorkerTask task = new TileWorkerTask(x, y, sampleSize);
-				task.execute();
+		}
+		
+		/**
+		 * Setzt das Übersichtsbild aus den Tiles der Pyramide zusammen (für Bilder ohne BitmapRegionDecoder).
+		 */
+		private Bitmap composeFromPyramid() {
+			TilePyramid pyramid = tilePyramid;
+			
+			if (pyramid == null || !pyramid.hasLevel(sampleSize)) {
+				return null;
+			}
+			
+			int tileExtent = TILESIZE * sampleSize;
+			
+			try {
+				Bitmap overview = Bitmap.createBitmap((imageWidth + sampleSize - 1) / sampleSize,
+						(imageHeight + sampleSize - 1) / sampleSize, Bitmap.Config.RGB_565);
+				Canvas canvas = new Canvas(overview);
 				
-				// Wir merken uns, dass dieses Tile jetzt generiert wird, damit bei einem nächsten Aufruf vor der
-				// Fertigstellung des Tiles nicht noch ein gleicher Task erzeugt wird.
-				workingTileTasks.add(key);
+				for (int y = 0; y < imageHeight; y += tileExtent) {
+					for (int x = 0; x < imageWidth; x += tileExtent) {
+						Bitmap tile = pyramid.readTile(x, y, sampleSize, null);
+						
+						if (tile != null) {
+							canvas.drawBitmap(tile, x / sampleSize, y / sampleSize, null);
+							tile.recycle();
+						}
+					}
+				}
 				
-				// null zurückgeben um zu signalisieren, dass NOCH kein Bild vorhanden ist.
-				// TileWorkerTask veranlasst nach dem Laden ein invalidate();
+				return overview;
+			}
+			catch (OutOfMemoryError e) {
+				Log.w("CachedImage/OverviewTask", "Out of memory while composing overview with sample size "
+						+ sampleSize);
 				return null;
 			}
 		}
 		
-		return tile;
+		@Override
+		protected void onPostExecute(Bitmap result) {
+			if (overviewTask == this) {
+				overviewTask = null;
+			}
+			
+			if (result == null || isReleased) {
+				return;
+			}
+			
+			Log.d("CachedImage/OverviewTask", "Generated overview " + result.getWidth() + "x" + result.getHeight()
+					+ " (sample size " + sampleSize + ")");
+			
+			overviewSampleSize = sampleSize;
+			overviewBitmap = result;
+			
+			// Ansicht aktualisieren, damit fehlende Tiles nun mit der Vorschau gezeichnet werden.
+			CacheMissResolvedCallback callback = cacheMissResolvedCallback;
+			
+			if (callback != null) {
+				callback.onCacheMissResolved();
+			}
+		}
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// SPEICHERVERWALTUNG
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Sollte aufgerufen werden, wenn das System ComponentCallbacks2.onTrimMemory() meldet (API 14). Verkleinert den
+	 * Cache je nach Dringlichkeit. Er wächst danach schrittweise wieder, sobald genug Heap frei ist.
+	 * 
+	 * @param level Level aus ComponentCallbacks2 (TRIM_MEMORY_...)
+	 */
+	public void onTrimMemory(int level) {
+		Log.d("CachedImage/onTrimMemory", "Trim memory level " + level + ", cache size " + size() + "/" + maxSize()
+				+ " KB");
+		
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			// App ist im Hintergrund und wird bald beendet: alles freigeben
+			onLowMemory();
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+			shrinkCache(targetCacheSize / 4);
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			shrinkCache(targetCacheSize / 2);
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+			shrinkCache(minCacheSize);
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			shrinkCache(targetCacheSize / 4);
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+			shrinkCache(targetCacheSize / 2);
+		}
+	}
+	
+	/**
+	 * Sollte aufgerufen werden, wenn das System onLowMemory() meldet. Leert den Cache und den Bitmap-Pool.
+	 */
+	public void onLowMemory() {
+		evictAll();
+		shrinkCache(minCacheSize);
+		bitmapPool.clear();
+	}
+	
+	/**
+	 * Verkleinert den Cache auf newSize KB (mindestens minCacheSize) und leert den Bitmap-Pool.
+	 */
+	private void shrinkCache(int newSize) {
+		newSize = Math.max(minCacheSize, newSize);
+		
+		if (newSize < maxSize()) {
+			Log.d("CachedImage/shrinkCache", "Shrinking cache from " + maxSize() + " KB to " + newSize + " KB");
+			resize(newSize);
+		}
+		
+		// Verdrängte Tiles landen zunächst im Pool, der Speicher soll aber tatsächlich frei werden.
+		bitmapPool.clear();
+		clearEvictedTiles();
+	}
+	
+	/**
+	 * Passt die Cachegröße an den tatsächlich freien Heap an: Ist kaum noch Heap frei, wird der Cache verkleinert,
+	 * ist wieder genug frei, wächst er schrittweise bis zur Zielgröße.
+	 */
+	private void adaptCacheSizeToHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		long maxMemory = runtime.maxMemory();
+		long availableMemory = maxMemory - (runtime.totalMemory() - runtime.freeMemory());
+		int cacheSize = maxSize();
+		
+		if (availableMemory < maxMemory / LOW_HEAP_FRACTION) {
+			if (cacheSize > minCacheSize) {
+				shrinkCache(cacheSize * 3 / 4);
+			}
+		}
+		else if (availableMemory > maxMemory / HIGH_HEAP_FRACTION && cacheSize < targetCacheSize) {
+			resize(Math.min(targetCacheSize, cacheSize + CACHE_GROW_STEP));
+		}
 	}
 	
 }
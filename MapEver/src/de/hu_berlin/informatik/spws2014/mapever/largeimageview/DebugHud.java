@@ -0,0 +1,171 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.Locale;
+
+/**
+ * Einblendung der {@link RenderMetrics} (und des Cache-Zustands) oben links in der LargeImageView, im Debug-Modus.
+ * Der Text wird nur alle REFRESH_INTERVAL ms neu zusammengesetzt, damit die Anzeige selbst kaum Zeit kostet.
+ */
+class DebugHud {
+	
+	// ////// CONSTANTS
+	
+	// Abstand der Aktualisierungen in ms
+	static final long REFRESH_INTERVAL = 500;
+	
+	// Textgröße und Rand in dp
+	private static final float TEXT_SIZE = 11;
+	private static final float PADDING = 4;
+	
+	// Anzahl der Textzeilen
+	private static final int LINE_COUNT = 6;
+	
+	
+	// ////// MEMBERS
+	
+	private final String[] lines = new String[LINE_COUNT];
+	
+	private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint backgroundPaint = new Paint();
+	
+	private final float padding;
+	private final float lineHeight;
+	
+	// Zeitpunkt der letzten Aktualisierung (SystemClock.uptimeMillis())
+	private long lastUpdateTime = 0;
+	
+	// Bereich der Einblendung in Bildschirmkoordinaten
+	private final Rect bounds = new Rect();
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CONSTRUCTORS AND INITIALIZATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @param density Pixel pro dp (DisplayMetrics.density)
+	 */
+	DebugHud(float density) {
+		textPaint.setColor(Color.WHITE);
+		textPaint.setTextSize(TEXT_SIZE * density);
+		backgroundPaint.setColor(Color.argb(160, 0, 0, 0));
+		
+		padding = PADDING * density;
+		lineHeight = textPaint.descent() - textPaint.ascent();
+		
+		for (int i = 0; i < LINE_COUNT; i++) {
+			lines[i] = "";
+		}
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// DRAWING
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Setzt den Text neu zusammen, falls die letzte Aktualisierung mindestens REFRESH_INTERVAL ms her ist.
+	 *
+	 * @param now Aktuelle Zeit (SystemClock.uptimeMillis())
+	 * @param cachedImage Aktuelles CachedImage der View (oder null)
+	 * @return true, falls aktualisiert wurde (dann sollte die nächste Aktualisierung angefordert werden).
+	 */
+	boolean update(long now, CachedImage cachedImage) {
+		if (now - lastUpdateTime < REFRESH_INTERVAL) {
+			return false;
+		}
+		
+		lastUpdateTime = now;
+		
+		long frames = RenderMetrics.FRAMES.get();
+		long framesOverBudget = RenderMetrics.FRAMES_OVER_BUDGET.get();
+		lines[0] = String.format(Locale.US, "frames %d, over budget %d (%.1f%%)", frames, framesOverBudget,
+				frames == 0 ? 0f : 100f * framesOverBudget / frames);
+		
+		lines[1] = "onDraw ms " + formatPercentiles(RenderMetrics.DRAW_TIME);
+		
+		long hits = RenderMetrics.TILE_CACHE_HITS.get();
+		long misses = RenderMetrics.TILE_CACHE_MISSES.get();
+		lines[2] = String.format(Locale.US, "tiles hit %d miss %d (%.1f%% hits), evicted %d, prefetched %d", hits,
+				misses, hits + misses == 0 ? 0f : 100f * hits / (hits + misses), RenderMetrics.TILE_EVICTIONS.get(),
+				RenderMetrics.TILE_PREFETCHES.get());
+		
+		lines[3] = String.format(Locale.US, "queue depth p95 %d max %d, wait ms %s",
+				RenderMetrics.TILE_QUEUE_DEPTH.getPercentile(0.95f), RenderMetrics.TILE_QUEUE_DEPTH.getMax(),
+				formatPercentiles(RenderMetrics.TILE_QUEUE_WAIT));
+		
+		StringBuilder decodeLine = new StringBuilder("decode ms p95");
+		
+		for (int sampleSize = 1; sampleSize <= 128; sampleSize *= 2) {
+			RenderMetrics.Histogram decodeTime = RenderMetrics.getDecodeTime(sampleSize);
+			
+			if (decodeTime.getCount() > 0) {
+				decodeLine.append(String.format(Locale.US, " %d:%.1f", sampleSize,
+						decodeTime.toDisplayUnit(decodeTime.getPercentile(0.95f))));
+			}
+		}
+		
+		lines[4] = decodeLine.toString();
+		
+		lines[5] = cachedImage == null ? "no tile cache" : String.format(Locale.US,
+				"cache %d/%d KB, %d tiles", cachedImage.size(), cachedImage.maxSize(), cachedImage.entryCount());
+		
+		// Größe der Einblendung
+		float maxWidth = 0;
+		
+		for (int i = 0; i < LINE_COUNT; i++) {
+			maxWidth = Math.max(maxWidth, textPaint.measureText(lines[i]));
+		}
+		
+		bounds.set(0, 0, (int) Math.ceil(maxWidth + 2 * padding),
+				(int) Math.ceil(LINE_COUNT * lineHeight + 2 * padding));
+		
+		return true;
+	}
+	
+	private static String formatPercentiles(RenderMetrics.Histogram histogram) {
+		return String.format(Locale.US, "p50 %.1f p95 %.1f max %.1f",
+				histogram.toDisplayUnit(histogram.getPercentile(0.5f)),
+				histogram.toDisplayUnit(histogram.getPercentile(0.95f)), histogram.toDisplayUnit(histogram.getMax()));
+	}
+	
+	/**
+	 * Zeichnet die Einblendung (in Bildschirmkoordinaten).
+	 */
+	void draw(Canvas canvas) {
+		canvas.drawRect(bounds, backgroundPaint);
+		
+		for (int i = 0; i < LINE_COUNT; i++) {
+			canvas.drawText(lines[i], padding, padding + i * lineHeight - textPaint.ascent(), textPaint);
+		}
+	}
+	
+	/**
+	 * Bereich der Einblendung in Bildschirmkoordinaten.
+	 */
+	Rect getBounds() {
+		return bounds;
+	}
+	
+}
@@ -0,0 +1,216 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * Gemeinsamer Taktgeber für alle Animationen (z.B. das Fading der OverlayIcons): Statt eines Timers pro Animation
+ * werden alle laufenden Animationen einmal pro Frame (vsync) nacheinander aktualisiert. Deren invalidate()-Aufrufe
+ * fallen damit in denselben Frame und werden von Android zu einem einzigen Neuzeichnen zusammengefasst.
+ *
+ * Der Takt kommt ab API 16 vom Choreographer, davor von einem Handler (alle FALLBACK_FRAME_DELAY ms). Laufen keine
+ * Animationen, wird kein Frame angefordert. Nicht threadsicher (nur vom UI-Thread benutzen).
+ */
+public class FrameClock {
+	
+	// ////// CONSTANTS
+	
+	// Abstand der Frames ohne Choreographer (ca. 60 fps)
+	private static final long FALLBACK_FRAME_DELAY = 16;
+	
+	
+	// ////// STATIC VARIABLES
+	
+	private static FrameClock instance = null;
+	
+	
+	// ////// MEMBERS
+	
+	// Laufende Animationen und Kopie für den aktuellen Frame (Callbacks dürfen Animationen starten und stoppen)
+	private final ArrayList<FrameCallback> callbacks = new ArrayList<FrameCallback>();
+	private final ArrayList<FrameCallback> frameCallbacks = new ArrayList<FrameCallback>();
+	
+	// Wurde bereits ein Frame angefordert?
+	private boolean frameScheduled = false;
+	
+	// Taktquelle (je nach API-Level wird nur eins davon benutzt)
+	private Object choreographerCallback = null;
+	private Handler fallbackHandler = null;
+	private Runnable fallbackRunnable = null;
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CALLBACK INTERFACE
+	// ////////////////////////////////////////////////////////////////////////
+	
+	public interface FrameCallback {
+		/**
+		 * Wird einmal pro Frame aufgerufen, solange die Animation läuft.
+		 *
+		 * @param frameTime Zeitpunkt des Frames in ms (Zeitbasis wie SystemClock.uptimeMillis())
+		 * @return false, wenn die Animation beendet ist (der Callback wird dann entfernt).
+		 */
+		public boolean onFrame(long frameTime);
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CONSTRUCTORS AND INITIALIZATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	private FrameClock() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			initChoreographer();
+		}
+		else {
+			fallbackHandler = new Handler(Looper.getMainLooper());
+			fallbackRunnable = new Runnable() {
+				@Override
+				public void run() {
+					doFrame(SystemClock.uptimeMillis());
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Gibt den gemeinsamen Taktgeber zurück (nur vom UI-Thread aufrufen).
+	 */
+	public static FrameClock getInstance() {
+		if (instance == null) {
+			instance = new FrameClock();
+		}
+		
+		return instance;
+	}
+	
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void initChoreographer() {
+		choreographerCallback = new Choreographer.FrameCallback() {
+			@Override
+			public void doFrame(long frameTimeNanos) {
+				// (frameTimeNanos hat die Zeitbasis von System.nanoTime(), also dieselbe wie uptimeMillis().)
+				FrameClock.this.doFrame(frameTimeNanos / 1000000);
+			}
+		};
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// ANIMATIONS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Startet eine Animation: callback wird ab dem nächsten Frame einmal pro Frame aufgerufen, bis er false
+	 * zurückgibt oder mit {@link #removeCallback(FrameCallback)} entfernt wird. Ist er bereits registriert, passiert
+	 * nichts.
+	 */
+	public void addCallback(FrameCallback callback) {
+		if (!callbacks.contains(callback)) {
+			callbacks.add(callback);
+		}
+		
+		scheduleFrame();
+	}
+	
+	/**
+	 * Stoppt eine Animation (ohne weiteren Aufruf von onFrame()).
+	 */
+	public void removeCallback(FrameCallback callback) {
+		callbacks.remove(callback);
+	}
+	
+	/**
+	 * Gibt zurück, ob der Callback gerade registriert ist.
+	 */
+	public boolean isRunning(FrameCallback callback) {
+		return callbacks.contains(callback);
+	}
+	
+	/**
+	 * Anzahl der laufenden Animationen.
+	 */
+	public int getCallbackCount() {
+		return callbacks.size();
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// FRAMES
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Fordert den nächsten Frame an, falls noch nicht geschehen.
+	 */
+	private void scheduleFrame() {
+		if (frameScheduled) {
+			return;
+		}
+		
+		frameScheduled = true;
+		
+		if (choreographerCallback != null) {
+			postChoreographerCallback();
+		}
+		else {
+			fallbackHandler.postDelayed(fallbackRunnable, FALLBACK_FRAME_DELAY);
+		}
+	}
+	
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void postChoreographerCallback() {
+		Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) choreographerCallback);
+	}
+	
+	/**
+	 * Aktualisiert alle laufenden Animationen und fordert den nächsten Frame an, solange noch welche laufen.
+	 */
+	private void doFrame(long frameTime) {
+		frameScheduled = false;
+		
+		// (Elementweise kopieren: addAll() erzeugt bei jedem Aufruf ein Array.)
+		frameCallbacks.clear();
+		
+		for (int i = 0; i < callbacks.size(); i++) {
+			frameCallbacks.add(callbacks.get(i));
+		}
+		
+		for (int i = 0; i < frameCallbacks.size(); i++) {
+			FrameCallback callback = frameCallbacks.get(i);
+			
+			// (Könnte von einem vorherigen Callback entfernt worden sein.)
+			if (callbacks.contains(callback) && !callback.onFrame(frameTime)) {
+				callbacks.remove(callback);
+			}
+		}
+		
+		frameCallbacks.clear();
+		
+		if (!callbacks.isEmpty()) {
+			scheduleFrame();
+		}
+	}
+	
+}
@@ -0,0 +1,113 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+/**
+ * Zählt Dauer und neu gezeichnete Fläche der Frames einer View, um den Nutzen von Teil-Invalidierungen zu messen:
+ * Wie lange dauert onDraw() im Schnitt, und welcher Anteil der View musste tatsächlich neu gezeichnet werden?
+ * Nicht threadsicher (nur vom UI-Thread benutzen).
+ */
+public class FrameTimeCounter {
+	
+	// ////// MEMBERS
+	
+	// Anzahl Frames (davon mit Teilbereich) seit dem letzten reset()
+	private int frameCount = 0;
+	private int partialFrameCount = 0;
+	
+	// Summe und Maximum der Zeichendauer in ns
+	private long totalDrawNanos = 0;
+	private long maxDrawNanos = 0;
+	
+	// Summe der neu gezeichneten Fläche und der Fläche der ganzen View in Pixeln
+	private long drawnPixels = 0;
+	private long viewPixels = 0;
+	
+	
+	/**
+	 * Zählt einen Frame.
+	 *
+	 * @param drawNanos Dauer von onDraw() in ns
+	 * @param drawnArea Neu gezeichnete Fläche in Pixeln (Größe des Clip-Bereichs)
+	 * @param viewArea Fläche der ganzen View in Pixeln
+	 */
+	public void recordFrame(long drawNanos, int drawnArea, int viewArea) {
+		frameCount++;
+		totalDrawNanos += drawNanos;
+		maxDrawNanos = Math.max(maxDrawNanos, drawNanos);
+		drawnPixels += drawnArea;
+		viewPixels += viewArea;
+		
+		if (drawnArea < viewArea) {
+			partialFrameCount++;
+		}
+	}
+	
+	/**
+	 * Setzt alle Zähler zurück.
+	 */
+	public void reset() {
+		frameCount = partialFrameCount = 0;
+		totalDrawNanos = maxDrawNanos = 0;
+		drawnPixels = viewPixels = 0;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// GETTERS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	public int getFrameCount() {
+		return frameCount;
+	}
+	
+	/**
+	 * Anzahl der Frames, in denen nur ein Teil der View neu gezeichnet wurde.
+	 */
+	public int getPartialFrameCount() {
+		return partialFrameCount;
+	}
+	
+	/**
+	 * Durchschnittliche Dauer von onDraw() in ms.
+	 */
+	public float getAverageFrameMillis() {
+		return frameCount == 0 ? 0f : totalDrawNanos / 1e6f / frameCount;
+	}
+	
+	/**
+	 * Maximale Dauer von onDraw() in ms.
+	 */
+	public float getMaxFrameMillis() {
+		return maxDrawNanos / 1e6f;
+	}
+	
+	/**
+	 * Anteil der Fläche, die dank Teil-Invalidierung nicht neu gezeichnet werden musste (0 bis 1).
+	 */
+	public float getSavedAreaRatio() {
+		return viewPixels == 0 ? 0f : 1f - (float) drawnPixels / viewPixels;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("FrameTimeCounter[frames=%d,partial=%d,avg=%.2f ms,max=%.2f ms,saved area=%d%%]",
+				frameCount, partialFrameCount, getAverageFrameMillis(), getMaxFrameMillis(),
+				(int) (100 * getSavedAreaRatio()));
+	}
+	
+}
@@ -17,15 +17,24 @@
 package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
 
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -33,12 +42,14 @@ import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.widget.ImageView;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 
+import de.hu_berlin.informatik.spws2014.mapever.BuildConfig;
 import de.hu_berlin.informatik.spws2014.mapever.largeimageview.CachedImage.CacheMissResolvedCallback;
 
 public class LargeImageView extends ImageView {
@@ -59,6 +70,21 @@ public class LargeImageView extends ImageView {
 	// Toleranz für Abweichung vom Startpunkt beim Klicken in px
 	private static final int TOUCH_CLICK_TOLERANCE = 6;
 	
+	// Maximale Samplesize (siehe calculateSampleSize())
+	private static final int MAX_SAMPLESIZE = SampleSizeCalculator.MAX_SAMPLESIZE;
+	
+	// Wie weit (in ms) die Pan-Bewegung für das Vorabladen von Tiles in die Zukunft extrapoliert wird
+	private static final float PREFETCH_LOOKAHEAD_MS = 250f;
+	
+	// Nach so vielen Frames werden die Zeichenzeiten geloggt (siehe frameTimeCounter)
+	private static final int FRAME_STATS_LOG_INTERVAL = 300;
+	
+	// Gewichtung einer neuen Geschwindigkeitsmessung bei der Glättung der Pan-Geschwindigkeit (0 bis 1)
+	private static final float PAN_VELOCITY_SMOOTHING = 0.5f;
+	
+	// Dauer der Überblendung zwischen zwei Samplesizes in ms
+	private static final long LOD_FADE_DURATION = 200;
+	
 	
 	// ////// BITMAP, TILE AND CACHE STUFF
 	
@@ -68,6 +94,42 @@ public class LargeImageView extends ImageView {
 	// Last-Recently-Used Cache für Tiles
 	private CachedImage cachedImage;
 	
+	// Dateiname, falls cachedImage vom TileCacheManager verwaltet wird (sonst null), und ob wir es gerade benutzen
+	// (wird beim Entfernen der View vom Fenster abgegeben, damit es beim Drehen wiederverwendet werden kann)
+	private String cachedImageFilename = null;
+	private boolean cachedImageAcquired = false;
+	
+	// Callback für CachedImage: Wenn nach einem Cache-Miss ein gesuchtes Tile generiert wurde, aktualisiere Ansicht
+	private final CacheMissResolvedCallback cacheMissResolvedCallback = new CacheMissResolvedCallback() {
+		@Override
+		public void onCacheMissResolved() {
+			if (renderThread != null) {
+				renderThread.onTilesChanged();
+			}
+			update();
+		}
+		
+		@Override
+		public void onTileResolved(long tileKey) {
+			// Der Render-Thread setzt ohnehin den ganzen Frame neu zusammen
+			if (renderThread != null) {
+				renderThread.onTilesChanged();
+				invalidate();
+				return;
+			}
+			
+			// Nur den Bereich des neuen Tiles neu zeichnen (auch Tiles anderer Samplesizes können als Vorschau
+			// sichtbar sein)
+			int tileExtent = CachedImage.TILESIZE * TileKey.getSampleSize(tileKey);
+			int tileX = TileKey.getX(tileKey);
+			int tileY = TileKey.getY(tileKey);
+			invalidateImageRegion(tileX, tileY, tileX + tileExtent, tileY + tileExtent);
+		}
+	};
+	
+	// Leitet Speicherwarnungen des Systems an das CachedImage weiter (nur ab API 14 registriert, sonst null)
+	private ComponentCallbacks memoryCallbacks = null;
+	
 	// Bildgröße, falls bekannt, sonst -1
 	private int imageWidth = -1;
 	private int imageHeight = -1;
@@ -75,6 +137,46 @@ public class LargeImageView extends ImageView {
 	// Paint-Objekt, das dazu da ist, das Hintergrundbild transparent zu machen (nur falls not null)
 	private Paint bgAlphaPaint;
 	
+	// Paint-Objekt für die Vorschau fehlender Tiles (hochskaliert, daher gefiltert; Transparenz wie bgAlphaPaint)
+	private final Paint previewPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	
+	// Zielrechteck für die Vorschau fehlender Tiles (wird wiederverwendet, um in onDraw nichts zu allozieren)
+	private final RectF previewDestRect = new RectF();
+	
+	// Überblendung nach einem Wechsel der Samplesize: vorherige Samplesize (0 = keine Überblendung), Startzeitpunkt
+	// (SystemClock.uptimeMillis()) und Paint für die eingeblendeten Tiles der neuen Samplesize
+	private int lodFadeFromSampleSize = 0;
+	private long lodFadeStartTime;
+	private final Paint lodFadePaint = new Paint();
+	
+	// Fordert während der Überblendung den nächsten Frame an (über den gemeinsamen FrameClock, damit gleichzeitig
+	// laufende Icon-Animationen im selben Frame neu gezeichnet werden)
+	private final FrameClock.FrameCallback lodFadeFrameCallback = new FrameClock.FrameCallback() {
+		@Override
+		public boolean onFrame(long frameTime) {
+			invalidate();
+			return false;
+		}
+	};
+	
+	// Optionales Zusammensetzen der Tiles in einem eigenen Thread (wird beim ersten Zeichnen gestartet; siehe
+	// setRenderThreadEnabled())
+	private boolean renderThreadEnabled = false;
+	private TileRenderThread renderThread = null;
+	
+	// Optionales Zeichnen der Tiles über einen Texturatlas (nur bei Hardwarebeschleunigung, wird beim ersten
+	// Zeichnen angelegt; siehe setAtlasRenderingEnabled())
+	private boolean atlasRenderingEnabled = false;
+	private AtlasTileRenderer atlasRenderer = null;
+	
+	// Lässt die View neu zeichnen, sobald der Render-Thread einen Frame fertig hat
+	private final TileRenderThread.FrameListener renderFrameListener = new TileRenderThread.FrameListener() {
+		@Override
+		public void onFrameRendered() {
+			postInvalidate();
+		}
+	};
+	
 	
 	// ////// DISPLAY, PAN- UND ZOOMWERTE
 	
@@ -93,6 +195,9 @@ public class LargeImageView extends ImageView {
 	private float minZoomScale = 0.1f;
 	private float maxZoomScale = 5.0f;
 	
+	// Wiederverwendete Matrixwerte für getImageToScreenMatrix() und getScreenToImageMatrix()
+	private final float[] transformValues = new float[ViewTransform.MATRIX_VALUES];
+	
 	
 	// ////// TOUCH EVENTS
 	
@@ -111,6 +216,13 @@ public class LargeImageView extends ImageView {
 	private float panLastTouchY;
 	private boolean panLastTouchIsScaleFocus = false;
 	
+	// Geglättete Pan-Geschwindigkeit in Bildkoordinaten pro ms (positiv = panCenter wächst), Zeitpunkt des letzten
+	// Move-Events und Zoomrichtung der laufenden Pinch-Geste (1 = hinein, -1 = heraus, 0 = keine); fürs Prefetching
+	private float panVelocityX = 0;
+	private float panVelocityY = 0;
+	private long panLastEventTime = 0;
+	private int pinchZoomDirection = 0;
+	
 	// Findet gerade ein Drag-Vorgang statt?
 	private boolean currentlyDragging = false;
 	
@@ -118,6 +230,37 @@ public class LargeImageView extends ImageView {
 	// ////// OVERLAY ICONS
 	private ArrayList<OverlayIcon> overlayIconList = new ArrayList<OverlayIcon>();
 	
+	// Räumlicher Index über die Bildpositionen der Icons, damit Zeichnen und Hit-Tests nur nahe Icons betrachten,
+	// sowie wiederverwendete Ergebnislisten (getrennt, da Touch-Handler Icons verändern können) und Hitbox
+	private final OverlayIconIndex overlayIconIndex = new OverlayIconIndex();
+	private final ArrayList<OverlayIcon> overlayIconsToDraw = new ArrayList<OverlayIcon>();
+	private final ArrayList<OverlayIcon> overlayIconsAtTouch = new ArrayList<OverlayIcon>();
+	private final Rect overlayIconHitbox = new Rect();
+	
+	// Zwischenspeicher für die gezeichneten Icons (nur neu rendern, wenn sich Icons oder Pan/Zoom ändern) und
+	// wiederverwendetes Rechteck mit der Größe der View
+	private boolean overlayLayerCacheEnabled = true;
+	private final OverlayLayerCache overlayLayerCache = new OverlayLayerCache();
+	private final Rect overlayViewRect = new Rect();
+	
+	
+	// ////// INVALIDATION
+	
+	// Nur veränderte Bereiche neu zeichnen (neue Tiles, bewegte Icons), statt der ganzen View?
+	private boolean partialInvalidationEnabled = true;
+	
+	// Wiederverwendete Rechtecke: zu invalidierender Bereich, Clip-Bereich des aktuellen Frames (Bildschirm-
+	// koordinaten) und Clip-Bereich beim Zeichnen der Tiles (gesampelte Bildkoordinaten)
+	private final Rect damageRect = new Rect();
+	private final Rect frameClipRect = new Rect();
+	private final Rect tileClipRect = new Rect();
+	
+	// Zeichendauer und neu gezeichnete Fläche (wird in Debug-Builds regelmäßig geloggt)
+	private final FrameTimeCounter frameTimeCounter = new FrameTimeCounter();
+	
+	// Einblendung der RenderMetrics im Debug-Modus (null, wenn deaktiviert)
+	private DebugHud debugHud = null;
+	
 	
 	// ////////////////////////////////////////////////////////////////////////
 	// //////////// CONSTRUCTORS AND INITIALIZATION
@@ -159,8 +302,8 @@ public class LargeImageView extends ImageView {
 		bundle.putFloat(SAVEDPANY, panCenterY);
 		bundle.putFloat(SAVEDZOOM, zoomScale);
 		
-		// TODO Können wir irgendwie das Bild/den Stream oder eine Referenz darauf speichern? Und viel
-		// wichtiger, den Cache? Aktuell muss das Bild beim Drehen immer neu aufgebaut werden... -> #194
+		// (Das Bild selbst und der Tile-Cache werden nicht im State gespeichert, sondern vom TileCacheManager
+		// aufbewahrt, sodass die neue View nach dem Drehen beim erneuten Laden der Datei den alten Cache bekommt.)
 		
 		return bundle;
 	}
@@ -190,12 +333,69 @@ public class LargeImageView extends ImageView {
 			return;
 		}
 		
+		// Größe des Icon-Caches und des Texturatlas hängt von der View-Größe ab, also neu anlegen
+		overlayLayerCache.release();
+		releaseAtlasRenderer();
+		
 		// If we have already loaded an image...
 		if (cachedImage != null || staticBitmap != null) {
 			onPostLoadImage(true);
 		}
 	}
 	
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+		
+		// Zuvor abgegebenes CachedImage wieder benutzen bzw. neu anfordern, falls es inzwischen freigegeben wurde.
+		if (cachedImageFilename != null && !cachedImageAcquired) {
+			if (!TileCacheManager.reacquire(cachedImage, cacheMissResolvedCallback)) {
+				try {
+					cachedImage = TileCacheManager.acquire(cachedImageFilename, cacheMissResolvedCallback);
+				}
+				catch (IOException e) {
+					Log.e("LIV/onAttachedToWindow", "Can't reload CachedImage: " + e.toString());
+					cachedImage = null;
+					cachedImageFilename = null;
+					return;
+				}
+			}
+			cachedImageAcquired = true;
+		}
+		
+		if (cachedImage != null) {
+			registerMemoryCallbacks();
+		}
+	}
+	
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+		
+		// Die Callbacks sind beim Application-Context registriert und würden die View sonst im Speicher halten.
+		unregisterMemoryCallbacks();
+		
+		// Icon-Cache, Texturatlas und Render-Thread werden erst beim nächsten Zeichnen wieder benötigt
+		overlayLayerCache.release();
+		releaseAtlasRenderer();
+		releaseRenderThread();
+		
+		// Keine weiteren Frames für die Überblendung anfordern, und laufende Fade-Animationen der Icons beenden (der
+		// FrameClock ist ein Singleton und würde die Icons und damit die View sonst weiter festhalten)
+		FrameClock.getInstance().removeCallback(lodFadeFrameCallback);
+		
+		for (int i = 0; i < overlayIconList.size(); i++) {
+			overlayIconList.get(i).finishFading();
+		}
+		
+		// CachedImage abgeben (aber die Referenz behalten): Der TileCacheManager bewahrt es auf, damit die nach dem
+		// Drehen neu erzeugte View (oder diese, falls sie wieder angehängt wird) es wiederverwenden kann.
+		if (cachedImageFilename != null && cachedImageAcquired) {
+			TileCacheManager.release(cachedImage);
+			cachedImageAcquired = false;
+		}
+	}
+	
 	
 	// ////////////////////////////////////////////////////////////////////////
 	// //////////// LADEN VON BILDERN
@@ -214,7 +414,7 @@ public class LargeImageView extends ImageView {
 	 */
 	public void setImageStream(InputStream inputStream) throws IOException {
 		// reset image references
-		cachedImage = null;
+		releaseCachedImage();
 		staticBitmap = null;
 		
 		// reset pan
@@ -222,13 +422,40 @@ public class LargeImageView extends ImageView {
 		
 		// Instanziiere ein CachedImage über den gegebenen InputStream.
 		// Wirft eine IOException, falls das Bild kein JPEG oder PNG ist, oder ein unerwarteter IO-Fehler auftrat.
-		cachedImage = new CachedImage(inputStream, new CacheMissResolvedCallback() {
-			@Override
-			public void onCacheMissResolved() {
-				// Wenn nach einem Cache-Miss ein gesuchtes Tile generiert wurde, aktualisiere Ansicht
-				update();
-			}
-		});
+		setCachedImage(new CachedImage(inputStream, cacheMissResolvedCallback));
+	}
+	
+	/**
+	 * Setzt eine Bilddatei als Bildquelle über CachedImage. Im Gegensatz zu setImageStream() kann CachedImage hier
+	 * mehrere BitmapRegionDecoder erzeugen und so mehrere Tiles parallel generieren.
+	 * 
+	 * @throws IOException Falls das Bild kein JPEG oder PNG ist, oder ein unerwarteter IO-Fehler auftrat.
+	 */
+	private void setImageFile(String filename) throws IOException {
+		// reset image references
+		releaseCachedImage();
+		staticBitmap = null;
+		
+		// reset pan
+		panCenterX = panCenterY = Float.NaN;
+		
+		// Bereits vorhandenes CachedImage (z.B. vor dem Drehen des Bildschirms) wiederverwenden
+		setCachedImage(TileCacheManager.acquire(filename, cacheMissResolvedCallback));
+		cachedImageFilename = filename;
+		cachedImageAcquired = true;
+	}
+	
+	/**
+	 * Verwendet ein (neu erzeugtes) CachedImage als Bildquelle.
+	 */
+	private void setCachedImage(CachedImage newCachedImage) {
+		cachedImage = newCachedImage;
+		registerMemoryCallbacks();
+		
+		// Tiles im Texturatlas gehören zum vorherigen Bild
+		if (atlasRenderer != null) {
+			atlasRenderer.clear();
+		}
 		
 		// Breite und Höhe des Bildes zwischenspeichern
 		imageWidth = cachedImage.getWidth();
@@ -238,6 +465,77 @@ public class LargeImageView extends ImageView {
 		onPostLoadImage(false);
 	}
 	
+	/**
+	 * Gibt das aktuelle CachedImage (Worker-Threads und Decoder) frei, falls vorhanden.
+	 */
+	private void releaseCachedImage() {
+		if (cachedImage != null) {
+			unregisterMemoryCallbacks();
+			
+			// Verwaltete CachedImages werden nur abgegeben (und ggf. später wiederverwendet)
+			if (cachedImageFilename == null) {
+				cachedImage.release();
+			}
+			else if (cachedImageAcquired) {
+				TileCacheManager.release(cachedImage);
+			}
+			
+			cachedImage = null;
+			cachedImageFilename = null;
+			cachedImageAcquired = false;
+		}
+	}
+	
+	/**
+	 * Registriert (ab API 14) Callbacks, die Speicherwarnungen des Systems (onTrimMemory, onLowMemory) an das
+	 * CachedImage weiterleiten, damit dieses seinen Cache verkleinern kann.
+	 */
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	private void registerMemoryCallbacks() {
+		if (memoryCallbacks != null || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			return;
+		}
+		
+		memoryCallbacks = new ComponentCallbacks2() {
+			@Override
+			public void onTrimMemory(int level) {
+				if (cachedImage != null) {
+					cachedImage.onTrimMemory(level);
+				}
+				TileCacheManager.onTrimMemory(level);
+				
+				// Icon-Cache und Texturatlas werden beim nächsten Zeichnen neu angelegt
+				if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+					overlayLayerCache.release();
+					releaseAtlasRenderer();
+				}
+			}
+			
+			@Override
+			public void onLowMemory() {
+				if (cachedImage != null) {
+					cachedImage.onLowMemory();
+				}
+			}
+			
+			@Override
+			public void onConfigurationChanged(Configuration newConfig) {
+			}
+		};
+		
+		getContext().getApplicationContext().registerComponentCallbacks(memoryCallbacks);
+	}
+	
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	private void unregisterMemoryCallbacks() {
+		if (memoryCallbacks == null) {
+			return;
+		}
+		
+		getContext().getApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+		memoryCallbacks = null;
+	}
+	
 	/**
 	 * Lädt statisch eine Bitmap als Bildquelle. Statisch bedeutet in diesem Fall, dass es nicht als large image
 	 * von CachedImage behandelt wird, sondern als ganzes Bitmap in die View geladen wird.
@@ -245,7 +543,7 @@ public class LargeImageView extends ImageView {
 	@Override
 	public void setImageBitmap(Bitmap bitmap) {
 		// Verwende statisch die Bitmap zum Darstellen
-		cachedImage = null;
+		releaseCachedImage();
 		staticBitmap = bitmap;
 		
 		// reset pan
@@ -292,15 +590,17 @@ public class LargeImageView extends ImageView {
 	/**
 	 * Lädt eine Bilddatei per Dateinamen als Bildquelle. Hierbei wird nach Möglichkeit über CachedImage ein
 	 * BitmapRegionDecoder instanziiert, indem ein InputStream is erzeugt und setImageStream(is) aufgerufen wird.
+	 * Formate ohne BitmapRegionDecoder (z.B. GIF, WebP) werden ebenfalls gekachelt über CachedImage angezeigt (aus
+	 * einer Tile-Pyramide, siehe {@link TilePyramid}).
 	 */
 	public void setImageFilename(String filename) throws FileNotFoundException {
 		try {
-			// Lade das Bild per Stream
-			InputStream stream = new FileInputStream(filename);
-			setImageStream(stream);
+			// Lade das Bild direkt aus der Datei
+			setImageFile(filename);
 		}
 		catch (IOException e) {
-			// Vermutlich schlägt dies fehl, weil die Resource weder JPEG noch PNG ist...
+			// (Andere Formate als JPEG und PNG lädt CachedImage über eine Tile-Pyramide, hier landen wir also nur,
+			// wenn nicht einmal die Bildgröße gelesen werden kann.)
 			Log.w("LIV/setImageStream", "Can't instantiate CachedImage:");
 			Log.w("LIV/setImageStream", e.toString());
 			
@@ -319,7 +619,7 @@ public class LargeImageView extends ImageView {
 		// Not implemented because not needed... but we override it to avoid errors if someone does use it.
 		
 		// Reset stuff
-		cachedImage = null;
+		releaseCachedImage();
 		staticBitmap = null;
 		panCenterX = panCenterY = Float.NaN;
 		
@@ -385,6 +685,91 @@ public class LargeImageView extends ImageView {
 	public void setForegroundAlpha(int newAlpha) {
 		bgAlphaPaint = new Paint();
 		bgAlphaPaint.setAlpha(newAlpha);
+		previewPaint.setAlpha(newAlpha);
+	}
+	
+	/**
+	 * Gibt zurück, ob die OverlayIcons zwischengespeichert werden (siehe setOverlayLayerCacheEnabled()).
+	 */
+	public boolean isOverlayLayerCacheEnabled() {
+		return overlayLayerCacheEnabled;
+	}
+	
+	/**
+	 * Legt fest, ob die gezeichneten OverlayIcons in einer Bitmap in View-Größe zwischengespeichert werden
+	 * ({@link OverlayLayerCache}), die nur bei Änderungen der Icons oder von Pan/Zoom neu gerendert wird.
+	 * Standardmäßig aktiviert.
+	 */
+	public void setOverlayLayerCacheEnabled(boolean enabled) {
+		overlayLayerCacheEnabled = enabled;
+		
+		if (!enabled) {
+			overlayLayerCache.release();
+		}
+		
+		invalidate();
+	}
+	
+	/**
+	 * Gibt zurück, ob die Tiles über einen Texturatlas gezeichnet werden (siehe setAtlasRenderingEnabled()).
+	 */
+	public boolean isAtlasRenderingEnabled() {
+		return atlasRenderingEnabled;
+	}
+	
+	/**
+	 * Aktiviert das Zeichnen der Tiles über einen Texturatlas ({@link AtlasTileRenderer}). Die sichtbaren Tiles
+	 * werden dann in eine gemeinsame Bitmap kopiert und von dort mit einer einzigen Textur gezeichnet. Neue Tiles
+	 * werden höchstens einmal pro Sekunde aufgenommen (jede Änderung lädt die ganze Textur neu hoch), bis dahin
+	 * werden sie direkt gezeichnet. Kostet zusätzlich bis zu 8 MB Speicher und wirkt nur bei hardwarebeschleunigtem
+	 * Canvas und ohne Render-Thread, sonst wird wie bisher direkt gezeichnet. Standardmäßig deaktiviert.
+	 */
+	public void setAtlasRenderingEnabled(boolean enabled) {
+		atlasRenderingEnabled = enabled;
+		
+		if (!enabled) {
+			releaseAtlasRenderer();
+		}
+		
+		invalidate();
+	}
+	
+	private void releaseAtlasRenderer() {
+		if (atlasRenderer != null) {
+			atlasRenderer.release();
+			atlasRenderer = null;
+		}
+	}
+	
+	/**
+	 * Gibt zurück, ob die Tiles in einem eigenen Thread zusammengesetzt werden (siehe setRenderThreadEnabled()).
+	 */
+	public boolean isRenderThreadEnabled() {
+		return renderThreadEnabled;
+	}
+	
+	/**
+	 * Legt fest, ob die sichtbaren Tiles in einem eigenen Thread ({@link TileRenderThread}) zu einem Frame in
+	 * View-Größe zusammengesetzt werden. onDraw() zeichnet dann nur noch diesen Frame und die OverlayIcons, sodass
+	 * das Zusammensetzen nie den UI-Thread (und damit die Touch-Events) blockiert. Kostet zwei Bitmaps in View-Größe;
+	 * die Überblendung zwischen Samplesizes und das Prefetching entfallen dann, und jedes neue Tile invalidiert die
+	 * ganze View statt nur seines Bereichs. Standardmäßig deaktiviert (auch in der MapView).
+	 */
+	public void setRenderThreadEnabled(boolean enabled) {
+		renderThreadEnabled = enabled;
+		
+		if (!enabled) {
+			releaseRenderThread();
+		}
+		
+		invalidate();
+	}
+	
+	private void releaseRenderThread() {
+		if (renderThread != null) {
+			renderThread.quit();
+			renderThread = null;
+		}
 	}
 	
 	
@@ -409,6 +794,11 @@ public class LargeImageView extends ImageView {
 		return new PointF(panCenterX, panCenterY);
 	}
 	
+	/** Schreibt aktuelle Pan-Center-Koordinaten (Bildpunkt, der im Sichtfeld zentriert wird) nach outPoint. */
+	public void getPanCenter(PointF outPoint) {
+		outPoint.set(panCenterX, panCenterY);
+	}
+	
 	/** Setzt neue Pan-Center-Koordinaten (Bildpunkt, der im Sichtfeld zentriert wird). */
 	public void setPanCenter(float newX, float newY) {
 		panCenterX = newX;
@@ -447,8 +837,8 @@ public class LargeImageView extends ImageView {
 			zoomScale = Math.max(minZoomScale, Math.min(zoomScale, maxZoomScale));
 		}
 		
-		// SampleSize neuberechnen
-		sampleSize = calculateSampleSize(zoomScale);
+		// SampleSize neuberechnen (ohne Hysterese, da kein kontinuierlicher Zoom)
+		updateSampleSize(false);
 		update();
 	}
 	
@@ -496,31 +886,83 @@ public class LargeImageView extends ImageView {
 	
 	/**
 	 * Berechnet die Sample-Stufe zu einer Zoom-Stufe. Dies ist dabei die größte Zweierpotenz, die <= 1/scale ist.
+	 * (Siehe {@link SampleSizeCalculator#calculateSampleSize(float)}.)
 	 * 
 	 * @param scale Zoom-Stufe
 	 * @return Sample-Stufe
 	 */
 	public static int calculateSampleSize(float scale) {
-		int sample = 1;
+		return SampleSizeCalculator.calculateSampleSize(scale);
+	}
+	
+	/**
+	 * Berechnet die Sample-Stufe zu einer Zoom-Stufe wie {@link #calculateSampleSize(float)}, wechselt von der
+	 * aktuellen Stufe auf eine benachbarte aber erst, wenn die Schwelle um
+	 * {@link SampleSizeCalculator#LOD_HYSTERESIS} überschritten ist.
+	 * 
+	 * @param scale Zoom-Stufe
+	 * @param currentSampleSize bisherige Sample-Stufe
+	 * @return Sample-Stufe
+	 */
+	public static int calculateSampleSize(float scale, int currentSampleSize) {
+		return SampleSizeCalculator.calculateSampleSize(scale, currentSampleSize);
+	}
+	
+	/**
+	 * Berechnet die Sample-Stufe zur aktuellen Zoom-Stufe neu. Dabei wird das Tile-Budget pro Frame eingehalten
+	 * (siehe {@link #getFrameTileBudget()}) und beim Wechsel auf eine benachbarte Stufe eine Überblendung gestartet.
+	 * 
+	 * @param withHysteresis true bei kontinuierlichem Zoom (Pinch), siehe {@link #calculateSampleSize(float, int)}
+	 */
+	private void updateSampleSize(boolean withHysteresis) {
+		int newSampleSize = withHysteresis ? calculateSampleSize(zoomScale, sampleSize) : calculateSampleSize(zoomScale);
 		
-		// bilde ganzzahligen Kehrwert von scale (kann für scale < 1 null werden)
-		int x = (int) (1.0 / scale);
+		// Hält die Hysterese eine zu feine Stufe, würden zu viele Tiles gezeichnet
+		while (newSampleSize < MAX_SAMPLESIZE && countVisibleTiles(newSampleSize) > getFrameTileBudget()) {
+			newSampleSize *= 2;
+		}
 		
-		// Das Sampling Level ist die größte Zweierpotenz, die <= 1/scale ist.
-		// Wir finden diese, indem wir x durch 2 teilen und samplingLevel verdoppeln, bis x = 0 ist.
-		// z.B. x=9:
-		// x=9, s=1 --> x=4, s=2 --> x=2, s=4 --> x=1, s=8 --> x=0, s=8.
+		if (newSampleSize == sampleSize) {
+			return;
+		}
 		
-		while ((x /= 2) > 0) {
-			sample *= 2;
+		// Überblendung nur zwischen benachbarten Stufen (bei größeren Sprüngen liegt die alte Stufe ohnehin kaum
+		// noch im Cache bzw. wäre zu teuer zu zeichnen)
+		if (newSampleSize == sampleSize * 2 || newSampleSize * 2 == sampleSize) {
+			lodFadeFromSampleSize = sampleSize;
+			lodFadeStartTime = SystemClock.uptimeMillis();
+		}
+		else {
+			lodFadeFromSampleSize = 0;
 		}
 		
-		// Begrenze Samplesize auf 32 (sollte ausreichen)
-		if (sample > 32) {
-			sample = 32;
+		sampleSize = newSampleSize;
+	}
+	
+	/**
+	 * Maximale Anzahl an Tiles einer Stufe, die pro Frame gezeichnet werden: so viele, wie bei der schwächsten
+	 * regulären Verkleinerung (Samplesize * Zoom-Stufe = 1/2) den Bildschirm bedecken. Damit ist die Anzahl der pro
+	 * Frame gelesenen Bitmap-Pixel unabhängig von der Zoom-Stufe beschränkt.
+	 */
+	private int getFrameTileBudget() {
+		int tilesX = 2 * getWidth() / CachedImage.TILESIZE + 2;
+		int tilesY = 2 * getHeight() / CachedImage.TILESIZE + 2;
+		return tilesX * tilesY;
+	}
+	
+	/**
+	 * Anzahl der Tiles (höchstens), die bei der aktuellen Zoom-Stufe mit gegebener Samplesize gezeichnet werden.
+	 */
+	private int countVisibleTiles(int tileSampleSize) {
+		if (getWidth() == 0 || getHeight() == 0 || imageWidth <= 0 || imageHeight <= 0) {
+			return 0;
 		}
 		
-		return sample;
+		// Sichtbare Tiles pro Achse (+ 1 für angeschnittene Tiles), höchstens aber alle Tiles des Bildes
+		int tileExtent = CachedImage.TILESIZE * tileSampleSize;
+		int tilesX = Math.min((int) (getWidth() / zoomScale / tileExtent) + 2, (imageWidth - 1) / tileExtent + 1);
+		int tilesY = Math.min((int) (getHeight() / zoomScale / tileExtent) + 2, (imageHeight - 1) / tileExtent + 1);
+		return tilesX * tilesY;
 	}
 	
 	/**
@@ -550,36 +992,112 @@ public class LargeImageView extends ImageView {
 	
 	/**
 	 * Gibt zu einer Bildschirmposition die (aktuelle) Bildposition zurück.
+	 * Erzeugt ein neues PointF, in Schleifen (Zeichnen, Touch-Events) besser
+	 * {@link #screenToImagePosition(float, float, PointF)} verwenden.
 	 */
 	public PointF screenToImagePosition(float screenX, float screenY) {
-		if (Float.isNaN(panCenterX) || Float.isNaN(panCenterY) || getWidth() == 0 || getHeight() == 0) {
-			Log.w("LIV/screenToImgPosition", "Either panCenter is not initialized (" + panCenterX + ", " + panCenterY
-					+ ") or view dimensions are still zero (getWidth/getHeight: " + getWidth() + "/" + getHeight() + ")");
-			return null;
+		PointF imagePos = new PointF();
+		return screenToImagePosition(screenX, screenY, imagePos) ? imagePos : null;
+	}
+	
+	/**
+	 * Schreibt zu einer Bildschirmposition die (aktuelle) Bildposition nach outPoint.
+	 * 
+	 * @return false, falls Pan-Position oder View-Größe noch nicht bekannt sind (outPoint ist dann unverändert).
+	 */
+	public boolean screenToImagePosition(float screenX, float screenY, PointF outPoint) {
+		if (!isTransformReady()) {
+			return false;
 		}
 		
 		// Der Offset berechnet sich aus PanCenterPos und halber (scale-gewichteter) Viewgröße.
-		float imageX = panCenterX + (-getWidth() / 2 + screenX) / zoomScale;
-		float imageY = panCenterY + (-getHeight() / 2 + screenY) / zoomScale;
-		
-		return new PointF(imageX, imageY);
+		outPoint.set(ViewTransform.screenToImage(screenX, panCenterX, zoomScale, getWidth()),
+				ViewTransform.screenToImage(screenY, panCenterY, zoomScale, getHeight()));
+		return true;
 	}
 	
 	/**
 	 * Gibt zu einer Bildposition die (aktuelle) Bildschirmposition zurück.
+	 * Erzeugt ein neues PointF, in Schleifen (Zeichnen, Touch-Events) besser
+	 * {@link #imageToScreenPosition(float, float, PointF)} verwenden.
 	 */
 	public PointF imageToScreenPosition(float imageX, float imageY) {
-		if (Float.isNaN(panCenterX) || Float.isNaN(panCenterY) || getWidth() == 0 || getHeight() == 0) {
-			Log.w("LIV/screenToImgPosition", "Either panCenter is not initialized (" + panCenterX + ", " + panCenterY
-					+ ") or view dimensions are still zero (getWidth/getHeight: " + getWidth() + "/" + getHeight() + ")");
-			return null;
+		PointF screenPos = new PointF();
+		return imageToScreenPosition(imageX, imageY, screenPos) ? screenPos : null;
+	}
+	
+	/**
+	 * Schreibt zu einer Bildposition die (aktuelle) Bildschirmposition nach outPoint.
+	 * 
+	 * @return false, falls Pan-Position oder View-Größe noch nicht bekannt sind (outPoint ist dann unverändert).
+	 */
+	public boolean imageToScreenPosition(float imageX, float imageY, PointF outPoint) {
+		if (!isTransformReady()) {
+			return false;
 		}
 		
 		// Umkehrfunktion zu screenToImagePosition()
-		float screenX = (imageX - panCenterX) * zoomScale + getWidth() / 2;
-		float screenY = (imageY - panCenterY) * zoomScale + getHeight() / 2;
+		outPoint.set(ViewTransform.imageToScreen(imageX, panCenterX, zoomScale, getWidth()),
+				ViewTransform.imageToScreen(imageY, panCenterY, zoomScale, getHeight()));
+		return true;
+	}
+	
+	/**
+	 * Schreibt die (aktuelle) Transformation von Bild- in Bildschirmkoordinaten nach outMatrix, z.B. um mit
+	 * Matrix.mapPoints() viele Punkte auf einmal umzurechnen (wie {@link #imageToScreenPosition(float, float, PointF)}).
+	 * 
+	 * @return false, falls Pan-Position oder View-Größe noch nicht bekannt sind (outMatrix ist dann unverändert).
+	 */
+	public boolean getImageToScreenMatrix(Matrix outMatrix) {
+		if (!isTransformReady()) {
+			return false;
+		}
+		
+		ViewTransform.getImageToScreenValues(panCenterX, panCenterY, zoomScale, getWidth(), getHeight(),
+				transformValues);
+		outMatrix.setValues(transformValues);
+		return true;
+	}
+	
+	/**
+	 * Rechnet Bildpunkte in (aktuelle) Bildschirmpunkte um, ohne Objekte zu erzeugen (wie Matrix.mapPoints() mit
+	 * {@link #getImageToScreenMatrix(Matrix)}).
+	 * 
+	 * @param points abwechselnd x- und y-Koordinaten, werden überschrieben
+	 * @return false, falls Pan-Position oder View-Größe noch nicht bekannt sind (points ist dann unverändert).
+	 */
+	public boolean imageToScreenPoints(float[] points) {
+		if (!isTransformReady()) {
+			return false;
+		}
+		
+		ViewTransform.imageToScreenPoints(points, panCenterX, panCenterY, zoomScale, getWidth(), getHeight());
+		return true;
+	}
+	
+	/**
+	 * Schreibt die (aktuelle) Transformation von Bildschirm- in Bildkoordinaten nach outMatrix (Umkehrung von
+	 * {@link #getImageToScreenMatrix(Matrix)}).
+	 * 
+	 * @return false, falls Pan-Position oder View-Größe noch nicht bekannt sind (outMatrix ist dann unverändert).
+	 */
+	public boolean getScreenToImageMatrix(Matrix outMatrix) {
+		if (!isTransformReady()) {
+			return false;
+		}
 		
-		return new PointF(screenX, screenY);
+		ViewTransform.getScreenToImageValues(panCenterX, panCenterY, zoomScale, getWidth(), getHeight(),
+				transformValues);
+		outMatrix.setValues(transformValues);
+		return true;
+	}
+	
+	/**
+	 * Prüft, ob Pan-Position und View-Größe bekannt sind, sodass Positionen umgerechnet werden können. (Ohne Log,
+	 * da die Aufrufer den Fall behandeln und dies z.B. vor dem ersten Layout in jedem Frame passiert.)
+	 */
+	private boolean isTransformReady() {
+		return ViewTransform.isReady(panCenterX, panCenterY, getWidth(), getHeight());
 	}
 	
 	
@@ -616,6 +1134,8 @@ public class LargeImageView extends ImageView {
 	 */
 	public void attachOverlayIcon(OverlayIcon icon) {
 		overlayIconList.add(icon);
+		overlayIconIndex.add(icon);
+		overlayLayerCache.invalidate();
 		update();
 	}
 	
@@ -624,9 +1144,94 @@ public class LargeImageView extends ImageView {
 	 */
 	public void detachOverlayIcon(OverlayIcon icon) {
 		overlayIconList.remove(icon);
+		overlayIconIndex.remove(icon);
+		overlayLayerCache.invalidate();
 		update();
 	}
 	
+	/**
+	 * Wird von {@link OverlayIcon#update()} aufgerufen, wenn sich Position, Größe oder Darstellung eines Icons
+	 * geändert hat: Icon im räumlichen Index neu einsortieren und neu zeichnen.
+	 */
+	void onOverlayIconChanged(OverlayIcon icon) {
+		overlayIconIndex.markDirty(icon);
+		overlayLayerCache.invalidate();
+		
+		if (!partialInvalidationEnabled || !isReadyToDraw()) {
+			invalidate();
+			return;
+		}
+		
+		// Bereich, in dem das Icon zuletzt gezeichnet wurde, und seinen neuen Bereich neu zeichnen
+		getOverlayIconScreenBounds(icon, damageRect);
+		
+		if (!icon.drawnBounds.isEmpty()) {
+			damageRect.union(icon.drawnBounds);
+		}
+		
+		invalidate(damageRect);
+	}
+	
+	/**
+	 * Berechnet den Bildschirmbereich, den das Icon an seiner aktuellen Position belegt (wie in
+	 * onDraw_overlayIcons, aufgerundet auf ganze Pixel).
+	 */
+	private void getOverlayIconScreenBounds(OverlayIcon icon, Rect outRect) {
+		float left = ViewTransform.imageToScreen(icon.getImagePositionX(), panCenterX, zoomScale, getWidth())
+				+ icon.getImageOffsetX();
+		float top = ViewTransform.imageToScreen(icon.getImagePositionY(), panCenterY, zoomScale, getHeight())
+				+ icon.getImageOffsetY();
+		
+		outRect.set((int) Math.floor(left), (int) Math.floor(top), (int) Math.ceil(left + icon.getWidth()),
+				(int) Math.ceil(top + icon.getHeight()));
+	}
+	
+	/**
+	 * Sucht die Icons, deren Hitbox den Bildschirmpunkt enthält (in der Reihenfolge von overlayIconList).
+	 * Erzeugt keine Objekte.
+	 * 
+	 * @param result Liste für das Ergebnis (wird geleert)
+	 */
+	private void findOverlayIconsAt(float screenX, float screenY, ArrayList<OverlayIcon> result) {
+		result.clear();
+		
+		if (overlayIconList.isEmpty() || Float.isNaN(panCenterX) || Float.isNaN(panCenterY)) {
+			return;
+		}
+		
+		// Kandidaten: Icons, deren Bildposition höchstens eine Icon-Ausdehnung vom Punkt entfernt liegt
+		float imageX = ViewTransform.screenToImage(screenX, panCenterX, zoomScale, getWidth());
+		float imageY = ViewTransform.screenToImage(screenY, panCenterY, zoomScale, getHeight());
+		float margin = overlayIconIndex.getMaxIconExtent() / zoomScale;
+		
+		overlayIconIndex.query(imageX - margin, imageY - margin, imageX + margin, imageY + margin, result);
+		
+		// Kandidaten entfernen, deren Hitbox den Punkt nicht enthält
+		for (int i = result.size() - 1; i >= 0; i--) {
+			if (!isOverlayIconHit(result.get(i), screenX, screenY)) {
+				result.remove(i);
+			}
+		}
+	}
+	
+	/**
+	 * Prüft, ob der Bildschirmpunkt in der Hitbox des Icons liegt.
+	 */
+	private boolean isOverlayIconHit(OverlayIcon icon, float screenX, float screenY) {
+		// Icon überspringen, falls es keine Hitbox hat
+		if (!icon.getTouchHitbox(overlayIconHitbox)) {
+			return false;
+		}
+		
+		// Position des Klicks relativ zur Bildschirmposition des Icons (ohne Offset, wie imageToScreenPosition())
+		int relativeX = (int) (screenX
+				- ViewTransform.imageToScreen(icon.getImagePositionX(), panCenterX, zoomScale, getWidth()));
+		int relativeY = (int) (screenY
+				- ViewTransform.imageToScreen(icon.getImagePositionY(), panCenterY, zoomScale, getHeight()));
+		
+		return overlayIconHitbox.contains(relativeX, relativeY);
+	}
+	
 	
 	// ////////////////////////////////////////////////////////////////////////
 	// //////////// TOUCH AND CLICK EVENT HANDLING
@@ -708,6 +1313,11 @@ public class LargeImageView extends ImageView {
 				panLastTouchX = x;
 				panLastTouchY = y;
 				
+				// Neue Geste, bisherige Geschwindigkeit vergessen
+				panVelocityX = panVelocityY = 0;
+				panLastEventTime = event.getEventTime();
+				pinchZoomDirection = 0;
+				
 				// Pointer-ID merken
 				panActivePointerId = event.getPointerId(0);
 				break;
@@ -769,6 +1379,9 @@ public class LargeImageView extends ImageView {
 					panCenterX -= dx / zoomScale;
 					panCenterY -= dy / zoomScale;
 					
+					// Pan-Geschwindigkeit fürs Prefetching messen
+					updatePanVelocity(-dx / zoomScale, -dy / zoomScale, event.getEventTime());
+					
 					// Event auslösen, dass Pan/Zoom durch Touchevent verändert wurden
 					onTouchPanZoomChange();
 				}
@@ -780,6 +1393,10 @@ public class LargeImageView extends ImageView {
 				// Der letzte Finger wird gehoben
 				panActivePointerId = -1;
 				panActive = false;
+				
+				// Ohne Finger bewegt sich nichts mehr, also auch nichts mehr vorab laden
+				panVelocityX = panVelocityY = 0;
+				pinchZoomDirection = 0;
 				break;
 			
 			case MotionEvent.ACTION_POINTER_DOWN:
@@ -815,6 +1432,26 @@ public class LargeImageView extends ImageView {
 		return true;
 	}
 	
+	/**
+	 * Aktualisiert die geglättete Pan-Geschwindigkeit anhand der Verschiebung des Pan-Centers seit dem letzten
+	 * Move-Event.
+	 * 
+	 * @param dx,dy Verschiebung des Pan-Centers (in Bildkoordinaten)
+	 * @param eventTime Zeitpunkt des Events (MotionEvent.getEventTime())
+	 */
+	private void updatePanVelocity(float dx, float dy, long eventTime) {
+		long dt = eventTime - panLastEventTime;
+		panLastEventTime = eventTime;
+		
+		// Mehrere Events mit gleichem Zeitstempel (oder ein Sprung nach langer Pause) ergeben keine sinnvolle Messung
+		if (dt <= 0 || dt > 100) {
+			return;
+		}
+		
+		panVelocityX += PAN_VELOCITY_SMOOTHING * (dx / dt - panVelocityX);
+		panVelocityY += PAN_VELOCITY_SMOOTHING * (dy / dt - panVelocityY);
+	}
+	
 	// ////// SCALELISTENER: implementiert die onScale-Methode des SGD und kümmert sich damit um den Zoom.
 	private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
 		@Override
@@ -835,6 +1472,14 @@ public class LargeImageView extends ImageView {
 			float scaleFactor = detector.getScaleFactor();
 			zoomScale *= scaleFactor;
 			
+			// Zoomrichtung fürs Prefetching merken
+			if (scaleFactor > 1) {
+				pinchZoomDirection = 1;
+			}
+			else if (scaleFactor < 1) {
+				pinchZoomDirection = -1;
+			}
+			
 			// Zoom-Level darf Minimum und Maximum nicht unter-/überschreiten
 			if (zoomScale < minZoomScale || zoomScale > maxZoomScale) {
 				zoomScale = Math.max(minZoomScale, Math.min(zoomScale, maxZoomScale));
@@ -865,8 +1510,8 @@ public class LargeImageView extends ImageView {
 			panCenterX -= dx;
 			panCenterY -= dy;
 			
-			// SampleSize neuberechnen
-			sampleSize = calculateSampleSize(zoomScale);
+			// SampleSize neuberechnen (mit Hysterese, damit die Stufe um die Schwelle herum nicht flackert)
+			updateSampleSize(true);
 			
 			// Event auslösen, dass Pan/Zoom durch Touchevent verändert wurden
 			onTouchPanZoomChange();
@@ -942,29 +1587,20 @@ public class LargeImageView extends ImageView {
 		Log.d("LIV/performClick", "Click on screen position " + touchStartX + ", " + touchStartY + " detected!");
 		
 		// Prüfe, ob ein OverlayIcon angeklickt wurde und führe gegebenenfalls dessen onClick-Methode aus.
-		for (OverlayIcon icon : overlayIconList) {
-			// Icon überspringen, falls es keine Hitbox hat
-			if (icon.getTouchHitbox() == null)
-				continue;
-			
-			// Bildschirmposition des Icons (ohne Offset) errechnen
-			PointF screenPoint = imageToScreenPosition(icon.getImagePositionX(), icon.getImagePositionY());
-			
-			// Position des Klicks relativ zum Icon
-			int relativeX = (int) (touchStartX - screenPoint.x);
-			int relativeY = (int) (touchStartY - screenPoint.y);
+		// (Nur Icons, deren Hitbox den Klick enthält, siehe OverlayIconIndex.)
+		findOverlayIconsAt(touchStartX, touchStartY, overlayIconsAtTouch);
+		
+		for (int i = 0; i < overlayIconsAtTouch.size(); i++) {
+			OverlayIcon icon = overlayIconsAtTouch.get(i);
 			
-			// war der Klick innerhalb der Icon-Hitbox?
-			if (icon.getTouchHitbox().contains(relativeX, relativeY)) {
-				// Falls eine Drag-Bewegung gestartet wurde, muss diese abgebrochen werden.
-				if (icon.getDragPointerID() > -1) {
-					icon.onDragUp(touchStartX, touchStartY);
-				}
-				
-				// Führe onClick-Event aus. Return, falls onClick das Event behandelt hat.
-				if (icon.onClick(touchStartX, touchStartY) == true)
-					return true;
+			// Falls eine Drag-Bewegung gestartet wurde, muss diese abgebrochen werden.
+			if (icon.getDragPointerID() > -1) {
+				icon.onDragUp(touchStartX, touchStartY);
 			}
+			
+			// Führe onClick-Event aus. Return, falls onClick das Event behandelt hat.
+			if (icon.onClick(touchStartX, touchStartY) == true)
+				return true;
 		}
 		
 		// onClickPosition-Event auslösen. Falls es true zurückgibt, wurde das Event behandelt...
@@ -1005,29 +1641,19 @@ public class LargeImageView extends ImageView {
 				}
 				
 				// Prüfe, ob ein OverlayIcon berührt wurde und trigger ggf. dessen onDragDown-Event.
-				for (OverlayIcon icon : overlayIconList) {
-					// Icon überspringen, falls es keine Hitbox hat
-					if (icon.getTouchHitbox() == null)
-						continue;
-					
-					// Bildschirmposition des Icons (ohne Offset) errechnen
-					PointF screenPoint = imageToScreenPosition(icon.getImagePositionX(), icon.getImagePositionY());
-					
-					// Position des Klicks relativ zum Icon
-					int relativeX = (int) (x - screenPoint.x);
-					int relativeY = (int) (y - screenPoint.y);
+				findOverlayIconsAt(x, y, overlayIconsAtTouch);
+				
+				for (int i = 0; i < overlayIconsAtTouch.size(); i++) {
+					OverlayIcon icon = overlayIconsAtTouch.get(i);
 					
-					// war der Klick innerhalb der Icon-Hitbox?
-					if (icon.getTouchHitbox().contains(relativeX, relativeY)) {
-						// Ja, führe onDragDown-Event aus. Return, falls onClick das Event behandelt hat.
-						if (icon.onDragDown(pointerID, x, y) == true) {
-							// Merken, dass ein Drag-Vorgang läuft (Extra-Test, da onDragDown() z.B. auch laufende
-							// Drag-Vorgänge abbrechen könnte (gilt als behandeltes Event))
-							if (icon.getDragPointerID() != -1) {
-								currentlyDragging = true;
-							}
-							return true;
+					// Führe onDragDown-Event aus. Return, falls onClick das Event behandelt hat.
+					if (icon.onDragDown(pointerID, x, y) == true) {
+						// Merken, dass ein Drag-Vorgang läuft (Extra-Test, da onDragDown() z.B. auch laufende
+						// Drag-Vorgänge abbrechen könnte (gilt als behandeltes Event))
+						if (icon.getDragPointerID() != -1) {
+							currentlyDragging = true;
 						}
+						return true;
 					}
 				}
 				break;
@@ -1049,8 +1675,10 @@ public class LargeImageView extends ImageView {
 				
 				// Prüfe für jeden Pointer (=Finger)...
 				for (int i = 0; i < event.getPointerCount(); i++) {
-					// ... und für jedes OverlayIcon...
-					for (OverlayIcon icon : overlayIconList) {
+					// ... und für jedes OverlayIcon... (ohne Iterator, da bei jedem Touch-Event)
+					for (int j = 0; j < overlayIconList.size(); j++) {
+						OverlayIcon icon = overlayIconList.get(j);
+						
 						// ... ob der Finger das OverlayIcon draggt...
 						// (Falls nicht gedraggt, gibt die Methode -1 zurück)
 						if (icon.getDragPointerID() == event.getPointerId(i)) {
@@ -1167,6 +1795,90 @@ public class LargeImageView extends ImageView {
 		this.invalidate();
 	}
 	
+	/**
+	 * Zeichnet nur den Teil der View neu, in dem der gegebene Bildbereich (in Bildkoordinaten) liegt, bzw. gar nichts,
+	 * falls dieser nicht sichtbar ist.
+	 */
+	protected void invalidateImageRegion(int left, int top, int right, int bottom) {
+		if (!partialInvalidationEnabled || !isReadyToDraw()) {
+			invalidate();
+			return;
+		}
+		
+		// In Bildschirmkoordinaten umrechnen (aufgerundet auf ganze Pixel)
+		float originX = -panCenterX * zoomScale + getWidth() / 2;
+		float originY = -panCenterY * zoomScale + getHeight() / 2;
+		
+		damageRect.set((int) Math.floor(originX + left * zoomScale), (int) Math.floor(originY + top * zoomScale),
+				(int) Math.ceil(originX + right * zoomScale), (int) Math.ceil(originY + bottom * zoomScale));
+		
+		// Nicht sichtbar?
+		if (!damageRect.intersect(0, 0, getWidth(), getHeight())) {
+			return;
+		}
+		
+		invalidate(damageRect);
+	}
+	
+	/**
+	 * Gibt zurück, ob nur veränderte Bereiche neu gezeichnet werden (siehe setPartialInvalidationEnabled()).
+	 */
+	public boolean isPartialInvalidationEnabled() {
+		return partialInvalidationEnabled;
+	}
+	
+	/**
+	 * Legt fest, ob bei neu generierten Tiles und veränderten OverlayIcons nur die betroffenen Bereiche neu
+	 * gezeichnet werden (Standard) oder die ganze View. Subklassen, die in onDraw() Dinge abhängig von den Icons
+	 * zeichnen (z.B. Verbindungslinien), müssen dies deaktivieren.
+	 */
+	public void setPartialInvalidationEnabled(boolean enabled) {
+		partialInvalidationEnabled = enabled;
+	}
+	
+	/**
+	 * Gibt den Zähler für Zeichendauer und neu gezeichnete Fläche zurück.
+	 */
+	public FrameTimeCounter getFrameTimeCounter() {
+		return frameTimeCounter;
+	}
+	
+	/**
+	 * Gibt zurück, ob die RenderMetrics eingeblendet werden (siehe setDebugHudEnabled()).
+	 */
+	public boolean isDebugHudEnabled() {
+		return debugHud != null;
+	}
+	
+	/**
+	 * Blendet die {@link RenderMetrics} (Zeichendauer, Cache-Hits, Dekodierzeiten, ...) oben links in der View ein.
+	 * Für den Debug-Modus gedacht; die Messwerte müssen zusätzlich per RenderMetrics.setEnabled() erfasst werden.
+	 */
+	public void setDebugHudEnabled(boolean enabled) {
+		if (enabled == (debugHud != null)) {
+			return;
+		}
+		
+		debugHud = enabled ? new DebugHud(getResources().getDisplayMetrics().density) : null;
+		invalidate();
+	}
+	
+	/**
+	 * Schreibt die {@link RenderMetrics} zusammen mit dem Zustand des Tile-Caches in eine Textdatei.
+	 */
+	public void dumpRenderMetrics(File file) throws IOException {
+		StringBuilder info = new StringBuilder();
+		info.append("zoom ").append(zoomScale).append(", sampleSize ").append(sampleSize).append('\n');
+		info.append(frameTimeCounter).append('\n');
+		info.append(overlayLayerCache).append('\n');
+		
+		if (cachedImage != null) {
+			info.append(cachedImage.getDebugInfo()).append('\n');
+		}
+		
+		RenderMetrics.dumpToFile(file, info.toString());
+	}
+	
 	/**
 	 * Returns true if everything is ready to call onDraw (pan set, getWidth/Height return non-zero values, etc.).
 	 * Check this if you override onDraw!
@@ -1195,10 +1907,25 @@ public class LargeImageView extends ImageView {
 			zoomScale = (float) 1.0 / 256; // dürfte klein genug sein :P
 		}
 		
+		// Zeichendauer messen und neu zu zeichnenden Bereich ermitteln (bei Teil-Invalidierung kleiner als die View)
+		long drawStartTime = System.nanoTime();
+		
+		if (!canvas.getClipBounds(frameClipRect)) {
+			return;
+		}
+		
 		canvas.save();
 		
-		// Prüfe, ob wir ein CachedImage oder ein statisches Bitmap verwenden
+		// Erst jetzt dürfen die vor dem letzten Frame verdrängten Tiles wiederverwendet werden (siehe beginFrame())
 		if (cachedImage != null) {
+			cachedImage.beginFrame();
+		}
+		
+		// Prüfe, ob wir ein CachedImage oder ein statisches Bitmap verwenden
+		if (cachedImage != null && renderThreadEnabled) {
+			onDraw_renderThread(canvas);
+		}
+		else if (cachedImage != null) {
 			onDraw_cachedImage(canvas);
 		}
 		else {
@@ -1214,6 +1941,77 @@ public class LargeImageView extends ImageView {
 		canvas.save();
 		onDraw_overlayIcons(canvas);
 		canvas.restore();
+		
+		// Frame zählen und (nur in Debug-Builds) regelmäßig loggen
+		long drawTime = System.nanoTime() - drawStartTime;
+		int viewArea = getWidth() * getHeight();
+		frameTimeCounter.recordFrame(drawTime, Math.min(viewArea, frameClipRect.width() * frameClipRect.height()),
+				viewArea);
+		
+		RenderMetrics.FRAMES.increment();
+		RenderMetrics.DRAW_TIME.recordNanos(drawTime);
+		
+		if (drawTime > RenderMetrics.FRAME_BUDGET_NANOS) {
+			RenderMetrics.FRAMES_OVER_BUDGET.increment();
+		}
+		
+		if (frameTimeCounter.getFrameCount() >= FRAME_STATS_LOG_INTERVAL) {
+			if (BuildConfig.DEBUG) {
+				Log.d("LIV/onDraw", frameTimeCounter.toString());
+			}
+			frameTimeCounter.reset();
+		}
+		
+		// Messwerte einblenden (und regelmäßig aktualisieren, auch wenn sonst nichts neu gezeichnet wird)
+		if (debugHud != null) {
+			if (debugHud.update(SystemClock.uptimeMillis(), cachedImage)) {
+				Rect hudBounds = debugHud.getBounds();
+				postInvalidateDelayed(DebugHud.REFRESH_INTERVAL, hudBounds.left, hudBounds.top, hudBounds.right,
+						hudBounds.bottom);
+			}
+			debugHud.draw(canvas);
+		}
+	}
+	
+	/**
+	 * Übernimmt den Teil von {@link #onDraw(Canvas)}, der ein gecachtes Bild anzeigt, wenn die Tiles im
+	 * {@link TileRenderThread} zusammengesetzt werden: Fordert den Frame für den aktuellen Zustand an und zeichnet
+	 * den zuletzt fertigen. Gibt es noch keinen (erster Frame, neue View-Größe), wird bis dahin das Übersichtsbild
+	 * gezeichnet. (Nicht die Tiles, sonst würden UI- und Render-Thread gleichzeitig den Viewport setzen und die
+	 * Reihenfolge im Cache bestimmen.)
+	 */
+	private void onDraw_renderThread(Canvas canvas) {
+		if (renderThread == null) {
+			renderThread = new TileRenderThread(renderFrameListener);
+			renderThread.start();
+		}
+		
+		renderThread.requestFrame(cachedImage, panCenterX, panCenterY, zoomScale, sampleSize, getWidth(),
+				getHeight());
+		
+		if (!renderThread.drawFrame(canvas, panCenterX, panCenterY, zoomScale, getWidth(), getHeight(),
+				bgAlphaPaint)) {
+			onDraw_overviewBitmap(canvas);
+		}
+	}
+	
+	/**
+	 * Zeichnet das Übersichtsbild des gecachten Bildes (hochskaliert), falls es bereits vorhanden ist. Dabei wird
+	 * weder der Viewport gesetzt noch auf Tiles zugegriffen.
+	 */
+	private void onDraw_overviewBitmap(Canvas canvas) {
+		Bitmap overview = cachedImage.getOverviewBitmap();
+		
+		if (overview == null) {
+			return;
+		}
+		
+		// Bildpunkt (in Originalkoordinaten) auf (bild - pan) * zoom + mitte abbilden
+		float overviewScale = cachedImage.getOverviewSampleSize() * zoomScale;
+		
+		canvas.translate(getWidth() / 2 - panCenterX * zoomScale, getHeight() / 2 - panCenterY * zoomScale);
+		canvas.scale(overviewScale, overviewScale);
+		canvas.drawBitmap(overview, 0, 0, previewPaint);
 	}
 	
 	/**
@@ -1237,6 +2035,18 @@ public class LargeImageView extends ImageView {
 		// viewportHeight + ", (l,t,r,b) = ("
 		// + viewportLeft + "," + viewportTop + "," + viewportRight + "," + viewportBottom + ")");
 		
+		// Sichtbaren Ausschnitt (in Originalkoordinaten) an den Cache melden, damit Tiles in der Mitte zuerst
+		// generiert und nicht mehr sichtbare Tiles gar nicht erst generiert werden.
+		cachedImage.setViewport(sampleSize * viewportLeft, sampleSize * viewportTop,
+				sampleSize * viewportRight, sampleSize * viewportBottom, sampleSize);
+		
+		// Texturatlas für diesen Frame vorbereiten (falls aktiviert und möglich)
+		AtlasTileRenderer atlas = prepareAtlasRenderer(canvas);
+		
+		// Läuft eine Überblendung von der vorherigen Samplesize? Dann Tiles der neuen Stufe mit lodFadePaint über die
+		// der alten zeichnen.
+		boolean lodFading = updateLodFade();
+		
 		// Startkoordinaten für die Zeichnen-Schleife
 		// (Linksoberstes Tile beginnt i.A. weiter links oben als der Viewport)
 		int startX = viewportLeft - viewportLeft % CachedImage.TILESIZE;
@@ -1252,9 +2062,18 @@ public class LargeImageView extends ImageView {
 		canvas.scale(effectiveScale, effectiveScale);
 		canvas.translate(-viewportLeft, -viewportTop);
 		
+		// Neu zu zeichnender Bereich in gesampelten Bildkoordinaten (bei Teil-Invalidierung kleiner als der Viewport)
+		canvas.getClipBounds(tileClipRect);
+		
 		// Zeilenweise Tiles zeichnen, bis am Viewportrand oder Bildrand angekommen
 		for (int y = startY; y < viewportBottom && y < imageHeight / sampleSize; y += CachedImage.TILESIZE) {
 			for (int x = startX; x < viewportRight && x < imageWidth / sampleSize; x += CachedImage.TILESIZE) {
+				// Tiles außerhalb des neu zu zeichnenden Bereichs überspringen
+				if (x + CachedImage.TILESIZE <= tileClipRect.left || x >= tileClipRect.right
+						|| y + CachedImage.TILESIZE <= tileClipRect.top || y >= tileClipRect.bottom) {
+					continue;
+				}
+				
 				// Unsere Koordinaten sind abhängig vom Sampling. Das gesuchte Tile beginnt also nicht
 				// bei (x,y) sondern bei samplingLevel*(x,y), wird aber an (x,y) gezeichnet.
 				Bitmap bm = cachedImage.getTileBitmap(sampleSize * x, sampleSize * y, sampleSize);
@@ -1263,12 +2082,194 @@ public class LargeImageView extends ImageView {
 				// sampleSize)
 				// + (bm == null ? " ... null" : (" at " + x + "," + y)));
 				
-				// Tile zeichnen, falls es bereits existiert (also im Cache gefunden wurde)
+				// Tile zeichnen, falls es bereits existiert (also im Cache gefunden wurde), sonst bis zu dessen
+				// Ankunft eine niedriger aufgelöste Vorschau (bzw. während der Überblendung die vorherige Stufe)
 				if (bm != null) {
-					canvas.drawBitmap(bm, x, y, bgAlphaPaint);
+					// Während der Überblendung nur dann halbtransparent, wenn die vorherige Stufe vollständig
+					// darunter liegt
+					Paint tilePaint = bgAlphaPaint;
+					
+					if (lodFading && onDraw_lodFadeUnderlay(canvas, x, y)) {
+						tilePaint = lodFadePaint;
+					}
+					
+					// Über den Texturatlas zeichnen, sonst (oder falls das Tile dort nicht liegt) direkt
+					if (atlas == null || !atlas.drawTile(canvas, bm, TileKey.pack(sampleSize * x, sampleSize * y,
+							sampleSize), x, y, tilePaint)) {
+						canvas.drawBitmap(bm, x, y, tilePaint);
+					}
+				}
+				else if (!lodFading || !onDraw_lodFadeUnderlay(canvas, x, y)) {
+					onDraw_missingTile(canvas, x, y);
 				}
 			}
 		}
+		
+		// Überblendung im nächsten Frame fortsetzen
+		if (lodFading) {
+			FrameClock.getInstance().addCallback(lodFadeFrameCallback);
+		}
+		
+		// Tiles, die demnächst sichtbar werden dürften, schon mal generieren lassen
+		prefetchTiles(viewportLeft, viewportTop, viewportRight, viewportBottom);
+	}
+	
+	/**
+	 * Gibt den AtlasTileRenderer für diesen Frame zurück (und legt ihn ggf. an), oder null, falls Tiles direkt
+	 * gezeichnet werden sollen (Atlas deaktiviert oder Canvas nicht hardwarebeschleunigt).
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private AtlasTileRenderer prepareAtlasRenderer(Canvas canvas) {
+		if (!atlasRenderingEnabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+				|| !canvas.isHardwareAccelerated()) {
+			return null;
+		}
+		
+		if (atlasRenderer == null) {
+			atlasRenderer = new AtlasTileRenderer(getFrameTileBudget(), CachedImage.TILESIZE);
+		}
+		
+		atlasRenderer.beginFrame(SystemClock.uptimeMillis());
+		return atlasRenderer;
+	}
+	
+	/**
+	 * Fordert Tiles an, die voraussichtlich bald sichtbar werden: beim Pannen die des um
+	 * {@link #PREFETCH_LOOKAHEAD_MS} extrapolierten Viewports, beim Pinch-Zoom die des aktuellen Viewports in der
+	 * nächsten Samplesize (in Zoomrichtung). Der TileScheduler nimmt solche Anfragen nur an, wenn keine sichtbaren
+	 * Tiles mehr ausstehen, sodass diese nie verzögert werden.
+	 * 
+	 * @param viewportLeft,viewportTop,viewportRight,viewportBottom Aktueller Viewport (wie in onDraw_cachedImage)
+	 */
+	private void prefetchTiles(int viewportLeft, int viewportTop, int viewportRight, int viewportBottom) {
+		if (!cachedImage.canPrefetch()) {
+			return;
+		}
+		
+		// Während eines Pinch-Zooms die nächste Zoomstufe vorbereiten
+		if (pinchZoomDirection != 0 && SGD.isInProgress()) {
+			int nextSampleSize = pinchZoomDirection > 0 ? sampleSize / 2 : sampleSize * 2;
+			
+			if (nextSampleSize >= 1 && nextSampleSize <= MAX_SAMPLESIZE) {
+				prefetchTileRange(sampleSize * viewportLeft, sampleSize * viewportTop, sampleSize * viewportRight,
+						sampleSize * viewportBottom, nextSampleSize);
+			}
+			
+			return;
+		}
+		
+		// Beim Pannen: Viewport zum vorhergesagten Pan-Center verschieben (Geschwindigkeit in Bildkoordinaten/ms)
+		int shiftX = (int) (panVelocityX * PREFETCH_LOOKAHEAD_MS / sampleSize);
+		int shiftY = (int) (panVelocityY * PREFETCH_LOOKAHEAD_MS / sampleSize);
+		
+		if (shiftX == 0 && shiftY == 0) {
+			return;
+		}
+		
+		prefetchTileRange(sampleSize * (viewportLeft + shiftX), sampleSize * (viewportTop + shiftY),
+				sampleSize * (viewportRight + shiftX), sampleSize * (viewportBottom + shiftY), sampleSize);
+	}
+	
+	/**
+	 * Fordert alle Tiles der gegebenen Samplesize an, die den Bereich (in Originalkoordinaten) schneiden, bis der
+	 * TileScheduler keine weiteren Prefetch-Anfragen mehr annimmt.
+	 */
+	private void prefetchTileRange(int left, int top, int right, int bottom, int prefetchSampleSize) {
+		int tileExtent = CachedImage.TILESIZE * prefetchSampleSize;
+		
+		// Auf Tilegrenzen und Bildgrenzen beschränken
+		int startX = Math.max(0, left - left % tileExtent);
+		int startY = Math.max(0, top - top % tileExtent);
+		int endX = Math.min(right, imageWidth);
+		int endY = Math.min(bottom, imageHeight);
+		
+		for (int y = startY; y < endY; y += tileExtent) {
+			for (int x = startX; x < endX; x += tileExtent) {
+				cachedImage.prefetchTile(x, y, prefetchSampleSize);
+				
+				if (!cachedImage.canPrefetch()) {
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Aktualisiert den Fortschritt der Überblendung zwischen zwei Samplesizes (Transparenz von lodFadePaint).
+	 * 
+	 * @return true, falls die Überblendung noch läuft.
+	 */
+	private boolean updateLodFade() {
+		if (lodFadeFromSampleSize == 0) {
+			return false;
+		}
+		
+		long elapsed = SystemClock.uptimeMillis() - lodFadeStartTime;
+		
+		// Bei transparentem Bild würden sich die Stufen aufaddieren; außerdem darf das Tile-Budget durch die
+		// zusätzlich gezeichnete alte Stufe höchstens verdoppelt werden.
+		if (elapsed >= LOD_FADE_DURATION || getBackgroundAlpha() < 255
+				|| countVisibleTiles(lodFadeFromSampleSize) > getFrameTileBudget()) {
+			lodFadeFromSampleSize = 0;
+			return false;
+		}
+		
+		lodFadePaint.setAlpha((int) (255 * elapsed / LOD_FADE_DURATION));
+		return true;
+	}
+	
+	/**
+	 * Zeichnet während einer Überblendung die bereits gecachten Tiles der vorherigen Samplesize im Bereich des
+	 * Tiles bei x,y (es wird nichts neu generiert).
+	 * 
+	 * @param x,y Position des Tiles (relativ zum gesampelten Bild, wie in onDraw_cachedImage)
+	 * @return true, falls der Bereich vollständig von der vorherigen Stufe bedeckt wurde.
+	 */
+	private boolean onDraw_lodFadeUnderlay(Canvas canvas, int x, int y) {
+		int fromSampleSize = lodFadeFromSampleSize;
+		float fromScale = (float) fromSampleSize / sampleSize;
+		
+		// Bereich des Tiles in Originalkoordinaten und Tiles der vorherigen Stufe, die ihn schneiden
+		int imageX = sampleSize * x;
+		int imageY = sampleSize * y;
+		int fromTileExtent = CachedImage.TILESIZE * fromSampleSize;
+		int endX = Math.min(imageX + CachedImage.TILESIZE * sampleSize, imageWidth);
+		int endY = Math.min(imageY + CachedImage.TILESIZE * sampleSize, imageHeight);
+		
+		boolean complete = true;
+		
+		canvas.save();
+		canvas.clipRect(x, y, x + CachedImage.TILESIZE, y + CachedImage.TILESIZE);
+		
+		for (int fromY = imageY - imageY % fromTileExtent; fromY < endY; fromY += fromTileExtent) {
+			for (int fromX = imageX - imageX % fromTileExtent; fromX < endX; fromX += fromTileExtent) {
+				Bitmap fromTile = cachedImage.peekTileBitmap(fromX, fromY, fromSampleSize);
+				
+				if (fromTile == null) {
+					complete = false;
+					continue;
+				}
+				
+				previewDestRect.set((float) fromX / sampleSize, (float) fromY / sampleSize,
+						(float) fromX / sampleSize + fromTile.getWidth() * fromScale,
+						(float) fromY / sampleSize + fromTile.getHeight() * fromScale);
+				canvas.drawBitmap(fromTile, null, previewDestRect, previewPaint);
+			}
+		}
+		
+		canvas.restore();
+		return complete;
+	}
+	
+	/**
+	 * Zeichnet anstelle eines noch nicht generierten Tiles eine hochskalierte Vorschau: ein Tile einer gröberen
+	 * Samplesize, falls eines im Cache liegt, sonst den entsprechenden Ausschnitt des Übersichtsbildes. Dabei wird
+	 * nichts neu generiert. (Siehe {@link TileRenderThread#drawTilePreview}, der Render-Thread benutzt dieselbe.)
+	 * 
+	 * @param x,y Position des fehlenden Tiles (relativ zum gesampelten Bild, wie in onDraw_cachedImage)
+	 */
+	private void onDraw_missingTile(Canvas canvas, int x, int y) {
+		TileRenderThread.drawTilePreview(canvas, cachedImage, x, y, sampleSize, previewDestRect, previewPaint);
 	}
 	
 	/**
@@ -1310,6 +2311,35 @@ public class LargeImageView extends ImageView {
 		if (overlayIconList.isEmpty())
 			return;
 		
+		if (overlayLayerCacheEnabled) {
+			int frameMode = overlayLayerCache.prepareFrame(panCenterX, panCenterY, zoomScale, getWidth(),
+					getHeight());
+			
+			// Cache veraltet: alle sichtbaren Icons neu hineinzeichnen (nicht nur die im Clip-Bereich)
+			if (frameMode == OverlayLayerCache.FRAME_REBUILD) {
+				Canvas layerCanvas = overlayLayerCache.beginRebuild();
+				overlayViewRect.set(0, 0, getWidth(), getHeight());
+				
+				layerCanvas.save();
+				drawOverlayIcons(layerCanvas, overlayViewRect);
+				layerCanvas.restore();
+				
+				overlayLayerCache.endRebuild();
+			}
+			
+			if (frameMode != OverlayLayerCache.FRAME_DIRECT) {
+				overlayLayerCache.draw(canvas);
+				return;
+			}
+		}
+		
+		drawOverlayIcons(canvas, frameClipRect);
+	}
+	
+	/**
+	 * Zeichnet alle Icons, die im gegebenen Bildschirmbereich liegen.
+	 */
+	private void drawOverlayIcons(Canvas canvas, Rect clipRect) {
 		// Bildursprung relativ zu Bildschirmkoordinaten berechnen
 		float imageOriginX = -panCenterX * zoomScale + getWidth() / 2;
 		float imageOriginY = -panCenterY * zoomScale + getHeight() / 2;
@@ -1320,7 +2350,15 @@ public class LargeImageView extends ImageView {
 		// das Koordinatensystem des Canvas entspricht nun dem des Bildes
 		canvas.translate(imageOriginX, imageOriginY);
 		
-		for (OverlayIcon icon : overlayIconList) {
+		// Nur Icons zeichnen, die (mit ihrer Ausdehnung) im sichtbaren Bildausschnitt liegen
+		float marginX = (getWidth() / 2 + overlayIconIndex.getMaxIconExtent()) / zoomScale;
+		float marginY = (getHeight() / 2 + overlayIconIndex.getMaxIconExtent()) / zoomScale;
+		overlayIconIndex.query(panCenterX - marginX, panCenterY - marginY, panCenterX + marginX,
+				panCenterY + marginY, overlayIconsToDraw);
+		
+		for (int i = 0; i < overlayIconsToDraw.size(); i++) {
+			OverlayIcon icon = overlayIconsToDraw.get(i);
+			
 			// save und restore, um alle Icons einzeln zu verschieben
 			canvas.save();
 			
@@ -1328,6 +2366,15 @@ public class LargeImageView extends ImageView {
 			float translateX = icon.getImagePositionX() * zoomScale + icon.getImageOffsetX();
 			float translateY = icon.getImagePositionY() * zoomScale + icon.getImageOffsetY();
 			
+			// Bildschirmbereich merken (für die Teil-Invalidierung bei Änderungen) und Icons außerhalb des neu zu
+			// zeichnenden Bereichs überspringen
+			getOverlayIconScreenBounds(icon, icon.drawnBounds);
+			
+			if (!Rect.intersects(icon.drawnBounds, clipRect)) {
+				canvas.restore();
+				continue;
+			}
+			
 			// Log.d("LIV/onDraw_overlayIcons", "image pos " + icon.getImagePositionX() + "/" + icon.getImagePositionY()
 			// + ", offset " + icon.getImageOffsetX() + "/" + icon.getImageOffsetY() + ", zoomscale " + zoomScale +
 			// ", translate " + translateX + "/" + translateY);
@@ -0,0 +1,431 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+/**
+ * LRU-Cache mit primitiven long-Keys (siehe {@link TileKey}). Die Schnittstelle entspricht weitgehend der von
+ * android.support.v4.util.LruCache, aber get() erzeugt weder Key-Objekte (kein Autoboxing) noch sonstige Objekte,
+ * sodass Cache-Treffer im Zeichnen-Code keinen Müll für den Garbage Collector hinterlassen.
+ *
+ * Alle öffentlichen Methoden sind threadsicher (synchronized). entryRemoved() wird außerhalb der Sperre aufgerufen.
+ *
+ * @param <V> Typ der gespeicherten Werte
+ */
+public class LongLruCache<V> {
+	
+	// ////// CONSTANTS
+	
+	// Anfangsgröße der Hashtabelle (muss Zweierpotenz sein)
+	private static final int INITIAL_CAPACITY = 64;
+	
+	
+	// ////// MEMBERS
+	
+	// Hashtabelle mit Verkettung (Länge ist immer eine Zweierpotenz)
+	private Entry<V>[] table;
+	
+	// Kopf der doppelt verketteten LRU-Liste: head.after ist der älteste, head.before der neueste Eintrag.
+	private final Entry<V> head;
+	
+	// Anzahl der Einträge
+	private int entryCount = 0;
+	
+	// Summe der Größen (sizeOf) aller Einträge und Maximum
+	private int size = 0;
+	private int maxSize;
+	
+	// Statistik
+	private int putCount = 0;
+	private int evictionCount = 0;
+	private int hitCount = 0;
+	private int missCount = 0;
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CONSTRUCTORS AND INITIALIZATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @param maxSize Maximale Summe der Eintragsgrößen (siehe {@link #sizeOf(long, Object)}).
+	 */
+	public LongLruCache(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		
+		this.maxSize = maxSize;
+		this.table = newTable(INITIAL_CAPACITY);
+		
+		head = new Entry<V>(0, null, 0, null);
+		head.before = head;
+		head.after = head;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <V> Entry<V>[] newTable(int capacity) {
+		return (Entry<V>[]) new Entry<?>[capacity];
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// OVERRIDABLE METHODS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Größe eines Eintrags in benutzerdefinierten Einheiten. Standardmäßig 1, sodass maxSize die maximale Anzahl an
+	 * Einträgen ist. Die Größe eines Eintrags darf sich nicht ändern, solange er im Cache liegt.
+	 */
+	protected int sizeOf(long key, V value) {
+		return 1;
+	}
+	
+	/**
+	 * Wird aufgerufen, wenn ein Eintrag verdrängt, entfernt oder ersetzt wurde.
+	 *
+	 * @param evicted true, falls der Eintrag verdrängt wurde, um Platz zu schaffen; false bei remove() bzw. put().
+	 * @param newValue Neuer Wert bei put(), sonst null.
+	 */
+	protected void entryRemoved(boolean evicted, long key, V oldValue, V newValue) {
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CACHE OPERATIONS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Gibt den Wert zu key zurück (und markiert ihn als zuletzt benutzt), oder null. Erzeugt keine Objekte.
+	 */
+	public final synchronized V get(long key) {
+		Entry<V> entry = findEntry(key);
+		
+		if (entry == null) {
+			missCount++;
+			return null;
+		}
+		
+		hitCount++;
+		moveToFront(entry);
+		return entry.value;
+	}
+	
+	/**
+	 * Gibt den Wert zu key zurück, ohne ihn als benutzt zu markieren oder die Statistik zu verändern, oder null.
+	 */
+	public final synchronized V peek(long key) {
+		Entry<V> entry = findEntry(key);
+		return entry == null ? null : entry.value;
+	}
+	
+	/**
+	 * Prüft, ob ein Eintrag zu key existiert (ohne ihn als benutzt zu markieren).
+	 */
+	public final synchronized boolean containsKey(long key) {
+		return findEntry(key) != null;
+	}
+	
+	/**
+	 * Speichert value unter key und verdrängt falls nötig die am längsten nicht benutzten Einträge.
+	 *
+	 * @return Der vorherige Wert zu key oder null.
+	 */
+	public final V put(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("value == null");
+		}
+		
+		V previous = null;
+		
+		synchronized (this) {
+			putCount++;
+			
+			int entrySize = safeSizeOf(key, value);
+			Entry<V> entry = findEntry(key);
+			
+			if (entry != null) {
+				previous = entry.value;
+				size -= entry.size;
+				entry.value = value;
+				entry.size = entrySize;
+				moveToFront(entry);
+			}
+			else {
+				if (entryCount >= table.length * 3 / 4) {
+					growTable();
+				}
+				
+				int index = indexFor(key, table.length);
+				entry = new Entry<V>(key, value, entrySize, table[index]);
+				table[index] = entry;
+				entryCount++;
+				linkBefore(entry, head);
+			}
+			
+			size += entrySize;
+		}
+		
+		if (previous != null) {
+			entryRemoved(false, key, previous, value);
+		}
+		
+		trimToSize(maxSize);
+		return previous;
+	}
+	
+	/**
+	 * Entfernt den Eintrag zu key.
+	 *
+	 * @return Der entfernte Wert oder null.
+	 */
+	public final V remove(long key) {
+		V previous;
+		
+		synchronized (this) {
+			Entry<V> entry = removeEntry(key);
+			
+			if (entry == null) {
+				return null;
+			}
+			
+			previous = entry.value;
+		}
+		
+		entryRemoved(false, key, previous, null);
+		return previous;
+	}
+	
+	/**
+	 * Verdrängt die ältesten Einträge, bis die Gesamtgröße höchstens maxSize beträgt.
+	 *
+	 * @param maxSize Zielgröße, -1 um alle Einträge zu verdrängen.
+	 */
+	public void trimToSize(int maxSize) {
+		while (true) {
+			long key;
+			V value;
+			
+			synchronized (this) {
+				if (size < 0 || (entryCount == 0 && size != 0)) {
+					throw new IllegalStateException(getClass().getName() + ".sizeOf() is reporting inconsistent results!");
+				}
+				
+				if (size <= maxSize || entryCount == 0) {
+					break;
+				}
+				
+				Entry<V> eldest = head.after;
+				key = eldest.key;
+				value = eldest.value;
+				removeEntry(key);
+				evictionCount++;
+			}
+			
+			entryRemoved(true, key, value, null);
+		}
+	}
+	
+	/**
+	 * Ändert die maximale Größe des Caches (und verdrängt falls nötig Einträge).
+	 */
+	public void resize(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		
+		synchronized (this) {
+			this.maxSize = maxSize;
+		}
+		
+		trimToSize(maxSize);
+	}
+	
+	/**
+	 * Verdrängt alle Einträge.
+	 */
+	public final void evictAll() {
+		trimToSize(-1);
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// GETTERS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Summe der Größen aller Einträge.
+	 */
+	public final synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * Maximale Summe der Größen aller Einträge.
+	 */
+	public final synchronized int maxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * Anzahl der Einträge.
+	 */
+	public final synchronized int entryCount() {
+		return entryCount;
+	}
+	
+	public final synchronized int hitCount() {
+		return hitCount;
+	}
+	
+	public final synchronized int missCount() {
+		return missCount;
+	}
+	
+	public final synchronized int putCount() {
+		return putCount;
+	}
+	
+	public final synchronized int evictionCount() {
+		return evictionCount;
+	}
+	
+	@Override
+	public final synchronized String toString() {
+		int accesses = hitCount + missCount;
+		int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+		return String.format("LongLruCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+				maxSize, hitCount, missCount, hitPercent);
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// INTERNALS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	private int safeSizeOf(long key, V value) {
+		int result = sizeOf(key, value);
+		
+		if (result < 0) {
+			throw new IllegalStateException("Negative size: " + TileKey.toString(key) + "=" + value);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Hash eines Keys (mischt die oberen Bits ein, da sich Tilekeys vor allem in x und y unterscheiden).
+	 */
+	private static int indexFor(long key, int length) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & (length - 1);
+	}
+	
+	private Entry<V> findEntry(long key) {
+		Entry<V> entry = table[indexFor(key, table.length)];
+		
+		while (entry != null && entry.key != key) {
+			entry = entry.next;
+		}
+		
+		return entry;
+	}
+	
+	/**
+	 * Entfernt den Eintrag zu key aus Hashtabelle und LRU-Liste und passt die Größe an.
+	 */
+	private Entry<V> removeEntry(long key) {
+		int index = indexFor(key, table.length);
+		Entry<V> previous = null;
+		Entry<V> entry = table[index];
+		
+		while (entry != null && entry.key != key) {
+			previous = entry;
+			entry = entry.next;
+		}
+		
+		if (entry == null) {
+			return null;
+		}
+		
+		if (previous == null) {
+			table[index] = entry.next;
+		}
+		else {
+			previous.next = entry.next;
+		}
+		
+		unlink(entry);
+		entryCount--;
+		size -= entry.size;
+		return entry;
+	}
+	
+	private void growTable() {
+		Entry<V>[] oldTable = table;
+		Entry<V>[] newTable = newTable(oldTable.length * 2);
+		
+		for (Entry<V> entry : oldTable) {
+			while (entry != null) {
+				Entry<V> next = entry.next;
+				int index = indexFor(entry.key, newTable.length);
+				entry.next = newTable[index];
+				newTable[index] = entry;
+				entry = next;
+			}
+		}
+		
+		table = newTable;
+	}
+	
+	private void moveToFront(Entry<V> entry) {
+		unlink(entry);
+		linkBefore(entry, head);
+	}
+	
+	private static <V> void unlink(Entry<V> entry) {
+		entry.before.after = entry.after;
+		entry.after.before = entry.before;
+		entry.before = null;
+		entry.after = null;
+	}
+	
+	private static <V> void linkBefore(Entry<V> entry, Entry<V> successor) {
+		entry.after = successor;
+		entry.before = successor.before;
+		entry.before.after = entry;
+		successor.before = entry;
+	}
+	
+	/**
+	 * Eintrag der Hashtabelle (Verkettung über next) und der LRU-Liste (before/after).
+	 */
+	private static final class Entry<V> {
+		private final long key;
+		private V value;
+		private int size;
+		
+		private Entry<V> next;
+		private Entry<V> before, after;
+		
+		Entry(long key, V value, int size, Entry<V> next) {
+			this.key = key;
+			this.value = value;
+			this.size = size;
+			this.next = next;
+		}
+	}
+	
+}
@@ -20,6 +20,7 @@ import android.graphics.Canvas;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
 
 public abstract class OverlayIcon {
 	
@@ -35,9 +36,34 @@ public abstract class OverlayIcon {
 	// Transparenz: Alpha-Wert
 	private int overlayAlpha = 255;
 	
+	// Fade-Animation: Start- und End-Alphawert (0 bis 1), Startzeitpunkt und Dauer in ms
+	private float fadeFrom;
+	private float fadeTo;
+	private long fadeStartTime;
+	private long fadeDuration;
+	
+	// Aktualisiert die Transparenz während der Fade-Animation einmal pro Frame (siehe FrameClock)
+	private final FrameClock.FrameCallback fadeCallback = new FrameClock.FrameCallback() {
+		@Override
+		public boolean onFrame(long frameTime) {
+			return updateFading(frameTime);
+		}
+	};
+	
 	// Drag and Drop: ID des Pointers (Fingers), mit dem das Icon gedraggt wird. -1 wenn nicht gedraggt.
 	private int dragPointerID = -1;
 	
+	// Verwaltung durch den OverlayIconIndex der LIV: Rasterzelle, ist das Icon dort eingetragen bzw. muss es neu
+	// einsortiert werden, und Reihenfolge der Registrierung
+	int indexCellX;
+	int indexCellY;
+	boolean indexed = false;
+	boolean indexDirty = false;
+	long indexAttachOrder;
+	
+	// Bildschirmbereich, in dem das Icon zuletzt gezeichnet wurde (für Teil-Invalidierungen der LIV)
+	final Rect drawnBounds = new Rect();
+	
 	
 	// ////////////////////////////////////////////////////////////////////////
 	// //////////// CONSTRUCTORS AND LAYOUT STUFF
@@ -66,6 +92,7 @@ public abstract class OverlayIcon {
 	 * Icons aufgerufen werden.
 	 */
 	public void detach() {
+		stopFading();
 		parentLIV.detachOverlayIcon(this);
 	}
 	
@@ -130,16 +157,28 @@ public abstract class OverlayIcon {
 	}
 	
 	/**
-	 * Gibt ein Rechteck zurück, das relativ zur Bildposition angibt, welcher Bereich des Icons anklickbar ist.
-	 * Default-Implementation gibt die Dimensionen des Bildes verschoben um den ImageOffset zurück.
-	 * Kann überschrieben werden und darf null zurückgeben. null wird als "Icon ist nicht klickbar" interpretiert.
+	 * Schreibt ein Rechteck nach outRect, das relativ zur Bildposition angibt, welcher Bereich des Icons anklickbar
+	 * ist. Default-Implementation setzt die Dimensionen des Bildes verschoben um den ImageOffset.
+	 * Kann überschrieben werden (erzeugt dann möglichst keine Objekte, da es bei jedem Touch-Event aufgerufen wird).
+	 * 
+	 * @return false, falls das Icon nicht klickbar ist (outRect ist dann undefiniert).
 	 */
-	public Rect getTouchHitbox() {
-		return new Rect(
+	public boolean getTouchHitbox(Rect outRect) {
+		outRect.set(
 				getImageOffsetX(),
 				getImageOffsetY(),
 				getWidth() + getImageOffsetX(),
 				getHeight() + getImageOffsetY());
+		return true;
+	}
+	
+	/**
+	 * Gibt die Hitbox (siehe {@link #getTouchHitbox(Rect)}) als neues Rechteck zurück, oder null, falls das Icon
+	 * nicht klickbar ist.
+	 */
+	public final Rect getTouchHitbox() {
+		Rect hitbox = new Rect();
+		return getTouchHitbox(hitbox) ? hitbox : null;
 	}
 	
 	/**
@@ -150,6 +189,16 @@ public abstract class OverlayIcon {
 		return parentLIV.imageToScreenPosition(getImagePositionX(), getImagePositionY());
 	}
 	
+	/**
+	 * Schreibt die momentane Bildschirmposition des Icons nach outPoint (ohne ein neues PointF zu erzeugen).
+	 * 
+	 * @return false, falls die Position noch nicht umgerechnet werden kann (siehe
+	 *         LargeImageView.imageToScreenPosition()).
+	 */
+	public boolean getScreenPosition(PointF outPoint) {
+		return parentLIV.imageToScreenPosition(getImagePositionX(), getImagePositionY(), outPoint);
+	}
+	
 	// ////// ICON DRAWABLE
 	
 	/**
@@ -160,6 +209,9 @@ public abstract class OverlayIcon {
 		
 		// Boundaries/Bildgröße setzen
 		drawable.setBounds(0, 0, drawable.getMinimumWidth(), drawable.getMinimumHeight());
+		
+		// Größe (und damit Ausdehnung im OverlayIconIndex) hat sich geändert
+		update();
 	}
 	
 	/**
@@ -202,11 +254,20 @@ public abstract class OverlayIcon {
 	}
 	
 	/**
-	 * Setze Transparenz des Icons.
+	 * Setze Transparenz des Icons. Bricht eine laufende Fade-Animation ab.
 	 * 
 	 * @param newAlpha Wert von 0 (vollkommen transparent) bis 255 (undurchsichtig).
 	 */
 	public void setOverlayAlpha(int newAlpha) {
+		stopFading();
+		applyOverlayAlpha(newAlpha);
+	}
+	
+	private void applyOverlayAlpha(int newAlpha) {
+		if (newAlpha == overlayAlpha) {
+			return;
+		}
+		
 		overlayAlpha = newAlpha;
 		
 		// Darstellung aktualisieren
@@ -339,36 +400,78 @@ public abstract class OverlayIcon {
 	}
 	
 	/**
-	 * Aktualisiert die Darstellung des Icons (ruft invalidate() auf).
-	 * Sollte immer aufgerufen werden, wenn z.B. die Position oder die Transparenz verändert wurde.
+	 * Aktualisiert die Darstellung des Icons (ruft invalidate() auf) und dessen Eintrag im räumlichen Index der LIV.
+	 * Muss immer aufgerufen werden, wenn z.B. die Position oder die Transparenz verändert wurde.
 	 */
 	public void update() {
-		parentLIV.invalidate();
+		parentLIV.onOverlayIconChanged(this);
 	}
 	
 	
 	// ////// ANIMATIONS
 	
 	/**
-	 * Starte Fade-Animation.
+	 * Starte Fade-Animation. Die Transparenz wird (beschleunigt) von from nach to verändert, und zwar einmal pro Frame
+	 * über den gemeinsamen {@link FrameClock} aller Icons, sodass gleichzeitige Animationen nur ein Neuzeichnen pro
+	 * Frame kosten. Eine laufende Fade-Animation wird ersetzt.
 	 * 
-	 * @param from Start-Alphawert
-	 * @param to End-Alphawert
-	 * @param duration Dauer der Animation
+	 * @param from Start-Alphawert (0 bis 1)
+	 * @param to End-Alphawert (0 bis 1)
+	 * @param duration Dauer der Animation in ms (0: sofort)
 	 */
 	protected void startFading(float from, float to, long duration) {
-		// Erstelle Animation... selbsterklärende Parameter
-		// Animation fadeAnim = new AlphaAnimation(from, to);
-		// fadeAnim.setInterpolator(new AccelerateInterpolator());
-		// fadeAnim.setDuration(duration);
-		// fadeAnim.setFillEnabled(true);
-		// fadeAnim.setFillAfter(true);
-		//
-		// this.startAnimation(fadeAnim);
+		if (duration <= 0) {
+			setOverlayAlpha((int) (to * 255));
+			return;
+		}
+		
+		fadeFrom = from;
+		fadeTo = to;
+		fadeStartTime = SystemClock.uptimeMillis();
+		fadeDuration = duration;
+		
+		applyOverlayAlpha((int) (from * 255));
+		FrameClock.getInstance().addCallback(fadeCallback);
+	}
+	
+	/**
+	 * Bricht eine laufende Fade-Animation ab (die Transparenz bleibt beim aktuellen Wert).
+	 */
+	protected void stopFading() {
+		FrameClock.getInstance().removeCallback(fadeCallback);
+	}
+	
+	/**
+	 * Beendet eine laufende Fade-Animation sofort mit ihrem End-Alphawert (z.B. wenn die LargeImageView vom Fenster
+	 * entfernt wird, da der FrameClock das Icon sonst weiter festhält).
+	 */
+	void finishFading() {
+		if (isFading()) {
+			stopFading();
+			applyOverlayAlpha((int) (fadeTo * 255));
+		}
+	}
+	
+	/**
+	 * Gibt zurück, ob gerade eine Fade-Animation läuft.
+	 */
+	public boolean isFading() {
+		return FrameClock.getInstance().isRunning(fadeCallback);
+	}
+	
+	/**
+	 * Setzt die Transparenz entsprechend des Fortschritts der Fade-Animation.
+	 * 
+	 * @return false, wenn die Animation beendet ist.
+	 */
+	private boolean updateFading(long frameTime) {
+		float progress = Math.max(0, Math.min(1, (float) (frameTime - fadeStartTime) / fadeDuration));
 		
-		// TODO Animationen reimplementieren!
+		// (wie AccelerateInterpolator)
+		float alpha = fadeFrom + (fadeTo - fadeFrom) * progress * progress;
+		applyOverlayAlpha((int) (alpha * 255));
 		
-		setOverlayAlpha((int) (to * 255));
+		return progress < 1;
 	}
 	
 }
@@ -0,0 +1,270 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+
+/**
+ * Räumlicher Index (gleichmäßiges Raster) über die Bildpositionen der OverlayIcons einer LargeImageView, damit beim
+ * Zeichnen und bei Touch-Events nur die Icons in der Nähe betrachtet werden müssen statt aller.
+ *
+ * Die Rasterzellen werden auf eine feste Anzahl Buckets gehasht, sodass das Raster unbegrenzt ist und keine
+ * Bildgröße bekannt sein muss. Geänderte Icons werden nur markiert ({@link #markDirty(OverlayIcon)}) und erst bei
+ * der nächsten Abfrage neu einsortiert, da sich ihre Position z.B. im Konstruktor erst nach dem Registrieren ergibt.
+ * Nach dem Aufwärmen erzeugen Abfragen keine Objekte. Nicht threadsicher (nur vom UI-Thread benutzen).
+ */
+class OverlayIconIndex {
+	
+	// ////// CONSTANTS
+	
+	// Kantenlänge einer Rasterzelle in Bildpixeln (2^CELL_SHIFT)
+	private static final int CELL_SHIFT = 8;
+	
+	// Anzahl der Buckets (Zweierpotenz)
+	private static final int BUCKET_COUNT = 256;
+	
+	
+	// ////// MEMBERS
+	
+	// Icons nach (gehashter) Rasterzelle
+	private final ArrayList<OverlayIcon>[] buckets;
+	
+	// Alle Icons in der Reihenfolge der Registrierung
+	private final ArrayList<OverlayIcon> icons = new ArrayList<OverlayIcon>();
+	
+	// Icons, die seit der letzten Abfrage registriert oder verändert wurden
+	private final ArrayList<OverlayIcon> dirtyIcons = new ArrayList<OverlayIcon>();
+	
+	// Größte Ausdehnung eines Icons (Bild oder Hitbox) um seine Position, in Bildschirmpixeln. Wird nie kleiner.
+	private int maxIconExtent = 0;
+	
+	// Reihenfolge der Registrierung (die Abfrageergebnisse werden danach sortiert)
+	private long nextAttachOrder = 0;
+	
+	// Wiederverwendetes Rechteck für die Hitbox
+	private final Rect hitboxRect = new Rect();
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CONSTRUCTORS AND INITIALIZATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	@SuppressWarnings("unchecked")
+	OverlayIconIndex() {
+		buckets = new ArrayList[BUCKET_COUNT];
+		
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = new ArrayList<OverlayIcon>();
+		}
+	}
+	
+	private static int getBucket(int cellX, int cellY) {
+		return (cellX * 0x9E3779B1 + cellY) & (BUCKET_COUNT - 1);
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// ICON MANAGEMENT
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Nimmt ein Icon in den Index auf (wird bei der nächsten Abfrage einsortiert).
+	 */
+	void add(OverlayIcon icon) {
+		icon.indexAttachOrder = nextAttachOrder++;
+		icons.add(icon);
+		markDirty(icon);
+	}
+	
+	/**
+	 * Entfernt ein Icon aus dem Index.
+	 */
+	void remove(OverlayIcon icon) {
+		icons.remove(icon);
+		
+		if (icon.indexed) {
+			buckets[getBucket(icon.indexCellX, icon.indexCellY)].remove(icon);
+			icon.indexed = false;
+		}
+		
+		if (icon.indexDirty) {
+			dirtyIcons.remove(icon);
+			icon.indexDirty = false;
+		}
+	}
+	
+	/**
+	 * Markiert ein Icon als verändert (Position, Größe oder Hitbox), sodass es bei der nächsten Abfrage neu
+	 * einsortiert wird.
+	 */
+	void markDirty(OverlayIcon icon) {
+		if (!icon.indexDirty) {
+			icon.indexDirty = true;
+			dirtyIcons.add(icon);
+		}
+	}
+	
+	/**
+	 * Sortiert alle veränderten Icons neu ein.
+	 */
+	private void flush() {
+		for (int i = 0; i < dirtyIcons.size(); i++) {
+			OverlayIcon icon = dirtyIcons.get(i);
+			icon.indexDirty = false;
+			
+			int cellX = icon.getImagePositionX() >> CELL_SHIFT;
+			int cellY = icon.getImagePositionY() >> CELL_SHIFT;
+			
+			if (!icon.indexed || cellX != icon.indexCellX || cellY != icon.indexCellY) {
+				if (icon.indexed) {
+					buckets[getBucket(icon.indexCellX, icon.indexCellY)].remove(icon);
+				}
+				
+				buckets[getBucket(cellX, cellY)].add(icon);
+				icon.indexCellX = cellX;
+				icon.indexCellY = cellY;
+				icon.indexed = true;
+			}
+			
+			maxIconExtent = Math.max(maxIconExtent, getIconExtent(icon));
+		}
+		
+		dirtyIcons.clear();
+	}
+	
+	/**
+	 * Ausdehnung des Icons (Bild und Hitbox) um seine Position in Bildschirmpixeln (Maximum über alle Richtungen).
+	 */
+	private int getIconExtent(OverlayIcon icon) {
+		int offsetX = icon.getImageOffsetX();
+		int offsetY = icon.getImageOffsetY();
+		
+		int extent = Math.max(Math.max(Math.abs(offsetX), Math.abs(offsetX + icon.getWidth())),
+				Math.max(Math.abs(offsetY), Math.abs(offsetY + icon.getHeight())));
+		
+		if (icon.getTouchHitbox(hitboxRect)) {
+			extent = Math.max(extent, Math.max(Math.max(Math.abs(hitboxRect.left), Math.abs(hitboxRect.right)),
+					Math.max(Math.abs(hitboxRect.top), Math.abs(hitboxRect.bottom))));
+		}
+		
+		return extent;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// QUERIES
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Größte Ausdehnung eines Icons (Bild oder Hitbox) um seine Bildposition in Bildschirmpixeln. Abfragebereiche
+	 * müssen um diesen Wert (umgerechnet in Bildpixel) vergrößert werden, damit keine Icons am Rand fehlen.
+	 */
+	int getMaxIconExtent() {
+		flush();
+		return maxIconExtent;
+	}
+	
+	/**
+	 * Sucht alle Icons, deren Bildposition im gegebenen Bereich (in Bildkoordinaten, inklusive Rand) liegt.
+	 *
+	 * @param result Liste für das Ergebnis (wird geleert), sortiert in der Reihenfolge der Registrierung (wie
+	 *            LargeImageView.overlayIconList)
+	 */
+	void query(float left, float top, float right, float bottom, ArrayList<OverlayIcon> result) {
+		flush();
+		result.clear();
+		
+		int startCellX = (int) Math.floor(left) >> CELL_SHIFT;
+		int startCellY = (int) Math.floor(top) >> CELL_SHIFT;
+		int endCellX = (int) Math.ceil(right) >> CELL_SHIFT;
+		int endCellY = (int) Math.ceil(bottom) >> CELL_SHIFT;
+		
+		if ((long) (endCellX - startCellX + 1) * (endCellY - startCellY + 1) >= BUCKET_COUNT) {
+			// Bereich umfasst mehr Zellen als Buckets, also ohnehin fast alle Icons: alle in Registrierungsreihenfolge
+			// durchsuchen, dann muss nicht sortiert werden
+			collect(icons, left, top, right, bottom, result);
+			return;
+		}
+		
+		for (int cellY = startCellY; cellY <= endCellY; cellY++) {
+			for (int cellX = startCellX; cellX <= endCellX; cellX++) {
+				// (Ein Bucket kann Icons mehrerer Zellen des Bereichs enthalten. Damit diese nicht doppelt
+				// gefunden werden, nur Icons genau dieser Zelle übernehmen.)
+				collectCell(buckets[getBucket(cellX, cellY)], cellX, cellY, left, top, right, bottom, result);
+			}
+		}
+		
+		// Sortieren kostet bis zu quadratisch viele Schritte in der Trefferzahl. Bei vielen Treffern ist es billiger,
+		// alle (bereits sortierten) Icons zu durchsuchen.
+		if ((long) result.size() * result.size() > icons.size()) {
+			result.clear();
+			collect(icons, left, top, right, bottom, result);
+		}
+		else {
+			sortByAttachOrder(result);
+		}
+	}
+	
+	private static void collect(ArrayList<OverlayIcon> bucket, float left, float top, float right, float bottom,
+			ArrayList<OverlayIcon> result) {
+		for (int i = 0; i < bucket.size(); i++) {
+			OverlayIcon icon = bucket.get(i);
+			
+			if (isInside(icon, left, top, right, bottom)) {
+				result.add(icon);
+			}
+		}
+	}
+	
+	private static void collectCell(ArrayList<OverlayIcon> bucket, int cellX, int cellY, float left, float top,
+			float right, float bottom, ArrayList<OverlayIcon> result) {
+		for (int i = 0; i < bucket.size(); i++) {
+			OverlayIcon icon = bucket.get(i);
+			
+			if (icon.indexCellX == cellX && icon.indexCellY == cellY && isInside(icon, left, top, right, bottom)) {
+				result.add(icon);
+			}
+		}
+	}
+	
+	private static boolean isInside(OverlayIcon icon, float left, float top, float right, float bottom) {
+		int x = icon.getImagePositionX();
+		int y = icon.getImagePositionY();
+		return x >= left && x <= right && y >= top && y <= bottom;
+	}
+	
+	/**
+	 * Insertion Sort nach Registrierungsreihenfolge (nur für wenige Treffer, siehe query(); diese sind meist schon fast
+	 * sortiert, und Collections.sort() würde ein Array erzeugen).
+	 */
+	private static void sortByAttachOrder(ArrayList<OverlayIcon> icons) {
+		for (int i = 1; i < icons.size(); i++) {
+			OverlayIcon icon = icons.get(i);
+			int j = i - 1;
+			
+			while (j >= 0 && icons.get(j).indexAttachOrder > icon.indexAttachOrder) {
+				icons.set(j + 1, icons.get(j));
+				j--;
+			}
+			
+			icons.set(j + 1, icon);
+		}
+	}
+	
+}
@@ -0,0 +1,225 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.util.Log;
+
+/**
+ * Zwischenspeicher für die gezeichneten OverlayIcons einer LargeImageView: eine transparente Bitmap in View-Größe,
+ * die nur neu gerendert wird, wenn sich ein Icon (Position, Darstellung, Transparenz) oder Pan/Zoom geändert haben.
+ * Ansonsten wird nur diese Bitmap gezeichnet, statt jedes Icon einzeln per Drawable.draw() zu rastern.
+ *
+ * Ändert sich der Inhalt in mehreren Frames hintereinander (Panning, Zoomen, Fade-Animationen, Drag and Drop),
+ * würde der Cache in jedem Frame neu gerendert und zusätzlich gezeichnet. Dann wird direkt gezeichnet und der Cache
+ * erst im nächsten Frame ohne Änderung wieder aufgebaut. Nicht threadsicher (nur vom UI-Thread benutzen).
+ */
+public class OverlayLayerCache {
+	
+	// ////// CONSTANTS
+	
+	/** Icons direkt auf den Canvas zeichnen (Cache wird nicht benutzt). */
+	public static final int FRAME_DIRECT = 0;
+	
+	/** Cache neu rendern (siehe {@link #beginRebuild()}) und dann zeichnen. */
+	public static final int FRAME_REBUILD = 1;
+	
+	/** Cache ist aktuell und kann direkt gezeichnet werden. */
+	public static final int FRAME_CACHED = 2;
+	
+	
+	// ////// MEMBERS
+	
+	// Gecachte Icons (wird erst bei Bedarf angelegt)
+	private Bitmap layerBitmap = null;
+	private Canvas layerCanvas = null;
+	
+	// Konnte die Bitmap nicht angelegt werden (OutOfMemoryError)? Dann nur noch direkt zeichnen (bis release()).
+	private boolean layerFailed = false;
+	
+	// Entspricht der Inhalt der Bitmap dem aktuellen Zustand?
+	private boolean layerValid = false;
+	
+	// Hat sich seit dem letzten Frame etwas an den Icons geändert?
+	private boolean changedSinceLastFrame = true;
+	
+	// Anzahl aufeinanderfolgender Frames mit Änderungen
+	private int changedFrameCount = 0;
+	
+	// Pan und Zoom des letzten Frames
+	private float lastPanX = Float.NaN;
+	private float lastPanY = Float.NaN;
+	private float lastZoom = Float.NaN;
+	
+	// Statistik
+	private int rebuildCount = 0;
+	private int cachedFrameCount = 0;
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// FRAMES
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Markiert den Inhalt als veraltet (ein Icon wurde hinzugefügt, entfernt oder verändert).
+	 */
+	public void invalidate() {
+		changedSinceLastFrame = true;
+		layerValid = false;
+	}
+	
+	/**
+	 * Entscheidet zu Beginn des Zeichnens der Icons, wie gezeichnet wird.
+	 *
+	 * @param panX,panY,zoom Aktuelle Pan- und Zoomwerte der View
+	 * @param width,height Größe der View
+	 * @return {@link #FRAME_DIRECT}, {@link #FRAME_REBUILD} oder {@link #FRAME_CACHED}
+	 */
+	public int prepareFrame(float panX, float panY, float zoom, int width, int height) {
+		if (panX != lastPanX || panY != lastPanY || zoom != lastZoom) {
+			lastPanX = panX;
+			lastPanY = panY;
+			lastZoom = zoom;
+			invalidate();
+		}
+		
+		if (changedSinceLastFrame) {
+			changedSinceLastFrame = false;
+			changedFrameCount++;
+		}
+		else {
+			changedFrameCount = 0;
+		}
+		
+		if (layerValid) {
+			cachedFrameCount++;
+			return FRAME_CACHED;
+		}
+		
+		// Ändert sich der Inhalt gerade laufend, lohnt sich der Cache nicht. (Der erste Frame einer Änderung wird
+		// noch gecacht, damit einzelne Änderungen, z.B. ein neuer Referenzpunkt, davon profitieren.)
+		if (changedFrameCount > 1 || !ensureLayerBitmap(width, height)) {
+			return FRAME_DIRECT;
+		}
+		
+		return FRAME_REBUILD;
+	}
+	
+	/**
+	 * Leert die Bitmap und gibt den Canvas zurück, auf den die Icons (in Bildschirmkoordinaten) gezeichnet werden
+	 * müssen. Nur nach {@link #prepareFrame(float, float, float, int, int)} == FRAME_REBUILD aufrufen.
+	 */
+	public Canvas beginRebuild() {
+		layerBitmap.eraseColor(Color.TRANSPARENT);
+		return layerCanvas;
+	}
+	
+	/**
+	 * Markiert den neu gerenderten Inhalt als aktuell.
+	 */
+	public void endRebuild() {
+		layerValid = true;
+		rebuildCount++;
+	}
+	
+	/**
+	 * Zeichnet die gecachten Icons auf den Canvas der View.
+	 */
+	public void draw(Canvas canvas) {
+		canvas.drawBitmap(layerBitmap, 0, 0, null);
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// MEMORY MANAGEMENT
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Legt die Bitmap in der gegebenen Größe an, falls noch nicht geschehen.
+	 *
+	 * @return false, falls nicht genug Speicher vorhanden ist.
+	 */
+	private boolean ensureLayerBitmap(int width, int height) {
+		if (layerBitmap != null && layerBitmap.getWidth() == width && layerBitmap.getHeight() == height) {
+			return true;
+		}
+		
+		if (layerFailed || width <= 0 || height <= 0) {
+			return false;
+		}
+		
+		recycleLayerBitmap();
+		
+		try {
+			layerBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+			layerCanvas = new Canvas(layerBitmap);
+			return true;
+		}
+		catch (OutOfMemoryError e) {
+			Log.w("OverlayLayerCache/ensureLayerBitmap", "Not enough memory for overlay layer of size " + width + "x"
+					+ height + ", drawing icons directly");
+			layerFailed = true;
+			return false;
+		}
+	}
+	
+	/**
+	 * Gibt die Bitmap frei (sie wird beim nächsten Zeichnen neu angelegt).
+	 */
+	public void release() {
+		recycleLayerBitmap();
+		layerFailed = false;
+		invalidate();
+	}
+	
+	private void recycleLayerBitmap() {
+		if (layerBitmap != null) {
+			layerBitmap.recycle();
+			layerBitmap = null;
+			layerCanvas = null;
+		}
+		
+		layerValid = false;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// GETTERS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Anzahl der Frames, in denen der Cache neu gerendert wurde.
+	 */
+	public int getRebuildCount() {
+		return rebuildCount;
+	}
+	
+	/**
+	 * Anzahl der Frames, in denen der Cache unverändert gezeichnet wurde.
+	 */
+	public int getCachedFrameCount() {
+		return cachedFrameCount;
+	}
+	
+	@Override
+	public String toString() {
+		return "OverlayLayerCache[rebuilds=" + rebuildCount + ",cached frames=" + cachedFrameCount + "]";
+	}
+	
+}
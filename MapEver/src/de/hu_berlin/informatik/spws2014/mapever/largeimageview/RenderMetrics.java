@@ -0,0 +1,359 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * App-weite Messwerte der Bilddarstellung (Zähler und Latenz-Histogramme), um herauszufinden, warum eine Karte
+ * ruckelt: Cache-Hits und -Misses, verdrängte Tiles, Dekodierzeit pro Samplesize, Länge der Warteschlange des
+ * TileSchedulers, Dauer von onDraw() und Frames über dem Zeitbudget.
+ *
+ * Standardmäßig deaktiviert (dann kostet das Erfassen nur eine Abfrage von {@link #isEnabled()}). Wird im Debug-Modus
+ * aktiviert und dort als HUD in der LargeImageView angezeigt ({@link DebugHud}) bzw. per {@link #dump(Writer)} in eine
+ * Datei geschrieben. Alle Messwerte sind threadsicher (Tiles werden in Worker-Threads dekodiert).
+ */
+public final class RenderMetrics {
+	
+	// ////// CONSTANTS
+	
+	// Zeitbudget eines Frames bei 60 fps in ns
+	public static final long FRAME_BUDGET_NANOS = 16666667;
+	
+	// Anzahl der Samplesizes (Zweierpotenzen 1 bis 2^(n-1)), für die Dekodierzeiten getrennt erfasst werden
+	private static final int DECODE_LEVELS = 8;
+	
+	
+	// ////// STATIC VARIABLES
+	
+	// Werden Messwerte erfasst?
+	private static volatile boolean enabled = false;
+	
+	// Alle Zähler und Histogramme (in der Reihenfolge ihrer Erzeugung, für dump() und reset())
+	private static final ArrayList<Counter> counters = new ArrayList<Counter>();
+	private static final ArrayList<Histogram> histograms = new ArrayList<Histogram>();
+	
+	
+	// ////// METRICS
+	
+	/** Sichtbare Tiles, die im Cache lagen bzw. erst generiert werden mussten. */
+	public static final Counter TILE_CACHE_HITS = new Counter("tile cache hits");
+	public static final Counter TILE_CACHE_MISSES = new Counter("tile cache misses");
+	
+	/** Tiles, die verdrängt wurden, um Platz im Cache zu schaffen. */
+	public static final Counter TILE_EVICTIONS = new Counter("tile evictions");
+	
+	/** Spekulativ angeforderte Tiles (Prefetching). */
+	public static final Counter TILE_PREFETCHES = new Counter("tile prefetches");
+	
+	/** Gezeichnete Frames und davon solche, deren onDraw() länger als FRAME_BUDGET_NANOS dauerte. */
+	public static final Counter FRAMES = new Counter("frames");
+	public static final Counter FRAMES_OVER_BUDGET = new Counter("frames over budget");
+	
+	/** Dauer von LargeImageView.onDraw(). */
+	public static final Histogram DRAW_TIME = new Histogram("onDraw", true);
+	
+	/** Dauer eines Frames im TileRenderThread (Zusammensetzen der Tiles außerhalb des UI-Threads). */
+	public static final Histogram RENDER_THREAD_TIME = new Histogram("render thread", true);
+	
+	/** Anzahl wartender bzw. laufender Tile-Anfragen beim Einreihen einer neuen Anfrage. */
+	public static final Histogram TILE_QUEUE_DEPTH = new Histogram("tile queue depth", false);
+	
+	/** Zeit vom Einreihen einer Tile-Anfrage bis zum Beginn der Generierung. */
+	public static final Histogram TILE_QUEUE_WAIT = new Histogram("tile queue wait", true);
+	
+	/** Dekodierzeit eines Tiles nach Samplesize (Index log2(sampleSize)). */
+	private static final Histogram[] DECODE_TIMES = new Histogram[DECODE_LEVELS];
+	
+	static {
+		for (int level = 0; level < DECODE_LEVELS; level++) {
+			DECODE_TIMES[level] = new Histogram("decode sampleSize " + (1 << level), true);
+		}
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CONSTRUCTORS AND INITIALIZATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	private RenderMetrics() {
+	}
+	
+	/**
+	 * Gibt zurück, ob Messwerte erfasst werden.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Aktiviert oder deaktiviert das Erfassen von Messwerten (z.B. je nach Debug-Modus).
+	 */
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+	
+	/**
+	 * Setzt alle Messwerte zurück.
+	 */
+	public static void reset() {
+		synchronized (counters) {
+			for (int i = 0; i < counters.size(); i++) {
+				counters.get(i).reset();
+			}
+			for (int i = 0; i < histograms.size(); i++) {
+				histograms.get(i).reset();
+			}
+		}
+	}
+	
+	/**
+	 * Gibt das Histogramm der Dekodierzeiten für die gegebene Samplesize zurück (größere Samplesizes teilen sich
+	 * das letzte Histogramm).
+	 */
+	public static Histogram getDecodeTime(int sampleSize) {
+		int level = 31 - Integer.numberOfLeadingZeros(Math.max(1, sampleSize));
+		return DECODE_TIMES[Math.min(level, DECODE_LEVELS - 1)];
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// OUTPUT
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Schreibt alle Messwerte (eine Zeile pro Zähler bzw. Histogramm) nach writer.
+	 */
+	public static void dump(Writer writer) throws IOException {
+		StringBuilder line = new StringBuilder();
+		
+		synchronized (counters) {
+			for (int i = 0; i < counters.size(); i++) {
+				line.setLength(0);
+				counters.get(i).appendTo(line);
+				writer.write(line.append('\n').toString());
+			}
+			for (int i = 0; i < histograms.size(); i++) {
+				line.setLength(0);
+				histograms.get(i).appendTo(line);
+				writer.write(line.append('\n').toString());
+			}
+		}
+	}
+	
+	/**
+	 * Schreibt alle Messwerte und ggf. weitere Informationen (z.B. Zustand des Caches) in eine Textdatei.
+	 *
+	 * @param extraInfo Wird vor den Messwerten geschrieben (oder null)
+	 */
+	public static void dumpToFile(File file, String extraInfo) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		
+		try {
+			if (extraInfo != null) {
+				writer.write(extraInfo);
+				writer.write('\n');
+			}
+			dump(writer);
+		}
+		finally {
+			writer.close();
+		}
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// METRIC TYPES
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Zähler, der nur bei aktivierten RenderMetrics hochgezählt wird.
+	 */
+	public static final class Counter {
+		private final String name;
+		private final AtomicLong value = new AtomicLong();
+		
+		private Counter(String name) {
+			this.name = name;
+			
+			synchronized (counters) {
+				counters.add(this);
+			}
+		}
+		
+		public void increment() {
+			if (enabled) {
+				value.incrementAndGet();
+			}
+		}
+		
+		public long get() {
+			return value.get();
+		}
+		
+		private void reset() {
+			value.set(0);
+		}
+		
+		public void appendTo(StringBuilder builder) {
+			builder.append(name).append(": ").append(value.get());
+		}
+	}
+	
+	/**
+	 * Histogramm über nichtnegative Werte mit logarithmischen Klassen (vier Klassen pro Zweierpotenz, d.h. höchstens
+	 * 25% Abweichung bei Quantilen). Zeiten werden in µs erfasst und in ms ausgegeben.
+	 */
+	public static final class Histogram {
+		// Werte 0-3 haben eigene Klassen, danach 4 Klassen pro Zweierpotenz bis 2^62
+		private static final int BUCKET_COUNT = 4 + 4 * 61;
+		
+		private final String name;
+		private final boolean isTime;
+		
+		private final long[] buckets = new long[BUCKET_COUNT];
+		private long count = 0;
+		private long sum = 0;
+		private long max = 0;
+		
+		private Histogram(String name, boolean isTime) {
+			this.name = name;
+			this.isTime = isTime;
+			
+			synchronized (counters) {
+				histograms.add(this);
+			}
+		}
+		
+		/**
+		 * Erfasst eine Dauer in ns (nur für Zeit-Histogramme).
+		 */
+		public void recordNanos(long nanos) {
+			record(nanos / 1000);
+		}
+		
+		/**
+		 * Erfasst einen Wert (bei Zeit-Histogrammen in µs).
+		 */
+		public void record(long value) {
+			if (!enabled) {
+				return;
+			}
+			
+			value = Math.max(0, value);
+			
+			synchronized (this) {
+				buckets[getBucket(value)]++;
+				count++;
+				sum += value;
+				max = Math.max(max, value);
+			}
+		}
+		
+		private static int getBucket(long value) {
+			if (value < 4) {
+				return (int) value;
+			}
+			
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exponent - 2)) & 3;
+			return 4 + 4 * (exponent - 2) + sub;
+		}
+		
+		private static long getBucketUpperBound(int bucket) {
+			if (bucket < 4) {
+				return bucket;
+			}
+			
+			int exponent = (bucket - 4) / 4 + 2;
+			int sub = (bucket - 4) % 4;
+			return ((4L + sub + 1) << (exponent - 2)) - 1;
+		}
+		
+		public synchronized long getCount() {
+			return count;
+		}
+		
+		public synchronized long getMax() {
+			return max;
+		}
+		
+		public synchronized float getMean() {
+			return count == 0 ? 0 : (float) sum / count;
+		}
+		
+		/**
+		 * Gibt (eine obere Schranke für) das p-Quantil zurück, z.B. p = 0.95.
+		 */
+		public synchronized long getPercentile(float p) {
+			if (count == 0) {
+				return 0;
+			}
+			
+			long rank = (long) Math.ceil(p * count);
+			long seen = 0;
+			
+			for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+				seen += buckets[bucket];
+				
+				if (seen >= rank) {
+					return Math.min(max, getBucketUpperBound(bucket));
+				}
+			}
+			
+			return max;
+		}
+		
+		private synchronized void reset() {
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				buckets[i] = 0;
+			}
+			count = sum = max = 0;
+		}
+		
+		/**
+		 * Wert in der Ausgabeeinheit (ms bei Zeit-Histogrammen).
+		 */
+		public float toDisplayUnit(float value) {
+			return isTime ? value / 1000 : value;
+		}
+		
+		public void appendTo(StringBuilder builder) {
+			long currentCount;
+			float mean, p50, p95, currentMax;
+			
+			synchronized (this) {
+				currentCount = count;
+				mean = toDisplayUnit(getMean());
+				p50 = toDisplayUnit(getPercentile(0.5f));
+				p95 = toDisplayUnit(getPercentile(0.95f));
+				currentMax = toDisplayUnit(max);
+			}
+			
+			builder.append(name).append(isTime ? " (ms)" : "").append(": n=").append(currentCount);
+			builder.append(" mean=").append(mean).append(" p50=").append(p50).append(" p95=").append(p95);
+			builder.append(" max=").append(currentMax);
+		}
+	}
+	
+}
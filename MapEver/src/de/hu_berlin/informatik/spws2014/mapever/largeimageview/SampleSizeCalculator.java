@@ -0,0 +1,128 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+/**
+ * Berechnung von Samplesizes (Zweierpotenzen, n ist 1/n mal so groß wie das Original) für die LargeImageView und
+ * für Thumbnails. Reines Java ohne Android-Abhängigkeiten, damit es auch im Benchmark-Modul (MapEverBenchmarks)
+ * auf einer normalen JVM läuft.
+ */
+public final class SampleSizeCalculator {
+	
+	// ////// CONSTANTS
+	
+	// Maximale Samplesize (siehe calculateSampleSize())
+	public static final int MAX_SAMPLESIZE = 32;
+	
+	// Hysterese beim Wechsel auf eine benachbarte Samplesize (relativer Abstand zur Schwelle, siehe
+	// calculateSampleSize(float, int)), damit ein Zoom um die Schwelle herum nicht ständig die Stufe wechselt
+	public static final float LOD_HYSTERESIS = 0.15f;
+	
+	
+	private SampleSizeCalculator() {
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// ZOOM SCALE
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Berechnet die Sample-Stufe zu einer Zoom-Stufe. Dies ist dabei die größte Zweierpotenz, die <= 1/scale ist.
+	 *
+	 * @param scale Zoom-Stufe
+	 * @return Sample-Stufe
+	 */
+	public static int calculateSampleSize(float scale) {
+		int sample = 1;
+		
+		// bilde ganzzahligen Kehrwert von scale (kann für scale < 1 null werden)
+		int x = (int) (1.0 / scale);
+		
+		// Das Sampling Level ist die größte Zweierpotenz, die <= 1/scale ist.
+		// Wir finden diese, indem wir x durch 2 teilen und samplingLevel verdoppeln, bis x = 0 ist.
+		// z.B. x=9:
+		// x=9, s=1 --> x=4, s=2 --> x=2, s=4 --> x=1, s=8 --> x=0, s=8.
+		
+		while ((x /= 2) > 0) {
+			sample *= 2;
+		}
+		
+		// Begrenze Samplesize auf 32 (sollte ausreichen)
+		if (sample > MAX_SAMPLESIZE) {
+			sample = MAX_SAMPLESIZE;
+		}
+		
+		return sample;
+	}
+	
+	/**
+	 * Berechnet die Sample-Stufe zu einer Zoom-Stufe wie {@link #calculateSampleSize(float)}, wechselt von der
+	 * aktuellen Stufe auf eine benachbarte aber erst, wenn die Schwelle um {@link #LOD_HYSTERESIS} überschritten ist.
+	 *
+	 * @param scale Zoom-Stufe
+	 * @param currentSampleSize bisherige Sample-Stufe
+	 * @return Sample-Stufe
+	 */
+	public static int calculateSampleSize(float scale, int currentSampleSize) {
+		int sample = calculateSampleSize(scale);
+		
+		if (sample == currentSampleSize * 2) {
+			// Herauszoomen: feinere Stufe behalten, bis 1/scale deutlich über der Schwelle liegt
+			if (1 / scale < sample * (1 + LOD_HYSTERESIS)) {
+				return currentSampleSize;
+			}
+		}
+		else if (sample * 2 == currentSampleSize) {
+			// Hineinzoomen: gröbere Stufe behalten, bis 1/scale deutlich unter der Schwelle liegt
+			if (1 / scale >= currentSampleSize * (1 - LOD_HYSTERESIS)) {
+				return currentSampleSize;
+			}
+		}
+		
+		return sample;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// THUMBNAILS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Berechnet die größte Samplesize, bei der das Bild noch mindestens so groß wie das Thumbnail ist (siehe
+	 * Thumbnail.generate()).
+	 *
+	 * @param imageWidth,imageHeight Größe des Originalbilds
+	 * @param thumbWidth,thumbHeight Gewünschte Größe des Thumbnails
+	 * @return Samplesize (0, falls das Bild schon kleiner als das Thumbnail ist)
+	 */
+	public static int calculateThumbnailSampleSize(int imageWidth, int imageHeight, int thumbWidth, int thumbHeight) {
+		int currentWidth = imageWidth, currentHeight = imageHeight;
+		int currentSampleSize = 1;
+		
+		// increase sample size until it produces an image that is too small
+		while (currentWidth >= thumbWidth && currentHeight >= thumbHeight) {
+			currentWidth /= 2;
+			currentHeight /= 2;
+			currentSampleSize *= 2;
+		}
+		
+		// last size producing a image >= the desired
+		return currentSampleSize / 2;
+	}
+	
+}
@@ -0,0 +1,266 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import java.util.Arrays;
+
+/**
+ * Belegung eines Texturatlas: ein Raster aus columns x rows gleich großen Slots, in denen je ein Tile (identifiziert
+ * durch seinen {@link TileKey}) liegt. Verwaltet nur die Zuordnung Tile -> Slot (mit LRU-Ersetzung), nicht die
+ * Pixel selbst, und ist daher ohne Android testbar (siehe {@link AtlasTileRenderer}).
+ *
+ * Ein Frame beginnt mit {@link #beginFrame(long)}. Slots, die im aktuellen Frame benutzt wurden, werden nicht
+ * ersetzt, sodass alle Tiles eines Frames gleichzeitig im Atlas liegen (solange es genug Slots gibt).
+ *
+ * Jede Änderung des Atlas lässt den Hardware-Renderer die ganze Atlas-Bitmap neu als Textur hochladen. Neue Tiles
+ * werden deshalb höchstens alle minUploadInterval ms aufgenommen (dann alle fehlenden Tiles dieses Frames auf
+ * einmal); dazwischen liefert {@link #allocateSlot(long, int, int)} -1 und der Aufrufer zeichnet sie direkt. Beim
+ * Pannen bleibt so der Großteil der Frames ohne Upload, beim Nachführen der Position (kleine Verschiebungen) liegen
+ * fast alle Tiles schon im Atlas.
+ *
+ * Erzeugt nach dem Konstruktor keine Objekte. Nicht threadsicher (nur vom UI-Thread benutzen).
+ */
+public class TileAtlas {
+	
+	// ////// CONSTANTS
+	
+	// Key freier Slots (kein gültiger TileKey, da sampleSize 0)
+	private static final long NO_KEY = 0;
+	
+	
+	// ////// MEMBERS
+	
+	private final int columns;
+	private final int rows;
+	private final int slotSize;
+	
+	// Mindestabstand in ms zwischen zwei Frames, in denen Tiles in den Atlas kopiert werden
+	private final long minUploadInterval;
+	
+	// Pro Slot: Key des Tiles (NO_KEY = frei), Größe des Tiles (Randtiles sind kleiner) und Frame der letzten
+	// Benutzung
+	private final long[] slotKeys;
+	private final int[] slotWidths;
+	private final int[] slotHeights;
+	private final int[] slotLastUsed;
+	
+	// Aktueller Frame und dessen Zeitpunkt (siehe beginFrame())
+	private int frame = 1;
+	private long frameTime = 0;
+	
+	// Letzter Frame (0 = noch keiner), in dem Tiles in den Atlas kopiert wurden, und dessen Zeitpunkt
+	private int lastUploadFrame = 0;
+	private long lastUploadTime = 0;
+	
+	// Statistik
+	private int uploadCount = 0;
+	private int uploadFrameCount = 0;
+	private int hitCount = 0;
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CONSTRUCTORS AND INITIALIZATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @param columns,rows Anzahl der Slots pro Zeile bzw. Spalte des Atlas
+	 * @param slotSize Breite und Höhe eines Slots in Pixeln (maximale Tilegröße)
+	 * @param minUploadInterval Mindestabstand in ms zwischen zwei Frames, in denen Tiles aufgenommen werden (0 für
+	 *            keine Beschränkung)
+	 */
+	public TileAtlas(int columns, int rows, int slotSize, long minUploadInterval) {
+		if (columns <= 0 || rows <= 0 || slotSize <= 0 || minUploadInterval < 0) {
+			throw new IllegalArgumentException("Invalid atlas size: " + columns + "x" + rows + "x" + slotSize);
+		}
+		
+		this.columns = columns;
+		this.rows = rows;
+		this.slotSize = slotSize;
+		this.minUploadInterval = minUploadInterval;
+		
+		int slotCount = columns * rows;
+		slotKeys = new long[slotCount];
+		slotWidths = new int[slotCount];
+		slotHeights = new int[slotCount];
+		slotLastUsed = new int[slotCount];
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// SLOT ALLOCATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Beginnt einen neuen Frame. Slots der vorherigen Frames dürfen ab jetzt ersetzt werden.
+	 *
+	 * @param time Zeitpunkt des Frames in ms (z.B. SystemClock.uptimeMillis())
+	 */
+	public void beginFrame(long time) {
+		frame++;
+		frameTime = time;
+	}
+	
+	/**
+	 * Gibt zurück, ob im aktuellen Frame Tiles in den Atlas aufgenommen werden dürfen (siehe minUploadInterval).
+	 */
+	public boolean canUpload() {
+		return lastUploadFrame == 0 || lastUploadFrame == frame || frameTime - lastUploadTime >= minUploadInterval;
+	}
+	
+	/**
+	 * Sucht den Slot des Tiles und markiert ihn als im aktuellen Frame benutzt.
+	 *
+	 * @return Slotindex oder -1, falls das Tile nicht im Atlas liegt.
+	 */
+	public int findSlot(long key) {
+		// (Lineare Suche: Ein Atlas hat nur wenige Dutzend Slots.)
+		for (int slot = 0; slot < slotKeys.length; slot++) {
+			if (slotKeys[slot] == key) {
+				slotLastUsed[slot] = frame;
+				hitCount++;
+				return slot;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Reserviert einen Slot für das Tile (ersetzt dabei den am längsten nicht benutzten Slot). Der Aufrufer muss die
+	 * Pixel des Tiles anschließend an {@link #getSlotLeft(int)}, {@link #getSlotTop(int)} in den Atlas kopieren.
+	 *
+	 * @param width,height Größe des Tiles (höchstens slotSize)
+	 * @return Slotindex oder -1, falls alle Slots im aktuellen Frame benutzt werden oder in diesem Frame keine Tiles
+	 *         aufgenommen werden dürfen (siehe {@link #canUpload()}).
+	 */
+	public int allocateSlot(long key, int width, int height) {
+		if (key == NO_KEY || width > slotSize || height > slotSize) {
+			throw new IllegalArgumentException("Tile " + TileKey.toString(key) + " (" + width + "x" + height
+					+ ") does not fit into atlas slot of size " + slotSize);
+		}
+		
+		if (!canUpload()) {
+			return -1;
+		}
+		
+		int victim = -1;
+		
+		for (int slot = 0; slot < slotKeys.length; slot++) {
+			if (slotLastUsed[slot] == frame) {
+				continue;
+			}
+			
+			if (victim == -1 || slotLastUsed[slot] < slotLastUsed[victim]) {
+				victim = slot;
+			}
+		}
+		
+		if (victim == -1) {
+			return -1;
+		}
+		
+		slotKeys[victim] = key;
+		slotWidths[victim] = width;
+		slotHeights[victim] = height;
+		slotLastUsed[victim] = frame;
+		if (lastUploadFrame != frame) {
+			lastUploadFrame = frame;
+			lastUploadTime = frameTime;
+			uploadFrameCount++;
+		}
+		
+		uploadCount++;
+		return victim;
+	}
+	
+	/**
+	 * Gibt alle Slots frei (z.B. wenn ein anderes Bild angezeigt wird). Der nächste Frame darf wieder sofort Tiles
+	 * aufnehmen.
+	 */
+	public void clear() {
+		Arrays.fill(slotKeys, NO_KEY);
+		Arrays.fill(slotLastUsed, 0);
+		lastUploadFrame = 0;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// GETTERS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/** Linke Pixelkoordinate des Slots im Atlas. */
+	public int getSlotLeft(int slot) {
+		return (slot % columns) * slotSize;
+	}
+	
+	/** Obere Pixelkoordinate des Slots im Atlas. */
+	public int getSlotTop(int slot) {
+		return (slot / columns) * slotSize;
+	}
+	
+	/** Breite des Tiles im Slot. */
+	public int getSlotWidth(int slot) {
+		return slotWidths[slot];
+	}
+	
+	/** Höhe des Tiles im Slot. */
+	public int getSlotHeight(int slot) {
+		return slotHeights[slot];
+	}
+	
+	/** Breite des gesamten Atlas in Pixeln. */
+	public int getWidth() {
+		return columns * slotSize;
+	}
+	
+	/** Höhe des gesamten Atlas in Pixeln. */
+	public int getHeight() {
+		return rows * slotSize;
+	}
+	
+	public int getSlotCount() {
+		return slotKeys.length;
+	}
+	
+	/**
+	 * Anzahl der Tiles, die in den Atlas kopiert werden mussten.
+	 */
+	public int getUploadCount() {
+		return uploadCount;
+	}
+	
+	/**
+	 * Anzahl der Frames, in denen der Atlas geändert (und damit als Textur neu hochgeladen) wurde.
+	 */
+	public int getUploadFrameCount() {
+		return uploadFrameCount;
+	}
+	
+	/**
+	 * Anzahl der Zugriffe auf Tiles, die bereits im Atlas lagen.
+	 */
+	public int getHitCount() {
+		return hitCount;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("TileAtlas[%dx%d slots of %d px,uploads=%d in %d frames,hits=%d]", columns, rows,
+				slotSize, uploadCount, uploadFrameCount, hitCount);
+	}
+	
+}
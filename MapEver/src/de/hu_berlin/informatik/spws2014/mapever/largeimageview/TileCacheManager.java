@@ -0,0 +1,268 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.hu_berlin.informatik.spws2014.mapever.largeimageview.CachedImage.CacheMissResolvedCallback;
+
+/**
+ * Prozessweite Verwaltung der CachedImages von Bilddateien (d.h. Karten). Ein CachedImage (Tile-Cache, Decoder und
+ * Worker) überlebt so das Neuerzeugen der Activity, z.B. beim Drehen des Bildschirms, und steht auch beim erneuten
+ * Öffnen der zuletzt angezeigten Karte sofort wieder zur Verfügung.
+ *
+ * Eine LargeImageView holt sich ihr CachedImage mit {@link #acquire(String, CacheMissResolvedCallback)} und gibt es
+ * mit {@link #release(CachedImage)} wieder ab (spätestens, wenn sie vom Fenster entfernt wird). Nicht mehr benutzte
+ * CachedImages werden noch eine Weile aufbewahrt (höchstens {@link #MAX_UNUSED_IMAGES}), benutzte nie freigegeben.
+ * Aufbewahrte CachedImages behalten zunächst auch ihre Tiles (damit z.B. nach dem Drehen nichts neu dekodiert werden
+ * muss). Diese werden erst freigegeben, wenn das Bild {@link #UNUSED_TILES_TIMEOUT} ms lang nicht benutzt wurde, ein
+ * anderes Bild geöffnet wird oder das System Speicher anfordert.
+ */
+public final class TileCacheManager {
+	
+	// ////// CONSTANTS
+	
+	// Anzahl nicht benutzter CachedImages, die aufbewahrt werden (jedes belegt noch sein Übersichtsbild, bis zum
+	// Timeout auch seine Tiles)
+	private static final int MAX_UNUSED_IMAGES = 1;
+	
+	// Zeit in ms, nach der die Tiles eines nicht benutzten CachedImages freigegeben werden
+	private static final long UNUSED_TILES_TIMEOUT = 10000;
+	
+	
+	// ////// STATIC MEMBERS
+	
+	// Verwaltete CachedImages nach Key (siehe getKey()), in der Reihenfolge des letzten Zugriffs
+	private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(4, 0.75f, true);
+	
+	// Gibt nach UNUSED_TILES_TIMEOUT die Tiles nicht benutzter CachedImages frei (im UI-Thread)
+	private static final Handler timeoutHandler = new Handler(Looper.getMainLooper());
+	private static final Runnable releaseTimedOutTilesRunnable = new Runnable() {
+		@Override
+		public void run() {
+			releaseUnusedTiles(UNUSED_TILES_TIMEOUT);
+		}
+	};
+	
+	
+	private TileCacheManager() {
+	}
+	
+	/**
+	 * Key eines Bildes: Pfad, Größe und Änderungszeitpunkt der Datei. Wird eine Datei überschrieben (z.B. das
+	 * temporäre Bild beim Erstellen einer neuen Karte), bekommt sie also einen neuen Key.
+	 */
+	private static String getKey(String filename) {
+		File file = new File(filename);
+		return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// ACQUIRE AND RELEASE
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Gibt das CachedImage zur gegebenen Bilddatei zurück. Existiert bereits eines, wird es (samt bereits
+	 * generierter Tiles) wiederverwendet und der Callback neu gesetzt, sonst wird ein neues erzeugt.
+	 *
+	 * @param filename Pfad zur Bilddatei (nur JPEG und PNG)
+	 * @param cacheCallback Callback, wenn ein Tile nach einem Cache-Miss generiert und im Cache gespeichert wurde.
+	 * @throws IOException Wird geworfen, wenn das CachedImage nicht erzeugt werden kann (siehe CachedImage).
+	 */
+	public static synchronized CachedImage acquire(String filename, CacheMissResolvedCallback cacheCallback)
+			throws IOException {
+		String key = getKey(filename);
+		Entry entry = entries.get(key);
+		
+		if (entry != null && entry.image.isReleased()) {
+			entries.remove(key);
+			entry = null;
+		}
+		
+		if (entry == null) {
+			// Tiles eines anderen, nicht mehr angezeigten Bildes sollen dem neuen nicht den Heap wegnehmen.
+			releaseUnusedTiles(0);
+			
+			Log.d("TileCacheManager/acquire", "Creating new CachedImage for " + key);
+			entry = new Entry(new CachedImage(filename, cacheCallback));
+			entries.put(key, entry);
+		}
+		else {
+			Log.d("TileCacheManager/acquire", "Reusing CachedImage for " + key + " (" + entry.image.entryCount()
+					+ " tiles cached)");
+			entry.image.setCacheMissResolvedCallback(cacheCallback);
+		}
+		
+		entry.useCount++;
+		trimUnusedImages(MAX_UNUSED_IMAGES);
+		
+		return entry.image;
+	}
+	
+	/**
+	 * Benutzt ein zuvor mit {@link #release(CachedImage)} abgegebenes CachedImage erneut (z.B. wenn die View wieder
+	 * an ein Fenster angehängt wird).
+	 *
+	 * @return false, falls das CachedImage inzwischen freigegeben wurde und neu angefordert werden muss.
+	 */
+	public static synchronized boolean reacquire(CachedImage image, CacheMissResolvedCallback cacheCallback) {
+		Entry entry = findEntry(image);
+		
+		if (entry == null || image.isReleased()) {
+			return false;
+		}
+		
+		image.setCacheMissResolvedCallback(cacheCallback);
+		entry.useCount++;
+		return true;
+	}
+	
+	/**
+	 * Gibt ein CachedImage ab. Wird es von niemandem mehr benutzt, wird es samt Tiles noch aufbewahrt, bis es von
+	 * anderen verdrängt wird (die Tiles nur bis zum Timeout, siehe {@link #UNUSED_TILES_TIMEOUT}). Nicht verwaltete
+	 * CachedImages (z.B. aus Streams) werden sofort freigegeben.
+	 */
+	public static synchronized void release(CachedImage image) {
+		Entry entry = findEntry(image);
+		
+		if (entry == null) {
+			image.release();
+			return;
+		}
+		
+		if (--entry.useCount <= 0) {
+			entry.useCount = 0;
+			
+			// Callback verweist auf die alte View, die sonst nicht vom Garbage Collector eingesammelt werden kann.
+			image.setCacheMissResolvedCallback(null);
+			
+			// Tiles (bis zu einem Viertel des Heaps) und Bitmap-Pool nicht dauerhaft für ein unsichtbares Bild
+			// festhalten, aber auch nicht sofort freigeben: Beim Drehen wird das Bild gleich wieder benutzt.
+			entry.releaseTime = SystemClock.uptimeMillis();
+			timeoutHandler.removeCallbacks(releaseTimedOutTilesRunnable);
+			timeoutHandler.postDelayed(releaseTimedOutTilesRunnable, UNUSED_TILES_TIMEOUT);
+			
+			trimUnusedImages(MAX_UNUSED_IMAGES);
+		}
+	}
+	
+	/**
+	 * Gibt alle CachedImages zur gegebenen Bilddatei frei, die nicht mehr benutzt werden (z.B. wenn die Karte
+	 * gelöscht wird).
+	 */
+	public static synchronized void evict(String filename) {
+		String path = new File(filename).getAbsolutePath() + ":";
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		
+		while (iterator.hasNext()) {
+			Map.Entry<String, Entry> mapEntry = iterator.next();
+			
+			if (mapEntry.getKey().startsWith(path) && mapEntry.getValue().useCount == 0) {
+				mapEntry.getValue().image.release();
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Reagiert auf Speicherwarnungen des Systems (ComponentCallbacks2.onTrimMemory()): Von nicht benutzten
+	 * CachedImages werden zuerst die Tiles, bei Speicherknappheit die ganzen CachedImages freigegeben.
+	 */
+	public static synchronized void onTrimMemory(int level) {
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+			trimUnusedImages(0);
+		}
+		else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+			releaseUnusedTiles(0);
+		}
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// INTERNALS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	private static Entry findEntry(CachedImage image) {
+		for (Entry entry : entries.values()) {
+			if (entry.image == image) {
+				return entry;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Gibt die am längsten nicht benutzten CachedImages frei, bis höchstens maxUnused unbenutzte übrig sind.
+	 */
+	private static void trimUnusedImages(int maxUnused) {
+		// (entries ist nach letztem Zugriff sortiert, die ältesten stehen vorne)
+		ArrayList<String> unusedKeys = new ArrayList<String>();
+		
+		for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+			if (mapEntry.getValue().useCount == 0) {
+				unusedKeys.add(mapEntry.getKey());
+			}
+		}
+		
+		for (int i = 0; i < unusedKeys.size() - maxUnused; i++) {
+			Log.d("TileCacheManager/trimUnusedImages", "Releasing CachedImage for " + unusedKeys.get(i));
+			entries.remove(unusedKeys.get(i)).image.release();
+		}
+	}
+	
+	/**
+	 * Gibt die Tiles aller CachedImages frei, die seit mindestens minUnusedTime ms nicht mehr benutzt werden.
+	 */
+	private static synchronized void releaseUnusedTiles(long minUnusedTime) {
+		long now = SystemClock.uptimeMillis();
+		
+		for (Entry entry : entries.values()) {
+			if (entry.useCount == 0 && now - entry.releaseTime >= minUnusedTime) {
+				entry.image.releaseTiles();
+			}
+		}
+	}
+	
+	/**
+	 * Ein verwaltetes CachedImage und die Anzahl seiner Benutzer.
+	 */
+	private static class Entry {
+		private final CachedImage image;
+		private int useCount = 0;
+		
+		// Zeitpunkt (SystemClock.uptimeMillis()), zu dem useCount zuletzt auf 0 gefallen ist
+		private long releaseTime = 0;
+		
+		private Entry(CachedImage image) {
+			this.image = image;
+		}
+	}
+	
+}
@@ -0,0 +1,82 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+/**
+ * Packt die Koordinaten eines Tiles (x, y, sampleSize) in einen einzelnen long, damit beim Nachschlagen im Cache
+ * keine Objekte (z.B. Strings) erzeugt werden müssen.
+ *
+ * Aufteilung: Bits 36-63 x, Bits 8-35 y, Bits 0-7 sampleSize. x und y dürfen also zwischen 0 und 2^28-1 liegen,
+ * sampleSize zwischen 1 und 255.
+ */
+public final class TileKey {
+	
+	// ////// CONSTANTS
+	
+	private static final int COORD_BITS = 28;
+	private static final int SAMPLESIZE_BITS = 8;
+	
+	private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+	private static final long SAMPLESIZE_MASK = (1L << SAMPLESIZE_BITS) - 1;
+	
+	private static final int X_SHIFT = COORD_BITS + SAMPLESIZE_BITS;
+	private static final int Y_SHIFT = SAMPLESIZE_BITS;
+	
+	
+	private TileKey() {
+	}
+	
+	/**
+	 * Erzeugt den Key für das Tile bei x, y mit gegebener Samplesize.
+	 *
+	 * @param x Linke Eckkoordinate.
+	 * @param y Obere Eckkoordinate.
+	 * @param sampleSize Samplesize (n ist 1/n mal so groß wie das Original)
+	 */
+	public static long pack(int x, int y, int sampleSize) {
+		return ((x & COORD_MASK) << X_SHIFT) | ((y & COORD_MASK) << Y_SHIFT) | (sampleSize & SAMPLESIZE_MASK);
+	}
+	
+	/**
+	 * Liefert die x-Koordinate eines Keys.
+	 */
+	public static int getX(long key) {
+		return (int) ((key >>> X_SHIFT) & COORD_MASK);
+	}
+	
+	/**
+	 * Liefert die y-Koordinate eines Keys.
+	 */
+	public static int getY(long key) {
+		return (int) ((key >>> Y_SHIFT) & COORD_MASK);
+	}
+	
+	/**
+	 * Liefert die Samplesize eines Keys.
+	 */
+	public static int getSampleSize(long key) {
+		return (int) (key & SAMPLESIZE_MASK);
+	}
+	
+	/**
+	 * Lesbare Darstellung eines Keys (x_y_sampleSize) für Logausgaben.
+	 */
+	public static String toString(long key) {
+		return getX(key) + "_" + getY(key) + "_" + getSampleSize(key);
+	}
+	
+}
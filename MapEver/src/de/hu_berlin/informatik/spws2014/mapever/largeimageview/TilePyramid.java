@@ -0,0 +1,803 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapFactory.Options;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Auf der Festplatte gespeicherte Tile-Pyramide eines Bildes: Für die groben Zoomstufen (siehe
+ * {@link #LEVEL_SAMPLESIZES}) werden alle Tiles einmalig vorberechnet und unkomprimiert (RGB_565) im Verzeichnis
+ * (Pfad der Bilddatei + {@link #DIRECTORY_SUFFIX}) abgelegt. Beim Anzeigen werden sie dann per Memory-Mapping
+ * gelesen, statt dafür (fast) das ganze Originalbild mit dem BitmapRegionDecoder zu dekodieren.
+ *
+ * Für Formate, die der BitmapRegionDecoder nicht unterstützt (z.B. GIF, WebP), wird das Bild stattdessen einmalig
+ * (ggf. verkleinert, siehe {@link #FALLBACK_HEAP_FRACTION}) dekodiert und in Tiles aller Zoomstufen zerteilt. Das
+ * CachedImage liefert seine Tiles dann ausschließlich aus der Pyramide, sodass auch diese Bilder mit begrenztem
+ * Speicher über Tiles gezeichnet werden.
+ *
+ * Aufbau einer Level-Datei: Header (siehe {@link #HEADER_SIZE}), danach für jedes Tile (zeilenweise) ein
+ * Indexeintrag (Breite, Höhe, Bytes), danach für jedes Tile ein Slot fester Größe mit den Pixeldaten.
+ */
+public class TilePyramid {
+	
+	// ////// CONSTANTS
+	
+	// Endung des Verzeichnisses (an den Pfad der Bilddatei angehängt)
+	public static final String DIRECTORY_SUFFIX = "_tiles";
+	
+	// Samplesizes, für die Tiles vorberechnet werden (feinere werden weiterhin aus dem Original dekodiert, da dort
+	// nur ein kleiner Teil der Datei gelesen werden muss)
+	public static final int[] LEVEL_SAMPLESIZES = { 8, 16, 32 };
+	
+	// Anteil des maximalen Heaps, den das einmalig dekodierte Bild belegen darf, wenn es keinen BitmapRegionDecoder
+	// gibt (1/n). Ist das Bild größer, wird es beim Dekodieren entsprechend verkleinert.
+	private static final int FALLBACK_HEAP_FRACTION = 6;
+	
+	private static final int MAGIC = 0x4D455450; // "METP"
+	private static final int VERSION = 1;
+	
+	// Header: magic, version, tileSize, sampleSize, imageWidth, imageHeight (int), sourceLength,
+	// sourceLastModified (long), tilesX, tilesY (int)
+	private static final int HEADER_SIZE = 6 * 4 + 2 * 8 + 2 * 4;
+	
+	// Indexeintrag pro Tile: Breite, Höhe, Anzahl Bytes (int)
+	private static final int INDEX_ENTRY_SIZE = 3 * 4;
+	
+	// Pixelformat der gespeicherten Tiles (Karten haben keinen Alphakanal) und Bytes pro Pixel
+	private static final Bitmap.Config TILE_CONFIG = Bitmap.Config.RGB_565;
+	private static final int BYTES_PER_PIXEL = 2;
+	
+	// Größe eines Tile-Slots in Bytes
+	private static final int SLOT_SIZE = CachedImage.TILESIZE * CachedImage.TILESIZE * BYTES_PER_PIXEL;
+	
+	
+	// ////// STATIC MEMBERS
+	
+	// Bilddateien, deren Pyramide gerade im Hintergrund erzeugt wird, und die Callbacks, die danach aufgerufen werden
+	private static final HashMap<String, ArrayList<Runnable>> buildsInProgress =
+			new HashMap<String, ArrayList<Runnable>>();
+	
+	// Eigene Threads zum Erzeugen (nacheinander, da jedes Erzeugen fast den ganzen Heap belegen darf) und zum Öffnen.
+	// Nicht der Executor der AsyncTasks, der seit API 11 seriell ist: Dort würde ein mehrere Sekunden langes Erzeugen
+	// alle anderen AsyncTasks der App (Entzerren, Eckenerkennung, Übersichtsbilder) aufhalten. Das Öffnen hat einen
+	// eigenen Thread, damit es nicht auf das Erzeugen anderer Pyramiden wartet.
+	private static final ExecutorService buildExecutor = Executors.newSingleThreadExecutor(
+			new PyramidThreadFactory("TilePyramidBuilder"));
+	private static final ExecutorService openExecutor = Executors.newSingleThreadExecutor(
+			new PyramidThreadFactory("TilePyramidOpener"));
+	
+	// Handler für Callbacks im UI-Thread
+	private static final Handler uiHandler = new Handler(Looper.getMainLooper());
+	
+	
+	// ////// CALLBACKS
+	
+	/**
+	 * Callback für {@link TilePyramid#openInBackground(String, OpenCallback)}.
+	 */
+	public interface OpenCallback {
+		/**
+		 * Wird im UI-Thread mit der geöffneten Pyramide aufgerufen, oder mit null, falls keine passende existiert.
+		 */
+		public void onOpened(TilePyramid pyramid);
+	}
+	
+	
+	// ////// MEMBERS
+	
+	// Geöffnete Levels, nach Samplesize aufsteigend sortiert
+	private final Level[] levels;
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// OPENING
+	// ////////////////////////////////////////////////////////////////////////
+	
+	private TilePyramid(Level[] levels) {
+		this.levels = levels;
+	}
+	
+	/**
+	 * Öffnet die Tile-Pyramide zur gegebenen Bilddatei. Es werden alle vorhandenen Levels geöffnet (normalerweise
+	 * {@link #LEVEL_SAMPLESIZES}, bei Bildern ohne BitmapRegionDecoder alle Samplesizes ab der Auflösung, in der das
+	 * Bild dekodiert wurde).
+	 *
+	 * @param imageFilename Pfad zur Bilddatei
+	 * @return Die Pyramide oder null, falls keine (vollständige und zur aktuellen Bilddatei passende) existiert.
+	 */
+	public static TilePyramid open(String imageFilename) {
+		File imageFile = new File(imageFilename);
+		File directory = getDirectory(imageFilename);
+		
+		if (!imageFile.isFile() || !directory.isDirectory()) {
+			return null;
+		}
+		
+		ArrayList<Level> levels = new ArrayList<Level>();
+		
+		try {
+			for (int sampleSize = 1; sampleSize <= SampleSizeCalculator.MAX_SAMPLESIZE; sampleSize *= 2) {
+				File levelFile = getLevelFile(directory, sampleSize);
+				
+				if (levelFile.isFile()) {
+					levels.add(Level.open(levelFile, imageFile, sampleSize));
+				}
+			}
+		}
+		catch (IOException e) {
+			Log.w("TilePyramid/open", "Ignoring tile pyramid of '" + imageFilename + "': " + e.getMessage());
+			return null;
+		}
+		
+		if (levels.isEmpty()) {
+			return null;
+		}
+		
+		return new TilePyramid(levels.toArray(new Level[levels.size()]));
+	}
+	
+	/**
+	 * Öffnet die Tile-Pyramide zur gegebenen Bilddatei (wie {@link #open(String)}) in einem Hintergrundthread, da
+	 * dabei alle Level-Dateien gemappt werden. Wird die Pyramide gerade erzeugt, wird sie erst danach geöffnet. Nur
+	 * vom UI-Thread aufrufen.
+	 *
+	 * @param callback Wird im UI-Thread mit der Pyramide (oder null) aufgerufen
+	 */
+	public static void openInBackground(final String imageFilename, final OpenCallback callback) {
+		synchronized (buildsInProgress) {
+			ArrayList<Runnable> callbacks = buildsInProgress.get(imageFilename);
+			
+			if (callbacks != null) {
+				callbacks.add(new Runnable() {
+					@Override
+					public void run() {
+						openInBackground(imageFilename, callback);
+					}
+				});
+				return;
+			}
+		}
+		
+		openExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final TilePyramid pyramid = open(imageFilename);
+				
+				uiHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						callback.onOpened(pyramid);
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Gibt das Verzeichnis der Tile-Pyramide zur gegebenen Bilddatei zurück.
+	 */
+	public static File getDirectory(String imageFilename) {
+		return new File(imageFilename + DIRECTORY_SUFFIX);
+	}
+	
+	private static File getLevelFile(File directory, int sampleSize) {
+		return new File(directory, "level_" + sampleSize);
+	}
+	
+	/**
+	 * Löscht die Tile-Pyramide zur gegebenen Bilddatei (z.B. wenn die Karte gelöscht wird).
+	 */
+	public static void delete(String imageFilename) {
+		deleteDirectory(getDirectory(imageFilename));
+		deleteDirectory(getTempDirectory(imageFilename));
+	}
+	
+	private static File getTempDirectory(String imageFilename) {
+		return new File(imageFilename + DIRECTORY_SUFFIX + ".tmp");
+	}
+	
+	private static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		
+		directory.delete();
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// READING TILES
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Gibt true zurück, falls die Pyramide Tiles mit der gegebenen Samplesize enthält.
+	 */
+	public boolean hasLevel(int sampleSize) {
+		return getLevel(sampleSize) != null;
+	}
+	
+	/**
+	 * Gibt die kleinste Samplesize (höchste Auflösung) zurück, für die die Pyramide Tiles enthält.
+	 */
+	public int getFinestSampleSize() {
+		// (Levels sind nach Samplesize sortiert, siehe open())
+		return levels[0].sampleSize;
+	}
+	
+	private Level getLevel(int sampleSize) {
+		for (Level level : levels) {
+			if (level.sampleSize == sampleSize) {
+				return level;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Liest das Tile, das bei x,y (in Koordinaten des Originalbildes) beginnt. Kann parallel aus mehreren Threads
+	 * aufgerufen werden.
+	 *
+	 * @param x Linke Eckkoordinate (Vielfaches von TILESIZE * sampleSize).
+	 * @param y Obere Eckkoordinate (Vielfaches von TILESIZE * sampleSize).
+	 * @param sampleSize Samplesize (muss ein Level der Pyramide sein, siehe {@link #hasLevel(int)})
+	 * @param bitmapPool Pool, aus dem wenn möglich eine Bitmap wiederverwendet wird (oder null)
+	 * @return Bitmap des Tiles oder null, falls das Tile nicht gespeichert ist.
+	 */
+	public Bitmap readTile(int x, int y, int sampleSize, BitmapPool bitmapPool) {
+		Level level = getLevel(sampleSize);
+		
+		if (level == null) {
+			return null;
+		}
+		
+		int tileExtent = CachedImage.TILESIZE * sampleSize;
+		int tileX = x / tileExtent;
+		int tileY = y / tileExtent;
+		
+		if (x < 0 || y < 0 || tileX >= level.tilesX || tileY >= level.tilesY) {
+			return null;
+		}
+		
+		int index = tileY * level.tilesX + tileX;
+		int width = level.tileWidths[index];
+		int height = level.tileHeights[index];
+		int byteCount = level.tileByteCounts[index];
+		
+		if (width <= 0 || height <= 0) {
+			return null;
+		}
+		
+		// (Die Pixel werden komplett überschrieben, daher kann eine alte Bitmap gleicher Größe verwendet werden.)
+		Bitmap tile = bitmapPool != null ? bitmapPool.get(width, height, TILE_CONFIG) : null;
+		
+		if (tile == null) {
+			tile = Bitmap.createBitmap(width, height, TILE_CONFIG);
+		}
+		
+		// Falls das Gerät die Pixel anders ablegt als beim Erzeugen der Pyramide, passen die Daten nicht.
+		if (tile.getRowBytes() * tile.getHeight() != byteCount) {
+			if (bitmapPool == null || !bitmapPool.put(tile)) {
+				tile.recycle();
+			}
+			return null;
+		}
+		
+		// Eigene Sicht auf den Puffer, damit parallele Leser sich die Position nicht gegenseitig verstellen.
+		ByteBuffer buffer = level.buffer.duplicate();
+		int offset = level.getSlotOffset(index);
+		buffer.limit(offset + byteCount);
+		buffer.position(offset);
+		tile.copyPixelsFromBuffer(buffer);
+		
+		return tile;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// BUILDING
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Erzeugt die Tile-Pyramide zur gegebenen Bilddatei in einem Hintergrundthread, falls noch keine passende
+	 * existiert und sie nicht bereits erzeugt wird (z.B. nach dem Import einer neuen Karte).
+	 */
+	public static void buildInBackground(String imageFilename) {
+		buildInBackground(imageFilename, null);
+	}
+	
+	/**
+	 * Wie {@link #buildInBackground(String)}, ruft danach aber onFinished im UI-Thread auf (auch falls das Erzeugen
+	 * fehlgeschlagen ist, dann liefert {@link #open(String)} weiterhin null, und auch falls die Pyramide bereits
+	 * existierte). Nur vom UI-Thread aufrufen.
+	 *
+	 * @param onFinished Callback oder null
+	 */
+	public static void buildInBackground(String imageFilename, Runnable onFinished) {
+		synchronized (buildsInProgress) {
+			ArrayList<Runnable> callbacks = buildsInProgress.get(imageFilename);
+			
+			// Wird bereits erzeugt: Callback nur vormerken
+			if (callbacks != null) {
+				if (onFinished != null) {
+					callbacks.add(onFinished);
+				}
+				return;
+			}
+			
+			callbacks = new ArrayList<Runnable>();
+			
+			if (onFinished != null) {
+				callbacks.add(onFinished);
+			}
+			
+			buildsInProgress.put(imageFilename, callbacks);
+		}
+		
+		buildExecutor.execute(new BuildTask(imageFilename));
+	}
+	
+	/**
+	 * Erzeugt (synchron) die Tile-Pyramide zur gegebenen Bilddatei. Die Tiles werden zunächst in ein temporäres
+	 * Verzeichnis geschrieben, das erst am Ende umbenannt wird, sodass nie eine halbfertige Pyramide geöffnet wird.
+	 *
+	 * Unterstützt der BitmapRegionDecoder das Format nicht, wird das Bild einmalig dekodiert und in Tiles aller
+	 * Zoomstufen zerteilt (siehe {@link #buildAllLevels(File, File, byte[])}).
+	 *
+	 * @throws IOException Falls das Bild nicht gelesen oder die Pyramide nicht geschrieben werden kann.
+	 */
+	public static void build(String imageFilename) throws IOException {
+		File imageFile = new File(imageFilename);
+		File directory = getDirectory(imageFilename);
+		File tempDirectory = getTempDirectory(imageFilename);
+		
+		deleteDirectory(tempDirectory);
+		
+		if (!tempDirectory.mkdirs()) {
+			throw new IOException("Could not create directory " + tempDirectory);
+		}
+		
+		// Puffer für die Pixeldaten eines Tiles (wird für alle Tiles wiederverwendet)
+		byte[] pixelData = new byte[SLOT_SIZE];
+		
+		try {
+			BitmapRegionDecoder decoder = newDecoderOrNull(imageFilename);
+			
+			if (decoder != null) {
+				buildCoarseLevels(decoder, imageFile, tempDirectory, pixelData);
+			}
+			else {
+				buildAllLevels(imageFile, tempDirectory, pixelData);
+			}
+		}
+		catch (IOException e) {
+			deleteDirectory(tempDirectory);
+			throw e;
+		}
+		
+		// Fertige Pyramide an ihren Platz verschieben (alte, z.B. veraltete, Pyramide vorher löschen)
+		deleteDirectory(directory);
+		
+		if (!tempDirectory.renameTo(directory)) {
+			deleteDirectory(tempDirectory);
+			throw new IOException("Could not rename " + tempDirectory + " to " + directory);
+		}
+	}
+	
+	/**
+	 * Erzeugt einen BitmapRegionDecoder für die Bilddatei, oder gibt null zurück, falls das Format nicht unterstützt
+	 * wird.
+	 */
+	private static BitmapRegionDecoder newDecoderOrNull(String imageFilename) {
+		try {
+			return BitmapRegionDecoder.newInstance(imageFilename, false);
+		}
+		catch (IOException e) {
+			Log.d("TilePyramid/newDecoderOrNull", "No BitmapRegionDecoder for '" + imageFilename + "': "
+					+ e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Schreibt die Levels {@link #LEVEL_SAMPLESIZES}, deren Tiles einzeln mit dem BitmapRegionDecoder dekodiert
+	 * werden.
+	 */
+	private static void buildCoarseLevels(final BitmapRegionDecoder decoder, File imageFile, File directory,
+			byte[] pixelData) throws IOException {
+		try {
+			for (int sampleSize : LEVEL_SAMPLESIZES) {
+				final Options opts = new Options();
+				opts.inSampleSize = sampleSize;
+				opts.inPreferredConfig = TILE_CONFIG;
+				
+				buildLevel(new LevelSource() {
+					@Override
+					public Bitmap getTile(Rect region) {
+						return decoder.decodeRegion(region, opts);
+					}
+				}, decoder.getWidth(), decoder.getHeight(), imageFile, getLevelFile(directory, sampleSize),
+						sampleSize, pixelData);
+			}
+		}
+		finally {
+			decoder.recycle();
+		}
+	}
+	
+	/**
+	 * Schreibt Levels für alle Samplesizes bis {@link SampleSizeCalculator#MAX_SAMPLESIZE}, für Formate ohne
+	 * BitmapRegionDecoder. Dazu wird das Bild einmalig dekodiert (verkleinert, falls es mehr als
+	 * 1/FALLBACK_HEAP_FRACTION des Heaps belegen würde, dann gibt es die feinen Levels nicht) und danach für jedes
+	 * weitere Level auf die halbe Größe skaliert.
+	 */
+	private static void buildAllLevels(File imageFile, File directory, byte[] pixelData) throws IOException {
+		Options opts = new Options();
+		opts.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(imageFile.getPath(), opts);
+		
+		final int imageWidth = opts.outWidth;
+		final int imageHeight = opts.outHeight;
+		
+		if (imageWidth <= 0 || imageHeight <= 0) {
+			throw new IOException("Could not decode " + imageFile.getName());
+		}
+		
+		// Größte Auflösung, die in den Speicher passt (plus ein Viertel für die halb so große Kopie beim Skalieren)
+		long maxBytes = Runtime.getRuntime().maxMemory() / FALLBACK_HEAP_FRACTION;
+		int baseSampleSize = 1;
+		
+		while (baseSampleSize < SampleSizeCalculator.MAX_SAMPLESIZE
+				&& (long) (imageWidth / baseSampleSize) * (imageHeight / baseSampleSize) * BYTES_PER_PIXEL * 5 / 4
+				> maxBytes) {
+			baseSampleSize *= 2;
+		}
+		
+		Log.d("TilePyramid/buildAllLevels", "Decoding " + imageFile.getName() + " (" + imageWidth + "x"
+				+ imageHeight + ") with sample size " + baseSampleSize);
+		
+		opts = new Options();
+		opts.inSampleSize = baseSampleSize;
+		opts.inPreferredConfig = TILE_CONFIG;
+		
+		Bitmap levelBitmap = BitmapFactory.decodeFile(imageFile.getPath(), opts);
+		
+		if (levelBitmap == null) {
+			throw new IOException("Could not decode " + imageFile.getName());
+		}
+		
+		try {
+			for (int sampleSize = baseSampleSize; sampleSize <= SampleSizeCalculator.MAX_SAMPLESIZE; sampleSize *= 2) {
+				// Ab dem zweiten Level das vorherige auf die halbe Größe skalieren
+				if (sampleSize > baseSampleSize) {
+					Bitmap scaled = Bitmap.createScaledBitmap(levelBitmap,
+							Math.max(1, (imageWidth + sampleSize - 1) / sampleSize),
+							Math.max(1, (imageHeight + sampleSize - 1) / sampleSize), true);
+					
+					if (scaled != levelBitmap) {
+						levelBitmap.recycle();
+						levelBitmap = scaled;
+					}
+				}
+				
+				final Bitmap source = levelBitmap;
+				final int levelSampleSize = sampleSize;
+				
+				buildLevel(new LevelSource() {
+					@Override
+					public Bitmap getTile(Rect region) {
+						// Bereich in Pixeln des skalierten Bildes
+						int left = region.left / levelSampleSize;
+						int top = region.top / levelSampleSize;
+						int right = (region.right + levelSampleSize - 1) / levelSampleSize;
+						int bottom = (region.bottom + levelSampleSize - 1) / levelSampleSize;
+						int width = Math.min(source.getWidth(), right) - left;
+						int height = Math.min(source.getHeight(), bottom) - top;
+						
+						if (width <= 0 || height <= 0) {
+							return null;
+						}
+						
+						Bitmap tile = Bitmap.createBitmap(source, left, top, width, height);
+						
+						// (createBitmap() gibt bei einem Ausschnitt, der das ganze Bild umfasst, dieses selbst zurück.
+						// Das Tile wird nach dem Schreiben recyclet, die Quelle wird aber noch gebraucht.)
+						return tile != source ? tile : source.copy(TILE_CONFIG, false);
+					}
+				}, imageWidth, imageHeight, imageFile, getLevelFile(directory, sampleSize), sampleSize, pixelData);
+			}
+		}
+		finally {
+			levelBitmap.recycle();
+		}
+	}
+	
+	/**
+	 * Liefert die Tiles eines Levels für {@link TilePyramid#buildLevel}.
+	 */
+	private interface LevelSource {
+		/**
+		 * Gibt das Tile für den gegebenen Bereich (in Koordinaten des Originalbildes) in der Auflösung des Levels
+		 * zurück, oder null. Das Tile wird nach dem Schreiben recyclet.
+		 */
+		public Bitmap getTile(Rect region);
+	}
+	
+	/**
+	 * Schreibt die Level-Datei für eine Samplesize.
+	 */
+	private static void buildLevel(LevelSource source, int imageWidth, int imageHeight, File imageFile,
+			File levelFile, int sampleSize, byte[] pixelData) throws IOException {
+		int tileExtent = CachedImage.TILESIZE * sampleSize;
+		int tilesX = (imageWidth + tileExtent - 1) / tileExtent;
+		int tilesY = (imageHeight + tileExtent - 1) / tileExtent;
+		
+		Log.d("TilePyramid/buildLevel", "Building level " + sampleSize + " (" + tilesX + "x" + tilesY + " tiles) for "
+				+ imageFile.getName());
+		
+		ByteBuffer pixelBuffer = ByteBuffer.wrap(pixelData);
+		
+		RandomAccessFile file = new RandomAccessFile(levelFile, "rw");
+		
+		try {
+			file.writeInt(MAGIC);
+			file.writeInt(VERSION);
+			file.writeInt(CachedImage.TILESIZE);
+			file.writeInt(sampleSize);
+			file.writeInt(imageWidth);
+			file.writeInt(imageHeight);
+			file.writeLong(imageFile.length());
+			file.writeLong(imageFile.lastModified());
+			file.writeInt(tilesX);
+			file.writeInt(tilesY);
+			
+			for (int tileY = 0; tileY < tilesY; tileY++) {
+				for (int tileX = 0; tileX < tilesX; tileX++) {
+					int index = tileY * tilesX + tileX;
+					int left = tileX * tileExtent;
+					int top = tileY * tileExtent;
+					Rect region = new Rect(left, top, Math.min(imageWidth, left + tileExtent),
+							Math.min(imageHeight, top + tileExtent));
+					
+					Bitmap tile = source.getTile(region);
+					int width = 0, height = 0, byteCount = 0;
+					
+					if (tile != null) {
+						// Decoder liefert nicht unbedingt das gewünschte Format
+						if (tile.getConfig() != TILE_CONFIG) {
+							Bitmap converted = tile.copy(TILE_CONFIG, false);
+							tile.recycle();
+							tile = converted;
+						}
+					}
+					
+					if (tile != null && tile.getRowBytes() * tile.getHeight() <= SLOT_SIZE) {
+						width = tile.getWidth();
+						height = tile.getHeight();
+						byteCount = tile.getRowBytes() * tile.getHeight();
+						
+						pixelBuffer.clear();
+						tile.copyPixelsToBuffer(pixelBuffer);
+						
+						file.seek(getSlotOffset(tilesX * tilesY, index));
+						file.write(pixelData, 0, byteCount);
+					}
+					
+					if (tile != null) {
+						tile.recycle();
+					}
+					
+					// Indexeintrag (Tiles ohne Daten haben Größe 0 und werden beim Lesen übersprungen)
+					file.seek(HEADER_SIZE + index * INDEX_ENTRY_SIZE);
+					file.writeInt(width);
+					file.writeInt(height);
+					file.writeInt(byteCount);
+				}
+			}
+			
+			// Datei auf volle Größe bringen, damit alle Slots gemappt werden können
+			file.setLength(getSlotOffset(tilesX * tilesY, tilesX * tilesY));
+		}
+		finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Gibt den Offset des Slots eines Tiles in der Level-Datei zurück.
+	 */
+	private static int getSlotOffset(int tileCount, int index) {
+		return HEADER_SIZE + tileCount * INDEX_ENTRY_SIZE + index * SLOT_SIZE;
+	}
+	
+	/**
+	 * Erzeugt die Pyramide im Hintergrund (falls noch keine passende existiert) und ruft danach im UI-Thread die
+	 * vorgemerkten Callbacks auf.
+	 */
+	private static class BuildTask implements Runnable {
+		private final String imageFilename;
+		
+		public BuildTask(String imageFilename) {
+			this.imageFilename = imageFilename;
+		}
+		
+		@Override
+		public void run() {
+			final ArrayList<Runnable> callbacks;
+			
+			try {
+				if (open(imageFilename) != null) {
+					Log.d("TilePyramid/BuildTask", "Tile pyramid for '" + imageFilename + "' already exists.");
+				}
+				else {
+					Log.d("TilePyramid/BuildTask", "Building tile pyramid for '" + imageFilename + "' ...");
+					build(imageFilename);
+					Log.d("TilePyramid/BuildTask", "Tile pyramid for '" + imageFilename + "' done.");
+				}
+			}
+			catch (IOException e) {
+				Log.e("TilePyramid/BuildTask", "Failed building tile pyramid for '" + imageFilename + "'!");
+				e.printStackTrace();
+			}
+			catch (OutOfMemoryError e) {
+				Log.e("TilePyramid/BuildTask", "Out of memory while building tile pyramid for '" + imageFilename + "'!");
+				deleteDirectory(getTempDirectory(imageFilename));
+			}
+			finally {
+				synchronized (buildsInProgress) {
+					callbacks = buildsInProgress.remove(imageFilename);
+				}
+			}
+			
+			if (callbacks == null || callbacks.isEmpty()) {
+				return;
+			}
+			
+			uiHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					for (Runnable callback : callbacks) {
+						callback.run();
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Erzeugt die Threads zum Erzeugen und Öffnen mit verringerter Priorität (wie die Tile-Worker, siehe
+	 * TileScheduler), damit der UI-Thread nicht ausgebremst wird.
+	 */
+	private static class PyramidThreadFactory implements ThreadFactory {
+		private final String name;
+		
+		public PyramidThreadFactory(String name) {
+			this.name = name;
+		}
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// LEVEL
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Ein geöffnetes Level (eine Samplesize) der Pyramide.
+	 */
+	private static class Level {
+		private final int sampleSize;
+		private final int tilesX, tilesY;
+		private final int[] tileWidths, tileHeights, tileByteCounts;
+		
+		// Gemappte Level-Datei (wird nur über duplicate() gelesen)
+		private final MappedByteBuffer buffer;
+		
+		private Level(int sampleSize, int tilesX, int tilesY, MappedByteBuffer buffer) {
+			this.sampleSize = sampleSize;
+			this.tilesX = tilesX;
+			this.tilesY = tilesY;
+			this.buffer = buffer;
+			
+			int tileCount = tilesX * tilesY;
+			tileWidths = new int[tileCount];
+			tileHeights = new int[tileCount];
+			tileByteCounts = new int[tileCount];
+			
+			for (int i = 0; i < tileCount; i++) {
+				int entry = HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+				tileWidths[i] = buffer.getInt(entry);
+				tileHeights[i] = buffer.getInt(entry + 4);
+				tileByteCounts[i] = buffer.getInt(entry + 8);
+			}
+		}
+		
+		private int getSlotOffset(int index) {
+			return TilePyramid.getSlotOffset(tilesX * tilesY, index);
+		}
+		
+		/**
+		 * Mappt eine Level-Datei und prüft, ob sie zur Bilddatei passt.
+		 *
+		 * @throws IOException Falls die Datei fehlt, beschädigt oder veraltet ist.
+		 */
+		private static Level open(File levelFile, File imageFile, int sampleSize) throws IOException {
+			RandomAccessFile file = new RandomAccessFile(levelFile, "r");
+			MappedByteBuffer buffer;
+			
+			try {
+				// Das Mapping bleibt auch nach dem Schließen der Datei gültig.
+				buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			}
+			finally {
+				file.close();
+			}
+			
+			if (buffer.capacity() < HEADER_SIZE
+					|| buffer.getInt(0) != MAGIC
+					|| buffer.getInt(4) != VERSION
+					|| buffer.getInt(8) != CachedImage.TILESIZE
+					|| buffer.getInt(12) != sampleSize) {
+				throw new IOException(levelFile.getName() + " has an invalid header");
+			}
+			
+			if (buffer.getLong(24) != imageFile.length() || buffer.getLong(32) != imageFile.lastModified()) {
+				throw new IOException(levelFile.getName() + " is outdated");
+			}
+			
+			int tilesX = buffer.getInt(40);
+			int tilesY = buffer.getInt(44);
+			
+			if (tilesX < 0 || tilesY < 0 || buffer.capacity() < TilePyramid.getSlotOffset(tilesX * tilesY, tilesX * tilesY)) {
+				throw new IOException(levelFile.getName() + " is truncated");
+			}
+			
+			return new Level(sampleSize, tilesX, tilesY, buffer);
+		}
+	}
+	
+}
@@ -0,0 +1,395 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.Log;
+
+/**
+ * Eigener Thread, der die Tiles eines CachedImage in eine Bitmap in View-Größe zusammensetzt, sodass der UI-Thread
+ * in onDraw() nur noch diese eine Bitmap zeichnen muss und nie durch das Zusammensetzen der Tiles blockiert wird.
+ *
+ * Es gibt zwei Bitmaps: In die hintere wird gezeichnet, während die vordere (der zuletzt fertige Frame) angezeigt
+ * wird. Ist ein Frame fertig, werden sie getauscht und der {@link FrameListener} benachrichtigt. Die alte vordere
+ * Bitmap wird erst wieder beschrieben, nachdem der UI-Thread den neuen Frame gezeichnet hat. Hat sich Pan/Zoom seit
+ * dem Rendern des Frames geändert, wird dieser beim Zeichnen entsprechend verschoben und skaliert, bis der nächste
+ * fertig ist.
+ *
+ * Überblendung zwischen Samplesizes, Texturatlas und Prefetching gibt es nur beim Zeichnen im UI-Thread.
+ */
+public class TileRenderThread extends Thread {
+	
+	/**
+	 * Wird im Render-Thread aufgerufen, nachdem ein neuer Frame fertig ist (z.B. um postInvalidate() aufzurufen).
+	 */
+	public interface FrameListener {
+		public void onFrameRendered();
+	}
+	
+	
+	// ////// MEMBERS
+	
+	private final FrameListener listener;
+	
+	// Angeforderter Frame: Bild, Pan/Zoom, Samplesize und View-Größe (nur mit Lock auf this benutzen)
+	private boolean frameRequested = false;
+	private CachedImage requestedImage;
+	private float requestedPanX, requestedPanY, requestedZoom;
+	private int requestedSampleSize, requestedWidth, requestedHeight;
+	
+	// Sollen neu generierte Tiles in den nächsten Frame übernommen werden, obwohl sich Pan/Zoom nicht geändert hat?
+	private boolean tilesChanged = false;
+	
+	// Zuletzt fertiger Frame (wird angezeigt), dessen Pan/Zoom und ob er schon gezeichnet wurde
+	private Bitmap frontBitmap = null;
+	private Canvas frontCanvas = null;
+	private float frontPanX, frontPanY, frontZoom;
+	private boolean frontDrawn = true;
+	
+	// Bitmap, in die der nächste Frame gezeichnet wird (nur im Render-Thread benutzen)
+	private Bitmap backBitmap = null;
+	private Canvas backCanvas = null;
+	
+	// Soll der Thread beendet werden?
+	private boolean quitRequested = false;
+	
+	// Paint-Objekt für die Vorschau fehlender Tiles und wiederverwendetes Zielrechteck (nur im Render-Thread)
+	private final Paint previewPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final RectF previewDestRect = new RectF();
+	
+	// Paint-Objekt zum Zeichnen eines verschobenen oder skalierten Frames (nur im UI-Thread)
+	private final Paint framePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CONSTRUCTORS AND INITIALIZATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	public TileRenderThread(FrameListener listener) {
+		super("TileRenderThread");
+		this.listener = listener;
+	}
+	
+	/**
+	 * Beendet den Thread (nach dem aktuellen Frame) und gibt die Bitmaps frei.
+	 */
+	public synchronized void quit() {
+		quitRequested = true;
+		notifyAll();
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// UI THREAD
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Fordert einen Frame für den gegebenen Zustand an (aus dem UI-Thread, z.B. in jedem onDraw()). Entspricht der
+	 * Zustand der letzten Anforderung und gibt es keine neuen Tiles, passiert nichts. Mehrere Anforderungen vor dem
+	 * Start des nächsten Frames werden zusammengefasst (die letzte zählt).
+	 */
+	public synchronized void requestFrame(CachedImage image, float panX, float panY, float zoom, int sampleSize,
+			int width, int height) {
+		if (!tilesChanged && image == requestedImage && panX == requestedPanX && panY == requestedPanY
+				&& zoom == requestedZoom && sampleSize == requestedSampleSize && width == requestedWidth
+				&& height == requestedHeight) {
+			return;
+		}
+		
+		requestedImage = image;
+		requestedPanX = panX;
+		requestedPanY = panY;
+		requestedZoom = zoom;
+		requestedSampleSize = sampleSize;
+		requestedWidth = width;
+		requestedHeight = height;
+		tilesChanged = false;
+		frameRequested = true;
+		notifyAll();
+	}
+	
+	/**
+	 * Merkt vor, dass neue Tiles generiert wurden, sodass die nächste Anforderung auf jeden Fall neu rendert.
+	 */
+	public synchronized void onTilesChanged() {
+		tilesChanged = true;
+	}
+	
+	/**
+	 * Zeichnet den zuletzt fertigen Frame (aus dem UI-Thread). Wurde er für einen anderen Pan/Zoom gerendert, wird er
+	 * so verschoben und skaliert, dass er zum aktuellen passt.
+	 *
+	 * @param paint Paint-Objekt (z.B. für Transparenz) oder null
+	 * @return false, falls es (noch) keinen Frame in dieser View-Größe gibt.
+	 */
+	public synchronized boolean drawFrame(Canvas canvas, float panX, float panY, float zoom, int width, int height,
+			Paint paint) {
+		// Der nächste Frame darf wieder in die alte vordere Bitmap gezeichnet werden. (Auch falls dieser Frame nicht
+		// passt, sonst würde der Render-Thread ewig warten.)
+		if (!frontDrawn) {
+			frontDrawn = true;
+			notifyAll();
+		}
+		
+		if (frontBitmap == null || frontBitmap.getWidth() != width || frontBitmap.getHeight() != height) {
+			return false;
+		}
+		
+		if (panX == frontPanX && panY == frontPanY && zoom == frontZoom) {
+			canvas.drawBitmap(frontBitmap, 0, 0, paint);
+			return true;
+		}
+		
+		// Bildschirmposition eines Bildpunktes: (bild - pan) * zoom + mitte, also Frame-Pixel p auf
+		// ((p - mitte) / frontZoom + frontPan - pan) * zoom + mitte abbilden
+		float scale = zoom / frontZoom;
+		
+		framePaint.setAlpha(paint != null ? paint.getAlpha() : 255);
+		
+		canvas.save();
+		canvas.translate(width / 2 + (frontPanX - panX) * zoom, height / 2 + (frontPanY - panY) * zoom);
+		canvas.scale(scale, scale);
+		canvas.translate(-(width / 2), -(height / 2));
+		canvas.drawBitmap(frontBitmap, 0, 0, framePaint);
+		canvas.restore();
+		
+		return true;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// RENDER THREAD
+	// ////////////////////////////////////////////////////////////////////////
+	
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				CachedImage image;
+				float panX, panY, zoom;
+				int sampleSize, width, height;
+				
+				// Auf eine Anforderung warten (und darauf, dass die hintere Bitmap nicht mehr angezeigt wird)
+				synchronized (this) {
+					while (!quitRequested && (!frameRequested || !frontDrawn)) {
+						wait();
+					}
+					
+					if (quitRequested) {
+						break;
+					}
+					
+					frameRequested = false;
+					image = requestedImage;
+					panX = requestedPanX;
+					panY = requestedPanY;
+					zoom = requestedZoom;
+					sampleSize = requestedSampleSize;
+					width = requestedWidth;
+					height = requestedHeight;
+				}
+				
+				if (image == null || image.isReleased() || !ensureBackBitmap(width, height)) {
+					continue;
+				}
+				
+				long startTime = System.nanoTime();
+				
+				backBitmap.eraseColor(Color.TRANSPARENT);
+				backCanvas.save();
+				
+				// Geholte Tiles dürfen bis zum Ende nicht wiederverwendet werden, auch wenn sie verdrängt werden
+				image.beginDraw();
+				try {
+					drawTiles(backCanvas, image, panX, panY, zoom, sampleSize, width, height);
+				}
+				finally {
+					image.endDraw();
+				}
+				
+				backCanvas.restore();
+				
+				RenderMetrics.RENDER_THREAD_TIME.recordNanos(System.nanoTime() - startTime);
+				
+				// Bitmaps tauschen
+				synchronized (this) {
+					Bitmap drawnBitmap = backBitmap;
+					Canvas drawnCanvas = backCanvas;
+					backBitmap = frontBitmap;
+					backCanvas = frontCanvas;
+					frontBitmap = drawnBitmap;
+					frontCanvas = drawnCanvas;
+					frontPanX = panX;
+					frontPanY = panY;
+					frontZoom = zoom;
+					frontDrawn = false;
+				}
+				
+				listener.onFrameRendered();
+			}
+		}
+		catch (InterruptedException e) {
+			// Thread wird beendet
+		}
+		
+		synchronized (this) {
+			if (frontBitmap != null) {
+				frontBitmap.recycle();
+				frontBitmap = null;
+				frontCanvas = null;
+			}
+			
+			if (backBitmap != null) {
+				backBitmap.recycle();
+				backBitmap = null;
+				backCanvas = null;
+			}
+		}
+	}
+	
+	/**
+	 * Legt die hintere Bitmap in der gegebenen Größe an, falls noch nicht geschehen.
+	 *
+	 * @return false, falls nicht genug Speicher vorhanden ist.
+	 */
+	private boolean ensureBackBitmap(int width, int height) {
+		if (backBitmap != null && backBitmap.getWidth() == width && backBitmap.getHeight() == height) {
+			return true;
+		}
+		
+		if (width <= 0 || height <= 0) {
+			return false;
+		}
+		
+		if (backBitmap != null) {
+			backBitmap.recycle();
+			backBitmap = null;
+			backCanvas = null;
+		}
+		
+		try {
+			backBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+			backCanvas = new Canvas(backBitmap);
+			return true;
+		}
+		catch (OutOfMemoryError e) {
+			Log.w("TileRenderThread/ensureBackBitmap", "Not enough memory for frame of size " + width + "x" + height);
+			return false;
+		}
+	}
+	
+	/**
+	 * Zeichnet die sichtbaren Tiles wie LargeImageView.onDraw_cachedImage() (fehlende Tiles als Vorschau).
+	 */
+	private void drawTiles(Canvas canvas, CachedImage image, float panX, float panY, float zoom, int sampleSize,
+			int width, int height) {
+		// Effektive Skalierung und Viewport (relativ zum gesampelten Bild), siehe onDraw_cachedImage()
+		float effectiveScale = sampleSize * zoom;
+		int viewportWidth = (int) (width / effectiveScale);
+		int viewportHeight = (int) (height / effectiveScale);
+		int viewportLeft = (int) (panX / sampleSize) - viewportWidth / 2;
+		int viewportTop = (int) (panY / sampleSize) - viewportHeight / 2;
+		int viewportRight = viewportLeft + viewportWidth;
+		int viewportBottom = viewportTop + viewportHeight;
+		
+		image.setViewport(sampleSize * viewportLeft, sampleSize * viewportTop, sampleSize * viewportRight,
+				sampleSize * viewportBottom, sampleSize);
+		
+		int startX = Math.max(0, viewportLeft - viewportLeft % CachedImage.TILESIZE);
+		int startY = Math.max(0, viewportTop - viewportTop % CachedImage.TILESIZE);
+		
+		canvas.scale(effectiveScale, effectiveScale);
+		canvas.translate(-viewportLeft, -viewportTop);
+		
+		for (int y = startY; y < viewportBottom && y < image.getHeight() / sampleSize; y += CachedImage.TILESIZE) {
+			for (int x = startX; x < viewportRight && x < image.getWidth() / sampleSize; x += CachedImage.TILESIZE) {
+				Bitmap bm = image.getTileBitmap(sampleSize * x, sampleSize * y, sampleSize);
+				
+				if (bm != null) {
+					canvas.drawBitmap(bm, x, y, null);
+				}
+				else {
+					drawTilePreview(canvas, image, x, y, sampleSize, previewDestRect, previewPaint);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Zeichnet anstelle eines noch nicht generierten Tiles eine hochskalierte Vorschau: ein Tile einer gröberen
+	 * Samplesize, falls eines im Cache liegt, sonst den entsprechenden Ausschnitt des Übersichtsbildes. Dabei wird
+	 * nichts neu generiert. (Wird auch von der LargeImageView beim Zeichnen im UI-Thread benutzt.)
+	 *
+	 * @param x,y Position des fehlenden Tiles (relativ zum gesampelten Bild, wie in onDraw_cachedImage)
+	 * @param destRect Wiederverwendetes Rechteck (um beim Zeichnen nichts zu allozieren)
+	 * @param paint Paint-Objekt für die Vorschau (hochskaliert, sollte also filtern)
+	 */
+	static void drawTilePreview(Canvas canvas, CachedImage image, int x, int y, int sampleSize, RectF destRect,
+			Paint paint) {
+		// Bildausschnitt des fehlenden Tiles in Originalkoordinaten
+		int imageX = sampleSize * x;
+		int imageY = sampleSize * y;
+		
+		Bitmap preview = null;
+		int previewSampleSize = 0;
+		int previewX = 0;
+		int previewY = 0;
+		
+		// Nächstgröberes Tile suchen, das den Ausschnitt enthält und bereits im Cache liegt
+		for (int coarseSampleSize = sampleSize * 2; coarseSampleSize <= SampleSizeCalculator.MAX_SAMPLESIZE;
+				coarseSampleSize *= 2) {
+			int coarseTileExtent = CachedImage.TILESIZE * coarseSampleSize;
+			previewX = imageX - imageX % coarseTileExtent;
+			previewY = imageY - imageY % coarseTileExtent;
+			preview = image.peekTileBitmap(previewX, previewY, coarseSampleSize);
+			
+			if (preview != null) {
+				previewSampleSize = coarseSampleSize;
+				break;
+			}
+		}
+		
+		// Sonst Übersichtsbild verwenden, falls bereits vorhanden
+		if (preview == null) {
+			preview = image.getOverviewBitmap();
+			
+			if (preview == null) {
+				return;
+			}
+			
+			previewSampleSize = image.getOverviewSampleSize();
+			previewX = 0;
+			previewY = 0;
+		}
+		
+		// Vorschau auf die gesampelten Koordinaten skalieren und auf den Bereich des fehlenden Tiles beschränken
+		float previewScale = (float) previewSampleSize / sampleSize;
+		destRect.set(previewX / sampleSize, previewY / sampleSize,
+				previewX / sampleSize + preview.getWidth() * previewScale,
+				previewY / sampleSize + preview.getHeight() * previewScale);
+		
+		canvas.save();
+		canvas.clipRect(x, y, x + CachedImage.TILESIZE, y + CachedImage.TILESIZE);
+		canvas.drawBitmap(preview, null, destRect, paint);
+		canvas.restore();
+	}
+	
+}
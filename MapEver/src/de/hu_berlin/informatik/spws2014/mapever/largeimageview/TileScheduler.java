@@ -0,0 +1,536 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verteilt das Generieren von Tiles auf einen begrenzten Pool von Worker-Threads.
+ *
+ * Die Klasse verwendet absichtlich keine Android-Klassen, damit sie (z.B. mit einem Fake-Decoder) auch auf einer
+ * normalen JVM getestet und gebenchmarkt werden kann. Das eigentliche Dekodieren übernimmt ein {@link TileDecoder},
+ * das Ergebnis wird einem {@link TileListener} übergeben (beides wird im Worker-Thread aufgerufen).
+ *
+ * Wartende Tiles werden nach ihrer Entfernung zum Mittelpunkt des aktuellen Viewports (siehe
+ * {@link #setViewport(int, int, int, int, int)}) abgearbeitet. Ändert sich der Viewport, werden Tiles, die nicht mehr
+ * sichtbar sind oder zu einer anderen Samplesize gehören, aus der Warteschlange entfernt.
+ *
+ * Zusätzlich können Tiles spekulativ vorab angefordert werden ({@link #requestPrefetch(int, int, int)}). Diese
+ * werden nur angenommen, wenn keine sichtbaren Tiles warten, und immer nach diesen bearbeitet.
+ *
+ * @param <T> Typ eines generierten Tiles (auf Android: Bitmap)
+ */
+public class TileScheduler<T> {
+	
+	/**
+	 * Generiert ein Tile. Wird parallel aus mehreren Worker-Threads aufgerufen, muss also threadsicher sein.
+	 */
+	public interface TileDecoder<T> {
+		/**
+		 * @param x Linke Eckkoordinate.
+		 * @param y Obere Eckkoordinate.
+		 * @param sampleSize Samplesize (n ist 1/n mal so groß wie das Original)
+		 * @return Das generierte Tile oder null, falls es kein Tile gibt oder das Generieren fehlschlug.
+		 */
+		public T decodeTile(int x, int y, int sampleSize);
+	}
+	
+	/**
+	 * Wird (im Worker-Thread) aufgerufen, nachdem ein Tile generiert wurde.
+	 */
+	public interface TileListener<T> {
+		/**
+		 * @param tile Das generierte Tile oder null, falls der TileDecoder null zurückgegeben hat.
+		 */
+		public void onTileDecoded(int x, int y, int sampleSize, T tile);
+	}
+	
+	// ////// CONSTANTS
+	
+	// Obergrenze für die Anzahl paralleler Worker (jeder Worker hält während des Dekodierens ein Tile und ggf. einen
+	// eigenen Decoder im Speicher, mehr Threads bringen auf Mobilgeräten außerdem kaum noch etwas)
+	public static final int MAX_WORKER_COUNT = 4;
+	
+	// Nach dieser Zeit ohne Arbeit werden Worker-Threads beendet
+	private static final long WORKER_KEEPALIVE_SECONDS = 10;
+	
+	// Prioritätsaufschläge (siehe calculatePriority()): Prefetch-Anfragen kommen nach allen sichtbaren Tiles,
+	// Tiles anderer Samplesizes nach allen Prefetch-Anfragen. (Die Entfernung zum Viewport ist maximal 2^58.)
+	private static final long PREFETCH_PRIORITY_OFFSET = 1L << 60;
+	private static final long OTHER_SAMPLESIZE_PRIORITY_OFFSET = 1L << 61;
+	
+	// Prefetch-Anfragen dürfen bis zu so vielen Tiles (ihrer Samplesize) außerhalb des Viewports liegen, bevor sie
+	// verworfen werden
+	private static final int PREFETCH_MARGIN_TILES = 3;
+	
+	
+	// ////// MEMBERS
+	
+	private final TileDecoder<T> decoder;
+	private final TileListener<T> listener;
+	
+	// Anzahl der Worker-Threads
+	private final int workerCount;
+	
+	// Kantenlänge eines Tiles (in Pixeln bei Samplesize 1, d.h. ein Tile der Samplesize s deckt tileSize*s Pixel ab)
+	private final int tileSize;
+	
+	// Threadpool, der die Tiles generiert
+	private final ThreadPoolExecutor executor;
+	
+	// Tiles, die aktuell in der Warteschlange stehen oder generiert werden (nach Key)
+	private final HashMap<Long, TileRequest> pendingTiles = new HashMap<Long, TileRequest>();
+	
+	// Anzahl der Prefetch-Anfragen unter den pendingTiles und deren Maximum (ein Worker bleibt für sichtbare Tiles
+	// frei, sofern es mehrere gibt)
+	private int pendingPrefetchCount = 0;
+	private final int maxPendingPrefetchCount;
+	
+	// Wurde shutdown() aufgerufen?
+	private volatile boolean isShutdown = false;
+	
+	// Aktueller Viewport in Bildkoordinaten (inklusive Rand) und dessen Samplesize. Solange kein Viewport gesetzt
+	// wurde, werden Tiles in der Reihenfolge ihrer Anforderung generiert.
+	private boolean hasViewport = false;
+	private int viewportLeft, viewportTop, viewportRight, viewportBottom;
+	private int viewportSampleSize;
+	
+	// Fortlaufende Nummer der Anfragen (bei gleicher Priorität wird die ältere Anfrage zuerst bearbeitet)
+	private long requestSequence = 0;
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// CONSTRUCTORS AND INITIALIZATION
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Erzeugt einen Scheduler mit {@link #getDefaultWorkerCount()} Workern.
+	 */
+	public TileScheduler(int tileSize, TileDecoder<T> decoder, TileListener<T> listener) {
+		this(getDefaultWorkerCount(), tileSize, decoder, listener);
+	}
+	
+	/**
+	 * Erzeugt einen Scheduler mit workerCount Workern. Threads werden erst bei Bedarf gestartet und nach einiger Zeit
+	 * ohne Arbeit wieder beendet.
+	 */
+	public TileScheduler(int workerCount, int tileSize, TileDecoder<T> decoder, TileListener<T> listener) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("workerCount must be positive, is " + workerCount);
+		}
+		if (tileSize < 1) {
+			throw new IllegalArgumentException("tileSize must be positive, is " + tileSize);
+		}
+		
+		this.decoder = decoder;
+		this.listener = listener;
+		this.workerCount = workerCount;
+		this.tileSize = tileSize;
+		this.maxPendingPrefetchCount = Math.max(1, workerCount - 1);
+		
+		executor = new ThreadPoolExecutor(workerCount, workerCount,
+				WORKER_KEEPALIVE_SECONDS, TimeUnit.SECONDS,
+				createQueue(), new TileWorkerThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * Erzeugt die Warteschlange für den Threadpool. Diese sortiert die TileRequests nach ihrer Priorität.
+	 * (Deshalb dürfen Aufträge nur per execute() und nicht per submit() übergeben werden, da submit() sie in ein
+	 * nicht vergleichbares FutureTask verpackt.)
+	 */
+	private static BlockingQueue<Runnable> createQueue() {
+		return new PriorityBlockingQueue<Runnable>();
+	}
+	
+	/**
+	 * Anzahl der Worker, die sich aus der Anzahl der Prozessorkerne ergibt (mindestens 1, höchstens
+	 * {@link #MAX_WORKER_COUNT}).
+	 */
+	public static int getDefaultWorkerCount() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		return Math.max(1, Math.min(cores, MAX_WORKER_COUNT));
+	}
+	
+	/**
+	 * Gibt die Anzahl der Worker-Threads zurück.
+	 */
+	public int getWorkerCount() {
+		return workerCount;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// TILE REQUESTS
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Generiert aus x, y, sampleSize einen Key für die Liste der wartenden Tiles (siehe {@link TileKey}).
+	 */
+	private static Long getTileKey(int x, int y, int sampleSize) {
+		return Long.valueOf(TileKey.pack(x, y, sampleSize));
+	}
+	
+	/**
+	 * Reiht das Tile zum Generieren ein, falls es nicht bereits in der Warteschlange steht oder generiert wird.
+	 *
+	 * @return true, falls das Tile neu eingereiht wurde.
+	 */
+	public boolean requestTile(int x, int y, int sampleSize) {
+		if (isShutdown) {
+			return false;
+		}
+		
+		Long key = getTileKey(x, y, sampleSize);
+		TileRequest request;
+		
+		synchronized (pendingTiles) {
+			TileRequest pendingRequest = pendingTiles.get(key);
+			
+			if (pendingRequest != null) {
+				// wird bereits generiert (ein wartender Prefetch wird aber zur normalen Anfrage aufgewertet)
+				if (pendingRequest.isPrefetch) {
+					upgradePrefetch(pendingRequest);
+				}
+				return false;
+			}
+			
+			request = new TileRequest(this, x, y, sampleSize, key, requestSequence++, false);
+			request.priority = calculatePriority(request);
+			pendingTiles.put(key, request);
+			RenderMetrics.TILE_QUEUE_DEPTH.record(pendingTiles.size());
+		}
+		
+		executor.execute(request);
+		return true;
+	}
+	
+	/**
+	 * Reiht das Tile spekulativ (z.B. weil es demnächst sichtbar werden dürfte) mit niedriger Priorität ein. Damit
+	 * sichtbare Tiles nie warten müssen, wird die Anfrage abgelehnt, solange noch sichtbare Tiles in Arbeit sind oder
+	 * bereits zu viele Prefetch-Anfragen laufen.
+	 *
+	 * @return true, falls das Tile neu eingereiht wurde.
+	 */
+	public boolean requestPrefetch(int x, int y, int sampleSize) {
+		if (isShutdown) {
+			return false;
+		}
+		
+		Long key = getTileKey(x, y, sampleSize);
+		TileRequest request;
+		
+		synchronized (pendingTiles) {
+			if (!canPrefetch() || pendingTiles.containsKey(key)) {
+				return false;
+			}
+			
+			request = new TileRequest(this, x, y, sampleSize, key, requestSequence++, true);
+			request.priority = calculatePriority(request);
+			pendingTiles.put(key, request);
+			pendingPrefetchCount++;
+			RenderMetrics.TILE_QUEUE_DEPTH.record(pendingTiles.size());
+		}
+		
+		executor.execute(request);
+		return true;
+	}
+	
+	/**
+	 * Gibt true zurück, falls momentan Prefetch-Anfragen angenommen werden (keine sichtbaren Tiles in Arbeit und
+	 * Limit für Prefetch-Anfragen nicht erreicht). Kann benutzt werden, um sich das Berechnen der Tiles zu sparen.
+	 */
+	public boolean canPrefetch() {
+		synchronized (pendingTiles) {
+			return pendingTiles.size() == pendingPrefetchCount && pendingPrefetchCount < maxPendingPrefetchCount;
+		}
+	}
+	
+	/**
+	 * Macht aus einer Prefetch-Anfrage eine normale Anfrage (weil das Tile inzwischen sichtbar ist). Muss mit
+	 * Lock auf pendingTiles aufgerufen werden.
+	 */
+	private void upgradePrefetch(TileRequest request) {
+		BlockingQueue<Runnable> queue = executor.getQueue();
+		
+		// Die Priorität darf nur geändert werden, während die Anfrage nicht in der Queue ist. (Wird sie schon
+		// bearbeitet, ist remove() false und die Priorität egal.)
+		boolean wasQueued = queue.remove(request);
+		
+		request.isPrefetch = false;
+		pendingPrefetchCount--;
+		
+		if (wasQueued) {
+			request.priority = calculatePriority(request);
+			queue.add(request);
+			executor.prestartCoreThread();
+		}
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// VIEWPORT UND PRIORITÄTEN
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Setzt den aktuell sichtbaren Bildausschnitt (in Koordinaten des Originalbildes, gegebenenfalls inklusive eines
+	 * Randes, dessen Tiles ebenfalls noch benötigt werden) und die aktuelle Samplesize.
+	 * 
+	 * Wartende Tiles mit anderer Samplesize oder außerhalb des Ausschnitts werden verworfen (bereits laufende werden
+	 * noch fertig generiert), die übrigen werden nach ihrer Entfernung zum Mittelpunkt des Ausschnitts neu sortiert.
+	 */
+	public void setViewport(int left, int top, int right, int bottom, int sampleSize) {
+		synchronized (pendingTiles) {
+			// Nichts zu tun, falls sich der Viewport nicht geändert hat (onDraw ruft dies bei jedem Frame auf).
+			if (hasViewport && left == viewportLeft && top == viewportTop && right == viewportRight
+					&& bottom == viewportBottom && sampleSize == viewportSampleSize) {
+				return;
+			}
+			
+			hasViewport = true;
+			viewportLeft = left;
+			viewportTop = top;
+			viewportRight = right;
+			viewportBottom = bottom;
+			viewportSampleSize = sampleSize;
+			
+			BlockingQueue<Runnable> queue = executor.getQueue();
+			
+			if (queue.isEmpty()) {
+				return;
+			}
+			
+			// Warteschlange leeren, veraltete Anfragen verwerfen, Prioritäten der übrigen neu berechnen und wieder
+			// einreihen. (Die Priorität darf nicht geändert werden, während sich eine Anfrage in der Queue befindet.)
+			ArrayList<Runnable> waiting = new ArrayList<Runnable>(queue.size());
+			queue.drainTo(waiting);
+			
+			for (Runnable runnable : waiting) {
+				TileRequest request = (TileRequest) runnable;
+				
+				if (isStale(request)) {
+					pendingTiles.remove(request.key);
+					
+					if (request.isPrefetch) {
+						pendingPrefetchCount--;
+					}
+				}
+				else {
+					request.priority = calculatePriority(request);
+					queue.add(request);
+				}
+			}
+			
+			// Falls zwischenzeitlich alle Worker wegen Untätigkeit beendet wurden, einen neu starten.
+			if (!queue.isEmpty()) {
+				executor.prestartCoreThread();
+			}
+		}
+	}
+	
+	/**
+	 * Gibt true zurück, falls die Anfrage nicht mehr zum aktuellen Viewport gehört.
+	 */
+	private boolean isStale(TileRequest request) {
+		if (!hasViewport) {
+			return false;
+		}
+		
+		int tileExtent = request.sampleSize * tileSize;
+		int margin = 0;
+		
+		if (request.isPrefetch) {
+			// Prefetch-Anfragen dürfen auch benachbarte Zoomstufen betreffen und etwas außerhalb liegen.
+			if (request.sampleSize != viewportSampleSize && request.sampleSize != viewportSampleSize * 2
+					&& request.sampleSize * 2 != viewportSampleSize) {
+				return true;
+			}
+			
+			margin = PREFETCH_MARGIN_TILES * tileExtent;
+		}
+		else if (request.sampleSize != viewportSampleSize) {
+			// Tiles anderer Zoomstufen werden nach einem Zoom nicht mehr benötigt.
+			return true;
+		}
+		
+		// Liegt das Tile (zumindest teilweise) im Viewport (bzw. im Bereich um den Viewport)?
+		return request.x + tileExtent <= viewportLeft - margin || request.x >= viewportRight + margin
+				|| request.y + tileExtent <= viewportTop - margin || request.y >= viewportBottom + margin;
+	}
+	
+	/**
+	 * Berechnet die Priorität einer Anfrage (kleiner = wichtiger): das Quadrat der Entfernung des Tilemittelpunkts
+	 * zum Mittelpunkt des Viewports. Prefetch-Anfragen werden nach allen sichtbaren Tiles bearbeitet, Tiles einer
+	 * anderen Samplesize nach allen Tiles der aktuellen.
+	 */
+	private long calculatePriority(TileRequest request) {
+		if (!hasViewport) {
+			return 0;
+		}
+		
+		long tileHalfExtent = request.sampleSize * tileSize / 2;
+		long dx = request.x + tileHalfExtent - (viewportLeft + viewportRight) / 2;
+		long dy = request.y + tileHalfExtent - (viewportTop + viewportBottom) / 2;
+		long priority = dx * dx + dy * dy;
+		
+		if (request.isPrefetch) {
+			priority += PREFETCH_PRIORITY_OFFSET;
+		}
+		else if (request.sampleSize != viewportSampleSize) {
+			priority += OTHER_SAMPLESIZE_PRIORITY_OFFSET;
+		}
+		
+		return priority;
+	}
+	
+	/**
+	 * Gibt true zurück, falls das Tile gerade in der Warteschlange steht oder generiert wird.
+	 */
+	public boolean isTilePending(int x, int y, int sampleSize) {
+		synchronized (pendingTiles) {
+			return pendingTiles.containsKey(getTileKey(x, y, sampleSize));
+		}
+	}
+	
+	/**
+	 * Gibt die Anzahl der Tiles zurück, die in der Warteschlange stehen oder gerade generiert werden.
+	 */
+	public int getPendingCount() {
+		synchronized (pendingTiles) {
+			return pendingTiles.size();
+		}
+	}
+	
+	/**
+	 * Verwirft alle wartenden Tiles und nimmt keine neuen mehr an. Bereits laufende Worker arbeiten ihr aktuelles
+	 * Tile noch zu Ende.
+	 */
+	public void shutdown() {
+		isShutdown = true;
+		executor.shutdownNow();
+		
+		synchronized (pendingTiles) {
+			pendingTiles.clear();
+			pendingPrefetchCount = 0;
+		}
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// WORKER
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Generiert das Tile einer Anfrage und übergibt das Ergebnis an den TileListener (im Worker-Thread).
+	 */
+	private void runRequest(TileRequest request) {
+		try {
+			if (isShutdown) {
+				return;
+			}
+			
+			RenderMetrics.TILE_QUEUE_WAIT.recordNanos(System.nanoTime() - request.enqueueTime);
+			
+			// Tile generieren und Ergebnis weiterreichen
+			T tile = decoder.decodeTile(request.x, request.y, request.sampleSize);
+			
+			if (!isShutdown) {
+				listener.onTileDecoded(request.x, request.y, request.sampleSize, tile);
+			}
+		}
+		finally {
+			// Auch im Fehlerfall austragen, damit das Tile später erneut angefordert werden kann
+			synchronized (pendingTiles) {
+				// (Nach shutdown() oder wenn die Anfrage verworfen wurde, ist sie nicht mehr eingetragen.)
+				if (pendingTiles.get(request.key) == request) {
+					pendingTiles.remove(request.key);
+					
+					if (request.isPrefetch) {
+						pendingPrefetchCount--;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Auftrag, ein Tile zu generieren und das Ergebnis an den TileListener zu übergeben. (Statisch und damit nicht
+	 * vom Typparameter abhängig, sonst wäre der Cast der Runnables aus der Warteschlange ungeprüft.)
+	 */
+	private static class TileRequest implements Runnable, Comparable<TileRequest> {
+		private final TileScheduler<?> scheduler;
+		private final int x, y, sampleSize;
+		private final Long key;
+		private final long sequence;
+		
+		// Priorität (kleiner = wichtiger), siehe calculatePriority()
+		private long priority = 0;
+		
+		// Spekulative Anfrage? (Wird ggf. zur normalen Anfrage aufgewertet, nur mit Lock auf pendingTiles ändern.)
+		private boolean isPrefetch;
+		
+		// Zeitpunkt des Einreihens (System.nanoTime(), für RenderMetrics.TILE_QUEUE_WAIT)
+		private final long enqueueTime = System.nanoTime();
+		
+		public TileRequest(TileScheduler<?> scheduler, int x, int y, int sampleSize, Long key, long sequence,
+				boolean isPrefetch) {
+			this.scheduler = scheduler;
+			this.x = x;
+			this.y = y;
+			this.sampleSize = sampleSize;
+			this.key = key;
+			this.sequence = sequence;
+			this.isPrefetch = isPrefetch;
+		}
+		
+		@Override
+		public int compareTo(TileRequest other) {
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+		
+		@Override
+		public void run() {
+			scheduler.runRequest(this);
+		}
+	}
+	
+	/**
+	 * Erzeugt Worker-Threads mit leicht verringerter Priorität (auf Android entspricht das
+	 * THREAD_PRIORITY_BACKGROUND), damit der UI-Thread nicht ausgebremst wird.
+	 */
+	private static class TileWorkerThreadFactory implements ThreadFactory {
+		private int threadNumber = 0;
+		
+		@Override
+		public synchronized Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "TileWorker-" + threadNumber++);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	}
+	
+}
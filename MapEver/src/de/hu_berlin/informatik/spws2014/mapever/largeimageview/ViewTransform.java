@@ -0,0 +1,126 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+/**
+ * Umrechnung zwischen Bild- und Bildschirmkoordinaten der LargeImageView (Pan-Center, Zoom-Scale, View-Größe).
+ * Reines Java ohne Android-Abhängigkeiten und ohne Objekterzeugung, damit es auch im Benchmark-Modul
+ * (MapEverBenchmarks) auf einer normalen JVM getestet werden kann.
+ *
+ * Bildschirmposition eines Bildpunktes: (bild - panCenter) * zoomScale + viewSize / 2 (ganzzahlig halbiert, wie
+ * bisher in der LargeImageView).
+ */
+public final class ViewTransform {
+	
+	// ////// CONSTANTS
+	
+	// Anzahl der Werte einer 3x3-Matrix (Reihenfolge wie android.graphics.Matrix.getValues()/setValues())
+	public static final int MATRIX_VALUES = 9;
+	
+	
+	private ViewTransform() {
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// EINZELNE KOORDINATEN
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Prüft, ob Pan-Position und View-Größe bekannt sind, sodass Positionen umgerechnet werden können.
+	 */
+	public static boolean isReady(float panCenterX, float panCenterY, int viewWidth, int viewHeight) {
+		return !Float.isNaN(panCenterX) && !Float.isNaN(panCenterY) && viewWidth != 0 && viewHeight != 0;
+	}
+	
+	/**
+	 * Rechnet eine Bildschirmkoordinate (x oder y) in eine Bildkoordinate um.
+	 *
+	 * @param panCenter Pan-Center in derselben Achse
+	 * @param viewSize Breite bzw. Höhe der View
+	 */
+	public static float screenToImage(float screen, float panCenter, float zoomScale, int viewSize) {
+		return panCenter + (screen - viewSize / 2) / zoomScale;
+	}
+	
+	/**
+	 * Rechnet eine Bildkoordinate (x oder y) in eine Bildschirmkoordinate um (Umkehrfunktion zu screenToImage()).
+	 *
+	 * @param panCenter Pan-Center in derselben Achse
+	 * @param viewSize Breite bzw. Höhe der View
+	 */
+	public static float imageToScreen(float image, float panCenter, float zoomScale, int viewSize) {
+		return (image - panCenter) * zoomScale + viewSize / 2;
+	}
+	
+	
+	// ////////////////////////////////////////////////////////////////////////
+	// //////////// PUNKTLISTEN UND MATRIZEN
+	// ////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Rechnet Bildpunkte in Bildschirmpunkte um (wie Matrix.mapPoints() mit der Matrix aus getImageToScreenValues()).
+	 *
+	 * @param points abwechselnd x- und y-Koordinaten, werden überschrieben
+	 */
+	public static void imageToScreenPoints(float[] points, float panCenterX, float panCenterY, float zoomScale,
+			int viewWidth, int viewHeight) {
+		for (int i = 0; i + 1 < points.length; i += 2) {
+			points[i] = imageToScreen(points[i], panCenterX, zoomScale, viewWidth);
+			points[i + 1] = imageToScreen(points[i + 1], panCenterY, zoomScale, viewHeight);
+		}
+	}
+	
+	/**
+	 * Schreibt die Transformation von Bild- in Bildschirmkoordinaten als 3x3-Matrix (für Matrix.setValues()).
+	 *
+	 * @param outValues Array mit mindestens {@link #MATRIX_VALUES} Einträgen
+	 */
+	public static void getImageToScreenValues(float panCenterX, float panCenterY, float zoomScale, int viewWidth,
+			int viewHeight, float[] outValues) {
+		setScaleTranslate(zoomScale, imageToScreen(0, panCenterX, zoomScale, viewWidth),
+				imageToScreen(0, panCenterY, zoomScale, viewHeight), outValues);
+	}
+	
+	/**
+	 * Schreibt die Transformation von Bildschirm- in Bildkoordinaten als 3x3-Matrix (Umkehrung von
+	 * getImageToScreenValues(), für Matrix.setValues()).
+	 *
+	 * @param outValues Array mit mindestens {@link #MATRIX_VALUES} Einträgen
+	 */
+	public static void getScreenToImageValues(float panCenterX, float panCenterY, float zoomScale, int viewWidth,
+			int viewHeight, float[] outValues) {
+		setScaleTranslate(1 / zoomScale, screenToImage(0, panCenterX, zoomScale, viewWidth),
+				screenToImage(0, panCenterY, zoomScale, viewHeight), outValues);
+	}
+	
+	/**
+	 * Matrix mit gleichmäßiger Skalierung und anschließender Verschiebung.
+	 */
+	private static void setScaleTranslate(float scale, float translateX, float translateY, float[] outValues) {
+		outValues[0] = scale;
+		outValues[1] = 0;
+		outValues[2] = translateX;
+		outValues[3] = 0;
+		outValues[4] = scale;
+		outValues[5] = translateY;
+		outValues[6] = 0;
+		outValues[7] = 0;
+		outValues[8] = 1;
+	}
+	
+}
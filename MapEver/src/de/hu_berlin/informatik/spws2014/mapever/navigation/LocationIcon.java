@@ -77,9 +77,9 @@ public class LocationIcon extends OverlayIcon {
 	}
 	
 	@Override
-	public Rect getTouchHitbox() {
+	public boolean getTouchHitbox(Rect outRect) {
 		// Die LocationView als nicht klickbar markieren (nicht notwendig, aber slightly effizienter).
-		return null;
+		return false;
 	}
 	
 	
@@ -74,6 +74,9 @@ public class MapView extends LargeImageView {
 	// Referenzpunkt, der zum Löschen ausgewählt wurde
 	private ReferencePointIcon toDeleteRefPointIcon = null;
 	
+	// Wiederverwendeter Punkt für die Umrechnung von Klickpositionen
+	private final PointF clickImagePos = new PointF();
+	
 	
 	// ////////////////////////////////////////////////////////////////////////
 	// //////////// CONSTRUCTORS AND INITIALIZATION
@@ -223,10 +226,12 @@ public class MapView extends LargeImageView {
 	 */
 	private boolean onClickPosition_setRefPoint(float clickX, float clickY) {
 		// Bildposition berechnen, die angeklickt wurde
-		PointF imagePos = screenToImagePosition(clickX, clickY);
+		if (!screenToImagePosition(clickX, clickY, clickImagePos)) {
+			return false;
+		}
 		
-		int xCoord = (int) imagePos.x;
-		int yCoord = (int) imagePos.y;
+		int xCoord = (int) clickImagePos.x;
+		int yCoord = (int) clickImagePos.y;
 		
 		// Erstelle neuen unakzeptierten Referenzpunkt an dieser Stelle
 		// (Sanitycheck der Koordinaten passiert dort)
@@ -65,6 +65,8 @@ import de.hu_berlin.informatik.spws2014.mapever.MapEverApp;
 import de.hu_berlin.informatik.spws2014.mapever.R;
 import de.hu_berlin.informatik.spws2014.mapever.Start;
 import de.hu_berlin.informatik.spws2014.mapever.Thumbnail;
+import de.hu_berlin.informatik.spws2014.mapever.largeimageview.RenderMetrics;
+import de.hu_berlin.informatik.spws2014.mapever.largeimageview.TilePyramid;
 
 public class Navigation extends BaseActivity implements LocationListener {
 	
@@ -330,6 +332,11 @@ public class Navigation extends BaseActivity implements LocationListener {
 		// Abonniere GPS Updates
 		// TODO Genauigkeit (Parameter 2, 3)? default aus Tutorial (400, 1)
 		locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 200, (float) 0.2, this);
+		
+		// Im Debugmodus Messwerte der Kartendarstellung erfassen und einblenden
+		boolean debugMode = MapEverApp.isDebugModeEnabled(this);
+		RenderMetrics.setEnabled(debugMode);
+		mapView.setDebugHudEnabled(debugMode);
 	}
 	
 	@Override
@@ -424,6 +431,7 @@ public class Navigation extends BaseActivity implements LocationListener {
 		// Aktiviere Debug-Optionen, falls Debugmode aktiviert
 		if (MapEverApp.isDebugModeEnabled(this)) {
 			menu.findItem(R.id.action_debugmode_mockgps).setVisible(true);
+			menu.findItem(R.id.action_debugmode_dump_metrics).setVisible(true);
 		}
 
 		return super.onCreateOptionsMenu(menu);
@@ -443,6 +451,11 @@ public class Navigation extends BaseActivity implements LocationListener {
 				startQuickHelp();
 				return true;
 				
+			case R.id.action_debugmode_dump_metrics:
+				// DEBUGMODE: Messwerte der Kartendarstellung in Datei schreiben
+				debug_dumpRenderMetrics();
+				return true;
+				
 			case R.id.action_debugmode_mockgps:
 				// DEBUGMODE: Mock GPS coordinates
 				debug_mockGPS();
@@ -514,6 +527,10 @@ public class Navigation extends BaseActivity implements LocationListener {
 					Log.e("Navigation/initLoadMap", "Failed generating thumbnail for image '" + targetFilename + "'!");
 					e.printStackTrace();
 				}
+				
+				// Tile-Pyramide für die groben Zoomstufen im Hintergrund erzeugen (Ende von Import und Entzerrung, die
+				// Bilddatei ändert sich danach nicht mehr). Die MapView öffnet sie, sobald sie fertig ist.
+				TilePyramid.buildInBackground(targetFilename);
 			}
 			
 			try {
@@ -1155,6 +1172,24 @@ public class Navigation extends BaseActivity implements LocationListener {
 	}
 	
 	
+	// //////// DEBUG MODE - RENDER METRICS
+	
+	// Schreibt die Messwerte der Kartendarstellung (siehe RenderMetrics) ins App-Verzeichnis
+	private void debug_dumpRenderMetrics() {
+		String filename = MapEverApp.getAbsoluteFilePath("render_metrics_" + System.currentTimeMillis() + ".txt");
+		
+		try {
+			mapView.dumpRenderMetrics(new File(filename));
+			Toast.makeText(this, getString(R.string.navigation_toast_render_metrics_dumped, filename),
+					Toast.LENGTH_LONG).show();
+		}
+		catch (IOException e) {
+			Log.e("debug_dumpRenderMetrics", "Failed writing render metrics to '" + filename + "': " + e);
+			Toast.makeText(this, getString(R.string.general_error_title), Toast.LENGTH_SHORT).show();
+		}
+	}
+	
+	
 	// //////// BILD-LOKALISIERUNG
 	
 	/**
@@ -102,14 +102,15 @@ public class ReferencePointIcon extends OverlayIcon {
 	}
 	
 	@Override
-	public Rect getTouchHitbox() {
+	public boolean getTouchHitbox(Rect outRect) {
 		// Die Hitbox ist doppelt so groß wie das Bild, damit man die kleinen Referenzpunkte besser anklicken kann.
 		// (Ist sinnvoll.)
-		return new Rect(
+		outRect.set(
 				2 * getImageOffsetX(),
 				2 * getImageOffsetY(),
 				2 * (getWidth() + getImageOffsetX()),
 				2 * (getHeight() + getImageOffsetY()));
+		return true;
 	}
 	
 	// ////////////////////////////////////////////////////////////////////////
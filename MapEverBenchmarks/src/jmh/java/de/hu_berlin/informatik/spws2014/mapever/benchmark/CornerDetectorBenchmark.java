@@ -0,0 +1,93 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.hu_berlin.informatik.spws2014.mapever.entzerrung.CornerGeometry;
+
+/**
+ * Filterung der Hough-Linien und Schnittpunktberechnung wie in CornerDetector.guess_corners() (ohne OpenCV).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CornerDetectorBenchmark {
+	
+	// Bildgröße, wie sie CornerDetectionView typischerweise liefert
+	private static final int WIDTH = 1280;
+	private static final int HEIGHT = 720;
+	
+	// Anzahl der von HoughLinesP gefundenen Linien
+	@Param({ "50", "500", "5000" })
+	public int lineCount;
+	
+	private double[][] lines;
+	
+	// Vier Randlinien (oben, unten, links, rechts) für die Schnittpunkte
+	private double[][] edgeLines;
+	
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		
+		lines = new double[lineCount][];
+		for (int i = 0; i < lineCount; i++) {
+			double x0 = random.nextDouble() * WIDTH;
+			double y0 = random.nextDouble() * HEIGHT;
+			
+			// etwa die Hälfte der Linien fast waagerecht bzw. senkrecht, der Rest beliebig
+			double length = 100 + random.nextDouble() * 300;
+			double angle = (random.nextInt(4) * Math.PI / 2) + (random.nextBoolean() ? random.nextGaussian() * 0.1
+					: random.nextDouble() * Math.PI);
+			
+			lines[i] = new double[] { x0, y0, x0 + Math.cos(angle) * length, y0 + Math.sin(angle) * length };
+		}
+		
+		edgeLines = new double[][] {
+				{ 40, 30, 1200, 50 },
+				{ 60, 680, 1230, 700 },
+				{ 35, 40, 70, 690 },
+				{ 1190, 20, 1240, 710 } };
+	}
+	
+	@Benchmark
+	public double[][] filterLines() {
+		return CornerGeometry.filter_lines(lines, WIDTH, HEIGHT);
+	}
+	
+	@Benchmark
+	public void findInterceptPoints(Blackhole blackhole) {
+		blackhole.consume(CornerGeometry.find_intercept_point(edgeLines[0], edgeLines[2]));
+		blackhole.consume(CornerGeometry.find_intercept_point(edgeLines[0], edgeLines[3]));
+		blackhole.consume(CornerGeometry.find_intercept_point(edgeLines[1], edgeLines[3]));
+		blackhole.consume(CornerGeometry.find_intercept_point(edgeLines[1], edgeLines[2]));
+	}
+	
+}
@@ -0,0 +1,140 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.hu_berlin.informatik.spws2014.mapever.entzerrung.CornerGeometry;
+import de.hu_berlin.informatik.spws2014.mapever.entzerrung.ParallelWarp;
+import de.hu_berlin.informatik.spws2014.mapever.entzerrung.PerspectiveWarp;
+
+/**
+ * Entzerrung eines Bildes wie in JumbledImage.transform() (ohne die Umwandlung von und in Bitmaps) und Sortierung
+ * der Eckpunkte wie in JumbledImage.sort_corners(). transformPerPixel() ist zum Vergleich die Entzerrung mit
+ * vollständiger Abbildung jedes Pixels (PerspectiveWarp.warp_per_pixel(), gleiches Ergebnis), transformParallel()
+ * die auf alle Kerne verteilte Entzerrung, die JumbledImage.transform() tatsächlich benutzt.
+ * transformBilinear() und transformBicubic() messen die interpolierenden Modi (Einstellung in Settings).
+ */
+@State(Scope.Benchmark)
+public class PerspectiveWarpBenchmark {
+	
+	// Kantenlänge des (quadratischen) Quellbilds in Pixeln
+	@Param({ "512", "1024", "2048" })
+	public int size;
+	
+	// Quellbild
+	private int[] srcPixels;
+	
+	// Eckpunkte (unsortiert, wie vom Benutzer gesetzt), relativ zur Bildgröße
+	private static final float[] RELATIVE_CORNERS = { 0.9f, 0.95f, 0.05f, 0.1f, 0.1f, 0.85f, 0.95f, 0.05f };
+	
+	private float[] unsortedCorners;
+	
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		
+		srcPixels = new int[size * size];
+		for (int i = 0; i < srcPixels.length; i++) {
+			srcPixels[i] = random.nextInt();
+		}
+		
+		unsortedCorners = new float[RELATIVE_CORNERS.length];
+		for (int i = 0; i < RELATIVE_CORNERS.length; i++) {
+			unsortedCorners[i] = RELATIVE_CORNERS[i] * size;
+		}
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int[] transform() {
+		float[] corners = unsortedCorners.clone();
+		CornerGeometry.sort_corners(corners);
+		
+		int[] destSize = PerspectiveWarp.get_destination_size(corners);
+		return PerspectiveWarp.warp(srcPixels, size, size, corners, destSize[0], destSize[1]);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int[] transformParallel() throws InterruptedException {
+		float[] corners = unsortedCorners.clone();
+		CornerGeometry.sort_corners(corners);
+		
+		int[] destSize = PerspectiveWarp.get_destination_size(corners);
+		return ParallelWarp.warp(srcPixels, size, size, corners, destSize[0], destSize[1],
+				PerspectiveWarp.INTERPOLATION_NEAREST, null);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int[] transformBilinear() {
+		float[] corners = unsortedCorners.clone();
+		CornerGeometry.sort_corners(corners);
+		
+		int[] destSize = PerspectiveWarp.get_destination_size(corners);
+		return PerspectiveWarp.warp(srcPixels, size, size, corners, destSize[0], destSize[1],
+				PerspectiveWarp.INTERPOLATION_BILINEAR);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int[] transformBicubic() {
+		float[] corners = unsortedCorners.clone();
+		CornerGeometry.sort_corners(corners);
+		
+		int[] destSize = PerspectiveWarp.get_destination_size(corners);
+		return PerspectiveWarp.warp(srcPixels, size, size, corners, destSize[0], destSize[1],
+				PerspectiveWarp.INTERPOLATION_BICUBIC);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int[] transformPerPixel() {
+		float[] corners = unsortedCorners.clone();
+		CornerGeometry.sort_corners(corners);
+		
+		int[] destSize = PerspectiveWarp.get_destination_size(corners);
+		return PerspectiveWarp.warp_per_pixel(srcPixels, size, size, corners, destSize[0], destSize[1]);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public float[] sortCorners() {
+		float[] corners = unsortedCorners.clone();
+		CornerGeometry.sort_corners(corners);
+		return corners;
+	}
+	
+}
@@ -0,0 +1,146 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.hu_berlin.informatik.spws2014.mapever.entzerrung.CornerGeometry;
+import de.hu_berlin.informatik.spws2014.mapever.entzerrung.ParallelWarp;
+import de.hu_berlin.informatik.spws2014.mapever.entzerrung.PerspectiveWarp;
+
+/**
+ * Vergleich der beiden Entzerrungs-Engines (siehe Rectifier): javaRectifier() rechnet wie JavaRectifier auf int[]
+ * (ParallelWarp), openCVRectifier() wie OpenCVRectifier mit Imgproc.warpPerspective() auf einer Mat. Die Umwandlung
+ * von und in Bitmaps (getPixels() bzw. Utils.bitmapToMat()) gibt es auf der JVM nicht und wird nicht gemessen.
+ * 
+ * Benötigt die native OpenCV-Bibliothek (opencv_java249) für den Desktop: entweder im java.library.path oder mit
+ * vollem Pfad in der Umgebungsvariable OPENCV_JAVA_LIBRARY.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RectifierBenchmark {
+	
+	// Kantenlänge des (quadratischen) Quellbilds in Pixeln
+	@Param({ "1024", "2048" })
+	public int size;
+	
+	// PerspectiveWarp.INTERPOLATION_*
+	@Param({ "0", "1", "2" })
+	public int interpolation;
+	
+	// Eckpunkte relativ zur Bildgröße (wie in PerspectiveWarpBenchmark)
+	private static final float[] RELATIVE_CORNERS = { 0.9f, 0.95f, 0.05f, 0.1f, 0.1f, 0.85f, 0.95f, 0.05f };
+	
+	// Quellbild als ARGB-Pixel und als Mat (RGBA, wie von Utils.bitmapToMat())
+	private int[] srcPixels;
+	private Mat srcMat;
+	private Mat destMat;
+	
+	// sortierte Eckpunkte und Zielgröße
+	private float[] corners;
+	private int[] destSize;
+	
+	// Homographie für warpPerspective(), wie in OpenCVRectifier
+	private Mat transform;
+	private int flags;
+	
+	
+	@Setup
+	public void setup() {
+		String library = System.getenv("OPENCV_JAVA_LIBRARY");
+		if (library != null) {
+			System.load(library);
+		}
+		else {
+			System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		}
+		
+		Random random = new Random(42);
+		
+		srcPixels = new int[size * size];
+		ByteBuffer rgba = ByteBuffer.allocate(size * size * 4).order(ByteOrder.BIG_ENDIAN);
+		for (int i = 0; i < srcPixels.length; i++) {
+			srcPixels[i] = random.nextInt();
+			rgba.putInt((srcPixels[i] << 8) | (srcPixels[i] >>> 24));
+		}
+		
+		srcMat = new Mat(size, size, CvType.CV_8UC4);
+		srcMat.put(0, 0, rgba.array());
+		destMat = new Mat();
+		
+		corners = new float[RELATIVE_CORNERS.length];
+		for (int i = 0; i < RELATIVE_CORNERS.length; i++) {
+			corners[i] = RELATIVE_CORNERS[i] * size;
+		}
+		CornerGeometry.sort_corners(corners);
+		destSize = PerspectiveWarp.get_destination_size(corners);
+		
+		MatOfPoint2f rectPoints = new MatOfPoint2f(new Point(-0.5, -0.5), new Point(destSize[0] - 0.5, -0.5),
+				new Point(destSize[0] - 0.5, destSize[1] - 0.5), new Point(-0.5, destSize[1] - 0.5));
+		MatOfPoint2f quadPoints = new MatOfPoint2f(new Point(corners[0] - 0.5, corners[1] - 0.5),
+				new Point(corners[2] - 0.5, corners[3] - 0.5), new Point(corners[4] - 0.5, corners[5] - 0.5),
+				new Point(corners[6] - 0.5, corners[7] - 0.5));
+		transform = Imgproc.getPerspectiveTransform(rectPoints, quadPoints);
+		
+		flags = interpolation == PerspectiveWarp.INTERPOLATION_BICUBIC ? Imgproc.INTER_CUBIC
+				: interpolation == PerspectiveWarp.INTERPOLATION_BILINEAR ? Imgproc.INTER_LINEAR
+						: Imgproc.INTER_NEAREST;
+		flags |= Imgproc.WARP_INVERSE_MAP;
+	}
+	
+	@TearDown
+	public void tearDown() {
+		srcMat.release();
+		destMat.release();
+		transform.release();
+	}
+	
+	@Benchmark
+	public int[] javaRectifier() throws InterruptedException {
+		return ParallelWarp.warp(srcPixels, size, size, corners, destSize[0], destSize[1], interpolation, null);
+	}
+	
+	@Benchmark
+	public Mat openCVRectifier() {
+		Imgproc.warpPerspective(srcMat, destMat, transform, new Size(destSize[0], destSize[1]), flags,
+				Imgproc.BORDER_REPLICATE, new Scalar(0));
+		return destMat;
+	}
+	
+}
@@ -0,0 +1,97 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.hu_berlin.informatik.spws2014.mapever.largeimageview.SampleSizeCalculator;
+
+/**
+ * Samplesize-Berechnung der LargeImageView (LargeImageView.calculateSampleSize()) und der Thumbnails
+ * (Thumbnail.get_best_sample_size()), jeweils für eine Folge verschiedener Eingaben.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SampleSizeBenchmark {
+	
+	// Anzahl der Eingaben pro Aufruf
+	private static final int INPUTS = 1024;
+	
+	// Zoomstufen, wie sie beim Pinch-Zoom nacheinander auftreten
+	private final float[] scales = new float[INPUTS];
+	
+	// Bildgrößen für die Thumbnails
+	private final int[] imageWidths = new int[INPUTS];
+	private final int[] imageHeights = new int[INPUTS];
+	
+	
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		
+		float scale = 1;
+		for (int i = 0; i < INPUTS; i++) {
+			scale = Math.max(1 / 40f, Math.min(4, scale * (0.9f + 0.2f * random.nextFloat())));
+			scales[i] = scale;
+			
+			imageWidths[i] = 640 + random.nextInt(8000);
+			imageHeights[i] = 480 + random.nextInt(6000);
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(INPUTS)
+	public int calculateSampleSize() {
+		int sum = 0;
+		for (int i = 0; i < INPUTS; i++) {
+			sum += SampleSizeCalculator.calculateSampleSize(scales[i]);
+		}
+		return sum;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(INPUTS)
+	public int calculateSampleSizeWithHysteresis() {
+		int sampleSize = 1;
+		for (int i = 0; i < INPUTS; i++) {
+			sampleSize = SampleSizeCalculator.calculateSampleSize(scales[i], sampleSize);
+		}
+		return sampleSize;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(INPUTS)
+	public int calculateThumbnailSampleSize() {
+		int sum = 0;
+		for (int i = 0; i < INPUTS; i++) {
+			sum += SampleSizeCalculator.calculateThumbnailSampleSize(imageWidths[i], imageHeights[i], 128, 128);
+		}
+		return sum;
+	}
+	
+}
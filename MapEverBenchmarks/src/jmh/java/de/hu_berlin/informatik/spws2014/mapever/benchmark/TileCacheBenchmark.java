@@ -0,0 +1,124 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.hu_berlin.informatik.spws2014.mapever.largeimageview.LongLruCache;
+import de.hu_berlin.informatik.spws2014.mapever.largeimageview.TileKey;
+
+/**
+ * Nachschlagen von Tiles wie in CachedImage.getTileBitmap(): Key aus (x, y, sampleSize) packen und im LRU-Cache
+ * suchen bzw. bei einem Miss einfügen (mit Verdrängung). Statt Bitmaps werden Platzhalter-Objekte mit fester Größe
+ * gespeichert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TileCacheBenchmark {
+	
+	// Tilegröße wie in CachedImage
+	private static final int TILESIZE = 512;
+	
+	// Größe eines Tiles in KB (ARGB_8888)
+	private static final int TILE_KB = TILESIZE * TILESIZE * 4 / 1024;
+	
+	// Sichtbare Tiles pro Frame (Bildschirm 1920x1080, 5x3 Tiles)
+	private static final int VISIBLE_TILES_X = 5;
+	private static final int VISIBLE_TILES_Y = 3;
+	private static final int VISIBLE_TILES = VISIBLE_TILES_X * VISIBLE_TILES_Y;
+	
+	// Cache für 24 Tiles (ca. 24 MB)
+	private final LongLruCache<Object> cache = new LongLruCache<Object>(24 * TILE_KB) {
+		@Override
+		protected int sizeOf(long key, Object value) {
+			return TILE_KB;
+		}
+	};
+	
+	private final Object tile = new Object();
+	
+	// Aktuelle Pan-Position in Tiles (für den Benchmark mit Verdrängung)
+	private int panTileX = 0;
+	
+	
+	@Setup
+	public void setup() {
+		cache.evictAll();
+		
+		for (int y = 0; y < VISIBLE_TILES_Y; y++) {
+			for (int x = 0; x < VISIBLE_TILES_X; x++) {
+				cache.put(TileKey.pack(x * TILESIZE, y * TILESIZE, 1), tile);
+			}
+		}
+	}
+	
+	/**
+	 * Ein Frame ohne Panning: alle sichtbaren Tiles liegen im Cache.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(VISIBLE_TILES)
+	public int visibleTilesHit() {
+		int found = 0;
+		
+		for (int y = 0; y < VISIBLE_TILES_Y; y++) {
+			for (int x = 0; x < VISIBLE_TILES_X; x++) {
+				if (cache.get(TileKey.pack(x * TILESIZE, y * TILESIZE, 1)) != null) {
+					found++;
+				}
+			}
+		}
+		
+		return found;
+	}
+	
+	/**
+	 * Ein Frame mit Panning um ein Tile nach rechts: eine neue Spalte muss eingefügt werden, sobald der Cache voll
+	 * ist, werden alte Tiles verdrängt.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(VISIBLE_TILES)
+	public int panOneTileWithEviction() {
+		int found = 0;
+		panTileX++;
+		
+		for (int y = 0; y < VISIBLE_TILES_Y; y++) {
+			for (int x = panTileX; x < panTileX + VISIBLE_TILES_X; x++) {
+				long key = TileKey.pack((x % 100000) * TILESIZE, y * TILESIZE, 1);
+				
+				if (cache.get(key) != null) {
+					found++;
+				}
+				else {
+					cache.put(key, tile);
+				}
+			}
+		}
+		
+		return found;
+	}
+	
+}
@@ -0,0 +1,145 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.hu_berlin.informatik.spws2014.mapever.largeimageview.TileScheduler;
+
+/**
+ * Generieren der Tiles eines Bildschirms mit dem TileScheduler aus CachedImage, mit einem Fake-Decoder, der statt
+ * zu dekodieren eine feste Zeit rechnet. Gemessen wird, bis alle sichtbaren Tiles fertig sind: visibleTiles() für
+ * einen Bildschirm, panAfterRequests() nach einem Pan um einen Bildschirm, während die Tiles des alten noch warten
+ * (diese sollten verworfen werden, statt die neuen aufzuhalten).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TileSchedulerBenchmark {
+	
+	// Tilegröße wie in CachedImage
+	private static final int TILESIZE = 512;
+	
+	// Sichtbare Tiles (Bildschirm 1920x1080, 5x3 Tiles)
+	private static final int VISIBLE_TILES_X = 5;
+	private static final int VISIBLE_TILES_Y = 3;
+	
+	// Rechenaufwand des Fake-Decoders pro Tile (Blackhole.consumeCPU(), knapp 1 ms)
+	private static final long DECODE_TOKENS = 300000;
+	
+	@Param({ "1", "2", "4" })
+	public int workerCount;
+	
+	private TileScheduler<Object> scheduler;
+	
+	private final Object tile = new Object();
+	
+	// Linke Kante (in Tiles) des Bildschirms, dessen Tiles gezählt werden, und Zähler für diese Tiles
+	private volatile int targetTileX;
+	private volatile CountDownLatch remainingTiles;
+	
+	// Aktuelle Pan-Position in Tiles
+	private int panTileX = 0;
+	
+	
+	@Setup
+	public void setup() {
+		scheduler = new TileScheduler<Object>(workerCount, TILESIZE, new TileScheduler.TileDecoder<Object>() {
+			@Override
+			public Object decodeTile(int x, int y, int sampleSize) {
+				Blackhole.consumeCPU(DECODE_TOKENS);
+				return tile;
+			}
+		}, new TileScheduler.TileListener<Object>() {
+			@Override
+			public void onTileDecoded(int x, int y, int sampleSize, Object decoded) {
+				if (x >= targetTileX * TILESIZE) {
+					remainingTiles.countDown();
+				}
+			}
+		});
+	}
+	
+	@TearDown
+	public void tearDown() {
+		scheduler.shutdown();
+	}
+	
+	/**
+	 * Wartet, bis die (verworfenen oder noch laufenden) Tiles der letzten Messung fertig sind.
+	 */
+	@Setup(Level.Invocation)
+	public void waitUntilIdle() throws InterruptedException {
+		while (scheduler.getPendingCount() > 0) {
+			Thread.sleep(1);
+		}
+		
+		// (Tilekoordinaten dürfen nicht überlaufen)
+		if (panTileX > 100000) {
+			panTileX = 0;
+		}
+	}
+	
+	@Benchmark
+	public void visibleTiles() throws InterruptedException {
+		panTileX += VISIBLE_TILES_X;
+		
+		requestScreen(panTileX);
+		remainingTiles.await();
+	}
+	
+	@Benchmark
+	public void panAfterRequests() throws InterruptedException {
+		panTileX += 2 * VISIBLE_TILES_X;
+		
+		requestScreen(panTileX - VISIBLE_TILES_X);
+		requestScreen(panTileX);
+		remainingTiles.await();
+	}
+	
+	/**
+	 * Setzt den Viewport auf den Bildschirm ab Tile leftTileX und fordert dessen Tiles an (wie
+	 * CachedImage.setViewport() und getTileBitmap() in onDraw).
+	 */
+	private void requestScreen(int leftTileX) {
+		int left = leftTileX * TILESIZE;
+		
+		targetTileX = leftTileX;
+		remainingTiles = new CountDownLatch(VISIBLE_TILES_X * VISIBLE_TILES_Y);
+		scheduler.setViewport(left, 0, left + VISIBLE_TILES_X * TILESIZE, VISIBLE_TILES_Y * TILESIZE, 1);
+		
+		for (int y = 0; y < VISIBLE_TILES_Y; y++) {
+			for (int x = 0; x < VISIBLE_TILES_X; x++) {
+				scheduler.requestTile(left + x * TILESIZE, y * TILESIZE, 1);
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,216 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Vergleicht LongLruCache mit einem LinkedHashMap-Modell (in Zugriffsreihenfolge) und prüft, dass get() (wie in
+ * CachedImage.getTileBitmap() bei jedem Frame) keine Objekte erzeugt.
+ */
+public class LongLruCacheTest {
+	
+	// Anzahl zufälliger Operationen für den Modellvergleich
+	private static final int OPERATIONS = 20000;
+	
+	// Anzahl verschiedener Keys (klein genug, dass es viele Treffer gibt, groß genug für Verdrängungen und
+	// Vergrößerungen der Hashtabelle)
+	private static final int KEY_COUNT = 200;
+	
+	// Aufrufe von get() für den Speichertest (vorher ebenso viele zum Aufwärmen)
+	private static final int GET_CALLS = 120000;
+	
+	// Erlaubte Allokation während aller GET_CALLS Aufrufe (für die Messung selbst, weit unter einem Objekt je Aufruf)
+	private static final long MAX_ALLOCATED_BYTES = 1024;
+	
+	/**
+	 * Cache, dessen Einträge je nach Wert unterschiedlich groß sind und der verdrängte Keys protokolliert.
+	 */
+	private static class RecordingCache extends LongLruCache<Integer> {
+		final ArrayList<Long> evictedKeys = new ArrayList<Long>();
+		
+		RecordingCache(int maxSize) {
+			super(maxSize);
+		}
+		
+		@Override
+		protected int sizeOf(long key, Integer value) {
+			return sizeOfValue(value);
+		}
+		
+		@Override
+		protected void entryRemoved(boolean evicted, long key, Integer oldValue, Integer newValue) {
+			if (evicted) {
+				evictedKeys.add(key);
+			}
+		}
+	}
+	
+	private static int sizeOfValue(Integer value) {
+		return value % 5;
+	}
+	
+	private static long keyFor(int index) {
+		return TileKey.pack((index % 20) * 512, (index / 20) * 512, 1 << (index % 4));
+	}
+	
+	
+	@Test
+	public void matchesLinkedHashMapModel() {
+		Random random = new Random(42);
+		
+		int maxSize = 100;
+		RecordingCache cache = new RecordingCache(maxSize);
+		
+		LinkedHashMap<Long, Integer> model = new LinkedHashMap<Long, Integer>(16, 0.75f, true);
+		ArrayList<Long> modelEvictedKeys = new ArrayList<Long>();
+		int modelSize = 0;
+		
+		for (int operation = 0; operation < OPERATIONS; operation++) {
+			long key = keyFor(random.nextInt(KEY_COUNT));
+			int choice = random.nextInt(100);
+			
+			if (choice < 45) {
+				assertEquals(model.get(key), cache.get(key));
+			}
+			else if (choice < 85) {
+				Integer value = random.nextInt(1000);
+				Integer previous = model.put(key, value);
+				
+				if (previous != null) {
+					modelSize -= sizeOfValue(previous);
+				}
+				modelSize += sizeOfValue(value);
+				modelSize = trimModel(model, modelSize, maxSize, modelEvictedKeys);
+				
+				assertEquals(previous, cache.put(key, value));
+			}
+			else if (choice < 97) {
+				Integer previous = model.remove(key);
+				
+				if (previous != null) {
+					modelSize -= sizeOfValue(previous);
+				}
+				
+				assertEquals(previous, cache.remove(key));
+			}
+			else {
+				maxSize = 20 + random.nextInt(200);
+				modelSize = trimModel(model, modelSize, maxSize, modelEvictedKeys);
+				cache.resize(maxSize);
+			}
+			
+			assertEquals(model.size(), cache.entryCount());
+			assertEquals(modelSize, cache.size());
+			assertEquals(modelEvictedKeys, cache.evictedKeys);
+		}
+		
+		// Alle Werte vergleichen (peek() und die Iteration ändern die Reihenfolge nicht) ...
+		for (Map.Entry<Long, Integer> entry : model.entrySet()) {
+			assertEquals(entry.getValue(), cache.peek(entry.getKey()));
+		}
+		
+		// ... und die LRU-Reihenfolge über die Verdrängung aller Einträge
+		ArrayList<Long> expectedOrder = new ArrayList<Long>(model.keySet());
+		cache.evictedKeys.clear();
+		cache.evictAll();
+		
+		assertEquals(expectedOrder, cache.evictedKeys);
+		assertEquals(0, cache.size());
+		assertNull(cache.get(keyFor(0)));
+	}
+	
+	/**
+	 * Verdrängt die ältesten Einträge des Modells, bis modelSize höchstens maxSize ist, und gibt die neue Größe
+	 * zurück.
+	 */
+	private static int trimModel(LinkedHashMap<Long, Integer> model, int modelSize, int maxSize,
+			ArrayList<Long> evictedKeys) {
+		Iterator<Map.Entry<Long, Integer>> iterator = model.entrySet().iterator();
+		
+		while (modelSize > maxSize && iterator.hasNext()) {
+			Map.Entry<Long, Integer> eldest = iterator.next();
+			modelSize -= sizeOfValue(eldest.getValue());
+			evictedKeys.add(eldest.getKey());
+			iterator.remove();
+		}
+		
+		return modelSize;
+	}
+	
+	@Test
+	public void getAllocatesNothing() {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+		
+		// Sichtbare Tiles eines Bildschirms (5x3) wie in TileCacheBenchmark
+		LongLruCache<Object> cache = new LongLruCache<Object>(24);
+		Object tile = new Object();
+		
+		for (int y = 0; y < 3; y++) {
+			for (int x = 0; x < 5; x++) {
+				cache.put(TileKey.pack(x * 512, y * 512, 1), tile);
+			}
+		}
+		
+		// Aufwärmen (JIT), dann messen
+		int found = lookUpTiles(cache);
+		
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+		found += lookUpTiles(cache);
+		long allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		
+		// (jeder sechste Aufruf ist ein Fehlschlag)
+		assertEquals(2 * (GET_CALLS - GET_CALLS / 6), found);
+		assertTrue("get() allocated " + allocated + " bytes in " + GET_CALLS + " calls",
+				allocated <= MAX_ALLOCATED_BYTES);
+	}
+	
+	/**
+	 * Ruft GET_CALLS mal get() auf (Treffer und Fehlschläge) und gibt die Anzahl der Treffer zurück.
+	 */
+	private static int lookUpTiles(LongLruCache<Object> cache) {
+		int found = 0;
+		
+		for (int i = 0; i < GET_CALLS; i++) {
+			// Spalte 5 liegt nicht im Cache
+			if (cache.get(TileKey.pack((i % 6) * 512, (i / 6 % 3) * 512, 1)) != null) {
+				found++;
+			}
+		}
+		
+		return found;
+	}
+	
+}
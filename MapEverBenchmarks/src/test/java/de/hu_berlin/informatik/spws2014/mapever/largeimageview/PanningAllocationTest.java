@@ -0,0 +1,244 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Prüft, dass gleichmäßiges Verschieben über bereits generierte Tiles keine Objekte erzeugt. Nachgestellt wird der
+ * Teil von LargeImageView.onDraw() und onDraw_cachedImage(), der ohne Android auskommt: Samplesize bestimmen,
+ * Viewport an den TileScheduler melden, sichtbare Tiles im Cache nachschlagen und die RenderMetrics erfassen.
+ * Außerdem werden pro Frame die Koordinatenumrechnungen aus {@link ViewTransform} aufgerufen, auf denen
+ * screenToImagePosition(), imageToScreenPosition(), get*Matrix(), das Zeichnen und Treffen der Overlay-Icons und
+ * das Rechteck in EntzerrungsView.onDraw() beruhen.
+ */
+public class PanningAllocationTest {
+	
+	// Tilegröße wie in CachedImage
+	private static final int TILESIZE = 512;
+	
+	// Bildschirmgröße und Zoom-Stufe (Samplesize 2)
+	private static final int SCREEN_WIDTH = 1920;
+	private static final int SCREEN_HEIGHT = 1080;
+	private static final float ZOOM_SCALE = 0.45f;
+	
+	// Bildgröße in Tiles der Samplesize 2 (alle liegen im Cache)
+	private static final int IMAGE_TILES = 16;
+	
+	// Verschiebung pro Frame in Bildschirmpixeln und Anzahl Frames (vorher ebenso viele zum Aufwärmen)
+	private static final int PAN_STEP = 7;
+	private static final int FRAMES = 3000;
+	
+	// Anzahl der Overlay-Icons und Ecken (wie in der EntzerrungsView)
+	private static final int ICONS = 64;
+	private static final int CORNERS = 4;
+	
+	// Erlaubte Allokation während aller FRAMES (für die Messung selbst, weit unter einem Objekt je Frame)
+	private static final long MAX_ALLOCATED_BYTES = 1024;
+	
+	private LongLruCache<Object> cache;
+	private TileScheduler<Object> scheduler;
+	
+	private int sampleSize = 1;
+	private float panX = 0;
+	
+	// Bildpositionen der Icons und Ecken sowie wiederverwendete Arrays (wie die Felder der Views)
+	private final float[] iconPositions = new float[2 * ICONS];
+	private final float[] cornerPositions = new float[2 * CORNERS];
+	private final float[] cornerScreenPoints = new float[2 * CORNERS];
+	private final float[] transformValues = new float[ViewTransform.MATRIX_VALUES];
+	
+	
+	@Before
+	public void setUp() {
+		cache = new LongLruCache<Object>(IMAGE_TILES * IMAGE_TILES);
+		Object tile = new Object();
+		
+		sampleSize = SampleSizeCalculator.calculateSampleSize(ZOOM_SCALE);
+		int tileExtent = TILESIZE * sampleSize;
+		
+		for (int y = 0; y < IMAGE_TILES; y++) {
+			for (int x = 0; x < IMAGE_TILES; x++) {
+				cache.put(TileKey.pack(x * tileExtent, y * tileExtent, sampleSize), tile);
+			}
+		}
+		
+		// Der Decoder darf nie aufgerufen werden, da alle sichtbaren Tiles im Cache liegen.
+		scheduler = new TileScheduler<Object>(1, TILESIZE, new TileScheduler.TileDecoder<Object>() {
+			@Override
+			public Object decodeTile(int x, int y, int sampleSize) {
+				throw new AssertionError("Tile " + x + "/" + y + " requested while panning over cached tiles");
+			}
+		}, new TileScheduler.TileListener<Object>() {
+			@Override
+			public void onTileDecoded(int x, int y, int sampleSize, Object decoded) {
+			}
+		});
+		
+		float imageSize = IMAGE_TILES * TILESIZE * sampleSize;
+		
+		for (int i = 0; i < 2 * ICONS; i++) {
+			iconPositions[i] = (i * 7919) % (int) imageSize;
+		}
+		
+		for (int i = 0; i < CORNERS; i++) {
+			cornerPositions[2 * i] = (i == 1 || i == 2) ? imageSize * 0.9f : imageSize * 0.1f;
+			cornerPositions[2 * i + 1] = (i >= 2) ? imageSize * 0.9f : imageSize * 0.1f;
+		}
+		
+		RenderMetrics.reset();
+		RenderMetrics.setEnabled(true);
+	}
+	
+	@After
+	public void tearDown() {
+		RenderMetrics.setEnabled(false);
+		RenderMetrics.reset();
+		scheduler.shutdown();
+	}
+	
+	@Test
+	public void steadyPanningAllocatesNothing() {
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+		
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+		allocationBean.setThreadAllocatedMemoryEnabled(true);
+		
+		// Aufwärmen (JIT), dann messen
+		int missing = panFrames();
+		
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+		missing += panFrames();
+		long allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		
+		assertEquals(0, missing);
+		assertEquals(0, scheduler.getPendingCount());
+		assertEquals(2 * FRAMES, RenderMetrics.FRAMES.get());
+		assertTrue("Panning allocated " + allocated + " bytes in " + FRAMES + " frames",
+				allocated <= MAX_ALLOCATED_BYTES);
+	}
+	
+	/**
+	 * Verschiebt den Ausschnitt FRAMES mal um PAN_STEP (hin und zurück, damit er im Bild bleibt) und gibt die Anzahl
+	 * der Tiles zurück, die nicht im Cache lagen.
+	 */
+	private int panFrames() {
+		int missing = 0;
+		float step = PAN_STEP / ZOOM_SCALE;
+		float maxPanX = IMAGE_TILES * TILESIZE * sampleSize - SCREEN_WIDTH / ZOOM_SCALE;
+		
+		for (int frame = 0; frame < FRAMES; frame++) {
+			long startTime = System.nanoTime();
+			
+			panX += step;
+			
+			if (panX < 0 || panX > maxPanX) {
+				step = -step;
+				panX += 2 * step;
+			}
+			
+			missing += drawFrame(panX, 0);
+			transformFrame(panX + SCREEN_WIDTH / 2 / ZOOM_SCALE, SCREEN_HEIGHT / 2 / ZOOM_SCALE);
+			
+			RenderMetrics.FRAMES.increment();
+			RenderMetrics.DRAW_TIME.recordNanos(System.nanoTime() - startTime);
+		}
+		
+		return missing;
+	}
+	
+	/**
+	 * Wie onDraw_cachedImage(): Ausschnitt links oben an imageLeft/imageTop (in Originalkoordinaten).
+	 */
+	private int drawFrame(float imageLeft, float imageTop) {
+		sampleSize = SampleSizeCalculator.calculateSampleSize(ZOOM_SCALE, sampleSize);
+		
+		// Viewport in Koordinaten der Samplesize
+		int viewportLeft = (int) (imageLeft / sampleSize);
+		int viewportTop = (int) (imageTop / sampleSize);
+		int viewportRight = viewportLeft + (int) (SCREEN_WIDTH / ZOOM_SCALE / sampleSize);
+		int viewportBottom = viewportTop + (int) (SCREEN_HEIGHT / ZOOM_SCALE / sampleSize);
+		
+		int margin = TILESIZE * sampleSize;
+		scheduler.setViewport(sampleSize * viewportLeft - margin, sampleSize * viewportTop - margin,
+				sampleSize * viewportRight + margin, sampleSize * viewportBottom + margin, sampleSize);
+		
+		int missing = 0;
+		int startX = viewportLeft - viewportLeft % TILESIZE;
+		int startY = viewportTop - viewportTop % TILESIZE;
+		
+		for (int x = startX; x <= viewportRight; x += TILESIZE) {
+			for (int y = startY; y <= viewportBottom; y += TILESIZE) {
+				if (cache.get(TileKey.pack(sampleSize * x, sampleSize * y, sampleSize)) != null) {
+					RenderMetrics.TILE_CACHE_HITS.increment();
+				}
+				else {
+					RenderMetrics.TILE_CACHE_MISSES.increment();
+					missing++;
+				}
+			}
+		}
+		
+		return missing;
+	}
+	
+	/**
+	 * Wie die Umrechnungen eines Frames in der LargeImageView und EntzerrungsView: Bildschirmbereiche der Icons
+	 * (getOverlayIconScreenBounds), Treffertest eines Touch-Punktes (findOverlayIconsAt, screenToImagePosition),
+	 * beide Matrizen und die Ecken des Entzerrungsrechtecks (imageToScreenPoints).
+	 */
+	private void transformFrame(float panCenterX, float panCenterY) {
+		if (!ViewTransform.isReady(panCenterX, panCenterY, SCREEN_WIDTH, SCREEN_HEIGHT)) {
+			throw new AssertionError("Transform not ready");
+		}
+		
+		for (int i = 0; i < ICONS; i++) {
+			float screenX = ViewTransform.imageToScreen(iconPositions[2 * i], panCenterX, ZOOM_SCALE, SCREEN_WIDTH);
+			float screenY = ViewTransform.imageToScreen(iconPositions[2 * i + 1], panCenterY, ZOOM_SCALE,
+					SCREEN_HEIGHT);
+			
+			// Zurückrechnen wie beim Treffertest
+			float imageX = ViewTransform.screenToImage(screenX, panCenterX, ZOOM_SCALE, SCREEN_WIDTH);
+			float imageY = ViewTransform.screenToImage(screenY, panCenterY, ZOOM_SCALE, SCREEN_HEIGHT);
+			
+			if (Math.abs(imageX - iconPositions[2 * i]) > 1 || Math.abs(imageY - iconPositions[2 * i + 1]) > 1) {
+				throw new AssertionError("Round trip of icon " + i + " failed");
+			}
+		}
+		
+		ViewTransform.getImageToScreenValues(panCenterX, panCenterY, ZOOM_SCALE, SCREEN_WIDTH, SCREEN_HEIGHT,
+				transformValues);
+		ViewTransform.getScreenToImageValues(panCenterX, panCenterY, ZOOM_SCALE, SCREEN_WIDTH, SCREEN_HEIGHT,
+				transformValues);
+		
+		System.arraycopy(cornerPositions, 0, cornerScreenPoints, 0, cornerPositions.length);
+		ViewTransform.imageToScreenPoints(cornerScreenPoints, panCenterX, panCenterY, ZOOM_SCALE, SCREEN_WIDTH,
+				SCREEN_HEIGHT);
+	}
+	
+}
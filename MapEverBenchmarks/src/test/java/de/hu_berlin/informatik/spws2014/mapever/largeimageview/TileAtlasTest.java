@@ -0,0 +1,175 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Prüft die Slotverwaltung des Texturatlas so, wie AtlasTileRenderer sie pro Frame benutzt (findSlot(), bei
+ * Fehlschlag allocateSlot()): Lage der Slots, LRU-Ersetzung, Schutz der Tiles des aktuellen Frames und die
+ * Beschränkung der Atlasänderungen (Texturuploads) auf eine pro Intervall.
+ */
+public class TileAtlasTest {
+	
+	private static final int TILESIZE = 256;
+	private static final long UPLOAD_INTERVAL = 1000;
+	
+	private static long key(int column, int row) {
+		return TileKey.pack(column * TILESIZE, row * TILESIZE, 1);
+	}
+	
+	/**
+	 * Zeichnet einen Frame wie AtlasTileRenderer.drawTile() und gibt die Slots der Tiles zurück (-1 = direkt
+	 * gezeichnet).
+	 */
+	private static int[] drawFrame(TileAtlas atlas, long time, long... keys) {
+		atlas.beginFrame(time);
+		int[] slots = new int[keys.length];
+		
+		for (int i = 0; i < keys.length; i++) {
+			slots[i] = atlas.findSlot(keys[i]);
+			
+			if (slots[i] == -1) {
+				slots[i] = atlas.allocateSlot(keys[i], TILESIZE, TILESIZE);
+			}
+		}
+		
+		return slots;
+	}
+	
+	@Test
+	public void slotsTileTheAtlas() {
+		TileAtlas atlas = new TileAtlas(3, 2, TILESIZE, 0);
+		
+		assertEquals(3 * TILESIZE, atlas.getWidth());
+		assertEquals(2 * TILESIZE, atlas.getHeight());
+		assertEquals(6, atlas.getSlotCount());
+		
+		atlas.beginFrame(0);
+		
+		for (int slot = 0; slot < atlas.getSlotCount(); slot++) {
+			// Randtiles sind kleiner als ein Slot
+			assertEquals(slot, atlas.allocateSlot(key(slot, 0), TILESIZE - slot, TILESIZE));
+			assertEquals((slot % 3) * TILESIZE, atlas.getSlotLeft(slot));
+			assertEquals((slot / 3) * TILESIZE, atlas.getSlotTop(slot));
+			assertEquals(TILESIZE - slot, atlas.getSlotWidth(slot));
+			assertEquals(TILESIZE, atlas.getSlotHeight(slot));
+		}
+		
+		for (int slot = 0; slot < atlas.getSlotCount(); slot++) {
+			assertEquals(slot, atlas.findSlot(key(slot, 0)));
+		}
+	}
+	
+	@Test
+	public void residentTilesAreNotCopiedAgain() {
+		TileAtlas atlas = new TileAtlas(2, 2, TILESIZE, 0);
+		long[] keys = { key(0, 0), key(1, 0), key(0, 1), key(1, 1) };
+		
+		int[] first = drawFrame(atlas, 0, keys);
+		
+		for (int frame = 1; frame <= 100; frame++) {
+			int[] slots = drawFrame(atlas, frame * 16, keys);
+			
+			for (int i = 0; i < keys.length; i++) {
+				assertEquals(first[i], slots[i]);
+			}
+		}
+		
+		assertEquals(4, atlas.getUploadCount());
+		assertEquals(1, atlas.getUploadFrameCount());
+		assertEquals(400, atlas.getHitCount());
+	}
+	
+	@Test
+	public void replacesLeastRecentlyUsedSlot() {
+		TileAtlas atlas = new TileAtlas(2, 1, TILESIZE, 0);
+		
+		int[] slots = drawFrame(atlas, 0, key(0, 0), key(1, 0));
+		drawFrame(atlas, 1, key(0, 0));
+		
+		// key(1, 0) wurde am längsten nicht benutzt
+		assertEquals(slots[1], drawFrame(atlas, 2, key(2, 0))[0]);
+		assertEquals(-1, atlas.findSlot(key(1, 0)));
+		assertEquals(slots[0], atlas.findSlot(key(0, 0)));
+	}
+	
+	@Test
+	public void tilesOfCurrentFrameAreNotReplaced() {
+		TileAtlas atlas = new TileAtlas(2, 1, TILESIZE, 0);
+		
+		int[] slots = drawFrame(atlas, 0, key(0, 0), key(1, 0), key(2, 0));
+		
+		// Drittes Tile passt nicht mehr und wird direkt gezeichnet, die ersten beiden bleiben im Atlas
+		assertTrue(slots[0] != -1 && slots[1] != -1);
+		assertEquals(-1, slots[2]);
+		assertEquals(slots[0], atlas.findSlot(key(0, 0)));
+		assertEquals(slots[1], atlas.findSlot(key(1, 0)));
+	}
+	
+	@Test
+	public void uploadsAtMostOncePerInterval() {
+		TileAtlas atlas = new TileAtlas(4, 4, TILESIZE, UPLOAD_INTERVAL);
+		
+		// Erster Frame nimmt alle Tiles auf einmal auf
+		int[] slots = drawFrame(atlas, 5000, key(0, 0), key(1, 0));
+		assertTrue(slots[0] != -1 && slots[1] != -1);
+		
+		// Beim Pannen hinzukommende Tiles werden bis zum Ablauf des Intervalls direkt gezeichnet, ...
+		for (long time = 5016; time < 5000 + UPLOAD_INTERVAL; time += 16) {
+			slots = drawFrame(atlas, time, key(0, 0), key(1, 0), key(2, 0), key(3, 0));
+			assertTrue(slots[0] != -1 && slots[1] != -1);
+			assertEquals(-1, slots[2]);
+			assertEquals(-1, slots[3]);
+			assertFalse(atlas.canUpload());
+		}
+		
+		// ... danach in einem einzigen Frame aufgenommen
+		slots = drawFrame(atlas, 5000 + UPLOAD_INTERVAL, key(0, 0), key(1, 0), key(2, 0), key(3, 0));
+		
+		for (int slot : slots) {
+			assertTrue(slot != -1);
+		}
+		
+		assertEquals(4, atlas.getUploadCount());
+		assertEquals(2, atlas.getUploadFrameCount());
+	}
+	
+	@Test
+	public void clearAllowsImmediateUpload() {
+		TileAtlas atlas = new TileAtlas(2, 2, TILESIZE, UPLOAD_INTERVAL);
+		
+		drawFrame(atlas, 0, key(0, 0));
+		atlas.clear();
+		
+		// Neues Bild: sofort aufnehmen, alte Tiles sind vergessen
+		assertTrue(drawFrame(atlas, 16, key(1, 1))[0] != -1);
+		assertEquals(-1, atlas.findSlot(key(0, 0)));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTilesLargerThanSlot() {
+		TileAtlas atlas = new TileAtlas(2, 2, TILESIZE, 0);
+		atlas.beginFrame(0);
+		atlas.allocateSlot(key(0, 0), TILESIZE + 1, TILESIZE);
+	}
+	
+}
@@ -0,0 +1,102 @@
+/* Copyright (C) 2014,2015  Björn Stelter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+package de.hu_berlin.informatik.spws2014.mapever.largeimageview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Prüft die Umrechnungen zwischen Bild- und Bildschirmkoordinaten: Umkehrbarkeit, Übereinstimmung der Matrizen mit
+ * den Einzelumrechnungen und die Position des Pan-Centers in der Mitte der View.
+ */
+public class ViewTransformTest {
+	
+	private static final float PAN_X = 1234.5f;
+	private static final float PAN_Y = 678.25f;
+	private static final float ZOOM = 0.37f;
+	private static final int WIDTH = 1081;
+	private static final int HEIGHT = 1920;
+	
+	private static final float EPSILON = 0.01f;
+	
+	@Test
+	public void panCenterIsInViewCenter() {
+		assertEquals(WIDTH / 2, ViewTransform.imageToScreen(PAN_X, PAN_X, ZOOM, WIDTH), EPSILON);
+		assertEquals(HEIGHT / 2, ViewTransform.imageToScreen(PAN_Y, PAN_Y, ZOOM, HEIGHT), EPSILON);
+		assertEquals(PAN_X, ViewTransform.screenToImage(WIDTH / 2, PAN_X, ZOOM, WIDTH), EPSILON);
+	}
+	
+	@Test
+	public void screenToImageInvertsImageToScreen() {
+		for (float image = -500; image < 5000; image += 37.3f) {
+			float screen = ViewTransform.imageToScreen(image, PAN_X, ZOOM, WIDTH);
+			assertEquals(image, ViewTransform.screenToImage(screen, PAN_X, ZOOM, WIDTH), EPSILON);
+		}
+	}
+	
+	@Test
+	public void matricesMatchSingleTransforms() {
+		float[] imageToScreen = new float[ViewTransform.MATRIX_VALUES];
+		float[] screenToImage = new float[ViewTransform.MATRIX_VALUES];
+		ViewTransform.getImageToScreenValues(PAN_X, PAN_Y, ZOOM, WIDTH, HEIGHT, imageToScreen);
+		ViewTransform.getScreenToImageValues(PAN_X, PAN_Y, ZOOM, WIDTH, HEIGHT, screenToImage);
+		
+		float x = 321.5f;
+		float y = 4567.75f;
+		
+		assertEquals(ViewTransform.imageToScreen(x, PAN_X, ZOOM, WIDTH), mapX(imageToScreen, x, y), EPSILON);
+		assertEquals(ViewTransform.imageToScreen(y, PAN_Y, ZOOM, HEIGHT), mapY(imageToScreen, x, y), EPSILON);
+		assertEquals(ViewTransform.screenToImage(x, PAN_X, ZOOM, WIDTH), mapX(screenToImage, x, y), EPSILON);
+		assertEquals(ViewTransform.screenToImage(y, PAN_Y, ZOOM, HEIGHT), mapY(screenToImage, x, y), EPSILON);
+	}
+	
+	@Test
+	public void pointListMatchesSingleTransforms() {
+		float[] points = { 0, 0, 100, 200, 4000.5f, 3000.25f };
+		float[] expected = new float[points.length];
+		
+		for (int i = 0; i < points.length; i += 2) {
+			expected[i] = ViewTransform.imageToScreen(points[i], PAN_X, ZOOM, WIDTH);
+			expected[i + 1] = ViewTransform.imageToScreen(points[i + 1], PAN_Y, ZOOM, HEIGHT);
+		}
+		
+		ViewTransform.imageToScreenPoints(points, PAN_X, PAN_Y, ZOOM, WIDTH, HEIGHT);
+		
+		for (int i = 0; i < points.length; i++) {
+			assertEquals(expected[i], points[i], EPSILON);
+		}
+	}
+	
+	@Test
+	public void notReadyWithoutPanOrSize() {
+		assertTrue(ViewTransform.isReady(PAN_X, PAN_Y, WIDTH, HEIGHT));
+		assertFalse(ViewTransform.isReady(Float.NaN, PAN_Y, WIDTH, HEIGHT));
+		assertFalse(ViewTransform.isReady(PAN_X, PAN_Y, 0, HEIGHT));
+	}
+	
+	private static float mapX(float[] m, float x, float y) {
+		return m[0] * x + m[1] * y + m[2];
+	}
+	
+	private static float mapY(float[] m, float x, float y) {
+		return m[3] * x + m[4] * y + m[5];
+	}
+	
+}